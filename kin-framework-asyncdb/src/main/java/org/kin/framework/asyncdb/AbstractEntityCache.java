@@ -6,12 +6,12 @@ import org.kin.framework.utils.HashUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.Objects;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -27,21 +27,33 @@ public abstract class AbstractEntityCache<PK extends Serializable, E extends Asy
     private final ReentrantLock[] locks;
     /** entity缓存 */
     private final Cache<PK, E> cache;
+    /** 堆外entity存储, 存放从堆内缓存淘汰的entity, 可为null */
+    private final OffHeapEntityStore<PK> offHeap;
     /** 实体类 */
     protected final Class<E> entityClass;
     /** 正在delete的db entity */
     private final Map<PK, E> removing = new ConcurrentHashMap<>();
+    /** 正在加载的db entity, 同一主键同时只有一个线程从数据库加载, 其余线程等待其结果 */
+    private final ConcurrentMap<PK, CompletableFuture<E>> loading = new ConcurrentHashMap<>();
     /** 实体类对应的{@link DbSynchronzier} */
     @Autowired
     private S dbSynchronzier;
 
-    @SuppressWarnings("unchecked")
     protected AbstractEntityCache(Cache<PK, E> cache) {
+        this(cache, null);
+    }
+
+    /**
+     * @param offHeap 堆外entity存储, cache需将淘汰的entity写入其中
+     */
+    @SuppressWarnings("unchecked")
+    AbstractEntityCache(Cache<PK, E> cache, OffHeapEntityStore<PK> offHeap) {
         locks = new ReentrantLock[8];
         for (int i = 0; i < locks.length; i++) {
             locks[i] = new ReentrantLock();
         }
         this.cache = cache;
+        this.offHeap = offHeap;
 
         List<Class<?>> genericTypes = ClassUtils.getSuperClassGenericActualTypes(getClass());
         entityClass = (Class<E>) genericTypes.get(1);
@@ -56,34 +68,169 @@ public abstract class AbstractEntityCache<PK extends Serializable, E extends Asy
 
     /**
      * 获取db entity
+     * 缓存没有, 则从堆外存储或者数据库加载, 同一主键并发加载只会查询一次数据库, 且不会阻塞其他主键的加载
      *
      * @param pk 主键
      * @return db entity
      */
-    @SuppressWarnings("unchecked")
     public E load(PK pk, Object... args) {
         E cachedEntity = loadFromCache(pk);
         if (Objects.nonNull(cachedEntity)) {
             return cachedEntity;
         }
 
-        //此处有锁
-        ReentrantLock lock = getLock(pk);
-        lock.lock();
-        try {
-            E entity = loadFromDb(pk);
-            if (Objects.isNull(entity) || removing.containsKey(pk)) {
-                //删除操作还没入库, 但在队列中, 仍然new db entity
-                entity = initEntity(pk, args);
-                entity.insert();
+        CompletableFuture<E> future = new CompletableFuture<>();
+        CompletableFuture<E> inflight = loading.putIfAbsent(pk, future);
+        if (Objects.nonNull(inflight)) {
+            //其他线程正在加载
+            return join(inflight);
+        }
 
-                removing.remove(pk);
+        try {
+            //double check, 避免覆盖刚加载完的db entity
+            E entity = loadFromCache(pk);
+            if (Objects.isNull(entity)) {
+                entity = loadFromEvicted(pk);
+                entity = cacheLoaded(pk, Objects.nonNull(entity) ? entity : loadFromDb(pk), args);
             }
-
-            cache.put(pk, entity);
+            future.complete(entity);
             return entity;
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+            throw e;
         } finally {
-            lock.unlock();
+            loading.remove(pk, future);
+        }
+    }
+
+    /**
+     * 批量获取db entity
+     * 缓存没有的db entity, 通过{@link DbSynchronzier#getAll(Collection)}一次性从数据库加载, 用于避免冷启动时大量单条查询
+     * 使用{@link ShardedDbSynchronzier}时, 各分片并行查询
+     * 数据库不存在的主键, 与{@link #load(Serializable, Object...)}一样, 会new db entity
+     *
+     * @param pks 主键
+     * @return key -> 主键, value -> db entity, 按pks顺序
+     */
+    public Map<PK, E> loadAll(Collection<PK> pks, Object... args) {
+        Map<PK, E> result = new LinkedHashMap<>(pks.size());
+        //本线程负责加载的主键
+        Map<PK, CompletableFuture<E>> owned = new LinkedHashMap<>();
+        //其他线程正在加载的主键
+        Map<PK, CompletableFuture<E>> waiting = new LinkedHashMap<>();
+        for (PK pk : pks) {
+            E cachedEntity = loadFromCache(pk);
+            if (Objects.nonNull(cachedEntity)) {
+                result.put(pk, cachedEntity);
+                continue;
+            }
+            if (result.containsKey(pk) || owned.containsKey(pk) || waiting.containsKey(pk)) {
+                continue;
+            }
+
+            CompletableFuture<E> future = new CompletableFuture<>();
+            CompletableFuture<E> inflight = loading.putIfAbsent(pk, future);
+            if (Objects.nonNull(inflight)) {
+                waiting.put(pk, inflight);
+            } else {
+                owned.put(pk, future);
+            }
+            //占位, 保证结果按pks顺序
+            result.put(pk, null);
+        }
+
+        if (!owned.isEmpty()) {
+            try {
+                List<PK> misses = new ArrayList<>(owned.size());
+                for (PK pk : owned.keySet()) {
+                    E entity = loadFromCache(pk);
+                    if (Objects.isNull(entity) && Objects.nonNull(entity = loadFromEvicted(pk))) {
+                        entity = cacheLoaded(pk, entity, args);
+                    }
+                    if (Objects.nonNull(entity)) {
+                        owned.get(pk).complete(entity);
+                    } else {
+                        misses.add(pk);
+                    }
+                }
+
+                Map<PK, E> loaded = new HashMap<>(misses.size());
+                if (!misses.isEmpty()) {
+                    for (E entity : dbSynchronzier.getAll(misses)) {
+                        loaded.put(entity.getPrimaryKey(), entity);
+                    }
+                }
+                for (PK pk : misses) {
+                    owned.get(pk).complete(cacheLoaded(pk, loaded.get(pk), args));
+                }
+            } catch (Throwable e) {
+                for (CompletableFuture<E> future : owned.values()) {
+                    future.completeExceptionally(e);
+                }
+                throw e;
+            } finally {
+                for (Map.Entry<PK, CompletableFuture<E>> entry : owned.entrySet()) {
+                    loading.remove(entry.getKey(), entry.getValue());
+                }
+            }
+            for (Map.Entry<PK, CompletableFuture<E>> entry : owned.entrySet()) {
+                result.put(entry.getKey(), entry.getValue().join());
+            }
+        }
+
+        for (Map.Entry<PK, CompletableFuture<E>> entry : waiting.entrySet()) {
+            result.put(entry.getKey(), join(entry.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * 将从数据库加载的db entity放入缓存
+     * 数据库不存在, 或者删除操作还没入库, 则new db entity
+     *
+     * @param entity 从数据库加载的db entity, 不存在则为null
+     * @return 缓存中的db entity
+     */
+    private E cacheLoaded(PK pk, E entity, Object... args) {
+        if (Objects.isNull(entity) || removing.containsKey(pk)) {
+            //删除操作还没入库, 但在队列中, 仍然new db entity
+            entity = initEntity(pk, args);
+            entity.insert();
+
+            removing.remove(pk);
+        }
+
+        return putIfAbsent(pk, entity);
+    }
+
+    /**
+     * 缓存没有则放入
+     *
+     * @return 缓存中的db entity
+     */
+    private E putIfAbsent(PK pk, E entity) {
+        try {
+            return cache.get(pk, () -> entity);
+        } catch (ExecutionException e) {
+            throw new AsyncDbException(e.getCause());
+        }
+    }
+
+    /**
+     * 等待其他线程加载完成
+     */
+    private E join(CompletableFuture<E> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new AsyncDbException(cause);
         }
     }
 
@@ -97,6 +244,42 @@ public abstract class AbstractEntityCache<PK extends Serializable, E extends Asy
         return dbSynchronzier.get(pk);
     }
 
+    /**
+     * 从被缓存淘汰的db entity中加载, 优先还有db操作未入库的db entity, 其次是堆外存储
+     *
+     * @param pk 主键
+     * @return db entity, 没有则null
+     */
+    private E loadFromEvicted(PK pk) {
+        E entity = pendingEvicted(pk);
+        return Objects.nonNull(entity) ? entity : loadFromOffHeap(pk);
+    }
+
+    /**
+     * 被缓存淘汰, 但还有db操作未入库, 且还没重新放回缓存的db entity
+     * 加载时需优先使用, 否则会从堆外存储或者数据库加载到旧数据
+     *
+     * @param pk 主键
+     * @return db entity, 没有则null
+     */
+    E pendingEvicted(PK pk) {
+        return null;
+    }
+
+    /**
+     * 从堆外存储加载db entity, 加载后从堆外存储移除
+     *
+     * @param pk 主键
+     * @return db entity, 没有或者正在delete则null
+     */
+    private E loadFromOffHeap(PK pk) {
+        if (Objects.isNull(offHeap) || removing.containsKey(pk)) {
+            return null;
+        }
+        AsyncDbEntity<?> entity = offHeap.take(pk);
+        return entityClass.isInstance(entity) ? entityClass.cast(entity) : null;
+    }
+
     /**
      * 从缓存加载db entity
      *
@@ -132,11 +315,16 @@ public abstract class AbstractEntityCache<PK extends Serializable, E extends Asy
             }
 
             E remove = cache.getIfPresent(pk);
+            if (Objects.isNull(remove)) {
+                //已被淘汰到堆外存储
+                remove = loadFromOffHeap(pk);
+            }
             if (Objects.nonNull(remove)) {
                 removing.put(pk, remove);
                 remove.delete();
                 cache.invalidate(pk);
             }
+            removeOffHeap(pk);
         } finally {
             lock.unlock();
         }
@@ -150,6 +338,7 @@ public abstract class AbstractEntityCache<PK extends Serializable, E extends Asy
         lock.lock();
         try {
             cache.invalidate(pk);
+            removeOffHeap(pk);
         } finally {
             lock.unlock();
         }
@@ -160,6 +349,18 @@ public abstract class AbstractEntityCache<PK extends Serializable, E extends Asy
      */
     public void invalidAll(PK pk) {
         cache.invalidateAll();
+        if (Objects.nonNull(offHeap)) {
+            offHeap.clear();
+        }
+    }
+
+    /**
+     * 从堆外存储移除db entity
+     */
+    private void removeOffHeap(PK pk) {
+        if (Objects.nonNull(offHeap)) {
+            offHeap.remove(pk);
+        }
     }
 
     /**
@@ -172,8 +373,7 @@ public abstract class AbstractEntityCache<PK extends Serializable, E extends Asy
             ReentrantLock lock = getLock(pk);
             lock.lock();
             try {
-                ConcurrentMap<PK, E> cacheMap = cache.asMap();
-                result.add(cacheMap.putIfAbsent(pk, entity));
+                result.add(putIfAbsent(pk, entity));
             } finally {
                 lock.unlock();
             }
@@ -191,6 +391,33 @@ public abstract class AbstractEntityCache<PK extends Serializable, E extends Asy
     }
 
     //----------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 已被淘汰到堆外存储的entity, 仍可能被外部持有并修改
+     * 此时丢弃堆外的旧快照, 并将该entity放回缓存(有未入库的db操作, 不会被淘汰), 避免再次加载到旧数据
+     */
+    @Override
+    public void onSubmit(E entity, DbOperation operation) {
+        if (Objects.isNull(offHeap) || DbOperation.Delete.equals(operation)) {
+            return;
+        }
+
+        PK pk = entity.getPrimaryKey();
+        if (!offHeap.remove(pk)) {
+            return;
+        }
+
+        ReentrantLock lock = getLock(pk);
+        lock.lock();
+        try {
+            if (!removing.containsKey(pk)) {
+                cache.put(pk, entity);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public void onSuccess(E entity, DbOperation operation) {
         afterOperation(entity, operation, null);
@@ -213,22 +440,11 @@ public abstract class AbstractEntityCache<PK extends Serializable, E extends Asy
      * db操作之后执行, 不管成功与否
      */
     private void afterOperation(AsyncDbEntity<?> entity, DbOperation operation, Throwable ex) {
-        if (DbOperation.Update.equals(operation)) {
-            afterUpdate(entity);
-        }
-
         if (DbOperation.Delete.equals(operation)) {
             afterDelete(entity);
         }
     }
 
-    /**
-     * update操作之后执行, 不管成功与否
-     */
-    private void afterUpdate(AsyncDbEntity<?> entity) {
-        entity.resetUpdating();
-    }
-
     /**
      * delete操作之后执行, 不管成功与否
      */
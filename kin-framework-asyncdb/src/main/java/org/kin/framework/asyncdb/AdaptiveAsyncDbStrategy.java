@@ -0,0 +1,109 @@
+package org.kin.framework.asyncdb;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 自适应入库策略
+ * 根据等待队列大小, db操作耗时以及目标最大入库延迟, 动态调整每轮处理DB实体的数量以及处理间隔
+ * 等待队列达到高水位时, worker会立即被唤醒, 不会等待处理间隔结束
+ *
+ * @author huangjianqin
+ * @date 2021/1/6
+ */
+public class AdaptiveAsyncDbStrategy implements AsyncDbStrategy {
+    /** 平滑因子, 新样本占1/8权重 */
+    private static final int EWMA_SHIFT = 3;
+
+    /** 每个worker每轮处理DB实体的最小数量 */
+    private final int minOprNum;
+    /** 每个worker每轮处理DB实体的最大数量 */
+    private final int maxOprNum;
+    /** DB操作的重试次数 */
+    private final int tryTimes;
+    /** 目标最大入库延迟, 毫秒, 同时也是最大的处理间隔 */
+    private final int maxLag;
+    /** 等待队列高水位 */
+    private final int highWaterMark;
+    /** 是否开启批量入库模式 */
+    private final boolean batch;
+    /** 单个实体db操作平均耗时(指数加权移动平均), 纳秒 */
+    private final AtomicLong avgCostNanos = new AtomicLong();
+
+    public AdaptiveAsyncDbStrategy(int minOprNum, int maxOprNum, int tryTimes, int maxLag, int highWaterMark) {
+        this(minOprNum, maxOprNum, tryTimes, maxLag, highWaterMark, false);
+    }
+
+    public AdaptiveAsyncDbStrategy(int minOprNum, int maxOprNum, int tryTimes, int maxLag, int highWaterMark, boolean batch) {
+        Preconditions.checkArgument(minOprNum > 0, "minOprNum must be greater than zero");
+        Preconditions.checkArgument(maxOprNum >= minOprNum, "maxOprNum must be greater than or equal to minOprNum");
+        Preconditions.checkArgument(maxLag > 0, "maxLag must be greater than zero");
+        Preconditions.checkArgument(highWaterMark > 0, "highWaterMark must be greater than zero");
+        this.minOprNum = minOprNum;
+        this.maxOprNum = maxOprNum;
+        this.tryTimes = tryTimes;
+        this.maxLag = maxLag;
+        this.highWaterMark = highWaterMark;
+        this.batch = batch;
+    }
+
+    @Override
+    public final int getOprNum() {
+        return minOprNum;
+    }
+
+    /**
+     * 队列积压越多, 每轮处理的数量越多, 尽量一轮清空队列
+     */
+    @Override
+    public final int getOprNum(int size) {
+        return Math.max(minOprNum, Math.min(size, maxOprNum));
+    }
+
+    @Override
+    public final int getRetryTimes() {
+        return tryTimes;
+    }
+
+    /**
+     * 处理间隔 = 目标最大入库延迟 - 清空当前队列的预计耗时
+     * 达到高水位或预计无法在目标延迟内清空队列, 则不停顿
+     */
+    @Override
+    public final int getDuration(int size) {
+        if (size >= highWaterMark) {
+            return 0;
+        }
+
+        long drainMillis = TimeUnit.NANOSECONDS.toMillis(size * avgCostNanos.get());
+        return (int) Math.max(0, maxLag - drainMillis);
+    }
+
+    @Override
+    public final boolean isBatch() {
+        return batch;
+    }
+
+    @Override
+    public final int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    @Override
+    public final void onDbOpr(int oprNum, long costNanos) {
+        if (oprNum <= 0) {
+            return;
+        }
+        long sample = costNanos / oprNum;
+        avgCostNanos.updateAndGet(avg -> avg == 0 ? sample : avg + ((sample - avg) >> EWMA_SHIFT));
+    }
+
+    /**
+     * @return 单个实体db操作平均耗时, 纳秒
+     */
+    public long getAvgCostNanos() {
+        return avgCostNanos.get();
+    }
+}
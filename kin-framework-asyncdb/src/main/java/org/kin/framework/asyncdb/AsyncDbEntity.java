@@ -1,6 +1,7 @@
 package org.kin.framework.asyncdb;
 
 import java.io.Serializable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -14,9 +15,9 @@ public abstract class AsyncDbEntity<PK extends Serializable> implements Serializ
     /** 数据库状态 */
     private final AtomicReference<DbStatus> status = new AtomicReference<>(DbStatus.NORMAL);
     /** 数据库同步操作 */
-    private volatile DbSynchronzier<PK, ?> dbSynchronzier;
-    /** 实体进行过update标识, 主要用于减少update的次数 */
-    private final AtomicBoolean updating = new AtomicBoolean();
+    private transient volatile DbSynchronzier<PK, ?> dbSynchronzier;
+    /** worker是否正在执行该实体的db操作 */
+    private transient volatile boolean persisting;
     /** 是否支持删除操作 */
     private final boolean canDelete;
 
@@ -35,26 +36,88 @@ public abstract class AsyncDbEntity<PK extends Serializable> implements Serializ
 
     /**
      * entity insert
+     * 队列满且{@link OverflowPolicy#FAIL}时, db操作被丢弃, 需感知提交结果请使用{@link #tryInsert()}
      */
     public final void insert() {
-        AsyncDbService.getInstance().dbOpr(this, DbOperation.Insert);
+        tryInsert();
     }
 
     /**
      * entity update
+     * 队列满且{@link OverflowPolicy#FAIL}时, db操作被丢弃, 需感知提交结果请使用{@link #tryUpdate()}
      */
     public final void update() {
-        AsyncDbService.getInstance().dbOpr(this, DbOperation.Update);
+        tryUpdate();
     }
 
     /**
      * entity delete
+     * 队列满且{@link OverflowPolicy#FAIL}时, db操作被丢弃, 需感知提交结果请使用{@link #tryDelete()}
      */
     public final void delete() {
+        tryDelete();
+    }
+
+    /**
+     * entity insert
+     *
+     * @return 是否成功提交db操作, 队列满且{@link OverflowPolicy#FAIL}时返回false
+     */
+    public final boolean tryInsert() {
+        return AsyncDbService.getInstance().dbOpr(this, DbOperation.Insert);
+    }
+
+    /**
+     * entity update
+     *
+     * @return 是否成功提交db操作, 队列满且{@link OverflowPolicy#FAIL}时返回false
+     */
+    public final boolean tryUpdate() {
+        return AsyncDbService.getInstance().dbOpr(this, DbOperation.Update);
+    }
+
+    /**
+     * entity delete
+     *
+     * @return 是否成功提交db操作, 不支持删除或者队列满且{@link OverflowPolicy#FAIL}时返回false
+     */
+    public final boolean tryDelete() {
         if (!canDelete) {
-            return;
+            return false;
         }
-        AsyncDbService.getInstance().dbOpr(this, DbOperation.Delete);
+        return AsyncDbService.getInstance().dbOpr(this, DbOperation.Delete);
+    }
+
+    /**
+     * 异步entity insert
+     *
+     * @return 入库后完成, 回调默认在worker线程执行, 提交失败或者入库失败则异常完成
+     */
+    public final CompletableFuture<Void> insertAsync() {
+        return AsyncDbService.getInstance().dbOprAsync(this, DbOperation.Insert);
+    }
+
+    /**
+     * 异步entity update
+     *
+     * @return 入库后完成, 同一主键合并的多个db操作在同一时刻完成
+     */
+    public final CompletableFuture<Void> updateAsync() {
+        return AsyncDbService.getInstance().dbOprAsync(this, DbOperation.Update);
+    }
+
+    /**
+     * 异步entity delete
+     *
+     * @return 入库后完成, 与未入库的insert相互抵消也视为完成, 不支持删除则异常完成
+     */
+    public final CompletableFuture<Void> deleteAsync() {
+        if (!canDelete) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(new AsyncDbException("entity can not delete -> " + toString()));
+            return future;
+        }
+        return AsyncDbService.getInstance().dbOprAsync(this, DbOperation.Delete);
     }
 
     protected void serialize() {
@@ -66,9 +129,11 @@ public abstract class AsyncDbEntity<PK extends Serializable> implements Serializ
     }
 
     /**
-     * 当前db status是否允许执行指定DB操作
+     * 校验当前db status是否允许执行指定DB操作, 允许则切换db status
+     *
+     * @return 切换前的db status
      */
-    boolean isCanPersist(DbOperation operation) {
+    DbStatus transferDbStatus(DbOperation operation) {
         DbStatus now;
         do {
             now = getStatus();
@@ -76,44 +141,61 @@ public abstract class AsyncDbEntity<PK extends Serializable> implements Serializ
                 throw new AsyncDbException("DB操作失败 -> " + toString() + " - " + now + " - " + operation);
             }
         } while (!status.compareAndSet(now, operation.getTargetStauts()));
-        return now == DbStatus.NORMAL;
+        return now;
+    }
+
+    /**
+     * db操作提交失败, 回滚db status
+     *
+     * @param pre {@link #transferDbStatus(DbOperation)}切换前的db status
+     */
+    void rollbackDbStatus(DbOperation operation, DbStatus pre) {
+        status.compareAndSet(operation.getTargetStauts(), pre);
     }
 
     /**
-     * 切换db status, 并真正尝试执行db操作
+     * 重置db status, 用于重放日志中的db操作
      */
-    boolean tryDbOpr(int retryTimes) {
+    void resetDbStatus() {
+        status.set(DbStatus.NORMAL);
+    }
+
+    /**
+     * worker执行db操作前, 切换db status, 返回切换前的db status
+     * db操作执行完后需调用{@link #afterDbOpr()}
+     */
+    DbStatus switchDbStatus() {
+        //先标识正在执行, 避免切换db status后, 实体被误认为没有等待入库的db操作
+        persisting = true;
         DbStatus now;
         do {
             now = getStatus();
         } while (!status.compareAndSet(now, now == DbStatus.DELETED ? DbStatus.DELETED : DbStatus.NORMAL));
+        return now;
+    }
 
-
-        int nowTry = 0;
-        do {
-            if (nowTry++ > retryTimes) {
-                return false;
-            }
-        } while (!now.execute(dbSynchronzier, this));
-
-        return true;
+    /**
+     * worker执行完db操作, 不管成功与否
+     */
+    void afterDbOpr() {
+        persisting = false;
     }
 
     /**
-     * 尝试获取进行更新, 如果前一次更新还未进行完, 本次则skip
+     * @return 是否还有等待入库或者正在入库的insert/update操作
      */
-    boolean tryUpdate() {
-        return updating.compareAndSet(false, true);
+    boolean hasPendingDbOpr() {
+        DbStatus now = getStatus();
+        return persisting || DbStatus.INSERT.equals(now) || DbStatus.UPDATE.equals(now);
     }
 
     /**
-     * 重置实体更新中标识
+     * 真正执行db操作, db status已经切换过, 重试由worker负责
+     *
+     * @param now 需要执行的db操作对应的db status
      */
-    void resetUpdating() {
-        if (!updating.compareAndSet(true, false)) {
-            //异常, 直接set
-            updating.set(false);
-        }
+    void executeDbOpr(DbStatus now) {
+        now.execute(dbSynchronzier, this);
     }
 
     //setter && getter
@@ -133,7 +215,12 @@ public abstract class AsyncDbEntity<PK extends Serializable> implements Serializ
         return canDelete;
     }
 
+    /**
+     * @return 是否还有等待入库或者正在入库的insert/update操作, 返回的是快照, 修改不会影响entity
+     * @deprecated 不再通过updating标识合并update, 合并由{@link DbStatus}负责, 仅为兼容保留
+     */
+    @Deprecated
     public AtomicBoolean getUpdating() {
-        return updating;
+        return new AtomicBoolean(hasPendingDbOpr());
     }
 }
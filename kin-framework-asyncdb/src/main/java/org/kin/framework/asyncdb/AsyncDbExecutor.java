@@ -5,20 +5,27 @@ import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Multimap;
 import org.kin.framework.Closeable;
 import org.kin.framework.concurrent.ExecutionContext;
+import org.kin.framework.concurrent.Threads;
 import org.kin.framework.log.LoggerOprs;
 import org.kin.framework.utils.ClassUtils;
+import org.kin.framework.utils.HashUtils;
 import org.kin.framework.utils.TimeUtils;
 
+import java.io.File;
 import java.io.Serializable;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.List;
-import java.util.Objects;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
+ * 按主键打散后的hash值, 通过一致性hash环选择worker, 同一主键的db操作总是由同一worker按顺序执行
+ * 支持运行时增加worker, 以及检测热点并迁移虚拟节点, 迁移期间被迁移主键的db操作会被暂存,
+ * 直到原worker处理完迁移前的db操作, 以保证同一主键的执行顺序
+ *
  * @author huangjianqin
  * @date 2019/4/1
  */
@@ -32,63 +39,273 @@ class AsyncDbExecutor implements Closeable, LoggerOprs {
             return null;
         }
     };
+    /** worker迁移屏障的db实体, 原worker处理到该实体, 表示迁移前的db操作都已执行完 */
+    @SuppressWarnings("rawtypes")
+    private static final AsyncDbEntity FENCE = new AsyncDbEntity() {
+        private static final long serialVersionUID = 2960237010425343766L;
+
+        @Override
+        public Serializable getPrimaryKey() {
+            return null;
+        }
+    };
+    /** 每个worker在一致性hash环上的虚拟节点数量 */
+    private static final int VIRTUAL_NODE_NUM = 64;
+    /** 热点检测最小样本数, 检测周期内最繁忙worker提交的db操作数少于该值, 则不处理 */
+    private static final int SKEW_MIN_SAMPLES = 1000;
     /** 等待db实体操作数量阈值, 超过这个阈值, 会打印日志 */
     private static final int WAITTING_OPR_NUM_THRESHOLD = 500;
     /** 打印executor状态信息log间隔 */
     private static final int LOG_STATE_INTERVAL = 60;
+    /** {@link OverflowPolicy#BLOCK}时, 每次等待队列空位的最长时间, 毫秒 */
+    private static final long BLOCK_CHECK_INTERVAL = 100;
+    /** 所属service, 用于获取{@link DbSynchronzier} */
+    private final AsyncDbService asyncDbService;
     /** 线程池 */
     private ExecutionContext executionContext;
-    /** executor数量 */
-    private AsyncDBOperator[] asyncDbOperators;
+    /** 所有worker */
+    private final List<AsyncDBOperator> asyncDbOperators = new CopyOnWriteArrayList<>();
+    /** worker一致性hash环 */
+    private volatile ConsistentHashRing<AsyncDBOperator> ring = ConsistentHashRing.empty();
+    /** 路由锁, 提交db操作时持有读锁, 变更hash环时持有写锁 */
+    private final ReentrantReadWriteLock routeLock = new ReentrantReadWriteLock();
+    /** 正在进行的迁移, 没有则为null */
+    private volatile Migration migration;
+    /** 热点检测定时任务 */
+    private ScheduledFuture<?> rebalanceFuture;
+    /** 监控指标 */
+    private final AsyncDbMetrics metrics = new AsyncDbMetrics(this);
     /** executor终止标识 */
     private volatile boolean isStopped = false;
     /** executor执行db操作策略 */
     private AsyncDbStrategy asyncDbStrategy;
+    /** 每个executor等待队列容量 */
+    private int capacity;
+    /** 等待队列满时的处理策略 */
+    private OverflowPolicy overflowPolicy;
+    /** 溢出文件目录 */
+    private String overflowDir;
+    /** 本地预写日志, 未开启则为null */
+    private volatile AsyncDbJournal journal;
+    /** 日志是否与其他executor共享, 共享的日志由开启者关闭 */
+    private volatile boolean sharedJournal;
+    /**
+     * worker线程正在通知{@link EntityListener}失败的实体
+     * 通知期间该实体重新提交并写入日志, 则置为null, 此时才能确认失败的db操作日志
+     */
+    private final ThreadLocal<AsyncDbEntity<?>> failingEntity = new ThreadLocal<>();
     /** key -> entity class, value -> entity listeners */
     private final Multimap<Class<? extends AsyncDbEntity<?>>, EntityListener<?>> listeners = LinkedHashMultimap.create();
 
-    void init(int threadNum, AsyncDbStrategy asyncDbStrategy) {
+    AsyncDbExecutor(AsyncDbService asyncDbService) {
+        this.asyncDbService = asyncDbService;
+    }
+
+    void init(int threadNum, AsyncDbStrategy asyncDbStrategy, int capacity, OverflowPolicy overflowPolicy, String overflowDir,
+              WorkerMode workerMode) {
         Preconditions.checkArgument(threadNum > 0, "thread num must greater than 0");
-        executionContext = ExecutionContext.fix(threadNum, "asyncDB");
+        Preconditions.checkArgument(capacity > 0, "capacity must greater than 0");
+        Preconditions.checkArgument(!OverflowPolicy.SPILL.equals(overflowPolicy) || Objects.nonNull(overflowDir),
+                "overflow dir must not be null if overflow policy is SPILL");
+        //worker数量可在运行时增加, 故使用cache线程池
+        if (WorkerMode.VIRTUAL.equals(workerMode)) {
+            executionContext = ExecutionContext.virtual("asyncDB", 1, "asyncDB-schedule");
+        } else {
+            executionContext = ExecutionContext.cache("asyncDB", 1, "asyncDB-schedule");
+        }
         this.asyncDbStrategy = asyncDbStrategy;
-        asyncDbOperators = new AsyncDBOperator[threadNum];
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.overflowDir = overflowDir;
+        ConsistentHashRing<AsyncDBOperator> ring = this.ring;
         for (int i = 0; i < threadNum; i++) {
-            AsyncDBOperator asyncDbOperator = new AsyncDBOperator();
-            executionContext.execute(asyncDbOperator);
-            asyncDbOperators[i] = asyncDbOperator;
+            AsyncDBOperator asyncDbOperator = newWorker();
+            ring = ring.with(asyncDbOperator, asyncDbOperator.index, VIRTUAL_NODE_NUM);
         }
+        this.ring = ring;
         //定时打印所有executor信息状态
-        executionContext.execute(() -> {
-            while (!isStopped) {
-                long sleepTime = LOG_STATE_INTERVAL - TimeUtils.timestamp() % LOG_STATE_INTERVAL;
-                try {
-                    TimeUnit.SECONDS.sleep(sleepTime);
-                } catch (InterruptedException e) {
-                    //ignore
-                }
+        long initialDelay = LOG_STATE_INTERVAL - TimeUtils.timestamp() % LOG_STATE_INTERVAL;
+        executionContext.scheduleAtFixedRate(this::logState, initialDelay, LOG_STATE_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 打印所有executor信息状态
+     */
+    private void logState() {
+        int totalTaskOpredNum = 0;
+        int totalWaittingOprNum = 0;
+        for (AsyncDBOperator asyncDbOperator : asyncDbOperators) {
+            SyncState syncState = asyncDbOperator.getSyncState();
+            info("{} -> taskOpredNum: {}, taittingOprNum: {}, taskOpredPeriodNum: {}, oprNum: {}, duration: {}ms, avgCost: {}us",
+                    syncState.getThreadName(), syncState.getSyncNum(), syncState.getWaittingOprNum(),
+                    syncState.getSyncPeriodNum(), syncState.getOprNum(), syncState.getDuration(), syncState.getAvgCostMicros());
+            totalTaskOpredNum += syncState.getSyncNum();
+            totalWaittingOprNum += syncState.getWaittingOprNum();
+        }
+        if (totalWaittingOprNum > WAITTING_OPR_NUM_THRESHOLD) {
+            warn("totalTaskOpredNum: {}, totalWaittingOprNum: {}", totalTaskOpredNum, totalWaittingOprNum);
+        } else {
+            info("totalTaskOpredNum: {}, totalWaittingOprNum: {}", totalTaskOpredNum, totalWaittingOprNum);
+        }
+    }
+
+    /**
+     * 增加worker, 新worker从一致性hash环上接管部分主键
+     *
+     * @return 当前worker数量
+     */
+    synchronized int addWorker() {
+        Preconditions.checkState(!isStopped, "async db executor is stopped");
+        awaitMigration();
+        AsyncDBOperator asyncDbOperator = newWorker();
+        migrate(ring.with(asyncDbOperator, asyncDbOperator.index, VIRTUAL_NODE_NUM));
+        return asyncDbOperators.size();
+    }
+
+    /**
+     * 创建并启动worker
+     */
+    private AsyncDBOperator newWorker() {
+        AsyncDBOperator asyncDbOperator = new AsyncDBOperator(asyncDbOperators.size());
+        asyncDbOperators.add(asyncDbOperator);
+        executionContext.execute(asyncDbOperator);
+        return asyncDbOperator;
+    }
+
+    /**
+     * 开启热点检测, 每个检测周期内, 最繁忙worker提交的db操作数超过平均值的skewFactor倍, 则将其最繁忙的虚拟节点迁移到最空闲的worker
+     *
+     * @param interval   检测间隔, 秒, 小于等于0则关闭
+     * @param skewFactor 倾斜阈值, 需大于1
+     */
+    synchronized void setRebalance(int interval, double skewFactor) {
+        if (Objects.nonNull(rebalanceFuture)) {
+            rebalanceFuture.cancel(false);
+            rebalanceFuture = null;
+        }
+        if (interval <= 0) {
+            return;
+        }
+        Preconditions.checkArgument(skewFactor > 1, "skew factor must greater than 1");
+        rebalanceFuture = executionContext.scheduleAtFixedRate(() -> rebalance(skewFactor), interval, interval, TimeUnit.SECONDS);
+    }
 
-                int totalTaskOpredNum = 0;
-                int totalWaittingOprNum = 0;
-                for (AsyncDBOperator asyncDbOperator : asyncDbOperators) {
-                    SyncState syncState = asyncDbOperator.getSyncState();
-                    info("{} -> taskOpredNum: {}, taittingOprNum: {}, taskOpredPeriodNum: {}",
-                            syncState.getThreadName(), syncState.getSyncNum(), syncState.getWaittingOprNum(),
-                            syncState.getSyncPeriodNum());
-                    totalTaskOpredNum += syncState.getSyncNum();
-                    totalWaittingOprNum += syncState.getWaittingOprNum();
+    /**
+     * 检测热点, 并迁移虚拟节点
+     */
+    private synchronized void rebalance(double skewFactor) {
+        if (isStopped || Objects.nonNull(migration) || asyncDbOperators.size() < 2) {
+            return;
+        }
+
+        ConsistentHashRing<AsyncDBOperator> ring = this.ring;
+        long[] nodeHits = new long[ring.size()];
+        Map<AsyncDBOperator, Long> workerHits = new HashMap<>();
+        for (AsyncDBOperator asyncDbOperator : asyncDbOperators) {
+            workerHits.put(asyncDbOperator, 0L);
+        }
+        long total = 0;
+        for (int i = 0; i < nodeHits.length; i++) {
+            nodeHits[i] = ring.resetHits(i);
+            workerHits.merge(ring.owner(i), nodeHits[i], Long::sum);
+            total += nodeHits[i];
+        }
+
+        AsyncDBOperator hot = null;
+        AsyncDBOperator cold = null;
+        for (Map.Entry<AsyncDBOperator, Long> entry : workerHits.entrySet()) {
+            if (Objects.isNull(hot) || entry.getValue() > workerHits.get(hot)) {
+                hot = entry.getKey();
+            }
+            if (Objects.isNull(cold) || entry.getValue() < workerHits.get(cold)) {
+                cold = entry.getKey();
+            }
+        }
+        long hotHits = workerHits.get(hot);
+        long coldHits = workerHits.get(cold);
+        if (hotHits < SKEW_MIN_SAMPLES || hotHits <= (double) total / workerHits.size() * skewFactor) {
+            return;
+        }
+
+        //迁移后不能让冷worker变成新的热点
+        int target = -1;
+        for (int i = 0; i < nodeHits.length; i++) {
+            if (ring.owner(i) == hot && nodeHits[i] < hotHits - coldHits && (target < 0 || nodeHits[i] > nodeHits[target])) {
+                target = i;
+            }
+        }
+        if (target < 0) {
+            //同一虚拟节点(甚至同一主键)过热, 为保证执行顺序, 无法拆分
+            warn("{} is skewed, {}/{} db operations, but no virtual node can be moved", hot.threadName, hotHits, total);
+            return;
+        }
+
+        info("{} is skewed, {}/{} db operations, move virtual node({} db operations) to {}",
+                hot.threadName, hotHits, total, nodeHits[target], cold.threadName);
+        migrate(ring.reassign(target, cold));
+    }
+
+    /**
+     * 切换到新的hash环
+     * 失去主键的worker会收到{@link #FENCE}, 迁移期间被迁移主键的db操作暂存在{@link Migration}中,
+     * 所有失去主键的worker处理完{@link #FENCE}后, 再转移给新的worker
+     */
+    private void migrate(ConsistentHashRing<AsyncDBOperator> newRing) {
+        ConsistentHashRing<AsyncDBOperator> oldRing = this.ring;
+        Set<AsyncDBOperator> losers = new HashSet<>();
+        if (oldRing.size() > 0) {
+            for (int i = 0; i < newRing.size(); i++) {
+                AsyncDBOperator pre = oldRing.get(newRing.point(i));
+                if (pre != newRing.owner(i)) {
+                    losers.add(pre);
                 }
-                if (totalWaittingOprNum > WAITTING_OPR_NUM_THRESHOLD) {
-                    warn("totalTaskOpredNum: {}, totalWaittingOprNum: {}", totalTaskOpredNum, totalWaittingOprNum);
-                } else {
-                    info("totalTaskOpredNum: {}, totalWaittingOprNum: {}", totalTaskOpredNum, totalWaittingOprNum);
+            }
+        }
+
+        routeLock.writeLock().lock();
+        try {
+            if (!losers.isEmpty()) {
+                migration = new Migration(oldRing, newRing, losers.size());
+                for (AsyncDBOperator loser : losers) {
+                    loser.queue.forceOffer(FENCE, DbOperation.Insert, -1, null);
+                    //尽快结束迁移
+                    loser.queue.wakeup();
                 }
             }
-        });
+            this.ring = newRing;
+        } finally {
+            routeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 等待正在进行的迁移完成
+     */
+    private void awaitMigration() {
+        Migration migration = this.migration;
+        if (Objects.nonNull(migration)) {
+            try {
+                migration.latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return 主键打散后的hash值
+     */
+    private static int hash(AsyncDbEntity<?> asyncDbEntity) {
+        return HashUtils.spread(Objects.hashCode(asyncDbEntity.getPrimaryKey()));
     }
 
     @Override
     public void close() {
-        isStopped = true;
+        synchronized (this) {
+            isStopped = true;
+            //迁移中暂存的db操作需先转移给worker
+            awaitMigration();
+        }
         for (AsyncDBOperator asyncDbOperator : asyncDbOperators) {
             asyncDbOperator.close();
         }
@@ -98,24 +315,167 @@ class AsyncDbExecutor implements Closeable, LoggerOprs {
         } catch (InterruptedException e) {
             error(e.getMessage(), e);
         }
+        if (Objects.nonNull(journal) && !sharedJournal) {
+            journal.close();
+        }
+    }
+
+    /**
+     * 开启本地预写日志
+     *
+     * @return 上一次进程遗留的未确认的db操作
+     */
+    List<PendingOprQueue.PendingOpr> openJournal(String dir, int segmentSize, long flushInterval) {
+        Preconditions.checkState(Objects.isNull(journal), "journal has been opened");
+        AsyncDbJournal journal = new AsyncDbJournal(dir, segmentSize, flushInterval);
+        List<PendingOprQueue.PendingOpr> unconfirmed = journal.open();
+        this.journal = journal;
+        return unconfirmed;
+    }
+
+    /**
+     * 使用其他executor开启的日志
+     */
+    void shareJournal(AsyncDbJournal journal) {
+        Preconditions.checkState(Objects.isNull(this.journal), "journal has been opened");
+        this.sharedJournal = true;
+        this.journal = journal;
+    }
+
+    /**
+     * 上一次进程遗留的db操作已全部重放
+     */
+    void onJournalReplayed() {
+        if (Objects.nonNull(journal)) {
+            journal.clearRecovered();
+        }
     }
 
     /**
      * 提交db操作task
+     *
+     * @param future db操作入库后完成, 可为null
      */
-    boolean submit(AsyncDbEntity asyncDbEntity) {
+    boolean submit(AsyncDbEntity<?> asyncDbEntity, DbOperation operation, CompletableFuture<Void> future) {
         if (!isStopped) {
-            int key = asyncDbEntity.hashCode();
-            int index = key % asyncDbOperators.length;
-            AsyncDBOperator asyncDbOperator = asyncDbOperators[index];
-
-            asyncDbOperator.submit(asyncDbEntity);
+            metrics.onSubmit();
+            int hash = hash(asyncDbEntity);
+            //先写日志, 再入队
+            long seq = Objects.nonNull(journal) ? journal.append(asyncDbEntity, operation) : -1;
+            boolean submitted = false;
+            try {
+                while (true) {
+                    AsyncDBOperator asyncDbOperator;
+                    routeLock.readLock().lock();
+                    try {
+                        Migration migration = this.migration;
+                        asyncDbOperator = ring.route(hash);
+                        if (Objects.nonNull(migration) && migration.hold(hash, asyncDbEntity, operation, seq, future)) {
+                            submitted = true;
+                            break;
+                        }
+                        PendingOprQueue.OfferResult result = asyncDbOperator.submit(asyncDbEntity, operation, seq, future);
+                        if (!PendingOprQueue.OfferResult.FULL.equals(result) || !OverflowPolicy.BLOCK.equals(overflowPolicy)) {
+                            submitted = !PendingOprQueue.OfferResult.FULL.equals(result);
+                            break;
+                        }
+                    } finally {
+                        routeLock.readLock().unlock();
+                    }
+                    //释放路由锁后再等待队列空位, 否则会阻塞迁移, 进而阻塞worker的重新提交, 导致队列无法消费
+                    if (isStopped || !asyncDbOperator.awaitNotFull()) {
+                        break;
+                    }
+                    //等待期间hash环可能已变更, 重新路由
+                }
+            } finally {
+                if (!submitted) {
+                    //入队失败或异常(比如写溢出文件失败), 日志不再需要
+                    confirm(seq);
+                }
+            }
+            if (!submitted) {
+                return false;
+            }
+            if (Objects.nonNull(journal) && failingEntity.get() == asyncDbEntity) {
+                //失败的db操作已重新写入日志
+                failingEntity.set(null);
+            }
+            onSubmit(asyncDbEntity, operation);
             return true;
         }
 
         return false;
     }
 
+    /**
+     * 确认db操作日志
+     */
+    private void confirm(long seq) {
+        AsyncDbJournal journal = this.journal;
+        if (Objects.nonNull(journal)) {
+            journal.confirm(seq);
+        }
+    }
+
+    /**
+     * 确认合并进该db操作的所有日志
+     */
+    private void confirm(PendingOprQueue.PendingOpr pendingOpr) {
+        for (long seq : pendingOpr.getSeqs()) {
+            confirm(seq);
+        }
+    }
+
+    /**
+     * 放弃重试后仍失败且没有重新提交的db操作, 写入死信文件后确认日志
+     */
+    private void abandon(PendingOprQueue.PendingOpr pendingOpr) {
+        AsyncDbJournal journal = this.journal;
+        if (Objects.nonNull(journal)) {
+            journal.abandon(pendingOpr.getEntity(), pendingOpr.getOperation(), pendingOpr.getSeqs());
+        }
+    }
+
+    /**
+     * insert + delete相互抵消, 实体从未入库, 确认日志并视为入库完成
+     */
+    private void onCancelled(PendingOprQueue.PendingOpr pendingOpr) {
+        confirm(pendingOpr);
+        pendingOpr.complete();
+    }
+
+    /**
+     * @return key -> worker名, value -> 等待队列长度
+     */
+    Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> queueDepths = new LinkedHashMap<>();
+        for (AsyncDBOperator asyncDbOperator : asyncDbOperators) {
+            queueDepths.put("worker-" + asyncDbOperator.index, asyncDbOperator.queue.size());
+        }
+        return queueDepths;
+    }
+
+    /**
+     * @return 所有worker中最早入队且还没执行的db操作的入队时间, 没有则返回{@link Long#MAX_VALUE}
+     */
+    long getOldestEnqueueNanos() {
+        long oldest = Long.MAX_VALUE;
+        for (AsyncDBOperator asyncDbOperator : asyncDbOperators) {
+            oldest = Math.min(oldest, asyncDbOperator.queue.oldestEnqueueNanos());
+        }
+        return oldest;
+    }
+
+    //getter
+    AsyncDbJournal getJournal() {
+        return journal;
+    }
+
+    AsyncDbMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * 添加{@link EntityListener}
      */
@@ -141,90 +501,555 @@ class AsyncDbExecutor implements Closeable, LoggerOprs {
         }
     }
 
+    /**
+     * db操作已提交, 通知{@link EntityListener}
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void onSubmit(AsyncDbEntity<?> entity, DbOperation operation) {
+        for (EntityListener listener : listeners.get((Class<? extends AsyncDbEntity<?>>) entity.getClass())) {
+            try {
+                listener.onSubmit(entity, operation);
+            } catch (Exception listenerExt) {
+                error("", listenerExt);
+            }
+        }
+    }
+
+    /**
+     * db操作成功, 通知{@link EntityListener}
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void onSuccess(AsyncDbEntity<?> entity, DbOperation operation) {
+        for (EntityListener listener : listeners.get((Class<? extends AsyncDbEntity<?>>) entity.getClass())) {
+            try {
+                listener.onSuccess(entity, operation);
+            } catch (Exception listenerExt) {
+                error("", listenerExt);
+            }
+        }
+    }
+
+    /**
+     * db操作失败, 通知{@link EntityListener}
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void onError(AsyncDbEntity<?> entity, DbOperation operation, Throwable ex) {
+        for (EntityListener listener : listeners.get((Class<? extends AsyncDbEntity<?>>) entity.getClass())) {
+            try {
+                listener.onError(entity, operation, ex);
+            } catch (Exception listenerExt) {
+                error("", listenerExt);
+            }
+        }
+    }
+
     //---------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 一次hash环变更引起的主键迁移
+     */
+    private class Migration {
+        /** 变更前的hash环 */
+        private final ConsistentHashRing<AsyncDBOperator> from;
+        /** 变更后的hash环 */
+        private final ConsistentHashRing<AsyncDBOperator> to;
+        /** 迁移期间, 被迁移主键的db操作 */
+        private final PendingOprQueue held = new PendingOprQueue(Integer.MAX_VALUE, AsyncDbExecutor.this::onCancelled);
+        /** 还没处理{@link #FENCE}的worker数量 */
+        private int remainingFences;
+        /** 迁移是否完成 */
+        private boolean done;
+        private final CountDownLatch latch = new CountDownLatch(1);
+
+        Migration(ConsistentHashRing<AsyncDBOperator> from, ConsistentHashRing<AsyncDBOperator> to, int remainingFences) {
+            this.from = from;
+            this.to = to;
+            this.remainingFences = remainingFences;
+        }
+
+        /**
+         * 如果主键正在迁移, 则暂存db操作
+         *
+         * @return 是否暂存
+         */
+        synchronized boolean hold(int hash, AsyncDbEntity<?> asyncDbEntity, DbOperation operation, long seq, CompletableFuture<Void> future) {
+            if (done || from.get(hash) == to.get(hash)) {
+                return false;
+            }
+            PendingOprQueue.OfferResult result = held.forceOffer(asyncDbEntity, operation, seq, future);
+            metrics.onOffered(result);
+            if (PendingOprQueue.OfferResult.CANCELLED.equals(result)) {
+                onSuccess(asyncDbEntity, DbOperation.Delete);
+            }
+            return true;
+        }
+
+        /**
+         * worker处理到{@link #FENCE}, 所有worker都处理完, 则将暂存的db操作转移给新的worker
+         */
+        void arrive() {
+            List<AsyncDbEntity<?>> cancelled = new ArrayList<>();
+            synchronized (this) {
+                if (--remainingFences > 0) {
+                    return;
+                }
+                List<PendingOprQueue.PendingOpr> pendingOprs = new ArrayList<>(held.size());
+                held.drainTo(pendingOprs, Integer.MAX_VALUE);
+                for (PendingOprQueue.PendingOpr pendingOpr : pendingOprs) {
+                    AsyncDBOperator asyncDbOperator = to.get(hash(pendingOpr.getEntity()));
+                    PendingOprQueue.OfferResult result = asyncDbOperator.queue.forceOffer(pendingOpr);
+                    metrics.onOffered(result);
+                    if (PendingOprQueue.OfferResult.CANCELLED.equals(result)) {
+                        cancelled.add(pendingOpr.getEntity());
+                    }
+                }
+                done = true;
+            }
+            migration = null;
+            latch.countDown();
+            //EntityListener可能会重新提交db操作, 故在迁移完成后再通知
+            for (AsyncDbEntity<?> asyncDbEntity : cancelled) {
+                onSuccess(asyncDbEntity, DbOperation.Delete);
+            }
+        }
+    }
+
     private class AsyncDBOperator implements Runnable, Closeable {
-        private BlockingQueue<AsyncDbEntity<?>> queue = new LinkedBlockingQueue<>();
+        /** worker序号 */
+        private final int index;
+        private final PendingOprQueue queue;
+        /** 溢出文件, 仅{@link OverflowPolicy#SPILL}时存在 */
+        private final OverflowFile overflow;
+        /** worker线程 */
+        private volatile Thread thread;
         private volatile boolean isStopped = false;
         private long syncNum = 0;
         private String threadName = "";
         private long preSyncNum = 0;
+        /** 累计db操作耗时, 纳秒 */
+        private long costNanos = 0;
+        private long preCostNanos = 0;
+        /** 最近一轮处理DB实体的数量 */
+        private int oprNum;
+        /** 最近一轮的处理间隔, 毫秒 */
+        private int duration;
+
+        AsyncDBOperator(int index) {
+            this.index = index;
+            queue = new PendingOprQueue(capacity, AsyncDbExecutor.this::onCancelled);
+            if (OverflowPolicy.SPILL.equals(overflowPolicy)) {
+                overflow = new OverflowFile(new File(overflowDir, "asyncdb-overflow-" + index + ".dat"));
+            } else {
+                overflow = null;
+            }
+        }
 
         /**
-         * 入队
+         * 入队, 同一主键的db操作会合并
+         * 队列满时, 根据{@link OverflowPolicy}处理, {@link OverflowPolicy#BLOCK}不在此阻塞, 由调用方释放路由锁后再等待队列空位
+         *
+         * @return 入队结果, 已停止或者队列满则返回{@link PendingOprQueue.OfferResult#FULL}
          */
-        boolean submit(AsyncDbEntity<?> asyncDbEntity) {
-            if (!isStopped) {
-                return queue.add(asyncDbEntity);
+        PendingOprQueue.OfferResult submit(AsyncDbEntity<?> asyncDbEntity, DbOperation operation, long seq, CompletableFuture<Void> future) {
+            if (isStopped) {
+                return PendingOprQueue.OfferResult.FULL;
             }
 
-            return false;
+            PendingOprQueue.OfferResult result;
+            switch (overflowPolicy) {
+                case BLOCK:
+                    if (Thread.currentThread() == thread) {
+                        //worker线程内提交(比如EntityListener重新提交失败的db操作), 不能等待, 否则会死锁
+                        result = queue.forceOffer(asyncDbEntity, operation, seq, future);
+                    } else {
+                        result = queue.offer(asyncDbEntity, operation, seq, future);
+                    }
+                    break;
+                case FAIL:
+                    result = queue.offer(asyncDbEntity, operation, seq, future);
+                    break;
+                case SPILL:
+                    synchronized (overflow) {
+                        //溢出期间, 新的db操作也追加到文件, 以保证顺序
+                        result = overflow.isEmpty() ? queue.offer(asyncDbEntity, operation, seq, future) : PendingOprQueue.OfferResult.FULL;
+                        if (PendingOprQueue.OfferResult.FULL.equals(result)) {
+                            overflow.append(asyncDbEntity, operation, seq, future);
+                            return PendingOprQueue.OfferResult.ENQUEUED;
+                        }
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("unknown overflow policy " + overflowPolicy);
+            }
+
+            metrics.onOffered(result);
+            if (PendingOprQueue.OfferResult.FULL.equals(result)) {
+                if (!OverflowPolicy.BLOCK.equals(overflowPolicy)) {
+                    warn("{} queue is full, capacity: {}, reject {} - {}", threadName, capacity, asyncDbEntity, operation);
+                }
+                return result;
+            }
+            if (PendingOprQueue.OfferResult.CANCELLED.equals(result)) {
+                //insert + delete相互抵消, 实体从未入库, 视为delete成功
+                onSuccess(asyncDbEntity, DbOperation.Delete);
+            }
+            return result;
         }
 
-        @SuppressWarnings("unchecked")
-        @Override
-        public void run() {
-            threadName = Thread.currentThread().getName();
-            while (true) {
-                int oprNum = asyncDbStrategy.getOprNum();
-                for (int i = 0; i < oprNum; i++) {
-                    AsyncDbEntity<?> entity = null;
-                    try {
-                        entity = queue.take();
-                    } catch (InterruptedException e) {
-                        //ignore
-                    }
+        /**
+         * 等待队列有空位, 每次最多等待{@link #BLOCK_CHECK_INTERVAL}毫秒, 以便及时感知worker停止
+         *
+         * @return 是否可以继续提交, worker已停止或者线程被中断则返回false
+         */
+        boolean awaitNotFull() {
+            try {
+                queue.awaitNotFull(BLOCK_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            return !isStopped;
+        }
 
-                    if (Objects.isNull(entity)) {
-                        continue;
+        /**
+         * 将溢出文件中的db操作重新入队, 直到队列满
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private void refill() {
+            if (Objects.isNull(overflow)) {
+                return;
+            }
+
+            synchronized (overflow) {
+                int remaining = queue.remainingCapacity();
+                while (remaining-- > 0) {
+                    PendingOprQueue.PendingOpr pendingOpr = overflow.poll();
+                    if (Objects.isNull(pendingOpr)) {
+                        break;
                     }
 
-                    if (entity == POISON) {
-                        info("AsyncDBOperator return");
-                        return;
+                    AsyncDbEntity entity = pendingOpr.getEntity();
+                    //反序列化的实体没有DbSynchronzier
+                    entity.setDbSynchronzier(asyncDbService.getDbSynchronzier(entity.getClass()));
+                    //保留日志序号以及入队时间
+                    PendingOprQueue.OfferResult result = queue.forceOffer(pendingOpr);
+                    metrics.onOffered(result);
+                    if (PendingOprQueue.OfferResult.CANCELLED.equals(result)) {
+                        onSuccess(entity, DbOperation.Delete);
                     }
+                }
+            }
+        }
 
-                    try {
-                        DbStatus targetStatus = entity.getStatus();
-                        try {
-                            entity.tryDbOpr(asyncDbStrategy.getRetryTimes());
-                        } catch (Exception e) {
-                            error("", e);
-                            for (EntityListener listener : listeners.get((Class<? extends AsyncDbEntity<?>>) entity.getClass())) {
-                                listener.onError(entity, DbOperation.getByTargetStauts(targetStatus), e);
-                            }
-                        }
+        /**
+         * @return 溢出文件是否还有db操作
+         */
+        private boolean hasOverflow() {
+            return Objects.nonNull(overflow) && !overflow.isEmpty();
+        }
 
-                        for (EntityListener listener : listeners.get((Class<? extends AsyncDbEntity<?>>) entity.getClass())) {
-                            listener.onSuccess(entity, DbOperation.getByTargetStauts(targetStatus));
-                        }
-                    } catch (Exception listenerExt) {
-                        error("", listenerExt);
-                    }
+        /**
+         * 出队, 队列为空, 先尝试从溢出文件重新入队
+         */
+        private PendingOprQueue.PendingOpr take() throws InterruptedException {
+            if (queue.isEmpty()) {
+                refill();
+            }
+            return queue.take();
+        }
+
+        /**
+         * 取到{@link #FENCE}, 如果溢出文件还有db操作, 则先处理完, 再通知迁移
+         */
+        private void onFence() {
+            if (hasOverflow()) {
+                refill();
+                queue.forceOffer(FENCE, DbOperation.Insert, -1, null);
+                return;
+            }
+            Migration migration = AsyncDbExecutor.this.migration;
+            if (Objects.nonNull(migration)) {
+                migration.arrive();
+            }
+        }
 
-                    syncNum++;
+        /**
+         * 取到{@link #POISON}, 如果溢出文件还有db操作, 则先处理完, 再终止
+         *
+         * @return 是否终止
+         */
+        private boolean onPoison() {
+            if (hasOverflow()) {
+                refill();
+                queue.forceOffer(POISON, DbOperation.Insert, -1, null);
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            try {
+                run0();
+            } finally {
+                if (Objects.nonNull(overflow)) {
+                    overflow.close();
+                }
+            }
+        }
+
+        private void run0() {
+            thread = Thread.currentThread();
+            threadName = thread.getName();
+            while (true) {
+                int oprNum = asyncDbStrategy.getOprNum(queue.size());
+                this.oprNum = oprNum;
+                boolean terminated = asyncDbStrategy.isBatch() ? batchOpr(oprNum) : singleOpr(oprNum);
+                if (terminated) {
+                    info("AsyncDBOperator return");
+                    return;
                 }
 
                 int duration = asyncDbStrategy.getDuration(queue.size());
+                this.duration = duration;
                 if (!isStopped) {
                     if (duration > 0) {
                         try {
-                            Thread.sleep(duration);
+                            //等待队列达到高水位, 则提前唤醒
+                            queue.awaitHighWater(asyncDbStrategy.getHighWaterMark(), duration, TimeUnit.MILLISECONDS);
                         } catch (InterruptedException e) {
                             //ignore
                         }
                     }
                 } else {
-                    if (queue.isEmpty()) {
+                    if (queue.isEmpty() && !hasOverflow()) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * 逐个执行db操作
+         *
+         * @return 是否遇到{@link #POISON}
+         */
+        private boolean singleOpr(int oprNum) {
+            for (int i = 0; i < oprNum; i++) {
+                PendingOprQueue.PendingOpr pendingOpr = null;
+                try {
+                    pendingOpr = take();
+                } catch (InterruptedException e) {
+                    //ignore
+                }
+
+                if (Objects.isNull(pendingOpr)) {
+                    continue;
+                }
+
+                AsyncDbEntity<?> entity = pendingOpr.getEntity();
+                if (entity == POISON) {
+                    if (onPoison()) {
+                        return true;
+                    }
+                    continue;
+                }
+                if (entity == FENCE) {
+                    onFence();
+                    continue;
+                }
+
+                entity.switchDbStatus();
+                singleOpr(pendingOpr);
+            }
+
+            return false;
+        }
+
+        /**
+         * 执行单个实体的db操作, 失败则重试, 并通知{@link EntityListener}
+         * 成功才确认db操作日志; 失败的db操作由{@link EntityListener}决定是否重新提交,
+         * 重新提交并写入日志后才确认原日志, 否则写入死信文件后确认, 以免一直占用日志
+         */
+        private void singleOpr(PendingOprQueue.PendingOpr pendingOpr) {
+            AsyncDbEntity<?> entity = pendingOpr.getEntity();
+            DbOperation operation = pendingOpr.getOperation();
+            int retryTimes = asyncDbStrategy.getRetryTimes();
+            int nowTry = 0;
+            while (true) {
+                long startNanos = System.nanoTime();
+                try {
+                    //forkjoin线程池下, db操作阻塞时补偿线程
+                    Threads.managedBlock(() -> entity.executeDbOpr(operation.getTargetStauts()));
+                    onDbOpr(entity.getClass(), operation, 1, startNanos);
+                    //先清除执行中标识, 再通知listener, listener才能判断实体是否还有等待入库的db操作
+                    entity.afterDbOpr();
+                    onPersisted(pendingOpr);
+                    break;
+                } catch (Exception e) {
+                    onDbOpr(entity.getClass(), operation, 1, startNanos);
+                    if (nowTry++ < retryTimes) {
+                        metrics.onRetry();
+                        continue;
+                    }
+                    metrics.onError();
+                    error("", e);
+                    entity.afterDbOpr();
+                    onFailed(pendingOpr, e);
+                    break;
+                }
+            }
+
+            syncNum++;
+        }
+
+        /**
+         * db操作入库成功, 统计入库延迟, 通知{@link EntityListener}, 并完成等待该db操作的future
+         */
+        private void onPersisted(PendingOprQueue.PendingOpr pendingOpr) {
+            metrics.onPersisted(pendingOpr, System.nanoTime());
+            confirm(pendingOpr);
+            onSuccess(pendingOpr.getEntity(), pendingOpr.getOperation());
+            pendingOpr.complete();
+        }
+
+        /**
+         * db操作重试后仍失败, 通知{@link EntityListener}
+         * {@link EntityListener}重新提交了该实体(已写入新日志), 则确认原日志, 否则写入死信文件后确认
+         */
+        private void onFailed(PendingOprQueue.PendingOpr pendingOpr, Exception e) {
+            AsyncDbEntity<?> entity = pendingOpr.getEntity();
+            boolean resubmitted;
+            failingEntity.set(entity);
+            try {
+                onError(entity, pendingOpr.getOperation(), e);
+            } finally {
+                resubmitted = Objects.isNull(failingEntity.get());
+                failingEntity.remove();
+            }
+            if (resubmitted) {
+                confirm(pendingOpr);
+            } else {
+                abandon(pendingOpr);
+            }
+            pendingOpr.completeExceptionally(e);
+        }
+
+        /**
+         * 统计db操作耗时, 并反馈给{@link AsyncDbStrategy}
+         */
+        private void onDbOpr(Class<?> entityClass, DbOperation operation, int oprNum, long startNanos) {
+            long cost = System.nanoTime() - startNanos;
+            costNanos += cost;
+            metrics.onDbCall(entityClass, operation, cost);
+            asyncDbStrategy.onDbOpr(oprNum, cost);
+        }
+
+        /**
+         * 批量执行db操作
+         * 一次性取出最多oprNum个db操作, 按实体类和db操作分组, 每组交由{@link BatchDbSynchronzier}批量执行
+         * 队列中同一主键只会存在一个db操作, 故分组间无需考虑同一主键的执行顺序
+         *
+         * @return 是否遇到{@link #POISON}
+         */
+        private boolean batchOpr(int oprNum) {
+            List<PendingOprQueue.PendingOpr> pendingOprs = new ArrayList<>(oprNum);
+            try {
+                pendingOprs.add(take());
+            } catch (InterruptedException e) {
+                //ignore
+                return false;
+            }
+            queue.drainTo(pendingOprs, oprNum - 1);
+
+            boolean terminated = false;
+            boolean fenced = false;
+            //key -> entity class, value -> {key -> db operation, value -> entities}
+            Map<Class<?>, Map<DbOperation, List<PendingOprQueue.PendingOpr>>> groups = new LinkedHashMap<>();
+            for (PendingOprQueue.PendingOpr pendingOpr : pendingOprs) {
+                AsyncDbEntity<?> entity = pendingOpr.getEntity();
+                if (entity == POISON) {
+                    terminated = onPoison();
+                    continue;
+                }
+                if (entity == FENCE) {
+                    //本批次的db操作执行完后再通知迁移
+                    fenced = true;
+                    continue;
+                }
+
+                entity.switchDbStatus();
+                groups.computeIfAbsent(entity.getClass(), k -> new EnumMap<>(DbOperation.class))
+                        .computeIfAbsent(pendingOpr.getOperation(), k -> new ArrayList<>())
+                        .add(pendingOpr);
+            }
+
+            for (Map<DbOperation, List<PendingOprQueue.PendingOpr>> operation2Entities : groups.values()) {
+                for (Map.Entry<DbOperation, List<PendingOprQueue.PendingOpr>> entry : operation2Entities.entrySet()) {
+                    flush(entry.getKey(), entry.getValue());
+                }
+            }
+            if (fenced) {
+                onFence();
+            }
+
+            return terminated;
+        }
+
+        /**
+         * 批量执行同一实体类同一db操作的实体
+         * 重试后仍然失败, 则降级为逐个执行, 以找出真正失败的实体
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private void flush(DbOperation operation, List<PendingOprQueue.PendingOpr> pendingOprs) {
+            DbSynchronzier<?, ?> dbSynchronzier = pendingOprs.get(0).getEntity().getDbSynchronzier();
+            if (pendingOprs.size() == 1 || !(dbSynchronzier instanceof BatchDbSynchronzier)) {
+                for (PendingOprQueue.PendingOpr pendingOpr : pendingOprs) {
+                    singleOpr(pendingOpr);
+                }
+                return;
+            }
+
+            List<AsyncDbEntity<?>> entities = new ArrayList<>(pendingOprs.size());
+            for (PendingOprQueue.PendingOpr pendingOpr : pendingOprs) {
+                entities.add(pendingOpr.getEntity());
+            }
+
+            int retryTimes = asyncDbStrategy.getRetryTimes();
+            int nowTry = 0;
+            while (true) {
+                long startNanos = System.nanoTime();
+                try {
+                    Threads.managedBlock(() -> operation.getTargetStauts().executeBatch((BatchDbSynchronzier) dbSynchronzier, (List) entities));
+                    onDbOpr(entities.get(0).getClass(), operation, entities.size(), startNanos);
+                    break;
+                } catch (Exception e) {
+                    onDbOpr(entities.get(0).getClass(), operation, entities.size(), startNanos);
+                    if (nowTry++ < retryTimes) {
+                        metrics.onRetry();
+                    } else {
+                        warn("batch db operation fail, fallback to single db operation, entity class: {}, db operation: {}, size: {}",
+                                entities.get(0).getClass().getName(), operation, entities.size(), e);
+                        for (PendingOprQueue.PendingOpr pendingOpr : pendingOprs) {
+                            singleOpr(pendingOpr);
+                        }
                         return;
                     }
                 }
             }
+
+            for (PendingOprQueue.PendingOpr pendingOpr : pendingOprs) {
+                pendingOpr.getEntity().afterDbOpr();
+                onPersisted(pendingOpr);
+                syncNum++;
+            }
         }
 
         @Override
         public void close() {
-            submit(POISON);
             isStopped = true;
+            queue.forceOffer(POISON, DbOperation.Insert, -1, null);
+            queue.wakeup();
         }
 
         /**
@@ -236,8 +1061,12 @@ class AsyncDbExecutor implements Closeable, LoggerOprs {
             int waittingOprNum = queue.size();
             long syncNumPeriodNum = syncNum - preSyncNum;
             this.preSyncNum = syncNum;
+            long costNanos = this.costNanos;
+            long costPeriodNanos = costNanos - preCostNanos;
+            this.preCostNanos = costNanos;
+            long avgCostMicros = syncNumPeriodNum > 0 ? TimeUnit.NANOSECONDS.toMicros(costPeriodNanos / syncNumPeriodNum) : 0;
 
-            return new SyncState(threadName, syncNum, waittingOprNum, syncNumPeriodNum);
+            return new SyncState(threadName, syncNum, waittingOprNum, syncNumPeriodNum, oprNum, duration, avgCostMicros);
         }
     }
 }
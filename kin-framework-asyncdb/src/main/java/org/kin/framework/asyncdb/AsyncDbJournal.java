@@ -0,0 +1,458 @@
+package org.kin.framework.asyncdb;
+
+import org.kin.framework.Closeable;
+import org.kin.framework.log.LoggerOprs;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * asyncdb本地预写日志, 用于进程崩溃后恢复未入库的db操作
+ * <p>
+ * db操作入队前先追加到日志, 并等待group commit刷盘, {@link DbSynchronzier}执行成功后追加确认记录,
+ * 进程启动时, 重放所有未确认的db操作
+ * <p>
+ * 日志由多个固定大小的segment组成, 每个segment通过mmap写入
+ * 记录格式: 记录总长度(int) + crc32(int) + 记录类型(byte) + 序号(long) + 内容
+ * db操作记录内容: db操作(byte) + 序列化后的实体, 确认记录内容: 已确认的db操作记录序号(long)
+ * 记录总长度为0表示segment结束
+ * <p>
+ * segment写满后封存, 封存的segment及其之前所有segment的db操作都已确认, 则删除
+ * 重试后仍失败且没有重新提交的db操作, 写入死信文件后确认, 以免阻塞segment删除以及每次重启都重放
+ *
+ * @author huangjianqin
+ * @date 2021/1/8
+ */
+class AsyncDbJournal implements Closeable, LoggerOprs {
+    /** 记录类型, db操作 */
+    private static final byte TYPE_OPR = 1;
+    /** 记录类型, 确认 */
+    private static final byte TYPE_ACK = 2;
+    /** 记录头大小, 记录总长度(int) + crc32(int) + 记录类型(byte) + 序号(long) */
+    private static final int HEADER_SIZE = 4 + 4 + 1 + 8;
+    /** segment文件后缀 */
+    private static final String SEGMENT_SUFFIX = ".journal";
+    /** 死信文件名, 记录格式与segment一致 */
+    static final String DEAD_LETTER_FILE = "dead-letter.dat";
+
+    /** 日志目录 */
+    private final File dir;
+    /** segment大小 */
+    private final int segmentSize;
+    /** group commit最大间隔, 毫秒 */
+    private final long flushInterval;
+    /** 写锁 */
+    private final ReentrantLock lock = new ReentrantLock();
+    /** 有新记录需要刷盘 */
+    private final Condition needFlush = lock.newCondition();
+    /** 刷盘完成 */
+    private final Condition flushed = lock.newCondition();
+    /** 死信文件写锁 */
+    private final Object deadLetterLock = new Object();
+    /** key -> segment第一条记录序号, value -> segment */
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    /** 上一次进程遗留的segment文件, 重放完成后删除 */
+    private final List<File> recoveredFiles = new ArrayList<>();
+    /** 下一条记录序号 */
+    private long nextSeq;
+    /** 当前写入的segment */
+    private Segment current;
+    /** 已写入的记录数 */
+    private long writtenNum;
+    /** 已刷盘的记录数 */
+    private long flushedNum;
+    /** 刷盘线程 */
+    private Thread flusher;
+    private volatile boolean isStopped;
+
+    AsyncDbJournal(String dir, int segmentSize, long flushInterval) {
+        this.dir = new File(dir);
+        this.segmentSize = segmentSize;
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * 打开日志, 读取上一次进程遗留的segment
+     *
+     * @return 未确认的db操作, 按序号排序
+     */
+    List<PendingOprQueue.PendingOpr> open() {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new AsyncDbException("create journal dir fail, " + dir);
+        }
+
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (Objects.isNull(files)) {
+            files = new File[0];
+        }
+        Arrays.sort(files, Comparator.comparingLong(AsyncDbJournal::parseFirstSeq));
+
+        //key -> 序号, value -> 未确认的db操作
+        Map<Long, PendingOprQueue.PendingOpr> unconfirmed = new TreeMap<>();
+        long maxSeq = 0;
+        for (File file : files) {
+            maxSeq = Math.max(maxSeq, Math.max(parseFirstSeq(file), read(file, unconfirmed)));
+            recoveredFiles.add(file);
+        }
+
+        nextSeq = maxSeq + 1;
+        current = newSegment(nextSeq);
+
+        flusher = new Thread(this::flushLoop, "asyncdb-journal-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+
+        return new ArrayList<>(unconfirmed.values());
+    }
+
+    /**
+     * 读取segment文件
+     *
+     * @return 该segment最大的序号
+     */
+    private long read(File file, Map<Long, PendingOprQueue.PendingOpr> unconfirmed) {
+        long maxSeq = 0;
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            long remaining = file.length();
+            while (remaining >= HEADER_SIZE) {
+                int len = dis.readInt();
+                if (len < HEADER_SIZE || len > remaining) {
+                    //segment结束或记录不完整
+                    break;
+                }
+                int crc = dis.readInt();
+                byte[] bytes = new byte[len - 8];
+                dis.readFully(bytes);
+                CRC32 crc32 = new CRC32();
+                crc32.update(bytes);
+                if ((int) crc32.getValue() != crc) {
+                    //写入时进程崩溃, 记录不完整
+                    warn("journal record crc mismatch, ignore the rest of segment {}", file);
+                    break;
+                }
+                remaining -= len;
+
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+                byte type = record.readByte();
+                long seq = record.readLong();
+                maxSeq = Math.max(maxSeq, seq);
+                if (type == TYPE_OPR) {
+                    DbOperation operation = DbOperation.values()[record.readByte()];
+                    try (ObjectInputStream ois = new ObjectInputStream(record)) {
+                        AsyncDbEntity<?> entity = (AsyncDbEntity<?>) ois.readObject();
+                        unconfirmed.put(seq, new PendingOprQueue.PendingOpr(entity, operation, seq));
+                    } catch (ClassNotFoundException e) {
+                        error("deserialize journal entity fail, seq: {}", seq, e);
+                    }
+                } else if (type == TYPE_ACK) {
+                    unconfirmed.remove(record.readLong());
+                }
+            }
+        } catch (IOException e) {
+            throw new AsyncDbException("read journal segment fail, " + file, e);
+        }
+        return maxSeq;
+    }
+
+    /**
+     * 删除上一次进程遗留的segment, 需在所有未确认的db操作重放(重新写入日志)后调用
+     */
+    void clearRecovered() {
+        for (File file : recoveredFiles) {
+            if (!file.delete()) {
+                warn("delete journal segment fail, {}", file);
+            }
+        }
+        recoveredFiles.clear();
+    }
+
+    /**
+     * 追加db操作记录, 并等待刷盘
+     *
+     * @return 记录序号
+     */
+    long append(AsyncDbEntity<?> entity, DbOperation operation) {
+        byte[] content = serialize(entity, operation);
+
+        long seq;
+        long waitNum;
+        lock.lock();
+        try {
+            seq = write(TYPE_OPR, content);
+            current.unconfirmed.incrementAndGet();
+            waitNum = writtenNum;
+            //group commit, 等待刷盘线程把期间所有记录一并刷盘
+            needFlush.signal();
+            while (flushedNum < waitNum && !isStopped) {
+                flushed.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return seq;
+    }
+
+    /**
+     * 确认db操作已入库, 追加确认记录, 不等待刷盘
+     */
+    void confirm(long seq) {
+        if (seq <= 0) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            write(TYPE_ACK, ByteBuffer.allocate(8).putLong(seq).array());
+            needFlush.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        Map.Entry<Long, Segment> entry = segments.floorEntry(seq);
+        if (Objects.nonNull(entry)) {
+            entry.getValue().unconfirmed.decrementAndGet();
+            tryDelete();
+        }
+    }
+
+    /**
+     * 放弃db操作, 写入死信文件, 以便人工处理, 然后确认其所有日志
+     * 写入死信文件失败则不确认, 进程重启后重放
+     *
+     * @param seqs 合并进该db操作的所有日志序号
+     */
+    void abandon(AsyncDbEntity<?> entity, DbOperation operation, List<Long> seqs) {
+        if (seqs.isEmpty()) {
+            return;
+        }
+
+        byte[] record = encode(TYPE_OPR, seqs.get(seqs.size() - 1), serialize(entity, operation));
+        synchronized (deadLetterLock) {
+            try (FileOutputStream fos = new FileOutputStream(new File(dir, DEAD_LETTER_FILE), true)) {
+                fos.write(record);
+                fos.getFD().sync();
+            } catch (IOException e) {
+                error("write journal dead letter fail, {} - {}", entity, operation, e);
+                return;
+            }
+        }
+        warn("db operation is abandoned and written to dead letter file, {} - {}", entity, operation);
+        for (long seq : seqs) {
+            confirm(seq);
+        }
+    }
+
+    /**
+     * @return db操作记录内容
+     */
+    private static byte[] serialize(AsyncDbEntity<?> entity, DbOperation operation) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        baos.write(operation.ordinal());
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(entity);
+        } catch (IOException e) {
+            throw new AsyncDbException("serialize entity fail, " + entity, e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * @return 完整的记录, 包括记录头
+     */
+    private static byte[] encode(byte type, long seq, byte[] content) {
+        int len = HEADER_SIZE + content.length;
+        ByteBuffer buffer = ByteBuffer.allocate(len);
+        buffer.putInt(len).putInt(0).put(type).putLong(seq).put(content);
+        CRC32 crc32 = new CRC32();
+        crc32.update(buffer.array(), 8, len - 8);
+        buffer.putInt(4, (int) crc32.getValue());
+        return buffer.array();
+    }
+
+    /**
+     * 写入一条记录, 调用前需持有锁
+     *
+     * @return 记录序号
+     */
+    private long write(byte type, byte[] content) {
+        int len = HEADER_SIZE + content.length;
+        if (len > segmentSize) {
+            throw new AsyncDbException(String.format("journal record is too large, %d > %d", len, segmentSize));
+        }
+        if (current.buffer.remaining() < len) {
+            roll();
+        }
+
+        long seq = nextSeq++;
+        current.buffer.put(encode(type, seq, content));
+        writtenNum++;
+        return seq;
+    }
+
+    /**
+     * 封存当前segment, 并创建新的segment, 调用前需持有锁
+     */
+    private void roll() {
+        Segment old = current;
+        old.buffer.force();
+        flushedNum = writtenNum;
+        flushed.signalAll();
+        current = newSegment(nextSeq);
+        old.sealed = true;
+        old.closeChannel();
+        tryDelete();
+    }
+
+    /**
+     * 创建segment
+     */
+    private Segment newSegment(long firstSeq) {
+        File file = new File(dir, String.format("%020d%s", firstSeq, SEGMENT_SUFFIX));
+        Segment segment = new Segment(file, segmentSize);
+        segments.put(firstSeq, segment);
+        return segment;
+    }
+
+    /**
+     * 按顺序删除已封存且db操作都已确认的segment
+     * 确认记录只会出现在对应db操作记录之后的segment, 故只能删除前缀
+     */
+    private void tryDelete() {
+        for (Segment segment : segments.values()) {
+            if (!segment.sealed || segment.unconfirmed.get() > 0) {
+                return;
+            }
+            if (segment.deleted.compareAndSet(false, true)) {
+                segments.remove(segment.firstSeq, segment);
+                if (!segment.file.delete()) {
+                    warn("delete journal segment fail, {}", segment.file);
+                }
+            }
+        }
+    }
+
+    /**
+     * group commit刷盘
+     */
+    private void flushLoop() {
+        while (true) {
+            Segment segment;
+            long num;
+            lock.lock();
+            try {
+                while (writtenNum == flushedNum && !isStopped) {
+                    try {
+                        needFlush.await(flushInterval, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        //ignore
+                    }
+                }
+                if (writtenNum == flushedNum) {
+                    return;
+                }
+                segment = current;
+                num = writtenNum;
+            } finally {
+                lock.unlock();
+            }
+
+            //刷盘期间, 其余线程可以继续写入, 下一轮一并刷盘
+            segment.buffer.force();
+
+            lock.lock();
+            try {
+                if (num > flushedNum && segment == current) {
+                    flushedNum = num;
+                }
+                flushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            isStopped = true;
+            needFlush.signalAll();
+            flushed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (Objects.nonNull(flusher)) {
+            try {
+                flusher.join();
+            } catch (InterruptedException e) {
+                //ignore
+            }
+        }
+        if (Objects.nonNull(current)) {
+            current.buffer.force();
+            current.sealed = true;
+            current.closeChannel();
+            tryDelete();
+        }
+    }
+
+    /**
+     * 从segment文件名解析segment第一条记录序号
+     */
+    private static long parseFirstSeq(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 日志segment
+     */
+    private static final class Segment {
+        /** segment文件 */
+        private final File file;
+        /** segment第一条记录序号 */
+        private final long firstSeq;
+        private final RandomAccessFile raf;
+        private final MappedByteBuffer buffer;
+        /** 未确认的db操作数量 */
+        private final AtomicInteger unconfirmed = new AtomicInteger();
+        /** 是否已封存 */
+        private volatile boolean sealed;
+        /** 是否已删除 */
+        private final AtomicBoolean deleted = new AtomicBoolean();
+
+        Segment(File file, int segmentSize) {
+            this.file = file;
+            this.firstSeq = parseFirstSeq(file);
+            try {
+                raf = new RandomAccessFile(file, "rw");
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            } catch (IOException e) {
+                throw new AsyncDbException("create journal segment fail, " + file, e);
+            }
+        }
+
+        /**
+         * 关闭文件, mmap仍然有效直到被gc
+         */
+        void closeChannel() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                //ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.kin.framework.asyncdb;
+
+import org.kin.framework.utils.LatencyHistogram;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * asyncdb监控指标, 可直接获取, 也可通过JMX获取
+ *
+ * @author huangjianqin
+ * @date 2021/1/10
+ */
+public final class AsyncDbMetrics implements AsyncDbMetricsMXBean {
+    /** 所属executor, 用于获取等待队列信息 */
+    private final AsyncDbExecutor executor;
+    /** db操作从入队到入库的延迟 */
+    private final LatencyHistogram persistLatency = new LatencyHistogram();
+    /** key -> 实体类, value -> 以{@link DbOperation#ordinal()}为下标的db调用延迟 */
+    private final Map<Class<?>, LatencyHistogram[]> dbLatencies = new ConcurrentHashMap<>();
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder persisted = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    AsyncDbMetrics(AsyncDbExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * 提交db操作
+     */
+    void onSubmit() {
+        submitted.increment();
+    }
+
+    /**
+     * db操作入队
+     */
+    void onOffered(PendingOprQueue.OfferResult result) {
+        if (PendingOprQueue.OfferResult.COALESCED.equals(result)) {
+            coalesced.increment();
+        } else if (PendingOprQueue.OfferResult.CANCELLED.equals(result)) {
+            cancelled.increment();
+        }
+    }
+
+    /**
+     * 一次db调用结束, 批量db操作也只算一次
+     */
+    void onDbCall(Class<?> entityClass, DbOperation operation, long costNanos) {
+        dbLatencies.computeIfAbsent(entityClass, k -> {
+            LatencyHistogram[] histograms = new LatencyHistogram[DbOperation.values().length];
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new LatencyHistogram();
+            }
+            return histograms;
+        })[operation.ordinal()].record(costNanos);
+    }
+
+    /**
+     * db操作入库成功
+     */
+    void onPersisted(PendingOprQueue.PendingOpr pendingOpr, long nowNanos) {
+        persisted.increment();
+        persistLatency.record(nowNanos - pendingOpr.getEnqueueNanos());
+    }
+
+    void onRetry() {
+        retries.increment();
+    }
+
+    void onError() {
+        errors.increment();
+    }
+
+    /**
+     * @return 指定实体类及db操作的db调用延迟
+     */
+    public LatencyHistogram.Snapshot getDbLatency(Class<? extends AsyncDbEntity<?>> entityClass, DbOperation operation) {
+        LatencyHistogram[] histograms = dbLatencies.get(entityClass);
+        return Objects.nonNull(histograms) ? histograms[operation.ordinal()].snapshot() : new LatencyHistogram().snapshot();
+    }
+
+    @Override
+    public Map<String, Integer> getQueueDepths() {
+        return executor.getQueueDepths();
+    }
+
+    @Override
+    public int getTotalQueueDepth() {
+        int total = 0;
+        for (Integer depth : getQueueDepths().values()) {
+            total += depth;
+        }
+        return total;
+    }
+
+    @Override
+    public long getPersistLagMillis() {
+        long oldestEnqueueNanos = executor.getOldestEnqueueNanos();
+        if (oldestEnqueueNanos == Long.MAX_VALUE) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldestEnqueueNanos);
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getPersistLatency() {
+        return persistLatency.snapshot();
+    }
+
+    @Override
+    public Map<String, LatencyHistogram.Snapshot> getDbLatencies() {
+        Map<String, LatencyHistogram.Snapshot> result = new TreeMap<>();
+        for (Map.Entry<Class<?>, LatencyHistogram[]> entry : dbLatencies.entrySet()) {
+            for (DbOperation operation : DbOperation.values()) {
+                LatencyHistogram.Snapshot snapshot = entry.getValue()[operation.ordinal()].snapshot();
+                if (snapshot.getCount() > 0) {
+                    result.put(entry.getKey().getName() + "#" + operation, snapshot);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    @Override
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    @Override
+    public long getCancelledCount() {
+        return cancelled.sum();
+    }
+
+    @Override
+    public double getCoalescedRate() {
+        long submitted = getSubmittedCount();
+        return submitted > 0 ? (double) (getCoalescedCount() + getCancelledCount()) / submitted : 0;
+    }
+
+    @Override
+    public long getPersistedCount() {
+        return persisted.sum();
+    }
+
+    @Override
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+}
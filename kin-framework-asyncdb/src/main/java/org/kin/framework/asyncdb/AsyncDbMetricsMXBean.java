@@ -0,0 +1,73 @@
+package org.kin.framework.asyncdb;
+
+import org.kin.framework.utils.LatencyHistogram;
+
+import java.util.Map;
+
+/**
+ * asyncdb JMX监控, 延迟单位均为微秒
+ *
+ * @author huangjianqin
+ * @date 2021/1/10
+ */
+public interface AsyncDbMetricsMXBean {
+    /**
+     * @return key -> worker线程名, value -> 等待队列长度
+     */
+    Map<String, Integer> getQueueDepths();
+
+    /**
+     * @return 所有worker等待队列长度之和
+     */
+    int getTotalQueueDepth();
+
+    /**
+     * @return 最早入队且还没入库的db操作已等待的时间, 毫秒, 用于监控入库延迟
+     */
+    long getPersistLagMillis();
+
+    /**
+     * @return db操作从入队到入库的延迟
+     */
+    LatencyHistogram.Snapshot getPersistLatency();
+
+    /**
+     * @return key -> 实体类名#db操作, value -> db调用延迟
+     */
+    Map<String, LatencyHistogram.Snapshot> getDbLatencies();
+
+    /**
+     * @return 提交的db操作数量
+     */
+    long getSubmittedCount();
+
+    /**
+     * @return 合并到已有db操作的数量
+     */
+    long getCoalescedCount();
+
+    /**
+     * @return 与已有db操作相互抵消的数量
+     */
+    long getCancelledCount();
+
+    /**
+     * @return 被合并或抵消的db操作占提交数量的比例
+     */
+    double getCoalescedRate();
+
+    /**
+     * @return 成功入库的db操作数量
+     */
+    long getPersistedCount();
+
+    /**
+     * @return db调用重试次数
+     */
+    long getRetryCount();
+
+    /**
+     * @return 重试后仍然失败的db操作数量
+     */
+    long getErrorCount();
+}
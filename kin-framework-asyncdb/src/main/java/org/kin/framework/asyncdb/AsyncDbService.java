@@ -1,19 +1,23 @@
 package org.kin.framework.asyncdb;
 
+import com.google.common.base.Preconditions;
 import org.kin.framework.Closeable;
 import org.kin.framework.log.LoggerOprs;
 import org.kin.framework.utils.ClassUtils;
 import org.kin.framework.utils.CollectionUtils;
 import org.kin.framework.utils.SysUtils;
 
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.List;
-import java.util.Map;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
- * 一Entity(以hashcode分区)一条线程执行DB操作
+ * 一Entity(以主键hash分区)一条线程执行DB操作
  *
  * @author huangjianqin
  * @date 2019/3/31
@@ -21,11 +25,34 @@ import java.util.concurrent.ConcurrentHashMap;
 public final class AsyncDbService implements Closeable, LoggerOprs {
     /** 单例 */
     private static AsyncDbService INSTANCE;
+    /** 默认溢出文件目录 */
+    private static final String DEFAULT_OVERFLOW_DIR = "asyncdb";
+    /** 默认日志segment大小, 64M */
+    private static final int DEFAULT_JOURNAL_SEGMENT_SIZE = 64 * 1024 * 1024;
+    /** 默认日志刷盘最大间隔, 毫秒 */
+    private static final long DEFAULT_JOURNAL_FLUSH_INTERVAL = 10;
+    /** 默认热点检测间隔, 秒 */
+    private static final int DEFAULT_REBALANCE_INTERVAL = 30;
+    /** 默认倾斜阈值 */
+    private static final double DEFAULT_SKEW_FACTOR = 2;
 
     /** key -> {@link AsyncDbEntity} class, value -> 对应的{@link DbSynchronzier}实现 */
     protected final Map<Class<?>, DbSynchronzier<?, ? extends AsyncDbEntity<?>>> class2Synchronzier = new ConcurrentHashMap<>();
     /** db worker */
-    private final AsyncDbExecutor workers = new AsyncDbExecutor();
+    private final AsyncDbExecutor workers = new AsyncDbExecutor(this);
+    /** key -> 分片实体类, value -> 每个分片独立的db worker */
+    private final Map<Class<?>, AsyncDbExecutor[]> shardWorkers = new ConcurrentHashMap<>();
+    /** 所有{@link EntityListener}, 新建分片worker时需添加 */
+    private final List<EntityListener<?>> listeners = new CopyOnWriteArrayList<>();
+    /** 注册到JMX的监控指标名 */
+    private final List<ObjectName> metricsNames = new CopyOnWriteArrayList<>();
+    /** 以下为{@link #init(int, AsyncDbStrategy, int, OverflowPolicy, String, WorkerMode)}参数, 用于初始化分片worker */
+    private int threadNum;
+    private AsyncDbStrategy asyncDbStrategy;
+    private int capacity;
+    private OverflowPolicy overflowPolicy;
+    private String overflowDir;
+    private WorkerMode workerMode;
 
     //---------------------------------------------------------------------------------------------------
     public static AsyncDbService getInstance() {
@@ -33,26 +60,8 @@ public final class AsyncDbService implements Closeable, LoggerOprs {
             synchronized (AsyncDbService.class) {
                 if (INSTANCE == null) {
                     INSTANCE = new AsyncDbService();
-                    INSTANCE.init(SysUtils.CPU_NUM, new AsyncDbStrategy() {
-                        @Override
-                        public int getOprNum() {
-                            return 10;
-                        }
-
-                        @Override
-                        public int getRetryTimes() {
-                            return 2;
-                        }
-
-                        @Override
-                        public int getDuration(int size) {
-                            //自适应
-                            if (size > 50) {
-                                return 200;
-                            }
-                            return 1000;
-                        }
-                    });
+                    //自适应, 最大入库延迟1s, 积压超过500立即唤醒worker
+                    INSTANCE.init(SysUtils.CPU_NUM, new AdaptiveAsyncDbStrategy(10, 200, 2, 1000, 500));
                 }
             }
         }
@@ -66,17 +75,203 @@ public final class AsyncDbService implements Closeable, LoggerOprs {
     }
 
     public void init(int threadNum, AsyncDbStrategy asyncDbStrategy) {
-        workers.init(threadNum, asyncDbStrategy);
+        //无界队列
+        init(threadNum, asyncDbStrategy, Integer.MAX_VALUE, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param capacity       每个worker等待队列容量
+     * @param overflowPolicy 等待队列满时的处理策略, {@link OverflowPolicy#SPILL}默认溢出到工作目录下的asyncdb目录
+     */
+    public void init(int threadNum, AsyncDbStrategy asyncDbStrategy, int capacity, OverflowPolicy overflowPolicy) {
+        init(threadNum, asyncDbStrategy, capacity, overflowPolicy, DEFAULT_OVERFLOW_DIR);
+    }
+
+    /**
+     * @param capacity       每个worker等待队列容量
+     * @param overflowPolicy 等待队列满时的处理策略
+     * @param overflowDir    溢出文件目录, 仅{@link OverflowPolicy#SPILL}时使用
+     */
+    public void init(int threadNum, AsyncDbStrategy asyncDbStrategy, int capacity, OverflowPolicy overflowPolicy, String overflowDir) {
+        init(threadNum, asyncDbStrategy, capacity, overflowPolicy, overflowDir, WorkerMode.PLATFORM);
+    }
+
+    /**
+     * @param capacity       每个worker等待队列容量
+     * @param overflowPolicy 等待队列满时的处理策略
+     * @param overflowDir    溢出文件目录, 仅{@link OverflowPolicy#SPILL}时使用
+     * @param workerMode     worker执行模式, {@link WorkerMode#VIRTUAL}下可以开启大量worker, 以提高不同主键db操作的并发度
+     */
+    public void init(int threadNum, AsyncDbStrategy asyncDbStrategy, int capacity, OverflowPolicy overflowPolicy, String overflowDir,
+                     WorkerMode workerMode) {
+        workers.init(threadNum, asyncDbStrategy, capacity, overflowPolicy, overflowDir, workerMode);
+        workers.setRebalance(DEFAULT_REBALANCE_INTERVAL, DEFAULT_SKEW_FACTOR);
+        this.threadNum = threadNum;
+        this.asyncDbStrategy = asyncDbStrategy;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.overflowDir = overflowDir;
+        this.workerMode = workerMode;
+        registerMetrics(workers, "");
+    }
+
+    /**
+     * 注册监控指标到JMX, 注册失败不影响使用
+     *
+     * @param suffix ObjectName后缀
+     */
+    private void registerMetrics(AsyncDbExecutor executor, String suffix) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("org.kin.framework.asyncdb:type=AsyncDbMetrics,name=" + Integer.toHexString(System.identityHashCode(this)) + suffix);
+            mBeanServer.registerMBean(executor.getMetrics(), name);
+            metricsNames.add(name);
+        } catch (Exception e) {
+            warn("register async db metrics mbean fail", e);
+        }
+    }
+
+    /**
+     * @return 监控指标, 不包括分片worker
+     */
+    public AsyncDbMetrics getMetrics() {
+        return workers.getMetrics();
+    }
+
+    /**
+     * @return 分片实体类每个分片worker的监控指标, 按分片序号排列
+     */
+    public List<AsyncDbMetrics> getShardMetrics(Class<? extends AsyncDbEntity<?>> entityClass) {
+        AsyncDbExecutor[] executors = shardWorkers.get(entityClass);
+        if (Objects.isNull(executors)) {
+            return Collections.emptyList();
+        }
+        List<AsyncDbMetrics> metrics = new ArrayList<>(executors.length);
+        for (AsyncDbExecutor executor : executors) {
+            metrics.add(executor.getMetrics());
+        }
+        return metrics;
+    }
+
+    /**
+     * 运行时增加worker, 新worker通过一致性hash从现有worker接管部分主键, 不包括分片worker
+     * 接管期间, 被迁移主键的db操作会暂存, 直到原worker执行完迁移前的db操作
+     *
+     * @return 当前worker数量
+     */
+    public int addWorker() {
+        return workers.addWorker();
+    }
+
+    /**
+     * 设置热点检测, 每个检测周期内, 最繁忙worker提交的db操作数超过平均值的skewFactor倍,
+     * 则将其最繁忙的虚拟节点迁移到最空闲的worker, 默认30s检测一次, 倾斜阈值为2
+     * 注意, 同一主键只会由同一worker执行, 单个主键过热无法通过迁移解决
+     *
+     * @param interval   检测间隔, 秒, 小于等于0则关闭
+     * @param skewFactor 倾斜阈值, 需大于1
+     */
+    public void setRebalance(int interval, double skewFactor) {
+        workers.setRebalance(interval, skewFactor);
+        for (AsyncDbExecutor[] executors : shardWorkers.values()) {
+            for (AsyncDbExecutor executor : executors) {
+                executor.setRebalance(interval, skewFactor);
+            }
+        }
+    }
+
+    /**
+     * 开启本地预写日志, 并重放上一次进程遗留的未入库的db操作
+     * 需在所有{@link DbSynchronzier}注册后调用
+     *
+     * @param dir 日志目录
+     * @return 重放的db操作数量
+     */
+    public int openJournal(String dir) {
+        return openJournal(dir, DEFAULT_JOURNAL_SEGMENT_SIZE, DEFAULT_JOURNAL_FLUSH_INTERVAL);
+    }
+
+    /**
+     * 开启本地预写日志, 并重放上一次进程遗留的未入库的db操作
+     * 需在所有{@link DbSynchronzier}注册后调用
+     * <p>
+     * 开启后, 每次db操作都会等待日志刷盘后才返回, 同一时间段内的db操作会合并成一次刷盘
+     *
+     * @param dir           日志目录
+     * @param segmentSize   日志segment大小, 单条db操作序列化后的大小不能超过该值
+     * @param flushInterval 日志刷盘最大间隔, 毫秒
+     * @return 重放的db操作数量
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public int openJournal(String dir, int segmentSize, long flushInterval) {
+        List<PendingOprQueue.PendingOpr> unconfirmed = workers.openJournal(dir, segmentSize, flushInterval);
+        //分片worker共享同一日志
+        for (AsyncDbExecutor[] executors : shardWorkers.values()) {
+            for (AsyncDbExecutor executor : executors) {
+                executor.shareJournal(workers.getJournal());
+            }
+        }
+        int replayed = 0;
+        for (PendingOprQueue.PendingOpr pendingOpr : unconfirmed) {
+            AsyncDbEntity entity = pendingOpr.getEntity();
+            //日志中的实体是db操作提交时的快照, 其db status已切换过
+            entity.resetDbStatus();
+            if (dbOpr(entity, pendingOpr.getOperation())) {
+                replayed++;
+            } else {
+                warn("replay journal db operation fail, {} - {}", entity, pendingOpr.getOperation());
+            }
+        }
+        //重放的db操作已重新写入日志
+        workers.onJournalReplayed();
+        if (replayed > 0) {
+            info("replay {} db operations from journal '{}'", replayed, dir);
+        }
+        return replayed;
     }
 
     /**
      * 手动注册持久化实现类
+     * {@link ShardedDbSynchronzier}的每个分片拥有独立的worker, 默认worker数量为max(1, threadNum / 分片数)
      */
-    @SuppressWarnings("unchecked")
     public void register(Class<?> claxx, DbSynchronzier dbSynchronzier) {
-        //校验dbSynchronzier的泛型类是否于claxx一致
+        int shardThreadNum = 1;
+        if (dbSynchronzier instanceof ShardedDbSynchronzier) {
+            shardThreadNum = Math.max(1, threadNum / ((ShardedDbSynchronzier<?, ?>) dbSynchronzier).getShardNum());
+        }
+        register(claxx, dbSynchronzier, shardThreadNum);
+    }
+
+    /**
+     * 手动注册持久化实现类
+     *
+     * @param shardThreadNum 仅对{@link ShardedDbSynchronzier}有效, 每个分片的worker数量
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public void register(Class<?> claxx, DbSynchronzier dbSynchronzier, int shardThreadNum) {
+        if (dbSynchronzier instanceof ShardedDbSynchronzier) {
+            //分片本身是泛型类, 故逐个校验分片
+            ShardedDbSynchronzier<?, ?> shardedDbSynchronzier = (ShardedDbSynchronzier<?, ?>) dbSynchronzier;
+            for (DbSynchronzier<?, ?> shard : shardedDbSynchronzier.getShards()) {
+                checkGenericType(claxx, shard);
+            }
+            registerShards(claxx, shardedDbSynchronzier, shardThreadNum);
+        } else {
+            checkGenericType(claxx, dbSynchronzier);
+        }
+
+        //校验通过过
+        class2Synchronzier.put(claxx, dbSynchronzier);
+    }
+
+    /**
+     * 校验dbSynchronzier的泛型类是否于claxx一致
+     */
+    private void checkGenericType(Class<?> claxx, DbSynchronzier<?, ?> dbSynchronzier) {
         Class<? extends DbSynchronzier> implClass = dbSynchronzier.getClass();
-        List<Class<?>> genericTypes = ClassUtils.getSuperInterfacesGenericActualTypes(DbSynchronzier.class, implClass);
+        //只能解析直接实现的接口, 故支持批量操作的实现类需从BatchDbSynchronzier上获取泛型
+        Class<?> interfaceClass = BatchDbSynchronzier.class.isAssignableFrom(implClass) ? BatchDbSynchronzier.class : DbSynchronzier.class;
+        List<Class<?>> genericTypes = ClassUtils.getSuperInterfacesGenericActualTypes(interfaceClass, implClass);
         if (CollectionUtils.isEmpty(genericTypes)) {
             throw new IllegalArgumentException(String.format("%s doesn't have generic param", implClass));
         }
@@ -84,9 +279,42 @@ public final class AsyncDbService implements Closeable, LoggerOprs {
         if (!genericTypes.get(1).isAssignableFrom(claxx)) {
             throw new IllegalArgumentException(String.format("%s's generic param is not assignable from %s'", implClass, claxx));
         }
+    }
 
-        //校验通过过
-        class2Synchronzier.put(claxx, dbSynchronzier);
+    /**
+     * 为每个分片创建独立的worker, 配置与{@link #init(int, AsyncDbStrategy, int, OverflowPolicy, String, WorkerMode)}一致
+     */
+    private void registerShards(Class<?> claxx, ShardedDbSynchronzier<?, ?> shardedDbSynchronzier, int shardThreadNum) {
+        Preconditions.checkState(Objects.nonNull(asyncDbStrategy), "async db service is not initialized");
+        Preconditions.checkState(!shardWorkers.containsKey(claxx), "%s has been registered", claxx);
+        AsyncDbExecutor[] executors = new AsyncDbExecutor[shardedDbSynchronzier.getShardNum()];
+        for (int i = 0; i < executors.length; i++) {
+            String shardName = claxx.getSimpleName() + "-shard-" + i;
+            AsyncDbExecutor executor = new AsyncDbExecutor(this);
+            //溢出文件按worker序号命名, 故每个分片使用单独的目录
+            executor.init(shardThreadNum, asyncDbStrategy, capacity, overflowPolicy,
+                    Objects.nonNull(overflowDir) ? overflowDir + File.separator + shardName : null, workerMode);
+            executor.setRebalance(DEFAULT_REBALANCE_INTERVAL, DEFAULT_SKEW_FACTOR);
+            executor.addListeners(listeners);
+            if (Objects.nonNull(workers.getJournal())) {
+                executor.shareJournal(workers.getJournal());
+            }
+            registerMetrics(executor, ",shard=" + shardName);
+            executors[i] = executor;
+        }
+        shardWorkers.put(claxx, executors);
+    }
+
+    /**
+     * @return 执行该实体db操作的worker, 分片实体类则为其所属分片的worker
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private AsyncDbExecutor executorOf(AsyncDbEntity asyncDbEntity, DbSynchronzier dbSynchronzier) {
+        AsyncDbExecutor[] executors = shardWorkers.get(asyncDbEntity.getClass());
+        if (Objects.isNull(executors)) {
+            return workers;
+        }
+        return executors[((ShardedDbSynchronzier) dbSynchronzier).shard(asyncDbEntity.getPrimaryKey())];
     }
 
     /**
@@ -99,8 +327,30 @@ public final class AsyncDbService implements Closeable, LoggerOprs {
     /**
      * 执行db操作
      */
-    @SuppressWarnings("unchecked")
     boolean dbOpr(AsyncDbEntity asyncDbEntity, DbOperation operation) {
+        return dbOpr(asyncDbEntity, operation, null);
+    }
+
+    /**
+     * 执行db操作, 返回的future在db操作入库(或者与其他db操作相互抵消)后完成, 回调默认在worker线程执行
+     * 提交失败或者重试后仍然入库失败, 则异常完成
+     */
+    @SuppressWarnings("rawtypes")
+    CompletableFuture<Void> dbOprAsync(AsyncDbEntity asyncDbEntity, DbOperation operation) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (!dbOpr(asyncDbEntity, operation, future)) {
+            future.completeExceptionally(new AsyncDbException("submit db operation fail -> " + asyncDbEntity + " - " + operation));
+        }
+        return future;
+    }
+
+    /**
+     * 执行db操作
+     *
+     * @param future db操作入库后完成, 可为null
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private boolean dbOpr(AsyncDbEntity asyncDbEntity, DbOperation operation, CompletableFuture<Void> future) {
         asyncDbEntity.serialize();
         DbSynchronzier dbSynchronzier = getDbSynchronzier(asyncDbEntity.getClass());
         try {
@@ -108,22 +358,23 @@ public final class AsyncDbService implements Closeable, LoggerOprs {
                 if (asyncDbEntity.getDbSynchronzier() == null) {
                     asyncDbEntity.setDbSynchronzier(dbSynchronzier);
                 }
-                if (asyncDbEntity.isCanPersist(operation)) {
-                    if (DbOperation.Update.equals(operation) && !asyncDbEntity.tryUpdate()) {
-                        //队列中有该实体的update操作, 不需要再执行了, 直接返回true, 表示操作成功的
-                        return true;
+                DbStatus pre = asyncDbEntity.transferDbStatus(operation);
+                boolean submitted = false;
+                try {
+                    //同一主键的db操作会在worker队列中合并
+                    submitted = executorOf(asyncDbEntity, dbSynchronzier).submit(asyncDbEntity, operation, future);
+                } finally {
+                    if (!submitted) {
+                        //队列已满, 已关闭或写日志失败
+                        asyncDbEntity.rollbackDbStatus(operation, pre);
                     }
-
-                    return workers.submit(asyncDbEntity);
                 }
+                return submitted;
             } else {
                 throw new IllegalStateException(
                         String.format("Entity '%s' does not have DbSynchronzier", asyncDbEntity.getClass().getName()));
             }
         } catch (Exception e) {
-            if (DbOperation.Update.equals(operation)) {
-                asyncDbEntity.resetUpdating();
-            }
             error("", e);
         }
 
@@ -135,6 +386,12 @@ public final class AsyncDbService implements Closeable, LoggerOprs {
      */
     public void addListener(EntityListener<?> listener) {
         this.workers.addListener(listener);
+        for (AsyncDbExecutor[] executors : shardWorkers.values()) {
+            for (AsyncDbExecutor executor : executors) {
+                executor.addListener(listener);
+            }
+        }
+        this.listeners.add(listener);
     }
 
     /**
@@ -148,12 +405,27 @@ public final class AsyncDbService implements Closeable, LoggerOprs {
      * 批量添加{@link EntityListener}
      */
     public void addListeners(Collection<EntityListener<?>> listeners) {
-        this.workers.addListeners(listeners);
+        for (EntityListener<?> listener : listeners) {
+            addListener(listener);
+        }
     }
 
     @Override
     public void close() {
-        class2Synchronzier.clear();
+        //先等待worker处理完剩余db操作, 日志由workers开启, 故最后关闭
+        for (AsyncDbExecutor[] executors : shardWorkers.values()) {
+            for (AsyncDbExecutor executor : executors) {
+                executor.close();
+            }
+        }
         workers.close();
+        class2Synchronzier.clear();
+        for (ObjectName metricsName : metricsNames) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+            } catch (Exception e) {
+                //ignore
+            }
+        }
     }
 }
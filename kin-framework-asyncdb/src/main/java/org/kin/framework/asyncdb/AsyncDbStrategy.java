@@ -10,6 +10,14 @@ interface AsyncDbStrategy {
      */
     int getOprNum();
 
+    /**
+     * @param size 当前等待队列大小
+     * @return 每个worker本轮处理DB实体的数量
+     */
+    default int getOprNum(int size) {
+        return getOprNum();
+    }
+
     /**
      * @return DB操作的重试次数
      */
@@ -20,4 +28,33 @@ interface AsyncDbStrategy {
      * @return 处理的间隔, 毫秒
      */
     int getDuration(int size);
+
+    /**
+     * 开启后, worker每轮会一次性取出{@link #getOprNum()}个实体, 按实体类和db操作分组,
+     * 交由{@link BatchDbSynchronzier}批量执行, 不支持批量操作的{@link DbSynchronzier}仍然逐个执行
+     *
+     * @return 是否开启批量入库模式
+     */
+    default boolean isBatch() {
+        return false;
+    }
+
+    /**
+     * worker处理间隔期间, 等待队列大小达到该值, 会立即唤醒worker
+     *
+     * @return 等待队列高水位
+     */
+    default int getHighWaterMark() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * 每次执行db操作后回调, 用于策略根据db耗时自适应调整
+     *
+     * @param oprNum    本次db操作处理的实体数量
+     * @param costNanos 本次db操作耗时, 纳秒
+     */
+    default void onDbOpr(int oprNum, long costNanos) {
+        //do nothing
+    }
 }
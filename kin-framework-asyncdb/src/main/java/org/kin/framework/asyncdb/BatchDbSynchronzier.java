@@ -0,0 +1,28 @@
+package org.kin.framework.asyncdb;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+/**
+ * 支持批量DB操作的{@link DbSynchronzier}
+ * 开启批量入库模式后, worker会将同一实体类同一db操作的实体合并, 一次性交由该接口执行
+ *
+ * @author huangjianqin
+ * @date 2021/1/4
+ */
+public interface BatchDbSynchronzier<PK extends Serializable, E extends AsyncDbEntity<PK>> extends DbSynchronzier<PK, E> {
+    /**
+     * 定义批量Insert操作
+     */
+    void insertAll(Collection<E> entities);
+
+    /**
+     * 定义批量Update操作
+     */
+    void updateAll(Collection<E> entities);
+
+    /**
+     * 定义批量Delete操作
+     */
+    void deleteAll(Collection<E> entities);
+}
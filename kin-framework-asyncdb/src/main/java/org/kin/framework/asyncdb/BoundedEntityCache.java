@@ -0,0 +1,209 @@
+package org.kin.framework.asyncdb;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.CacheWriter;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Weigher;
+import com.github.benmanes.caffeine.guava.CaffeinatedGuava;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按权重限制大小的entity缓存, 基于Caffeine, 淘汰策略为W-TinyLFU, 兼顾最近访问与访问频率
+ * 还有db操作未入库的entity权重为0且不会过期, 即被固定在缓存中, 避免再次加载到旧数据, 因此缓存可能暂时超出最大权重
+ * entity权重在放入缓存, 提交db操作以及db操作入库后计算, 提交db操作与重新计算权重之间被淘汰的entity,
+ * 在淘汰时同步记录, 加载时优先使用, 并在淘汰通知中放回缓存
+ * 可开启堆外存储, 从缓存淘汰的entity序列化后存放在direct memory中, 再次访问时反序列化, 而不是重新从数据库加载
+ *
+ * @author huangjianqin
+ * @date 2021/1/11
+ */
+public abstract class BoundedEntityCache<PK extends Serializable, E extends AsyncDbEntity<PK>, S extends DbSynchronzier<PK, E>>
+        extends AbstractEntityCache<PK, E, S> {
+    /** Caffeine缓存, 与父类持有的是同一缓存 */
+    private final Cache<PK, E> cache;
+    /** 处理被淘汰的entity */
+    private final EvictionHandler<PK, E> evictionHandler;
+
+    /**
+     * @param maximumSize 最大entity数量
+     */
+    protected BoundedEntityCache(long maximumSize) {
+        this(maximumSize, (pk, entity) -> 1, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param maximumWeight     最大权重
+     * @param weigher           entity权重计算
+     * @param expireAfterAccess 访问后过期时间, 小于等于0则不过期
+     */
+    protected BoundedEntityCache(long maximumWeight, Weigher<PK, E> weigher, long expireAfterAccess, TimeUnit unit) {
+        this(maximumWeight, weigher, expireAfterAccess, unit, 0);
+    }
+
+    /**
+     * @param maximumWeight     最大权重
+     * @param weigher           entity权重计算
+     * @param expireAfterAccess 访问后过期时间, 小于等于0则不过期
+     * @param offHeapCapacity   堆外存储最大占用内存, 字节, 小于等于0则不开启
+     */
+    protected BoundedEntityCache(long maximumWeight, Weigher<PK, E> weigher, long expireAfterAccess, TimeUnit unit, long offHeapCapacity) {
+        this(new EvictionHandler<>(offHeapCapacity > 0 ? new OffHeapEntityStore<>(offHeapCapacity) : null),
+                maximumWeight, weigher, unit.toNanos(expireAfterAccess));
+    }
+
+    private BoundedEntityCache(EvictionHandler<PK, E> evictionHandler, long maximumWeight, Weigher<PK, E> weigher, long expireAfterAccessNanos) {
+        this(evictionHandler, newCache(evictionHandler, maximumWeight, weigher, expireAfterAccessNanos));
+    }
+
+    private BoundedEntityCache(EvictionHandler<PK, E> evictionHandler, Cache<PK, E> cache) {
+        super(CaffeinatedGuava.guava(cache), evictionHandler.offHeap);
+        this.cache = cache;
+        this.evictionHandler = evictionHandler;
+        evictionHandler.cache = cache;
+    }
+
+    /**
+     * 构建Caffeine缓存
+     */
+    private static <PK extends Serializable, E extends AsyncDbEntity<PK>> Cache<PK, E> newCache(EvictionHandler<PK, E> evictionHandler,
+                                                                                                long maximumWeight,
+                                                                                                Weigher<PK, E> weigher,
+                                                                                                long expireAfterAccessNanos) {
+        //固定的entity权重为0, 不会被淘汰
+        Weigher<PK, E> pinnedWeigher = (pk, entity) -> entity.hasPendingDbOpr() ? 0 : weigher.weigh(pk, entity);
+        Caffeine<PK, E> caffeine = Caffeine.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher(pinnedWeigher)
+                //淘汰时同步执行, 记录还有db操作未入库的entity
+                .writer(evictionHandler)
+                //异步执行, 不会在缓存内部锁中序列化entity
+                .removalListener(evictionHandler::onRemoval);
+        if (expireAfterAccessNanos > 0) {
+            caffeine.expireAfter(new PinnedExpiry<>(expireAfterAccessNanos));
+        }
+        return caffeine.build();
+    }
+
+    /**
+     * 提交db操作以及db操作入库后, entity是否被固定可能发生变化, 重新计算其权重以及过期时间
+     */
+    private void refresh(E entity) {
+        cache.asMap().replace(entity.getPrimaryKey(), entity, entity);
+    }
+
+    @Override
+    E pendingEvicted(PK pk) {
+        return evictionHandler.pendingEvicted.get(pk);
+    }
+
+    @Override
+    public void onSubmit(E entity, DbOperation operation) {
+        super.onSubmit(entity, operation);
+        refresh(entity);
+    }
+
+    @Override
+    public void onSuccess(E entity, DbOperation operation) {
+        super.onSuccess(entity, operation);
+        refresh(entity);
+    }
+
+    @Override
+    public void onError(E entity, DbOperation operation, Throwable ex) {
+        super.onError(entity, operation, ex);
+        refresh(entity);
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 处理被淘汰或过期的entity
+     */
+    private static final class EvictionHandler<PK extends Serializable, E extends AsyncDbEntity<PK>> implements CacheWriter<PK, E> {
+        /** 堆外entity存储, 可为null */
+        private final OffHeapEntityStore<PK> offHeap;
+        /** 被淘汰但还有db操作未入库的entity, 淘汰时同步记录, 放回缓存后移除 */
+        private final Map<PK, E> pendingEvicted = new ConcurrentHashMap<>();
+        /** 所属缓存, 缓存构建后才赋值 */
+        private volatile Cache<PK, E> cache;
+
+        EvictionHandler(OffHeapEntityStore<PK> offHeap) {
+            this.offHeap = offHeap;
+        }
+
+        @Override
+        public void write(PK pk, E entity) {
+            //do nothing
+        }
+
+        /**
+         * 在缓存内部同步执行, entity移出缓存前已记录, 故加载时不会错过
+         */
+        @Override
+        public void delete(PK pk, E entity, RemovalCause cause) {
+            if (cause.wasEvicted() && Objects.nonNull(pk) && Objects.nonNull(entity) && entity.hasPendingDbOpr()) {
+                pendingEvicted.put(pk, entity);
+            }
+        }
+
+        void onRemoval(PK pk, E entity, RemovalCause cause) {
+            if (!cause.wasEvicted() || Objects.isNull(pk) || Objects.isNull(entity)) {
+                //主动移除或者被替换
+                return;
+            }
+            try {
+                if (entity.hasPendingDbOpr() || pendingEvicted.get(pk) == entity) {
+                    //提交db操作与重新计算权重之间被淘汰, 放回缓存
+                    cache.asMap().putIfAbsent(pk, entity);
+                    return;
+                }
+                if (Objects.nonNull(offHeap)) {
+                    offHeap.put(pk, entity);
+                }
+            } finally {
+                pendingEvicted.remove(pk, entity);
+            }
+        }
+    }
+
+    /**
+     * 访问后过期, 固定的entity不会过期
+     */
+    private static final class PinnedExpiry<PK extends Serializable, E extends AsyncDbEntity<PK>> implements Expiry<PK, E> {
+        /** 访问后过期时间, 纳秒 */
+        private final long expireAfterAccessNanos;
+
+        PinnedExpiry(long expireAfterAccessNanos) {
+            this.expireAfterAccessNanos = expireAfterAccessNanos;
+        }
+
+        /**
+         * @return 过期时间, 纳秒
+         */
+        private long expireAfterAccess(E entity) {
+            return entity.hasPendingDbOpr() ? Long.MAX_VALUE : expireAfterAccessNanos;
+        }
+
+        @Override
+        public long expireAfterCreate(PK pk, E entity, long currentTime) {
+            return expireAfterAccess(entity);
+        }
+
+        @Override
+        public long expireAfterUpdate(PK pk, E entity, long currentTime, long currentDuration) {
+            return expireAfterAccess(entity);
+        }
+
+        @Override
+        public long expireAfterRead(PK pk, E entity, long currentTime, long currentDuration) {
+            return expireAfterAccess(entity);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.kin.framework.asyncdb;
+
+import org.kin.framework.utils.HashUtils;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * worker一致性hash环, 不可变, 变更时生成新的环
+ * 每个worker在环上占用若干虚拟节点, key归属于hash值顺时针方向第一个虚拟节点
+ * 同时统计每个虚拟节点的命中次数, 用于检测热点
+ *
+ * @author huangjianqin
+ * @date 2021/1/9
+ */
+final class ConsistentHashRing<W> {
+    /** 虚拟节点hash值, 升序 */
+    private final int[] points;
+    /** 虚拟节点所属worker */
+    private final Object[] owners;
+    /** 虚拟节点命中次数 */
+    private final AtomicLongArray hits;
+
+    private ConsistentHashRing(int[] points, Object[] owners) {
+        this.points = points;
+        this.owners = owners;
+        this.hits = new AtomicLongArray(points.length);
+    }
+
+    /**
+     * 空的环
+     */
+    static <W> ConsistentHashRing<W> empty() {
+        return new ConsistentHashRing<>(new int[0], new Object[0]);
+    }
+
+    /**
+     * 加入worker, 返回新的环
+     *
+     * @param id           worker唯一标识, 用于计算虚拟节点hash值
+     * @param virtualNodes 虚拟节点数量
+     */
+    ConsistentHashRing<W> with(W worker, int id, int virtualNodes) {
+        int[] newPoints = Arrays.copyOf(points, points.length + virtualNodes);
+        Object[] newOwners = Arrays.copyOf(owners, owners.length + virtualNodes);
+        for (int i = 0; i < virtualNodes; i++) {
+            newPoints[points.length + i] = HashUtils.spread(id * 31 * 31 + i);
+            newOwners[points.length + i] = worker;
+        }
+
+        //按hash值排序
+        Integer[] order = new Integer[newPoints.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (o1, o2) -> Integer.compare(newPoints[o1], newPoints[o2]));
+        int[] sortedPoints = new int[newPoints.length];
+        Object[] sortedOwners = new Object[newOwners.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedPoints[i] = newPoints[order[i]];
+            sortedOwners[i] = newOwners[order[i]];
+        }
+        return new ConsistentHashRing<>(sortedPoints, sortedOwners);
+    }
+
+    /**
+     * 将虚拟节点转移给指定worker, 返回新的环
+     */
+    ConsistentHashRing<W> reassign(int node, W worker) {
+        Object[] newOwners = owners.clone();
+        newOwners[node] = worker;
+        return new ConsistentHashRing<>(points, newOwners);
+    }
+
+    /**
+     * @return hash值所属的虚拟节点
+     */
+    int node(int hash) {
+        int idx = Arrays.binarySearch(points, hash);
+        if (idx < 0) {
+            idx = -idx - 1;
+        }
+        //超过最大的hash值, 则回到环的起点
+        return idx == points.length ? 0 : idx;
+    }
+
+    /**
+     * @return hash值所属的worker
+     */
+    W get(int hash) {
+        return owner(node(hash));
+    }
+
+    /**
+     * 路由并统计命中次数
+     */
+    W route(int hash) {
+        int node = node(hash);
+        hits.incrementAndGet(node);
+        return owner(node);
+    }
+
+    @SuppressWarnings("unchecked")
+    W owner(int node) {
+        return (W) owners[node];
+    }
+
+    int point(int node) {
+        return points[node];
+    }
+
+    /**
+     * 获取并清空虚拟节点命中次数
+     */
+    long resetHits(int node) {
+        return hits.getAndSet(node, 0);
+    }
+
+    /**
+     * @return 虚拟节点数量
+     */
+    int size() {
+        return points.length;
+    }
+}
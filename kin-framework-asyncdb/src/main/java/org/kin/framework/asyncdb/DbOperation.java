@@ -15,11 +15,11 @@ public enum DbOperation {
     /**
      * DB记录更新
      */
-    Update(DbStatus.UPDATE, Arrays.asList(DbStatus.INSERT, DbStatus.UPDATE)),
+    Update(DbStatus.UPDATE, Arrays.asList(DbStatus.NORMAL, DbStatus.INSERT, DbStatus.UPDATE)),
     /**
      * DB记录删除
      */
-    Delete(DbStatus.DELETED, Arrays.asList(DbStatus.INSERT, DbStatus.UPDATE)),
+    Delete(DbStatus.DELETED, Arrays.asList(DbStatus.NORMAL, DbStatus.INSERT, DbStatus.UPDATE)),
     ;
     /**
      * DB状态
@@ -49,6 +49,27 @@ public enum DbOperation {
         return canTransfer.contains(status);
     }
 
+    /**
+     * 合并同一主键先后两次db操作
+     * insert + update = insert, insert + delete = 相互抵消, update + delete = delete, delete + insert = update
+     * 其余情况, 以先前的db操作为准
+     *
+     * @param next 后一次db操作
+     * @return 合并后的db操作, null则表示两次db操作相互抵消
+     */
+    DbOperation merge(DbOperation next) {
+        switch (this) {
+            case Insert:
+                return Delete.equals(next) ? null : Insert;
+            case Update:
+                return Delete.equals(next) ? Delete : Update;
+            case Delete:
+                return Insert.equals(next) ? Update : Delete;
+            default:
+                throw new IllegalStateException("unknown db operation " + this);
+        }
+    }
+
     /**
      * 根据targetStauts获取db operation
      */
@@ -1,5 +1,8 @@
 package org.kin.framework.asyncdb;
 
+import java.io.Serializable;
+import java.util.Collection;
+
 /**
  * @author huangjianqin
  * @date 2019/3/31
@@ -13,6 +16,11 @@ enum DbStatus {
         public boolean execute(DbSynchronzier dbSynchronzier, AsyncDbEntity asyncDbEntity) {
             return true;
         }
+
+        @Override
+        public <PK extends Serializable, E extends AsyncDbEntity<PK>> void executeBatch(BatchDbSynchronzier<PK, E> dbSynchronzier, Collection<E> asyncDbEntities) {
+            //do nothing
+        }
     },
     /**
      * DB记录正在插入状态
@@ -24,6 +32,11 @@ enum DbStatus {
             dbSynchronzier.insert(asyncDbEntity);
             return true;
         }
+
+        @Override
+        public <PK extends Serializable, E extends AsyncDbEntity<PK>> void executeBatch(BatchDbSynchronzier<PK, E> dbSynchronzier, Collection<E> asyncDbEntities) {
+            dbSynchronzier.insertAll(asyncDbEntities);
+        }
     },
     /**
      * DB记录正在更新状态
@@ -35,6 +48,11 @@ enum DbStatus {
             dbSynchronzier.update(asyncDbEntity);
             return true;
         }
+
+        @Override
+        public <PK extends Serializable, E extends AsyncDbEntity<PK>> void executeBatch(BatchDbSynchronzier<PK, E> dbSynchronzier, Collection<E> asyncDbEntities) {
+            dbSynchronzier.updateAll(asyncDbEntities);
+        }
     },
     /**
      * DB记录正在删除状态
@@ -46,6 +64,11 @@ enum DbStatus {
             dbSynchronzier.delete(asyncDbEntity);
             return true;
         }
+
+        @Override
+        public <PK extends Serializable, E extends AsyncDbEntity<PK>> void executeBatch(BatchDbSynchronzier<PK, E> dbSynchronzier, Collection<E> asyncDbEntities) {
+            dbSynchronzier.deleteAll(asyncDbEntities);
+        }
     },
     ;
 
@@ -53,4 +76,9 @@ enum DbStatus {
      * 执行db操作
      */
     public abstract boolean execute(DbSynchronzier dbSynchronzier, AsyncDbEntity asyncDbEntity);
+
+    /**
+     * 批量执行db操作
+     */
+    public abstract <PK extends Serializable, E extends AsyncDbEntity<PK>> void executeBatch(BatchDbSynchronzier<PK, E> dbSynchronzier, Collection<E> asyncDbEntities);
 }
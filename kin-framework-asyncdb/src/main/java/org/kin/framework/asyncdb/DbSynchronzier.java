@@ -1,7 +1,10 @@
 package org.kin.framework.asyncdb;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * 定义DB基本操作
@@ -37,4 +40,22 @@ public interface DbSynchronzier<PK extends Serializable, E extends AsyncDbEntity
      * 返回表中所有entity
      */
     List<E> getAll();
+
+    /**
+     * 根据主键批量获取db entity
+     * 默认逐个获取, 实现类应覆盖为单次查询
+     *
+     * @param pks 主键
+     * @return db entity, 不存在的主键没有对应的db entity
+     */
+    default List<E> getAll(Collection<PK> pks) {
+        List<E> entities = new ArrayList<>(pks.size());
+        for (PK pk : pks) {
+            E entity = get(pk);
+            if (Objects.nonNull(entity)) {
+                entities.add(entity);
+            }
+        }
+        return entities;
+    }
 }
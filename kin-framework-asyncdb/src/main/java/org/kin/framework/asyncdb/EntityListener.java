@@ -7,6 +7,16 @@ package org.kin.framework.asyncdb;
  * @date 2020/12/26
  */
 public interface EntityListener<E extends AsyncDbEntity<?>> {
+    /**
+     * db操作已提交, 还未入库, 在提交db操作的线程执行
+     *
+     * @param entity    实体
+     * @param operation db操作
+     */
+    default void onSubmit(E entity, DbOperation operation) {
+        //default do nothing
+    }
+
     /**
      * db操作成功
      *
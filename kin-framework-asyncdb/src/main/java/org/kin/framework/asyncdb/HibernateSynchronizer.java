@@ -4,18 +4,21 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.jpa.repository.JpaRepository;
 
 import java.io.Serializable;
+import java.util.Collection;
 import java.util.List;
 
 /**
  * 不能使用@Repository注解注入, 因为PersistenceExceptionTranslationPostProcessor会对有@Repository注解的实例进行增强,
  * 然而仅仅是增强接口方法, 类方法不会指向target instance相应的类方法实现, 相当于如果在外部调用类方法, 等同于调用代理类的类方法,
  * 原有的field字段存在可能值丢失(注解也有可能, 使用@Inherited)
+ * <p>
+ * 批量操作需配置hibernate.jdbc.batch_size(以及hibernate.order_inserts/hibernate.order_updates), 否则hibernate仍然逐条发送sql
  *
  * @author huangjianqin
  * @date 2021/1/2
  */
 public abstract class HibernateSynchronizer<PK extends Serializable, E extends AsyncDbEntity<PK>, JPA extends JpaRepository<E, PK>>
-        implements DbSynchronzier<PK, E> {
+        implements BatchDbSynchronzier<PK, E> {
     @Autowired
     protected JPA repository;
 
@@ -34,6 +37,23 @@ public abstract class HibernateSynchronizer<PK extends Serializable, E extends A
         repository.delete(entity);
     }
 
+    @Override
+    public final void insertAll(Collection<E> entities) {
+        repository.saveAll(entities);
+        repository.flush();
+    }
+
+    @Override
+    public final void updateAll(Collection<E> entities) {
+        repository.saveAll(entities);
+        repository.flush();
+    }
+
+    @Override
+    public final void deleteAll(Collection<E> entities) {
+        repository.deleteInBatch(entities);
+    }
+
     @Override
     public final E get(PK pk) {
         return repository.findById(pk).orElse(null);
@@ -43,4 +63,9 @@ public abstract class HibernateSynchronizer<PK extends Serializable, E extends A
     public final List<E> getAll() {
         return repository.findAll();
     }
+
+    @Override
+    public final List<E> getAll(Collection<PK> pks) {
+        return repository.findAllById(pks);
+    }
 }
@@ -8,6 +8,10 @@ package org.kin.framework.asyncdb;
  */
 public class NoDelayAsyncDbStrategy extends SimpleAsyncDbStrategy {
     public NoDelayAsyncDbStrategy(int oprNum, int tryTimes) {
-        super(oprNum, tryTimes, 0);
+        this(oprNum, tryTimes, false);
+    }
+
+    public NoDelayAsyncDbStrategy(int oprNum, int tryTimes, boolean batch) {
+        super(oprNum, tryTimes, 0, batch);
     }
 }
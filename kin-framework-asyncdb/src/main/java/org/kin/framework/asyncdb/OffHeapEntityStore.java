@@ -0,0 +1,236 @@
+package org.kin.framework.asyncdb;
+
+import com.google.common.base.Preconditions;
+import org.kin.framework.log.LoggerOprs;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 堆外entity存储, 作为堆内缓存的第二层
+ * 堆内缓存淘汰的entity序列化后追加写入direct buffer, 再次访问时反序列化并移除, 从而避免重新查询数据库, 且不占用需要gc扫描的堆内存
+ * <p>
+ * 存储空间分为多个固定大小的段, 按顺序循环写入, 当前段写满时, 复用最早写入的段, 其中的entity直接丢弃(再次访问时从数据库加载)
+ * 只有不存在等待入库的db操作的entity才会被写入, 因此丢弃是安全的
+ * <p>
+ * 写入前调用{@link AsyncDbEntity#serialize()}, 读出后调用{@link AsyncDbEntity#deserialize()}
+ *
+ * @author huangjianqin
+ * @date 2021/1/12
+ */
+final class OffHeapEntityStore<K> implements LoggerOprs {
+    /** 默认最大段大小 */
+    private static final int MAX_SEGMENT_SIZE = 64 * 1024 * 1024;
+    /** 最少段数量 */
+    private static final int MIN_SEGMENT_NUM = 8;
+
+    /** 段大小 */
+    private final int segmentSize;
+    /** 所有段, 首次写入时才分配direct buffer */
+    private final Segment<K>[] segments;
+    /** 当前写入段, 持有写锁才能访问 */
+    private int current;
+    /** key -> entity存储位置 */
+    private final ConcurrentHashMap<K, Location<K>> index = new ConcurrentHashMap<>();
+    /** 读锁用于读取entity, 写锁用于写入entity以及复用段 */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity 最大占用的堆外内存, 字节
+     */
+    OffHeapEntityStore(long capacity) {
+        this(capacity, (int) Math.max(1, Math.min(MAX_SEGMENT_SIZE, capacity / MIN_SEGMENT_NUM)));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    OffHeapEntityStore(long capacity, int segmentSize) {
+        Preconditions.checkArgument(capacity > 0, "capacity must greater than 0");
+        Preconditions.checkArgument(segmentSize > 0, "segment size must greater than 0");
+        this.segmentSize = segmentSize;
+        int segmentNum = (int) Math.max(1, capacity / segmentSize);
+        this.segments = new Segment[segmentNum];
+        for (int i = 0; i < segmentNum; i++) {
+            segments[i] = new Segment<>();
+        }
+    }
+
+    /**
+     * 写入entity, 覆盖已有的
+     * entity序列化失败或者超过段大小, 则不写入
+     */
+    void put(K key, AsyncDbEntity<?> entity) {
+        byte[] bytes;
+        try {
+            entity.serialize();
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+                oos.writeObject(entity);
+            }
+            bytes = baos.toByteArray();
+        } catch (Exception e) {
+            error("serialize entity fail, {}", entity, e);
+            index.remove(key);
+            return;
+        }
+
+        if (bytes.length > segmentSize) {
+            index.remove(key);
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            Segment<K> segment = segments[current];
+            if (Objects.isNull(segment.buffer) || segmentSize - segment.position < bytes.length) {
+                if (Objects.nonNull(segment.buffer)) {
+                    current = (current + 1) % segments.length;
+                    segment = segments[current];
+                }
+                recycle(segment);
+            }
+
+            Location<K> location = new Location<>(key, segment, segment.position, bytes.length);
+            segment.buffer.position(segment.position);
+            segment.buffer.put(bytes);
+            segment.position += bytes.length;
+            segment.locations.add(location);
+            index.put(key, location);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 复用段, 丢弃其中的entity, 调用前需持有写锁
+     */
+    private void recycle(Segment<K> segment) {
+        if (Objects.isNull(segment.buffer)) {
+            segment.buffer = ByteBuffer.allocateDirect(segmentSize);
+        }
+        for (Location<K> location : segment.locations) {
+            index.remove(location.key, location);
+        }
+        segment.locations.clear();
+        segment.position = 0;
+    }
+
+    /**
+     * 读取并移除entity
+     *
+     * @return entity, 不存在或者反序列化失败则返回null
+     */
+    AsyncDbEntity<?> take(K key) {
+        Location<K> location = index.get(key);
+        if (Objects.isNull(location)) {
+            misses.increment();
+            return null;
+        }
+
+        byte[] bytes = new byte[location.length];
+        lock.readLock().lock();
+        try {
+            if (!index.remove(key, location)) {
+                //已被覆盖或者段已被复用
+                misses.increment();
+                return null;
+            }
+            ByteBuffer buffer = location.segment.buffer.duplicate();
+            buffer.position(location.offset);
+            buffer.get(bytes);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            AsyncDbEntity<?> entity = (AsyncDbEntity<?>) ois.readObject();
+            entity.deserialize();
+            hits.increment();
+            return entity;
+        } catch (Exception e) {
+            error("deserialize entity fail, key: {}", key, e);
+            misses.increment();
+            return null;
+        }
+    }
+
+    /**
+     * 移除entity
+     *
+     * @return 是否存在该entity
+     */
+    boolean remove(K key) {
+        return Objects.nonNull(index.remove(key));
+    }
+
+    /**
+     * 移除所有entity
+     */
+    void clear() {
+        lock.writeLock().lock();
+        try {
+            index.clear();
+            for (Segment<K> segment : segments) {
+                segment.locations.clear();
+                segment.position = 0;
+            }
+            current = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return entity数量
+     */
+    int size() {
+        return index.size();
+    }
+
+    //getter
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 存储段
+     */
+    private static final class Segment<K> {
+        /** 首次写入时才分配 */
+        private ByteBuffer buffer;
+        /** 写位置 */
+        private int position;
+        /** 段中所有entity的存储位置, 包括已被覆盖或者移除的 */
+        private final List<Location<K>> locations = new ArrayList<>();
+    }
+
+    /**
+     * entity存储位置
+     */
+    private static final class Location<K> {
+        private final K key;
+        private final Segment<K> segment;
+        private final int offset;
+        private final int length;
+
+        Location(K key, Segment<K> segment, int offset, int length) {
+            this.key = key;
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.kin.framework.asyncdb;
+
+import org.kin.framework.Closeable;
+
+import java.io.*;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * worker等待队列溢出文件
+ * 每条记录格式: 记录长度(int) + db操作(byte) + db操作日志序号(long) + 入队时间(long) + 序列化后的实体
+ * 读位置追上写位置后, 文件会被清空
+ * <p>
+ * 同时弱引用原实体, 读出时原实体还存活(比如还在缓存中), 则返回原实体, 以保证其db status被正确切换,
+ * 否则返回从文件反序列化的拷贝
+ * 等待db操作入库的future也保存在内存中, 读出时一并返回
+ *
+ * @author huangjianqin
+ * @date 2021/1/7
+ */
+class OverflowFile implements Closeable {
+    /** 溢出文件 */
+    private final File file;
+    private final RandomAccessFile raf;
+    /** 写位置 */
+    private long writePos;
+    /** 读位置 */
+    private long readPos;
+    /** 文件中的db操作数量 */
+    private int size;
+    /** 与文件记录一一对应的原实体弱引用以及future */
+    private final ArrayDeque<Original> originals = new ArrayDeque<>();
+
+    OverflowFile(File file) {
+        this.file = file;
+        try {
+            File parent = file.getParentFile();
+            if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                throw new AsyncDbException("create overflow dir fail, " + parent);
+            }
+            raf = new RandomAccessFile(file, "rw");
+            //上一次进程遗留的数据已无法保证顺序, 直接丢弃
+            raf.setLength(0);
+        } catch (IOException e) {
+            throw new AsyncDbException("open overflow file fail, " + file, e);
+        }
+    }
+
+    /**
+     * 追加db操作
+     *
+     * @param seq    db操作日志序号, 未开启日志则为-1
+     * @param future db操作入库后完成, 可为null
+     */
+    synchronized void append(AsyncDbEntity<?> entity, DbOperation operation, long seq, CompletableFuture<Void> future) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            oos.writeObject(entity);
+        } catch (IOException e) {
+            throw new AsyncDbException("serialize entity fail, " + entity, e);
+        }
+        byte[] bytes = baos.toByteArray();
+
+        try {
+            raf.seek(writePos);
+            raf.writeInt(bytes.length + 1 + 8 + 8);
+            raf.writeByte(operation.ordinal());
+            raf.writeLong(seq);
+            //溢出文件不会跨进程使用, 可以直接记录System.nanoTime()
+            raf.writeLong(System.nanoTime());
+            raf.write(bytes);
+            writePos = raf.getFilePointer();
+            size++;
+            originals.addLast(new Original(entity, future));
+        } catch (IOException e) {
+            throw new AsyncDbException("write overflow file fail, " + file, e);
+        }
+    }
+
+    /**
+     * 读取并移除最早的db操作
+     *
+     * @return 文件为空则返回null
+     */
+    synchronized PendingOprQueue.PendingOpr poll() {
+        if (size <= 0) {
+            return null;
+        }
+
+        byte[] bytes;
+        DbOperation operation;
+        long seq;
+        long enqueueNanos;
+        Original original;
+        try {
+            raf.seek(readPos);
+            int len = raf.readInt();
+            operation = DbOperation.values()[raf.readByte()];
+            seq = raf.readLong();
+            enqueueNanos = raf.readLong();
+            bytes = new byte[len - 1 - 8 - 8];
+            raf.readFully(bytes);
+            readPos = raf.getFilePointer();
+            size--;
+            original = originals.pollFirst();
+            if (size == 0) {
+                //已读完, 清空文件
+                raf.setLength(0);
+                writePos = 0;
+                readPos = 0;
+            }
+        } catch (IOException e) {
+            throw new AsyncDbException("read overflow file fail, " + file, e);
+        }
+
+        AsyncDbEntity<?> entity = original.entity.get();
+        if (Objects.isNull(entity)) {
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                entity = (AsyncDbEntity<?>) ois.readObject();
+            } catch (IOException | ClassNotFoundException e) {
+                throw new AsyncDbException("deserialize entity fail", e);
+            }
+        }
+        PendingOprQueue.PendingOpr pendingOpr = new PendingOprQueue.PendingOpr(entity, operation, seq, enqueueNanos);
+        pendingOpr.addFuture(original.future);
+        return pendingOpr;
+    }
+
+    synchronized boolean isEmpty() {
+        return size <= 0;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            raf.close();
+        } catch (IOException e) {
+            //ignore
+        }
+        if (size <= 0) {
+            file.delete();
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 文件记录对应的原实体弱引用以及future
+     */
+    private static final class Original {
+        private final WeakReference<AsyncDbEntity<?>> entity;
+        /** 可为null */
+        private final CompletableFuture<Void> future;
+
+        Original(AsyncDbEntity<?> entity, CompletableFuture<Void> future) {
+            this.entity = new WeakReference<>(entity);
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.kin.framework.asyncdb;
+
+/**
+ * worker等待队列满时的处理策略
+ *
+ * @author huangjianqin
+ * @date 2021/1/7
+ */
+public enum OverflowPolicy {
+    /**
+     * 阻塞调用线程, 直到队列有空位
+     */
+    BLOCK,
+    /**
+     * 直接失败, {@link AsyncDbEntity#tryUpdate()}等方法以及{@link AsyncDbService#dbOpr(AsyncDbEntity, DbOperation)}返回false
+     */
+    FAIL,
+    /**
+     * 溢出到本地文件, 待队列有空位时再重新入队
+     * 溢出期间新的db操作也会追加到文件, 以保证db操作顺序
+     */
+    SPILL,
+    ;
+}
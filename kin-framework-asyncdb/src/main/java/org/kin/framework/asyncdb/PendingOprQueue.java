@@ -0,0 +1,443 @@
+package org.kin.framework.asyncdb;
+
+import org.kin.framework.concurrent.Threads;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 等待执行的db操作队列
+ * 同一实体类同一主键只占用一个slot, 新的db操作会按{@link DbOperation#merge(DbOperation)}规则合并到该slot中,
+ * 从而减少热点实体的db操作次数
+ * slot按首次入队顺序出队
+ * 队列有容量限制, 合并到已有slot不占用容量
+ *
+ * @author huangjianqin
+ * @date 2021/1/5
+ */
+class PendingOprQueue {
+    /** 容量 */
+    private final int capacity;
+    /** 相互抵消的db操作回调, 在释放锁后执行 */
+    private final Consumer<PendingOpr> cancelledConsumer;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    /** 等待队列长度达到高水位 */
+    private final Condition highWater = lock.newCondition();
+    /** 当前worker等待的高水位, 仅在{@link #awaitHighWater(int, long, TimeUnit)}期间有效 */
+    private int highWaterMark = Integer.MAX_VALUE;
+    /** 是否被主动唤醒 */
+    private boolean woken;
+    /** key -> 实体类+主键, value -> 等待执行的db操作 */
+    private final LinkedHashMap<SlotKey, PendingOpr> slots = new LinkedHashMap<>();
+    /** 本次入队相互抵消的db操作, 仅在持有锁时有效 */
+    private PendingOpr cancelled;
+
+    PendingOprQueue(int capacity, Consumer<PendingOpr> cancelledConsumer) {
+        this.capacity = capacity;
+        this.cancelledConsumer = cancelledConsumer;
+    }
+
+    /**
+     * 入队, 如果已存在同一主键的db操作, 则合并
+     *
+     * @param seq    db操作日志序号, 未开启日志则为-1
+     * @param future db操作入库后完成, 可为null
+     * @return 队列已满则返回{@link OfferResult#FULL}
+     */
+    OfferResult offer(AsyncDbEntity<?> entity, DbOperation operation, long seq, CompletableFuture<Void> future) {
+        PendingOpr cancelled;
+        OfferResult result;
+        lock.lock();
+        try {
+            result = offer0(entity, operation, seq, future, false);
+            cancelled = takeCancelled();
+        } finally {
+            lock.unlock();
+        }
+        onCancelled(cancelled);
+        return result;
+    }
+
+    /**
+     * 阻塞直到队列有空位, 或者超时
+     * 不入队, 调用方需再次入队, 以便在等待期间不持有其他锁
+     */
+    void awaitNotFull(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (slots.size() >= capacity && nanos > 0) {
+                nanos = Threads.awaitNanos(notFull, nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 忽略容量限制入队
+     */
+    OfferResult forceOffer(AsyncDbEntity<?> entity, DbOperation operation, long seq, CompletableFuture<Void> future) {
+        PendingOpr cancelled;
+        OfferResult result;
+        lock.lock();
+        try {
+            result = offer0(entity, operation, seq, future, true);
+            cancelled = takeCancelled();
+        } finally {
+            lock.unlock();
+        }
+        onCancelled(cancelled);
+        return result;
+    }
+
+    /**
+     * 忽略容量限制, 转移其他队列中的db操作, 保留其所有日志序号, future以及入队时间
+     */
+    OfferResult forceOffer(PendingOpr other) {
+        PendingOpr cancelled;
+        OfferResult result;
+        lock.lock();
+        try {
+            result = offer0(other.entity, other.operation, -1, null, true);
+            cancelled = takeCancelled();
+            PendingOpr pendingOpr = Objects.nonNull(cancelled) ? cancelled :
+                    slots.get(new SlotKey(other.entity.getClass(), other.entity.getPrimaryKey()));
+            pendingOpr.merge(other);
+        } finally {
+            lock.unlock();
+        }
+        onCancelled(cancelled);
+        return result;
+    }
+
+    /**
+     * 取出本次入队相互抵消的db操作, 调用前需持有锁
+     */
+    private PendingOpr takeCancelled() {
+        PendingOpr cancelled = this.cancelled;
+        this.cancelled = null;
+        return cancelled;
+    }
+
+    /**
+     * 通知相互抵消的db操作, 需在释放锁后调用, 以免回调中再次入队
+     */
+    private void onCancelled(PendingOpr cancelled) {
+        if (Objects.nonNull(cancelled)) {
+            cancelledConsumer.accept(cancelled);
+        }
+    }
+
+    /**
+     * 入队, 调用前需持有锁
+     */
+    private OfferResult offer0(AsyncDbEntity<?> entity, DbOperation operation, long seq, CompletableFuture<Void> future, boolean ignoreCapacity) {
+        SlotKey key = new SlotKey(entity.getClass(), entity.getPrimaryKey());
+        PendingOpr pendingOpr = slots.get(key);
+        if (Objects.isNull(pendingOpr)) {
+            if (!ignoreCapacity && slots.size() >= capacity) {
+                return OfferResult.FULL;
+            }
+            PendingOpr newPendingOpr = new PendingOpr(entity, operation, seq);
+            newPendingOpr.addFuture(future);
+            slots.put(key, newPendingOpr);
+            notEmpty.signal();
+            if (slots.size() >= highWaterMark) {
+                highWater.signal();
+            }
+            return OfferResult.ENQUEUED;
+        }
+
+        DbOperation merged = pendingOpr.operation.merge(operation);
+        if (Objects.isNull(merged)) {
+            //相互抵消
+            slots.remove(key);
+            notFull.signal();
+            pendingOpr.addSeq(seq);
+            pendingOpr.addFuture(future);
+            cancelled = pendingOpr;
+            return OfferResult.CANCELLED;
+        }
+        pendingOpr.entity = entity;
+        pendingOpr.operation = merged;
+        pendingOpr.addSeq(seq);
+        pendingOpr.addFuture(future);
+        return OfferResult.COALESCED;
+    }
+
+    /**
+     * 出队, 队列为空则阻塞
+     */
+    PendingOpr take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (slots.isEmpty()) {
+                Threads.await(notEmpty);
+            }
+            return poll0();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 阻塞指定时间, 期间队列长度达到高水位或被{@link #wakeup()}则立即返回
+     *
+     * @param highWaterMark 高水位
+     */
+    void awaitHighWater(int highWaterMark, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            this.highWaterMark = highWaterMark;
+            while (!woken && slots.size() < highWaterMark && nanos > 0) {
+                nanos = Threads.awaitNanos(highWater, nanos);
+            }
+        } finally {
+            this.highWaterMark = Integer.MAX_VALUE;
+            woken = false;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 唤醒{@link #awaitHighWater(int, long, TimeUnit)}
+     */
+    void wakeup() {
+        lock.lock();
+        try {
+            woken = true;
+            highWater.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 移除队头, 调用前需持有锁并保证队列不为空
+     */
+    private PendingOpr poll0() {
+        Iterator<PendingOpr> iterator = slots.values().iterator();
+        PendingOpr pendingOpr = iterator.next();
+        iterator.remove();
+        notFull.signal();
+        return pendingOpr;
+    }
+
+    /**
+     * 最多取出maxElements个db操作
+     *
+     * @return 取出的数量
+     */
+    int drainTo(Collection<PendingOpr> c, int maxElements) {
+        lock.lock();
+        try {
+            int n = 0;
+            Iterator<PendingOpr> iterator = slots.values().iterator();
+            while (n < maxElements && iterator.hasNext()) {
+                c.add(iterator.next());
+                iterator.remove();
+                n++;
+            }
+            if (n > 0) {
+                notFull.signalAll();
+            }
+            return n;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return 队头db操作的入队时间, 队列为空则返回{@link Long#MAX_VALUE}
+     */
+    long oldestEnqueueNanos() {
+        lock.lock();
+        try {
+            Iterator<PendingOpr> iterator = slots.values().iterator();
+            return iterator.hasNext() ? iterator.next().enqueueNanos : Long.MAX_VALUE;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return slots.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return 剩余容量
+     */
+    int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - slots.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 入队结果
+     */
+    enum OfferResult {
+        /** 新增slot */
+        ENQUEUED,
+        /** 合并到已有slot */
+        COALESCED,
+        /** 与已有slot相互抵消 */
+        CANCELLED,
+        /** 队列已满 */
+        FULL,
+    }
+
+    /**
+     * 等待执行的db操作
+     */
+    static final class PendingOpr {
+        /** 最新的实体 */
+        private AsyncDbEntity<?> entity;
+        /** 合并后的db操作 */
+        private DbOperation operation;
+        /** 合并进该slot的所有db操作日志序号, 未开启日志则为空 */
+        private List<Long> seqs = Collections.emptyList();
+        /** 合并进该slot的所有db操作的future, 入库后完成 */
+        private List<CompletableFuture<Void>> futures = Collections.emptyList();
+        /** 首次入队时间, 纳秒 */
+        private long enqueueNanos;
+
+        PendingOpr(AsyncDbEntity<?> entity, DbOperation operation, long seq) {
+            this(entity, operation, seq, System.nanoTime());
+        }
+
+        PendingOpr(AsyncDbEntity<?> entity, DbOperation operation, long seq, long enqueueNanos) {
+            this.entity = entity;
+            this.operation = operation;
+            this.enqueueNanos = enqueueNanos;
+            addSeq(seq);
+        }
+
+        /**
+         * 记录db操作日志序号
+         */
+        void addSeq(long seq) {
+            if (seq <= 0) {
+                return;
+            }
+            if (seqs.isEmpty()) {
+                seqs = new ArrayList<>(2);
+            }
+            seqs.add(seq);
+        }
+
+        /**
+         * 记录db操作入库后需完成的future
+         */
+        void addFuture(CompletableFuture<Void> future) {
+            if (Objects.isNull(future)) {
+                return;
+            }
+            if (futures.isEmpty()) {
+                futures = new ArrayList<>(2);
+            }
+            futures.add(future);
+        }
+
+        /**
+         * 合并其他db操作的日志序号, future以及入队时间
+         */
+        private void merge(PendingOpr other) {
+            for (long seq : other.seqs) {
+                addSeq(seq);
+            }
+            for (CompletableFuture<Void> future : other.futures) {
+                addFuture(future);
+            }
+            enqueueNanos = Math.min(enqueueNanos, other.enqueueNanos);
+        }
+
+        /**
+         * db操作已入库或者相互抵消, 完成所有future
+         */
+        void complete() {
+            for (CompletableFuture<Void> future : futures) {
+                future.complete(null);
+            }
+        }
+
+        /**
+         * db操作最终失败, 完成所有future
+         */
+        void completeExceptionally(Throwable ex) {
+            for (CompletableFuture<Void> future : futures) {
+                future.completeExceptionally(ex);
+            }
+        }
+
+        //getter
+        AsyncDbEntity<?> getEntity() {
+            return entity;
+        }
+
+        DbOperation getOperation() {
+            return operation;
+        }
+
+        List<Long> getSeqs() {
+            return seqs;
+        }
+
+        long getEnqueueNanos() {
+            return enqueueNanos;
+        }
+    }
+
+    /**
+     * slot key, 实体类+主键
+     */
+    private static final class SlotKey {
+        private final Class<?> entityClass;
+        private final Serializable pk;
+
+        SlotKey(Class<?> entityClass, Serializable pk) {
+            this.entityClass = entityClass;
+            this.pk = pk;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            SlotKey slotKey = (SlotKey) o;
+            return entityClass.equals(slotKey.entityClass) && Objects.equals(pk, slotKey.pk);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(entityClass, pk);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.kin.framework.asyncdb;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.ToIntFunction;
+
+/**
+ * 所有分片都支持批量db操作的{@link ShardedDbSynchronzier}
+ * 批量db操作按分片分组后交由各分片执行, 每个分片的worker只会提交属于该分片的实体, 故通常只涉及一个分片
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ * @see ShardedDbSynchronzier#of(List)
+ */
+public class ShardedBatchDbSynchronzier<PK extends Serializable, E extends AsyncDbEntity<PK>>
+        extends ShardedDbSynchronzier<PK, E> implements BatchDbSynchronzier<PK, E> {
+    public ShardedBatchDbSynchronzier(List<? extends BatchDbSynchronzier<PK, E>> shards) {
+        super(shards);
+    }
+
+    public ShardedBatchDbSynchronzier(List<? extends BatchDbSynchronzier<PK, E>> shards, ToIntFunction<PK> shardFunction) {
+        super(shards, shardFunction);
+    }
+
+    public ShardedBatchDbSynchronzier(List<? extends BatchDbSynchronzier<PK, E>> shards, ToIntFunction<PK> shardFunction, Executor executor) {
+        super(shards, shardFunction, executor);
+    }
+
+    /**
+     * @return 分片序号对应的分片
+     */
+    private BatchDbSynchronzier<PK, E> batchShard(int shard) {
+        //构造时已保证所有分片都是BatchDbSynchronzier
+        return (BatchDbSynchronzier<PK, E>) getShards().get(shard);
+    }
+
+    @Override
+    public void insertAll(Collection<E> entities) {
+        for (Map.Entry<Integer, List<E>> entry : groupByShard(entities, AsyncDbEntity::getPrimaryKey).entrySet()) {
+            batchShard(entry.getKey()).insertAll(entry.getValue());
+        }
+    }
+
+    @Override
+    public void updateAll(Collection<E> entities) {
+        for (Map.Entry<Integer, List<E>> entry : groupByShard(entities, AsyncDbEntity::getPrimaryKey).entrySet()) {
+            batchShard(entry.getKey()).updateAll(entry.getValue());
+        }
+    }
+
+    @Override
+    public void deleteAll(Collection<E> entities) {
+        for (Map.Entry<Integer, List<E>> entry : groupByShard(entities, AsyncDbEntity::getPrimaryKey).entrySet()) {
+            batchShard(entry.getKey()).deleteAll(entry.getValue());
+        }
+    }
+}
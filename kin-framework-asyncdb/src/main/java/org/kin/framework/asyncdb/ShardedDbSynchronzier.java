@@ -0,0 +1,198 @@
+package org.kin.framework.asyncdb;
+
+import com.google.common.base.Preconditions;
+import org.kin.framework.concurrent.ExecutionContext;
+import org.kin.framework.concurrent.SimpleThreadFactory;
+import org.kin.framework.utils.HashUtils;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * 分片{@link DbSynchronzier}, 按主键将实体路由到其中一个分片的{@link DbSynchronzier}
+ * 注册到{@link AsyncDbService}后, 每个分片拥有独立的worker, 某个分片变慢不会阻塞其他分片的入库
+ * 跨分片的批量查询会并行执行
+ * 所有分片都支持批量db操作时, 应使用{@link #of(List)}创建, 以获得支持批量入库的{@link ShardedBatchDbSynchronzier}
+ *
+ * @author huangjianqin
+ * @date 2021/1/12
+ */
+public class ShardedDbSynchronzier<PK extends Serializable, E extends AsyncDbEntity<PK>> implements DbSynchronzier<PK, E> {
+    /** 所有分片 */
+    private final List<DbSynchronzier<PK, E>> shards;
+    /** 主键 -> 分片序号, 结果会对分片数取模 */
+    private final ToIntFunction<PK> shardFunction;
+    /** 并行查询分片的线程池 */
+    private final Executor executor;
+
+    /**
+     * 按主键hash分片
+     */
+    public ShardedDbSynchronzier(List<? extends DbSynchronzier<PK, E>> shards) {
+        this(shards, pk -> HashUtils.spread(Objects.hashCode(pk)));
+    }
+
+    public ShardedDbSynchronzier(List<? extends DbSynchronzier<PK, E>> shards, ToIntFunction<PK> shardFunction) {
+        this(shards, shardFunction, DefaultExecutorHolder.EXECUTOR);
+    }
+
+    /**
+     * @param shardFunction 主键 -> 分片序号, 结果会对分片数取模
+     * @param executor      并行查询分片的线程池
+     */
+    public ShardedDbSynchronzier(List<? extends DbSynchronzier<PK, E>> shards, ToIntFunction<PK> shardFunction, Executor executor) {
+        Preconditions.checkArgument(!shards.isEmpty(), "shards must not be empty");
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        this.shardFunction = shardFunction;
+        this.executor = executor;
+    }
+
+    /**
+     * 按主键hash分片
+     *
+     * @return 所有分片都支持批量db操作则返回{@link ShardedBatchDbSynchronzier}
+     */
+    public static <PK extends Serializable, E extends AsyncDbEntity<PK>> ShardedDbSynchronzier<PK, E> of(List<? extends DbSynchronzier<PK, E>> shards) {
+        return of(shards, pk -> HashUtils.spread(Objects.hashCode(pk)));
+    }
+
+    public static <PK extends Serializable, E extends AsyncDbEntity<PK>> ShardedDbSynchronzier<PK, E> of(List<? extends DbSynchronzier<PK, E>> shards,
+                                                                                                         ToIntFunction<PK> shardFunction) {
+        return of(shards, shardFunction, DefaultExecutorHolder.EXECUTOR);
+    }
+
+    /**
+     * @param shardFunction 主键 -> 分片序号, 结果会对分片数取模
+     * @param executor      并行查询分片的线程池
+     * @return 所有分片都支持批量db操作则返回{@link ShardedBatchDbSynchronzier}
+     */
+    @SuppressWarnings("unchecked")
+    public static <PK extends Serializable, E extends AsyncDbEntity<PK>> ShardedDbSynchronzier<PK, E> of(List<? extends DbSynchronzier<PK, E>> shards,
+                                                                                                         ToIntFunction<PK> shardFunction,
+                                                                                                         Executor executor) {
+        for (DbSynchronzier<PK, E> shard : shards) {
+            if (!(shard instanceof BatchDbSynchronzier)) {
+                return new ShardedDbSynchronzier<>(shards, shardFunction, executor);
+            }
+        }
+        return new ShardedBatchDbSynchronzier<>((List<? extends BatchDbSynchronzier<PK, E>>) shards, shardFunction, executor);
+    }
+
+    /**
+     * @return 主键所属分片序号
+     */
+    public int shard(PK pk) {
+        return Math.floorMod(shardFunction.applyAsInt(pk), shards.size());
+    }
+
+    /**
+     * @return 主键所属分片
+     */
+    private DbSynchronzier<PK, E> shardOf(PK pk) {
+        return shards.get(shard(pk));
+    }
+
+    @Override
+    public void insert(E entity) {
+        shardOf(entity.getPrimaryKey()).insert(entity);
+    }
+
+    @Override
+    public void update(E entity) {
+        shardOf(entity.getPrimaryKey()).update(entity);
+    }
+
+    @Override
+    public void delete(E entity) {
+        shardOf(entity.getPrimaryKey()).delete(entity);
+    }
+
+    @Override
+    public E get(PK pk) {
+        return shardOf(pk).get(pk);
+    }
+
+    /**
+     * 并行查询所有分片
+     */
+    @Override
+    public List<E> getAll() {
+        List<CompletableFuture<List<E>>> futures = new ArrayList<>(shards.size());
+        for (DbSynchronzier<PK, E> shard : shards) {
+            futures.add(CompletableFuture.supplyAsync(shard::getAll, executor));
+        }
+        return join(futures);
+    }
+
+    /**
+     * 按分片分组后并行查询
+     */
+    @Override
+    public List<E> getAll(Collection<PK> pks) {
+        Map<Integer, List<PK>> groups = groupByShard(pks, Function.identity());
+        if (groups.size() == 1) {
+            Map.Entry<Integer, List<PK>> entry = groups.entrySet().iterator().next();
+            return shards.get(entry.getKey()).getAll(entry.getValue());
+        }
+
+        List<CompletableFuture<List<E>>> futures = new ArrayList<>(groups.size());
+        for (Map.Entry<Integer, List<PK>> entry : groups.entrySet()) {
+            DbSynchronzier<PK, E> shard = shards.get(entry.getKey());
+            futures.add(CompletableFuture.supplyAsync(() -> shard.getAll(entry.getValue()), executor));
+        }
+        return join(futures);
+    }
+
+    /**
+     * 按分片分组
+     */
+    protected <T> Map<Integer, List<T>> groupByShard(Collection<T> items, Function<T, PK> pkGetter) {
+        Map<Integer, List<T>> groups = new TreeMap<>();
+        for (T item : items) {
+            groups.computeIfAbsent(shard(pkGetter.apply(item)), k -> new ArrayList<>()).add(item);
+        }
+        return groups;
+    }
+
+    /**
+     * 等待所有分片查询完成, 并合并结果
+     */
+    private List<E> join(List<CompletableFuture<List<E>>> futures) {
+        List<E> result = new ArrayList<>();
+        try {
+            for (CompletableFuture<List<E>> future : futures) {
+                result.addAll(future.join());
+            }
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new AsyncDbException(cause);
+        }
+        return result;
+    }
+
+    //getter
+    public List<DbSynchronzier<PK, E>> getShards() {
+        return shards;
+    }
+
+    public int getShardNum() {
+        return shards.size();
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 默认并行查询线程池, 首次使用时才创建
+     */
+    private static final class DefaultExecutorHolder {
+        private static final ExecutionContext EXECUTOR = ExecutionContext.cache(new SimpleThreadFactory("asyncDB-shard", true));
+    }
+}
@@ -13,11 +13,18 @@ public class SimpleAsyncDbStrategy implements AsyncDbStrategy {
     private final int tryTimes;
     /** 处理的间隔, 毫秒 */
     private final int duration;
+    /** 是否开启批量入库模式 */
+    private final boolean batch;
 
     public SimpleAsyncDbStrategy(int oprNum, int tryTimes, int duration) {
+        this(oprNum, tryTimes, duration, false);
+    }
+
+    public SimpleAsyncDbStrategy(int oprNum, int tryTimes, int duration, boolean batch) {
         this.oprNum = oprNum;
         this.tryTimes = tryTimes;
         this.duration = duration;
+        this.batch = batch;
     }
 
     @Override
@@ -34,4 +41,9 @@ public class SimpleAsyncDbStrategy implements AsyncDbStrategy {
     public final int getDuration(int size) {
         return duration;
     }
+
+    @Override
+    public final boolean isBatch() {
+        return batch;
+    }
 }
@@ -13,12 +13,22 @@ class SyncState {
     private final int waittingOprNum;
     /** 离上次记录期间处理的DB 实体数量 */
     private final long syncPeriodNum;
+    /** 最近一轮处理DB实体的数量, 由{@link AsyncDbStrategy}决定 */
+    private final int oprNum;
+    /** 最近一轮的处理间隔, 毫秒, 由{@link AsyncDbStrategy}决定 */
+    private final int duration;
+    /** 离上次记录期间单个实体db操作平均耗时, 微秒 */
+    private final long avgCostMicros;
 
-    public SyncState(String threadName, long syncNum, int waittingOprNum, long syncPeriodNum) {
+    public SyncState(String threadName, long syncNum, int waittingOprNum, long syncPeriodNum,
+                     int oprNum, int duration, long avgCostMicros) {
         this.threadName = threadName;
         this.syncNum = syncNum;
         this.waittingOprNum = waittingOprNum;
         this.syncPeriodNum = syncPeriodNum;
+        this.oprNum = oprNum;
+        this.duration = duration;
+        this.avgCostMicros = avgCostMicros;
     }
 
     //setter && getter
@@ -37,4 +47,16 @@ class SyncState {
     public long getSyncPeriodNum() {
         return syncPeriodNum;
     }
+
+    public int getOprNum() {
+        return oprNum;
+    }
+
+    public int getDuration() {
+        return duration;
+    }
+
+    public long getAvgCostMicros() {
+        return avgCostMicros;
+    }
 }
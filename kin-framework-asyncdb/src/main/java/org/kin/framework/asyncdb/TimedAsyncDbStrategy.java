@@ -10,7 +10,11 @@ import com.google.common.base.Preconditions;
  */
 public class TimedAsyncDbStrategy extends SimpleAsyncDbStrategy {
     public TimedAsyncDbStrategy(int oprNum, int tryTimes, int duration) {
-        super(oprNum, tryTimes, duration);
+        this(oprNum, tryTimes, duration, false);
+    }
+
+    public TimedAsyncDbStrategy(int oprNum, int tryTimes, int duration, boolean batch) {
+        super(oprNum, tryTimes, duration, batch);
         Preconditions.checkArgument(duration > 0, "duration must be greater than zero");
     }
 }
@@ -0,0 +1,20 @@
+package org.kin.framework.asyncdb;
+
+/**
+ * db worker执行模式
+ *
+ * @author huangjianqin
+ * @date 2021/1/12
+ */
+public enum WorkerMode {
+    /**
+     * 一个worker一条平台线程
+     */
+    PLATFORM,
+    /**
+     * 一个worker一条虚拟线程(jdk21+), worker等待db返回时不占用平台线程, 适合大量worker
+     * 不支持虚拟线程则退化为forkjoin线程池, worker阻塞时线程池会补偿线程, 线程数与{@link #PLATFORM}相近
+     */
+    VIRTUAL,
+    ;
+}
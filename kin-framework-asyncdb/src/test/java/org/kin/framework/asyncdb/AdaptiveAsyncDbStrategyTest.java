@@ -0,0 +1,92 @@
+package org.kin.framework.asyncdb;
+
+import com.google.common.base.Preconditions;
+import org.kin.framework.asyncdb.dao.MemorySynchronzier;
+import org.kin.framework.asyncdb.entity.Item;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 校验自适应入库策略以及高水位唤醒, 结果不符合预期则抛异常
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class AdaptiveAsyncDbStrategyTest {
+    public static void main(String[] args) throws Exception {
+        strategy();
+        highWater();
+        System.out.println("all passed");
+    }
+
+    /**
+     * 每轮处理数量随积压变化, 处理间隔随db耗时变化
+     */
+    private static void strategy() {
+        AdaptiveAsyncDbStrategy strategy = new AdaptiveAsyncDbStrategy(10, 200, 2, 1000, 500);
+        check(strategy.getOprNum(0), 10);
+        check(strategy.getOprNum(50), 50);
+        check(strategy.getOprNum(1000), 200);
+
+        //还没有耗时样本, 等待最大入库延迟
+        check(strategy.getDuration(100), 1000);
+        //单个实体平均耗时10ms
+        strategy.onDbOpr(10, TimeUnit.MILLISECONDS.toNanos(100));
+        check(strategy.getAvgCostNanos(), TimeUnit.MILLISECONDS.toNanos(10));
+        check(strategy.getDuration(0), 1000);
+        check(strategy.getDuration(50), 500);
+        //预计无法在目标延迟内清空队列
+        check(strategy.getDuration(200), 0);
+        //达到高水位
+        check(strategy.getDuration(500), 0);
+
+        //新样本占1/8权重
+        strategy.onDbOpr(1, TimeUnit.MILLISECONDS.toNanos(18));
+        check(strategy.getAvgCostNanos(), TimeUnit.MILLISECONDS.toNanos(11));
+        //无效样本
+        strategy.onDbOpr(0, TimeUnit.MILLISECONDS.toNanos(100));
+        check(strategy.getAvgCostNanos(), TimeUnit.MILLISECONDS.toNanos(11));
+    }
+
+    /**
+     * 处理间隔内积压达到高水位立即入库, 未达到则等待处理间隔结束, 关闭时全部入库
+     */
+    private static void highWater() throws Exception {
+        int highWaterMark = 20;
+        int maxLag = 5000;
+        MemorySynchronzier synchronzier = new MemorySynchronzier();
+        AsyncDbService asyncDbService = new AsyncDbService();
+        asyncDbService.init(1, new AdaptiveAsyncDbStrategy(1, 100, 0, maxLag, highWaterMark));
+        asyncDbService.register(Item.class, synchronzier);
+
+        //worker处理完后进入处理间隔
+        asyncDbService.dbOprAsync(new Item(0), DbOperation.Insert).get(1, TimeUnit.SECONDS);
+        TimeUnit.MILLISECONDS.sleep(100);
+
+        long startMillis = System.currentTimeMillis();
+        List<CompletableFuture<Void>> futures = new ArrayList<>(highWaterMark);
+        for (int i = 1; i <= highWaterMark; i++) {
+            futures.add(asyncDbService.dbOprAsync(new Item(i), DbOperation.Insert));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(maxLag, TimeUnit.MILLISECONDS);
+        long cost = System.currentTimeMillis() - startMillis;
+        Preconditions.checkState(cost < maxLag / 2, "worker must be woken up by high water mark, cost %s ms", cost);
+
+        //未达到高水位, 等待处理间隔结束
+        TimeUnit.MILLISECONDS.sleep(100);
+        int pendingId = highWaterMark + 1;
+        asyncDbService.dbOpr(new Item(pendingId), DbOperation.Insert);
+        TimeUnit.MILLISECONDS.sleep(300);
+        Preconditions.checkState(synchronzier.getValue(pendingId) == null, "db operation must wait for duration");
+
+        asyncDbService.close();
+        Preconditions.checkState(synchronzier.getValue(pendingId) != null, "pending db operation must be persisted on close");
+    }
+
+    private static void check(long actual, long expected) {
+        Preconditions.checkState(actual == expected, "expected %s, but %s", expected, actual);
+    }
+}
@@ -0,0 +1,104 @@
+package org.kin.framework.asyncdb;
+
+import com.google.common.base.Preconditions;
+import org.kin.framework.asyncdb.dao.MemoryBatchSynchronzier;
+import org.kin.framework.asyncdb.entity.Item;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 校验批量入库模式, 结果不符合预期则抛异常
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class AsyncDbBatchTest {
+    /** 每轮处理DB实体的数量 */
+    private static final int OPR_NUM = 100;
+
+    public static void main(String[] args) throws Exception {
+        batch();
+        fallback();
+        System.out.println("all passed");
+    }
+
+    /**
+     * 积压的同一实体类同一db操作的实体, 合并成一次批量db操作
+     */
+    private static void batch() throws Exception {
+        MemoryBatchSynchronzier synchronzier = new MemoryBatchSynchronzier();
+        AsyncDbService asyncDbService = newService(synchronzier, 0);
+        block(asyncDbService, synchronzier);
+
+        int num = OPR_NUM * 5;
+        List<CompletableFuture<Void>> futures = new ArrayList<>(num);
+        for (int i = 0; i < num; i++) {
+            futures.add(asyncDbService.dbOprAsync(new Item(i, i), DbOperation.Insert));
+        }
+        awaitAll(futures);
+
+        for (int i = 0; i < num; i++) {
+            Preconditions.checkState(Objects.equals(synchronzier.getValue(i), i), "item %s: %s", i, synchronzier.getValue(i));
+        }
+        int batched = 0;
+        for (int batchSize : synchronzier.getBatchSizes()) {
+            Preconditions.checkState(batchSize <= OPR_NUM, "batch size must not greater than opr num: %s", batchSize);
+            batched += batchSize;
+        }
+        Preconditions.checkState(batched == num, "pending db operations must be batched, batch sizes: %s", synchronzier.getBatchSizes());
+        asyncDbService.close();
+    }
+
+    /**
+     * 批量db操作重试后仍失败, 则降级为逐个执行
+     */
+    private static void fallback() throws Exception {
+        MemoryBatchSynchronzier synchronzier = new MemoryBatchSynchronzier();
+        AsyncDbService asyncDbService = newService(synchronzier, 1);
+        block(asyncDbService, synchronzier);
+        //批量db操作及其重试都失败
+        synchronzier.failNext(2);
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>(OPR_NUM);
+        for (int i = 0; i < OPR_NUM; i++) {
+            futures.add(asyncDbService.dbOprAsync(new Item(i, i), DbOperation.Insert));
+        }
+        awaitAll(futures);
+
+        Preconditions.checkState(synchronzier.getBatchSizes().isEmpty(), "batch db operation must fail, batch sizes: %s", synchronzier.getBatchSizes());
+        for (int i = 0; i < OPR_NUM; i++) {
+            Preconditions.checkState(synchronzier.getHistory(i).size() == 1, "item %s: %s", i, synchronzier.getHistory(i));
+        }
+        Preconditions.checkState(asyncDbService.getMetrics().getRetryCount() == 1, "retry count: %s", asyncDbService.getMetrics().getRetryCount());
+        Preconditions.checkState(asyncDbService.getMetrics().getErrorCount() == 0, "error count: %s", asyncDbService.getMetrics().getErrorCount());
+        asyncDbService.close();
+    }
+
+    /**
+     * 单worker, 处理间隔足够长, 以便积压db操作
+     */
+    private static AsyncDbService newService(MemoryBatchSynchronzier synchronzier, int tryTimes) {
+        AsyncDbService asyncDbService = new AsyncDbService();
+        asyncDbService.init(1, new SimpleAsyncDbStrategy(OPR_NUM, tryTimes, 200, true));
+        asyncDbService.register(Item.class, synchronzier);
+        return asyncDbService;
+    }
+
+    /**
+     * 提交一个耗时的db操作占住worker, 之后提交的db操作都会积压在队列中
+     */
+    private static void block(AsyncDbService asyncDbService, MemoryBatchSynchronzier synchronzier) throws InterruptedException {
+        synchronzier.setCost(300);
+        asyncDbService.dbOpr(new Item(-1), DbOperation.Insert);
+        TimeUnit.MILLISECONDS.sleep(50);
+        synchronzier.setCost(0);
+    }
+
+    private static void awaitAll(List<CompletableFuture<Void>> futures) throws Exception {
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+    }
+}
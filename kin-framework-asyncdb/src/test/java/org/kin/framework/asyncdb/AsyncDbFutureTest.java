@@ -0,0 +1,176 @@
+package org.kin.framework.asyncdb;
+
+import com.google.common.base.Preconditions;
+import org.kin.framework.asyncdb.dao.MemorySynchronzier;
+import org.kin.framework.asyncdb.entity.Item;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 校验{@link AsyncDbEntity}异步db操作返回的future, 结果不符合预期则抛异常
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class AsyncDbFutureTest {
+    public static void main(String[] args) throws Exception {
+        MemorySynchronzier synchronzier = new MemorySynchronzier();
+        AsyncDbService asyncDbService = AsyncDbService.getInstance();
+        asyncDbService.register(Item.class, synchronzier);
+        asyncDbService.register(Blocker.class, new BlockerSynchronzier());
+        try {
+            persisted(synchronzier);
+            coalesced(synchronzier);
+            cancelled(synchronzier);
+            failed(synchronzier);
+            notDeletable();
+        } finally {
+            asyncDbService.close();
+        }
+        //已关闭, 提交失败
+        checkFailed(new Item(100).insertAsync(), AsyncDbException.class);
+        System.out.println("all passed");
+    }
+
+    /**
+     * 入库后才完成, 回调时已入库
+     */
+    private static void persisted(MemorySynchronzier synchronzier) throws Exception {
+        synchronzier.setCost(200);
+        Item item = new Item(1, 10);
+        CompletableFuture<Void> future = item.insertAsync();
+        Preconditions.checkState(!future.isDone(), "future must not be completed before persisted");
+        CompletableFuture<Integer> persistedValue = future.thenApply(v -> synchronzier.getValue(1));
+        Preconditions.checkState(Objects.equals(persistedValue.get(5, TimeUnit.SECONDS), 10), "future must be completed after persisted");
+        synchronzier.setCost(0);
+    }
+
+    /**
+     * 同一主键合并的多个db操作在同一时刻完成, 只入库一次
+     */
+    private static void coalesced(MemorySynchronzier synchronzier) throws Exception {
+        Item item = new Item(2, 0);
+        item.insertAsync().get(5, TimeUnit.SECONDS);
+
+        blockWorker(2);
+        List<CompletableFuture<Void>> futures = Arrays.asList(update(item, 1), update(item, 2), update(item, 3));
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        Preconditions.checkState(synchronzier.getHistory(2).equals(Arrays.asList("insert:0", "update:3")), "history: %s", synchronzier.getHistory(2));
+    }
+
+    /**
+     * 未入库的insert与delete相互抵消, 两个future都完成, 且不会执行db操作
+     */
+    private static void cancelled(MemorySynchronzier synchronzier) throws Exception {
+        blockWorker(3);
+        Item item = new Item(3, 30);
+        CompletableFuture<Void> insertFuture = item.insertAsync();
+        CompletableFuture<Void> deleteFuture = item.deleteAsync();
+        CompletableFuture.allOf(insertFuture, deleteFuture).get(5, TimeUnit.SECONDS);
+        Preconditions.checkState(synchronzier.getHistory(3).isEmpty(), "cancelled db operations must not be executed: %s", synchronzier.getHistory(3));
+    }
+
+    /**
+     * 重试后仍失败, future异常完成, 异常为db操作抛出的异常
+     */
+    private static void failed(MemorySynchronzier synchronzier) throws Exception {
+        synchronzier.failNext(Integer.MAX_VALUE);
+        checkFailed(new Item(4, 40).insertAsync(), IllegalStateException.class);
+        synchronzier.failNext(0);
+        Preconditions.checkState(synchronzier.getValue(4) == null, "failed db operation must not be persisted");
+    }
+
+    /**
+     * 不支持删除的entity, delete直接异常完成
+     */
+    private static void notDeletable() throws Exception {
+        checkFailed(new Fixed(5).deleteAsync(), AsyncDbException.class);
+        Preconditions.checkState(!new Fixed(5).tryDelete(), "entity can not delete");
+    }
+
+    private static CompletableFuture<Void> update(Item item, int value) {
+        item.setValue(value);
+        return item.updateAsync();
+    }
+
+    /**
+     * 提交一个耗时的db操作占住主键所属worker, 之后该主键提交的db操作都会积压在队列中
+     * worker按主键路由, 故使用相同主键的其他实体类
+     */
+    private static void blockWorker(int pk) throws InterruptedException {
+        new Blocker(pk).insert();
+        TimeUnit.MILLISECONDS.sleep(50);
+    }
+
+    private static void checkFailed(CompletableFuture<Void> future, Class<? extends Throwable> exType) throws Exception {
+        try {
+            future.get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            Preconditions.checkState(exType.isInstance(e.getCause()), "expected %s, but %s", exType.getName(), e.getCause());
+            return;
+        }
+        throw new IllegalStateException("future must be completed exceptionally");
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    private static class Fixed extends AsyncDbEntity<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private final int id;
+
+        Fixed(int id) {
+            super(false);
+            this.id = id;
+        }
+
+        @Override
+        public Integer getPrimaryKey() {
+            return id;
+        }
+    }
+
+    private static class Blocker extends Fixed {
+        private static final long serialVersionUID = 1L;
+
+        Blocker(int id) {
+            super(id);
+        }
+    }
+
+    private static class BlockerSynchronzier implements DbSynchronzier<Integer, Blocker> {
+        @Override
+        public void insert(Blocker entity) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(300);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void update(Blocker entity) {
+            //do nothing
+        }
+
+        @Override
+        public void delete(Blocker entity) {
+            //do nothing
+        }
+
+        @Override
+        public Blocker get(Integer pk) {
+            return null;
+        }
+
+        @Override
+        public List<Blocker> getAll() {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package org.kin.framework.asyncdb;
+
+import com.google.common.base.Preconditions;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 校验预写日志的重放, 不完整记录的截断, segment删除以及失败db操作的死信处理, 结果不符合预期则抛异常
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class AsyncDbJournalTest {
+    /** segment大小, 足够小以便频繁封存segment */
+    private static final int SEGMENT_SIZE = 4 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        replay();
+        truncate();
+        abandon();
+        failedDbOpr();
+        System.out.println("all passed");
+    }
+
+    /**
+     * 只重放未确认的db操作
+     */
+    private static void replay() throws Exception {
+        String dir = Files.createTempDirectory("asyncdb-journal").toString();
+        AsyncDbJournal journal = new AsyncDbJournal(dir, SEGMENT_SIZE, 10);
+        Preconditions.checkState(journal.open().isEmpty(), "new journal must be empty");
+        long seq1 = journal.append(new Item(1), DbOperation.Insert);
+        long seq2 = journal.append(new Item(2), DbOperation.Update);
+        long seq3 = journal.append(new Item(3), DbOperation.Update);
+        journal.confirm(seq2);
+        journal.close();
+
+        journal = new AsyncDbJournal(dir, SEGMENT_SIZE, 10);
+        List<PendingOprQueue.PendingOpr> unconfirmed = journal.open();
+        Preconditions.checkState(unconfirmed.size() == 2, "unconfirmed: %s", unconfirmed.size());
+        check(unconfirmed.get(0), 1, DbOperation.Insert, seq1);
+        check(unconfirmed.get(1), 3, DbOperation.Update, seq3);
+        journal.clearRecovered();
+        journal.close();
+
+        //重放完成后遗留的segment被删除, 再次打开没有需要重放的db操作
+        journal = new AsyncDbJournal(dir, SEGMENT_SIZE, 10);
+        Preconditions.checkState(journal.open().isEmpty(), "recovered segments must be deleted");
+        journal.close();
+    }
+
+    /**
+     * 写入时进程崩溃导致记录不完整, 重放截断到最后一条完整记录, 之后的日志正常写入
+     */
+    private static void truncate() throws Exception {
+        String dir = Files.createTempDirectory("asyncdb-journal").toString();
+        AsyncDbJournal journal = new AsyncDbJournal(dir, SEGMENT_SIZE, 10);
+        journal.open();
+        long seq1 = journal.append(new Item(1), DbOperation.Insert);
+        long seq2 = journal.append(new Item(2), DbOperation.Insert);
+        journal.append(new Item(3), DbOperation.Insert);
+        journal.close();
+
+        File[] files = new File(dir).listFiles((d, name) -> name.endsWith(".journal"));
+        Preconditions.checkState(Objects.nonNull(files) && files.length == 1, "segment num: %s", segmentNum(dir));
+        try (RandomAccessFile raf = new RandomAccessFile(files[0], "rw")) {
+            //定位第3条记录, 篡改其内容最后一个字节
+            int len1 = raf.readInt();
+            raf.seek(len1);
+            int len2 = raf.readInt();
+            raf.seek(len1 + len2);
+            int len3 = raf.readInt();
+            long last = len1 + len2 + len3 - 1;
+            raf.seek(last);
+            byte b = raf.readByte();
+            raf.seek(last);
+            raf.writeByte(~b);
+        }
+
+        journal = new AsyncDbJournal(dir, SEGMENT_SIZE, 10);
+        List<PendingOprQueue.PendingOpr> unconfirmed = journal.open();
+        Preconditions.checkState(unconfirmed.size() == 2, "corrupted record must be truncated, unconfirmed: %s", unconfirmed.size());
+        check(unconfirmed.get(0), 1, DbOperation.Insert, seq1);
+        check(unconfirmed.get(1), 2, DbOperation.Insert, seq2);
+        journal.clearRecovered();
+        long seq4 = journal.append(new Item(4), DbOperation.Update);
+        journal.close();
+
+        journal = new AsyncDbJournal(dir, SEGMENT_SIZE, 10);
+        unconfirmed = journal.open();
+        Preconditions.checkState(unconfirmed.size() == 1, "unconfirmed: %s", unconfirmed.size());
+        check(unconfirmed.get(0), 4, DbOperation.Update, seq4);
+        journal.close();
+    }
+
+    /**
+     * 未确认的db操作阻塞segment删除, 放弃后写入死信文件, segment可以删除
+     */
+    private static void abandon() throws Exception {
+        String dir = Files.createTempDirectory("asyncdb-journal").toString();
+        AsyncDbJournal journal = new AsyncDbJournal(dir, SEGMENT_SIZE, 10);
+        journal.open();
+        Item poisoned = new Item(0);
+        long poisonedSeq = journal.append(poisoned, DbOperation.Update);
+        for (int i = 1; i <= 200; i++) {
+            journal.confirm(journal.append(new Item(i), DbOperation.Update));
+        }
+        int segmentNum = segmentNum(dir);
+        Preconditions.checkState(segmentNum > 2, "unconfirmed db operation must keep segments, segment num: %s", segmentNum);
+
+        journal.abandon(poisoned, DbOperation.Update, Collections.singletonList(poisonedSeq));
+        segmentNum = segmentNum(dir);
+        Preconditions.checkState(segmentNum == 1, "sealed segments must be deleted, segment num: %s", segmentNum);
+        Preconditions.checkState(new File(dir, AsyncDbJournal.DEAD_LETTER_FILE).length() > 0, "dead letter must be written");
+        journal.close();
+
+        journal = new AsyncDbJournal(dir, SEGMENT_SIZE, 10);
+        Preconditions.checkState(journal.open().isEmpty(), "abandoned db operation must not be replayed");
+        journal.close();
+    }
+
+    /**
+     * 重试后仍失败且没有重新提交的db操作, 不会一直留在日志中
+     */
+    private static void failedDbOpr() throws Exception {
+        String dir = Files.createTempDirectory("asyncdb-journal").toString();
+        AsyncDbService asyncDbService = AsyncDbService.getInstance();
+        asyncDbService.register(Item.class, new FailingSynchronzier());
+        asyncDbService.openJournal(dir, SEGMENT_SIZE, 10);
+
+        try {
+            new Item(1).insertAsync().get(10, TimeUnit.SECONDS);
+            throw new IllegalStateException("db operation must fail");
+        } catch (ExecutionException e) {
+            //expected
+        }
+        asyncDbService.close();
+
+        Preconditions.checkState(new File(dir, AsyncDbJournal.DEAD_LETTER_FILE).length() > 0, "dead letter must be written");
+        AsyncDbJournal journal = new AsyncDbJournal(dir, SEGMENT_SIZE, 10);
+        List<PendingOprQueue.PendingOpr> unconfirmed = journal.open();
+        Preconditions.checkState(unconfirmed.isEmpty(), "failed db operation must not be replayed, unconfirmed: %s", unconfirmed.size());
+        journal.close();
+    }
+
+    private static void check(PendingOprQueue.PendingOpr pendingOpr, int id, DbOperation operation, long seq) {
+        Preconditions.checkState(Objects.equals(pendingOpr.getEntity().getPrimaryKey(), id), "entity: %s", pendingOpr.getEntity());
+        Preconditions.checkState(pendingOpr.getOperation() == operation, "operation: %s", pendingOpr.getOperation());
+        Preconditions.checkState(pendingOpr.getSeqs().equals(Collections.singletonList(seq)), "seqs: %s", pendingOpr.getSeqs());
+    }
+
+    private static int segmentNum(String dir) {
+        File[] files = new File(dir).listFiles((d, name) -> name.endsWith(".journal"));
+        return Objects.isNull(files) ? 0 : files.length;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    private static class Item extends AsyncDbEntity<Integer> {
+        private static final long serialVersionUID = 1L;
+        private final int id;
+        /** 占位, 使序列化后的记录足够大 */
+        private final byte[] payload = new byte[128];
+
+        Item(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public Integer getPrimaryKey() {
+            return id;
+        }
+
+        @Override
+        public String toString() {
+            return "Item{" + "id=" + id + '}';
+        }
+    }
+
+    private static class FailingSynchronzier implements DbSynchronzier<Integer, Item> {
+        @Override
+        public void insert(Item entity) {
+            throw new IllegalStateException("insert fail");
+        }
+
+        @Override
+        public void update(Item entity) {
+            throw new IllegalStateException("update fail");
+        }
+
+        @Override
+        public void delete(Item entity) {
+            throw new IllegalStateException("delete fail");
+        }
+
+        @Override
+        public Item get(Integer pk) {
+            return null;
+        }
+
+        @Override
+        public List<Item> getAll() {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.kin.framework.asyncdb;
+
+import com.google.common.base.Preconditions;
+import org.kin.framework.asyncdb.dao.MemorySynchronzier;
+import org.kin.framework.asyncdb.entity.Item;
+import org.kin.framework.utils.LatencyHistogram;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 校验asyncdb监控指标的统计, 以及MXBean可以注册并读取, 结果不符合预期则抛异常
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class AsyncDbMetricsTest {
+    public static void main(String[] args) throws Exception {
+        histogram();
+        metrics();
+        System.out.println("all passed");
+    }
+
+    /**
+     * 延迟直方图的数量, 均值, 最大值以及分位数
+     */
+    private static void histogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        LatencyHistogram.Snapshot empty = histogram.snapshot();
+        Preconditions.checkState(empty.getCount() == 0 && empty.getP99() == 0, "empty histogram: %s", empty);
+
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(7));
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        Preconditions.checkState(snapshot.getCount() == 2, "count: %s", snapshot.getCount());
+        Preconditions.checkState(snapshot.getMean() == 5000, "mean: %s", snapshot.getMean());
+        Preconditions.checkState(snapshot.getMax() == 7000, "max: %s", snapshot.getMax());
+        //桶上界误差不超过1/16
+        Preconditions.checkState(snapshot.getP50() >= 3000 && snapshot.getP50() <= 3000 * 17 / 16, "p50: %s", snapshot.getP50());
+        Preconditions.checkState(snapshot.getP99() == 7000, "p99 must not exceed max: %s", snapshot.getP99());
+    }
+
+    /**
+     * 提交, 合并, 抵消, 入库, 重试以及失败次数, 队列深度和延迟, 并通过MXBean代理读取
+     */
+    private static void metrics() throws Exception {
+        MemorySynchronzier synchronzier = new MemorySynchronzier();
+        AsyncDbService asyncDbService = new AsyncDbService();
+        asyncDbService.init(1, new SimpleAsyncDbStrategy(10, 1, 1));
+        asyncDbService.register(Item.class, synchronzier);
+        AsyncDbMetrics metrics = asyncDbService.getMetrics();
+
+        //提交一个耗时的db操作占住worker, 之后提交的db操作都会积压在队列中
+        synchronzier.setCost(300);
+        asyncDbService.dbOpr(new Item(-1), DbOperation.Insert);
+        TimeUnit.MILLISECONDS.sleep(50);
+        synchronzier.setCost(0);
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        futures.add(asyncDbService.dbOprAsync(new Item(1), DbOperation.Insert));
+        //合并
+        futures.add(asyncDbService.dbOprAsync(new Item(1), DbOperation.Update));
+        futures.add(asyncDbService.dbOprAsync(new Item(2), DbOperation.Insert));
+        //抵消
+        futures.add(asyncDbService.dbOprAsync(new Item(2), DbOperation.Delete));
+        futures.add(asyncDbService.dbOprAsync(new Item(3), DbOperation.Insert));
+        Preconditions.checkState(metrics.getTotalQueueDepth() == 2, "queue depth: %s", metrics.getQueueDepths());
+        TimeUnit.MILLISECONDS.sleep(20);
+        Preconditions.checkState(metrics.getPersistLagMillis() >= 20, "persist lag: %s", metrics.getPersistLagMillis());
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        check(metrics.getSubmittedCount(), 6, "submitted");
+        check(metrics.getCoalescedCount(), 1, "coalesced");
+        check(metrics.getCancelledCount(), 1, "cancelled");
+        Preconditions.checkState(metrics.getCoalescedRate() == 2D / 6, "coalesced rate: %s", metrics.getCoalescedRate());
+        check(metrics.getPersistedCount(), 3, "persisted");
+        check(metrics.getTotalQueueDepth(), 0, "queue depth");
+        check(metrics.getPersistLagMillis(), 0, "persist lag");
+
+        LatencyHistogram.Snapshot insertLatency = metrics.getDbLatency(Item.class, DbOperation.Insert);
+        check(insertLatency.getCount(), 3, "insert db call");
+        Preconditions.checkState(insertLatency.getMax() >= TimeUnit.MILLISECONDS.toMicros(300), "max insert latency: %s", insertLatency);
+        check(metrics.getDbLatency(Item.class, DbOperation.Delete).getCount(), 0, "delete db call");
+        LatencyHistogram.Snapshot persistLatency = metrics.getPersistLatency();
+        check(persistLatency.getCount(), 3, "persist latency");
+        //积压的db操作等待了占住worker的db操作
+        Preconditions.checkState(persistLatency.getMax() >= TimeUnit.MILLISECONDS.toMicros(200), "max persist latency: %s", persistLatency);
+
+        //重试一次后成功
+        synchronzier.failNext(1);
+        asyncDbService.dbOprAsync(new Item(4), DbOperation.Insert).get(5, TimeUnit.SECONDS);
+        check(metrics.getRetryCount(), 1, "retry");
+        check(metrics.getErrorCount(), 0, "error");
+        //重试后仍失败
+        synchronzier.failNext(2);
+        try {
+            asyncDbService.dbOprAsync(new Item(5), DbOperation.Insert).get(5, TimeUnit.SECONDS);
+            throw new IllegalStateException("db operation must fail");
+        } catch (ExecutionException e) {
+            //expected
+        }
+        check(metrics.getRetryCount(), 2, "retry");
+        check(metrics.getErrorCount(), 1, "error");
+        check(metrics.getPersistedCount(), 4, "persisted");
+
+        //通过代理从CompositeData重建快照
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.kin.framework.asyncdb:type=AsyncDbMetrics,name=" + Integer.toHexString(System.identityHashCode(asyncDbService)));
+        Preconditions.checkState(mBeanServer.isRegistered(name), "metrics mbean must be registered: %s", name);
+        AsyncDbMetricsMXBean proxy = JMX.newMXBeanProxy(mBeanServer, name, AsyncDbMetricsMXBean.class);
+        check(proxy.getSubmittedCount(), metrics.getSubmittedCount(), "proxy submitted");
+        check(proxy.getPersistedCount(), 4, "proxy persisted");
+        check(proxy.getErrorCount(), 1, "proxy error");
+        LatencyHistogram.Snapshot proxyPersistLatency = proxy.getPersistLatency();
+        check(proxyPersistLatency.getCount(), 4, "proxy persist latency");
+        check(proxyPersistLatency.getMax(), metrics.getPersistLatency().getMax(), "proxy max persist latency");
+        Map<String, LatencyHistogram.Snapshot> dbLatencies = proxy.getDbLatencies();
+        LatencyHistogram.Snapshot proxyInsertLatency = dbLatencies.get(Item.class.getName() + "#" + DbOperation.Insert);
+        Preconditions.checkState(proxyInsertLatency != null, "db latencies: %s", dbLatencies);
+        check(proxyInsertLatency.getCount(), metrics.getDbLatency(Item.class, DbOperation.Insert).getCount(), "proxy insert db call");
+
+        asyncDbService.close();
+        Preconditions.checkState(!mBeanServer.isRegistered(name), "metrics mbean must be unregistered after close");
+    }
+
+    private static void check(long actual, long expected, String desc) {
+        Preconditions.checkState(actual == expected, "%s, expected %s, but %s", desc, expected, actual);
+    }
+}
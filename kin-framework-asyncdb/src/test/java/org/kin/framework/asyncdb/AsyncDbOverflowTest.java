@@ -0,0 +1,180 @@
+package org.kin.framework.asyncdb;
+
+import com.google.common.base.Preconditions;
+import org.kin.framework.asyncdb.dao.MemorySynchronzier;
+import org.kin.framework.asyncdb.entity.Item;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.*;
+
+/**
+ * 校验等待队列满时的{@link OverflowPolicy}, 结果不符合预期则抛异常
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class AsyncDbOverflowTest {
+    /** 每个worker等待队列容量 */
+    private static final int CAPACITY = 2;
+
+    public static void main(String[] args) throws Exception {
+        fail();
+        block();
+        spill();
+        System.out.println("all passed");
+    }
+
+    /**
+     * 队列满直接失败, 合并到已有slot不受影响, 失败后db status回滚, 可以再次提交
+     */
+    private static void fail() throws Exception {
+        MemorySynchronzier synchronzier = new MemorySynchronzier();
+        AsyncDbService asyncDbService = newService(synchronzier, 1, OverflowPolicy.FAIL, null);
+        blockWorker(asyncDbService, synchronzier);
+
+        List<Item> items = new ArrayList<>();
+        for (int i = 1; i <= CAPACITY + 2; i++) {
+            items.add(new Item(i, i));
+        }
+        Preconditions.checkState(asyncDbService.dbOpr(items.get(0), DbOperation.Insert), "queue is not full");
+        Preconditions.checkState(asyncDbService.dbOpr(items.get(1), DbOperation.Insert), "queue is not full");
+        Preconditions.checkState(!asyncDbService.dbOpr(items.get(2), DbOperation.Insert), "queue is full");
+        Preconditions.checkState(!asyncDbService.dbOpr(items.get(3), DbOperation.Insert), "queue is full");
+        AsyncDbEntity<?> rejectedEntity = items.get(2);
+        Preconditions.checkState(rejectedEntity.getStatus() == DbStatus.NORMAL, "db status must be rolled back: %s", rejectedEntity.getStatus());
+        CompletableFuture<Void> rejected = asyncDbService.dbOprAsync(items.get(3), DbOperation.Insert);
+        Preconditions.checkState(rejected.isCompletedExceptionally(), "future of rejected db operation must fail");
+        //合并到已有slot
+        items.get(0).setValue(100);
+        Preconditions.checkState(asyncDbService.dbOpr(items.get(0), DbOperation.Update), "coalesced db operation must not be rejected");
+
+        //包括占住worker的实体
+        awaitSize(synchronzier, 3);
+        Preconditions.checkState(Objects.equals(synchronzier.getValue(1), 100), "item 1: %s", synchronzier.getValue(1));
+        Preconditions.checkState(synchronzier.getValue(3) == null && synchronzier.getValue(4) == null, "rejected db operation must not be persisted");
+        //队列有空位后, 可以再次提交
+        asyncDbService.dbOprAsync(items.get(2), DbOperation.Insert).get(5, TimeUnit.SECONDS);
+        Preconditions.checkState(Objects.equals(synchronzier.getValue(3), 3), "item 3: %s", synchronzier.getValue(3));
+        asyncDbService.close();
+    }
+
+    /**
+     * 队列满阻塞调用线程, 所有db操作最终都入库
+     * worker线程内重新提交失败的db操作, 不会因队列满而死锁
+     */
+    private static void block() throws Exception {
+        MemorySynchronzier synchronzier = new MemorySynchronzier();
+        AsyncDbService asyncDbService = newService(synchronzier, 2, OverflowPolicy.BLOCK, null);
+        asyncDbService.addListener(new ResubmitListener(asyncDbService));
+        synchronzier.setCost(1);
+        synchronzier.failNext(10);
+
+        int threads = 4;
+        int num = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Boolean>> futures = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            int base = t * num;
+            futures.add(executor.submit(() -> {
+                boolean submitted = true;
+                for (int i = 0; i < num; i++) {
+                    submitted &= asyncDbService.dbOpr(new Item(base + i, base + i), DbOperation.Insert);
+                }
+                return submitted;
+            }));
+        }
+        for (Future<Boolean> future : futures) {
+            Preconditions.checkState(future.get(30, TimeUnit.SECONDS), "db operation must not be rejected when overflow policy is BLOCK");
+        }
+        executor.shutdown();
+
+        awaitSize(synchronzier, threads * num);
+        for (int i = 0; i < threads * num; i++) {
+            Preconditions.checkState(Objects.equals(synchronzier.getValue(i), i), "item %s: %s", i, synchronzier.getValue(i));
+        }
+        asyncDbService.close();
+    }
+
+    /**
+     * 队列满溢出到文件, 溢出期间同一主键的db操作保持顺序, 所有db操作最终都入库
+     */
+    private static void spill() throws Exception {
+        MemorySynchronzier synchronzier = new MemorySynchronzier();
+        String overflowDir = Files.createTempDirectory("asyncdb-overflow").toString();
+        AsyncDbService asyncDbService = newService(synchronzier, 1, OverflowPolicy.SPILL, overflowDir);
+        blockWorker(asyncDbService, synchronzier);
+
+        int num = 100;
+        List<CompletableFuture<Void>> futures = new ArrayList<>(num * 2);
+        List<Item> items = new ArrayList<>(num);
+        for (int i = 0; i < num; i++) {
+            Item item = new Item(i, 1);
+            items.add(item);
+            futures.add(asyncDbService.dbOprAsync(item, DbOperation.Insert));
+        }
+        for (Item item : items) {
+            item.setValue(2);
+            futures.add(asyncDbService.dbOprAsync(item, DbOperation.Update));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+        for (int i = 0; i < num; i++) {
+            List<String> history = synchronzier.getHistory(i);
+            Preconditions.checkState(history.get(0).startsWith("insert"), "item %s must be inserted first: %s", i, history);
+            Preconditions.checkState(Objects.equals(synchronzier.getValue(i), 2), "item %s: %s", i, history);
+        }
+        asyncDbService.close();
+    }
+
+    private static AsyncDbService newService(MemorySynchronzier synchronzier, int threadNum, OverflowPolicy overflowPolicy, String overflowDir) {
+        AsyncDbService asyncDbService = new AsyncDbService();
+        asyncDbService.init(threadNum, new SimpleAsyncDbStrategy(10, 0, 1), CAPACITY, overflowPolicy, overflowDir);
+        asyncDbService.register(Item.class, synchronzier);
+        return asyncDbService;
+    }
+
+    /**
+     * 提交一个耗时的db操作占住worker, 之后提交的db操作都会积压在队列中
+     */
+    private static void blockWorker(AsyncDbService asyncDbService, MemorySynchronzier synchronzier) throws InterruptedException {
+        synchronzier.setCost(300);
+        asyncDbService.dbOpr(new Item(-1), DbOperation.Insert);
+        TimeUnit.MILLISECONDS.sleep(50);
+        synchronzier.setCost(0);
+    }
+
+    /**
+     * 等待数据库中的实体数量达到指定值
+     */
+    private static void awaitSize(MemorySynchronzier synchronzier, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+        while (synchronzier.size() < size && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        Preconditions.checkState(synchronzier.size() == size, "persisted %s, expected %s", synchronzier.size(), size);
+    }
+
+    /**
+     * 重试后仍失败, 则在worker线程内重新提交
+     */
+    private static class ResubmitListener implements EntityListener<Item> {
+        private final AsyncDbService asyncDbService;
+
+        ResubmitListener(AsyncDbService asyncDbService) {
+            this.asyncDbService = asyncDbService;
+        }
+
+        @Override
+        public void onSuccess(Item entity, DbOperation operation) {
+            //do nothing
+        }
+
+        @Override
+        public void onError(Item entity, DbOperation operation, Throwable ex) {
+            Preconditions.checkState(asyncDbService.dbOpr(entity, operation), "resubmit fail");
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.kin.framework.asyncdb;
+
+import com.google.common.base.Preconditions;
+import org.kin.framework.asyncdb.dao.MemorySynchronzier;
+import org.kin.framework.asyncdb.entity.Item;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.*;
+
+/**
+ * 校验按主键路由worker, 以及运行时增加worker迁移主键时同一主键db操作的顺序, 结果不符合预期则抛异常
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class AsyncDbRoutingTest {
+    public static void main(String[] args) throws Exception {
+        negativeKey();
+        migrate();
+        System.out.println("all passed");
+    }
+
+    /**
+     * 主键hash为负数, 也能正常路由
+     */
+    private static void negativeKey() throws Exception {
+        MemorySynchronzier synchronzier = new MemorySynchronzier();
+        AsyncDbService asyncDbService = new AsyncDbService();
+        asyncDbService.init(3, new SimpleAsyncDbStrategy(10, 0, 1));
+        asyncDbService.register(Item.class, synchronzier);
+
+        int[] ids = {-1, -7, Integer.MIN_VALUE, Integer.MAX_VALUE};
+        List<CompletableFuture<Void>> futures = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            futures.add(asyncDbService.dbOprAsync(new Item(id, id), DbOperation.Insert));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+        for (int id : ids) {
+            Preconditions.checkState(Objects.equals(synchronzier.getValue(id), id), "item %s: %s", id, synchronzier.getValue(id));
+        }
+        asyncDbService.close();
+    }
+
+    /**
+     * 同一主键的多个实体实例按提交顺序入库, 运行时增加worker以及热点迁移都不会打乱顺序
+     */
+    private static void migrate() throws Exception {
+        MemorySynchronzier synchronzier = new MemorySynchronzier();
+        AsyncDbService asyncDbService = new AsyncDbService();
+        asyncDbService.init(2, new SimpleAsyncDbStrategy(5, 0, 1), 100, OverflowPolicy.BLOCK);
+        asyncDbService.register(Item.class, synchronzier);
+        asyncDbService.setRebalance(1, 1.1);
+        synchronzier.setCost(1);
+
+        int threads = 4;
+        int keys = 50;
+        int times = 40;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Boolean>> futures = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            int base = t * keys;
+            futures.add(executor.submit(() -> {
+                boolean submitted = true;
+                for (int i = 0; i < keys; i++) {
+                    submitted &= asyncDbService.dbOpr(new Item(base + i, 0), DbOperation.Insert);
+                }
+                //每次提交新的实体实例, 数值递增
+                for (int v = 1; v <= times; v++) {
+                    for (int i = 0; i < keys; i++) {
+                        submitted &= asyncDbService.dbOpr(new Item(base + i, v), DbOperation.Update);
+                    }
+                }
+                return submitted;
+            }));
+        }
+        int workerNum = 2;
+        for (int i = 0; i < 3; i++) {
+            TimeUnit.MILLISECONDS.sleep(20);
+            workerNum = asyncDbService.addWorker();
+        }
+        Preconditions.checkState(workerNum == 5, "worker num: %s", workerNum);
+        for (Future<Boolean> future : futures) {
+            Preconditions.checkState(future.get(30, TimeUnit.SECONDS), "db operation must not be rejected when overflow policy is BLOCK");
+        }
+        executor.shutdown();
+        asyncDbService.close();
+
+        for (int id = 0; id < threads * keys; id++) {
+            List<String> history = synchronzier.getHistory(id);
+            Preconditions.checkState(!history.isEmpty() && history.get(0).startsWith("insert"), "item %s must be inserted first: %s", id, history);
+            int last = -1;
+            for (String opr : history) {
+                int value = Integer.parseInt(opr.substring(opr.indexOf(':') + 1));
+                Preconditions.checkState(value > last, "item %s is persisted out of order: %s", id, history);
+                last = value;
+            }
+            Preconditions.checkState(Objects.equals(synchronzier.getValue(id), times), "item %s: %s", id, history);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package org.kin.framework.asyncdb;
+
+import com.google.common.base.Preconditions;
+import org.kin.framework.asyncdb.dao.MemorySynchronzier;
+import org.kin.framework.asyncdb.entity.Item;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 校验{@link WorkerMode#VIRTUAL}下开启大量worker, 不同主键的db操作并发执行, 同一主键的db操作保持顺序, 结果不符合预期则抛异常
+ * jdk21以下退化为forkjoin线程池
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class AsyncDbWorkerModeTest {
+    /** worker数量 */
+    private static final int WORKER_NUM = 256;
+    /** 每次db操作的耗时, 毫秒 */
+    private static final int COST = 20;
+
+    public static void main(String[] args) throws Exception {
+        MemorySynchronzier synchronzier = new MemorySynchronzier();
+        synchronzier.setCost(COST);
+        AsyncDbService asyncDbService = new AsyncDbService();
+        asyncDbService.init(WORKER_NUM, new SimpleAsyncDbStrategy(10, 0, 1), Integer.MAX_VALUE, OverflowPolicy.BLOCK, null, WorkerMode.VIRTUAL);
+        asyncDbService.register(Item.class, synchronzier);
+
+        int keys = WORKER_NUM;
+        int times = 3;
+        long startMillis = System.currentTimeMillis();
+        List<CompletableFuture<Void>> futures = new ArrayList<>(keys * (times + 1));
+        for (int i = 0; i < keys; i++) {
+            futures.add(asyncDbService.dbOprAsync(new Item(i, 0), DbOperation.Insert));
+        }
+        for (int v = 1; v <= times; v++) {
+            for (int i = 0; i < keys; i++) {
+                futures.add(asyncDbService.dbOprAsync(new Item(i, v), DbOperation.Update));
+            }
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+        long cost = System.currentTimeMillis() - startMillis;
+        asyncDbService.close();
+
+        //串行执行需要入库次数 * COST毫秒
+        int oprNum = synchronzier.getOprNum();
+        Preconditions.checkState(cost < oprNum * COST / 4, "db operations of different keys must be executed concurrently, persisted %s, cost %s ms", oprNum, cost);
+        for (int i = 0; i < keys; i++) {
+            List<String> history = synchronzier.getHistory(i);
+            Preconditions.checkState(!history.isEmpty() && history.get(0).startsWith("insert"), "item %s must be inserted first: %s", i, history);
+            int last = -1;
+            for (String opr : history) {
+                int value = Integer.parseInt(opr.substring(opr.indexOf(':') + 1));
+                Preconditions.checkState(value > last, "item %s is persisted out of order: %s", i, history);
+                last = value;
+            }
+            Preconditions.checkState(Objects.equals(synchronzier.getValue(i), times), "item %s: %s", i, history);
+        }
+        System.out.println("all passed");
+    }
+}
@@ -0,0 +1,123 @@
+package org.kin.framework.asyncdb;
+
+import com.google.common.base.Preconditions;
+import org.kin.framework.asyncdb.dao.MemorySynchronzier;
+import org.kin.framework.asyncdb.entity.Item;
+import org.kin.framework.utils.ClassUtils;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 校验有界缓存, 有db操作未入库的entity不会被淘汰, 淘汰的entity不会加载到旧数据, 结果不符合预期则抛异常
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class BoundedEntityCacheTest {
+    /** 缓存最大entity数量 */
+    private static final int MAXIMUM_SIZE = 10;
+    /** 数据库中的entity数量 */
+    private static final int NUM = 200;
+
+    public static void main(String[] args) throws Exception {
+        MemorySynchronzier synchronzier = new MemorySynchronzier();
+        for (int i = 0; i < NUM; i++) {
+            synchronzier.put(i, i);
+        }
+        AsyncDbService asyncDbService = AsyncDbService.getInstance();
+        asyncDbService.register(Item.class, synchronzier);
+        ItemCache cache = new ItemCache();
+        ClassUtils.setFieldValue(cache, "dbSynchronzier", synchronzier);
+        asyncDbService.addListener(cache);
+
+        try {
+            pinned(cache, synchronzier);
+            staleReference(cache, synchronzier);
+            pendingEvicted(cache, synchronzier);
+        } finally {
+            asyncDbService.close();
+        }
+        System.out.println("all passed");
+    }
+
+    /**
+     * db操作未入库期间, entity不会被淘汰; 入库后被淘汰, 再次加载不会查询数据库
+     */
+    private static void pinned(ItemCache cache, MemorySynchronzier synchronzier) throws Exception {
+        Item item = cache.load(0);
+        //提交一个耗时的db操作占住worker, 之后提交的db操作都会积压在队列中
+        synchronzier.setCost(300);
+        new Item(-1).insert();
+        TimeUnit.MILLISECONDS.sleep(50);
+        synchronzier.setCost(0);
+
+        item.setValue(1000);
+        CompletableFuture<Void> future = item.updateAsync();
+        AsyncDbEntity<?> pending = item;
+        Preconditions.checkState(pending.hasPendingDbOpr(), "db operation must be pending");
+        loadOthers(cache, 1, NUM / 2);
+        Preconditions.checkState(cache.load(0) == item, "entity with pending db operation must not be evicted");
+
+        future.get(5, TimeUnit.SECONDS);
+        Preconditions.checkState(Objects.equals(synchronzier.getValue(0), 1000), "item 0: %s", synchronzier.getValue(0));
+        loadOthers(cache, NUM / 2, NUM);
+        //仍在缓存或者从堆外存储加载, 都不会查询数据库
+        int queryNum = synchronzier.getQueryNum();
+        Item reloaded = cache.load(0);
+        Preconditions.checkState(reloaded.getValue() == 1000, "item 0: %s", reloaded);
+        Preconditions.checkState(synchronzier.getQueryNum() == queryNum, "evicted entity must be loaded from off heap");
+    }
+
+    /**
+     * 已被淘汰的entity仍被外部持有并修改, 再次加载得到该entity, 而不是堆外存储的旧快照
+     */
+    private static void staleReference(ItemCache cache, MemorySynchronzier synchronzier) throws Exception {
+        Item item = cache.load(1);
+        loadOthers(cache, 2, NUM);
+
+        item.setValue(2000);
+        item.updateAsync().get(5, TimeUnit.SECONDS);
+        Item reloaded = cache.load(1);
+        Preconditions.checkState(reloaded == item, "modified entity must be loaded, instead of off heap snapshot");
+        Preconditions.checkState(Objects.equals(synchronzier.getValue(1), 2000), "item 1: %s", synchronzier.getValue(1));
+    }
+
+    /**
+     * 提交db操作与重新计算权重之间被淘汰的entity, 放回缓存前加载, 优先使用该entity
+     */
+    private static void pendingEvicted(ItemCache cache, MemorySynchronzier synchronzier) {
+        Item item = new Item(NUM + 1, 3000);
+        Map<Integer, Item> pendingEvicted = ClassUtils.getFieldValue(ClassUtils.getFieldValue(cache, "evictionHandler"), "pendingEvicted");
+        pendingEvicted.put(item.getId(), item);
+        int queryNum = synchronzier.getQueryNum();
+        Preconditions.checkState(cache.load(item.getId()) == item, "pending evicted entity must be loaded");
+        Preconditions.checkState(synchronzier.getQueryNum() == queryNum, "pending evicted entity must not be loaded from db");
+        pendingEvicted.remove(item.getId());
+    }
+
+    /**
+     * 加载主键[from, to)的entity, 超过缓存容量的entity会被淘汰
+     */
+    private static void loadOthers(ItemCache cache, int from, int to) throws InterruptedException {
+        for (int i = from; i < to; i++) {
+            cache.load(i);
+        }
+        //等待异步淘汰完成
+        TimeUnit.MILLISECONDS.sleep(200);
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    private static class ItemCache extends BoundedEntityCache<Integer, Item, MemorySynchronzier> {
+        ItemCache() {
+            super(MAXIMUM_SIZE, (pk, entity) -> 1, 0, TimeUnit.MILLISECONDS, 1024 * 1024);
+        }
+
+        @Override
+        protected Item initEntity(Integer pk, Object... args) {
+            return new Item(pk);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.kin.framework.asyncdb;
+
+import com.google.common.base.Preconditions;
+import org.kin.framework.asyncdb.dao.MemorySynchronzier;
+import org.kin.framework.asyncdb.entity.Item;
+import org.kin.framework.utils.ClassUtils;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 校验缓存加载, 同一主键并发加载只查询一次数据库, 批量加载只查询一次数据库, 结果不符合预期则抛异常
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class EntityCacheTest {
+    /** 每次查询的耗时, 毫秒 */
+    private static final int COST = 300;
+
+    public static void main(String[] args) throws Exception {
+        MemorySynchronzier synchronzier = new MemorySynchronzier();
+        //数据库不存在的主键, new的db entity通过单例insert
+        AsyncDbService asyncDbService = AsyncDbService.getInstance();
+        asyncDbService.register(Item.class, synchronzier);
+        ItemCache cache = new ItemCache();
+        ClassUtils.setFieldValue(cache, "dbSynchronzier", synchronzier);
+        asyncDbService.addListener(cache);
+
+        singleFlight(cache, synchronzier);
+        loadAll(cache, synchronzier);
+
+        asyncDbService.close();
+        Preconditions.checkState(synchronzier.getHistory(3).equals(Collections.singletonList("insert:0")), "missing entity must be inserted: %s", synchronzier.getHistory(3));
+        Preconditions.checkState(synchronzier.getHistory(21).equals(Collections.singletonList("insert:0")), "missing entity must be inserted: %s", synchronzier.getHistory(21));
+        System.out.println("all passed");
+    }
+
+    /**
+     * 同一主键并发加载只查询一次数据库, 且返回同一实例, 不阻塞其他主键的加载
+     */
+    private static void singleFlight(ItemCache cache, MemorySynchronzier synchronzier) throws Exception {
+        synchronzier.put(1, 10);
+        synchronzier.setCost(COST);
+
+        int threads = 16;
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Item>> futures = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return cache.load(1);
+            }));
+        }
+        start.countDown();
+        TimeUnit.MILLISECONDS.sleep(50);
+        //主键1加载期间, 加载其他主键
+        long startMillis = System.currentTimeMillis();
+        Item other = executor.submit(() -> cache.load(2)).get(5, TimeUnit.SECONDS);
+        long cost = System.currentTimeMillis() - startMillis;
+        Preconditions.checkState(cost < COST * 2 - 100, "load of other key must not wait for key 1, cost %s ms", cost);
+        Preconditions.checkState(other.getValue() == 0, "other: %s", other);
+
+        Item first = futures.get(0).get(5, TimeUnit.SECONDS);
+        Preconditions.checkState(first.getValue() == 10, "item 1: %s", first);
+        for (Future<Item> future : futures) {
+            Preconditions.checkState(future.get(5, TimeUnit.SECONDS) == first, "concurrent load must return the same instance");
+        }
+        //主键1, 主键2各一次
+        Preconditions.checkState(synchronzier.getQueryNum() == 2, "query num: %s", synchronzier.getQueryNum());
+        executor.shutdown();
+
+        //已缓存, 不再查询数据库
+        Preconditions.checkState(cache.load(1) == first, "cached instance must be returned");
+        Preconditions.checkState(synchronzier.getQueryNum() == 2, "query num: %s", synchronzier.getQueryNum());
+
+        //数据库不存在的主键, new db entity
+        Item missing = cache.load(3);
+        Preconditions.checkState(missing.getId() == 3 && missing.getValue() == 0, "missing: %s", missing);
+        synchronzier.setCost(0);
+    }
+
+    /**
+     * 批量加载按主键顺序返回, 缓存没有的主键一次查询数据库, 数据库不存在的主键new db entity
+     */
+    private static void loadAll(ItemCache cache, MemorySynchronzier synchronzier) {
+        synchronzier.put(20, 20);
+        synchronzier.put(22, 22);
+        Item cached = cache.load(1);
+        int queryNum = synchronzier.getQueryNum();
+
+        Map<Integer, Item> loaded = cache.loadAll(Arrays.asList(22, 1, 21, 20, 22));
+        Preconditions.checkState(synchronzier.getQueryNum() == queryNum + 1, "misses must be loaded in one query, query num: %s", synchronzier.getQueryNum() - queryNum);
+        Preconditions.checkState(new ArrayList<>(loaded.keySet()).equals(Arrays.asList(22, 1, 21, 20)), "order: %s", loaded.keySet());
+        Preconditions.checkState(loaded.get(1) == cached, "cached instance must be returned");
+        Preconditions.checkState(loaded.get(20).getValue() == 20 && loaded.get(22).getValue() == 22, "loaded: %s", loaded);
+        Preconditions.checkState(loaded.get(21).getValue() == 0, "missing: %s", loaded.get(21));
+
+        //全部已缓存, 不再查询数据库
+        Map<Integer, Item> reloaded = cache.loadAll(Arrays.asList(20, 21, 22));
+        Preconditions.checkState(synchronzier.getQueryNum() == queryNum + 1, "query num: %s", synchronzier.getQueryNum() - queryNum);
+        for (Map.Entry<Integer, Item> entry : reloaded.entrySet()) {
+            Preconditions.checkState(entry.getValue() == loaded.get(entry.getKey()), "cached instance must be returned, %s", entry.getKey());
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    private static class ItemCache extends StrongValueEntityCache<Integer, Item, MemorySynchronzier> {
+        @Override
+        protected Item initEntity(Integer pk, Object... args) {
+            return new Item(pk);
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.kin.framework.asyncdb;
+
+import com.google.common.base.Preconditions;
+import org.kin.framework.asyncdb.entity.Item;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.*;
+
+/**
+ * 校验堆外entity存储的读写, 容量限制以及并发读写, 结果不符合预期则抛异常
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class OffHeapEntityStoreTest {
+    /** 段大小 */
+    private static final int SEGMENT_SIZE = 4 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        putAndTake();
+        capacity();
+        concurrent();
+        System.out.println("all passed");
+    }
+
+    /**
+     * 读取后移除, 覆盖已有的, 序列化前后调用entity钩子
+     */
+    private static void putAndTake() {
+        OffHeapEntityStore<Integer> store = new OffHeapEntityStore<>(SEGMENT_SIZE * 8, SEGMENT_SIZE);
+        Item item = new Item(1, 10);
+        store.put(1, item);
+        store.put(2, new Item(2, 20));
+        store.put(3, new Item(3, 30));
+        Preconditions.checkState(store.size() == 3, "size: %s", store.size());
+
+        Item taken = (Item) store.take(1);
+        Preconditions.checkState(taken != item && taken.getId() == 1 && taken.getValue() == 10, "taken: %s", taken);
+        Preconditions.checkState(store.take(1) == null, "entity must be removed after take");
+        Preconditions.checkState(store.getHitCount() == 1 && store.getMissCount() == 1, "hit: %s, miss: %s", store.getHitCount(), store.getMissCount());
+
+        store.put(2, new Item(2, 21));
+        Preconditions.checkState(((Item) store.take(2)).getValue() == 21, "latest entity must overwrite");
+
+        Preconditions.checkState(store.remove(3), "entity 3 must exist");
+        Preconditions.checkState(!store.remove(3), "entity 3 must be removed");
+        Preconditions.checkState(store.take(3) == null, "removed entity must not be taken");
+
+        store.put(4, new Item(4, 40));
+        store.clear();
+        Preconditions.checkState(store.size() == 0 && store.take(4) == null, "store must be cleared");
+
+        //序列化前后调用钩子, 重建transient字段
+        store.put(5, new Rich(5, 0));
+        Rich rich = (Rich) store.take(5);
+        Preconditions.checkState(Objects.equals(rich.desc, "rich-5"), "transient field must be rebuilt: %s", rich.desc);
+    }
+
+    /**
+     * 段写满后复用最早写入的段, 其中的entity被丢弃; 超过段大小的entity不写入
+     */
+    private static void capacity() {
+        int segmentNum = 4;
+        OffHeapEntityStore<Integer> store = new OffHeapEntityStore<>(SEGMENT_SIZE * segmentNum, SEGMENT_SIZE);
+        int num = 1000;
+        for (int i = 0; i < num; i++) {
+            store.put(i, new Item(i, i));
+        }
+        Preconditions.checkState(store.size() < num, "oldest entities must be dropped, size: %s", store.size());
+        Preconditions.checkState(store.take(0) == null, "oldest entity must be dropped");
+        Item newest = (Item) store.take(num - 1);
+        Preconditions.checkState(newest != null && newest.getValue() == num - 1, "newest: %s", newest);
+
+        int size = store.size();
+        store.put(-1, new Rich(-1, SEGMENT_SIZE));
+        Preconditions.checkState(store.size() == size && store.take(-1) == null, "entity larger than segment must not be written");
+        //已存在的旧entity也要移除, 以免读到旧数据
+        store.put(num - 2, new Rich(num - 2, SEGMENT_SIZE));
+        Preconditions.checkState(store.take(num - 2) == null, "stale entity must be removed");
+    }
+
+    /**
+     * 并发读写, 读到的entity与主键一致
+     */
+    private static void concurrent() throws Exception {
+        OffHeapEntityStore<Integer> store = new OffHeapEntityStore<>(SEGMENT_SIZE * 8, SEGMENT_SIZE);
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < 20000; i++) {
+                    int key = random.nextInt(1000);
+                    if (random.nextBoolean()) {
+                        store.put(key, new Item(key, key));
+                    } else {
+                        Item item = (Item) store.take(key);
+                        Preconditions.checkState(item == null || (item.getId() == key && item.getValue() == key), "key %s, but %s", key, item);
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+        Preconditions.checkState(store.getHitCount() > 0, "no hit");
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    private static class Rich extends AsyncDbEntity<Integer> {
+        private static final long serialVersionUID = 1L;
+
+        private int id;
+        private byte[] payload;
+        /** 序列化前写入name, 反序列化后重建 */
+        private String name;
+        private transient String desc;
+
+        Rich(int id, int payloadSize) {
+            this.id = id;
+            this.payload = new byte[payloadSize];
+            this.desc = "rich-" + id;
+        }
+
+        @Override
+        protected void serialize() {
+            name = desc;
+        }
+
+        @Override
+        protected void deserialize() {
+            desc = name;
+        }
+
+        @Override
+        public Integer getPrimaryKey() {
+            return id;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.kin.framework.asyncdb;
+
+import com.google.common.base.Preconditions;
+import org.kin.framework.asyncdb.dao.MemorySynchronzier;
+import org.kin.framework.asyncdb.entity.Item;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 校验db操作队列的合并规则, 容量以及出队顺序, 结果不符合预期则抛异常
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class PendingOprQueueTest {
+    public static void main(String[] args) throws Exception {
+        merge();
+        capacity();
+        order();
+        coalesce();
+        System.out.println("all passed");
+    }
+
+    /**
+     * insert + update = insert, insert + delete = 相互抵消, update + delete = delete, delete + insert = update
+     * 其余情况, 以先前的db操作为准
+     */
+    private static void merge() throws Exception {
+        checkMerge(DbOperation.Insert, DbOperation.Update, DbOperation.Insert);
+        checkMerge(DbOperation.Insert, DbOperation.Insert, DbOperation.Insert);
+        checkMerge(DbOperation.Update, DbOperation.Update, DbOperation.Update);
+        checkMerge(DbOperation.Update, DbOperation.Insert, DbOperation.Update);
+        checkMerge(DbOperation.Update, DbOperation.Delete, DbOperation.Delete);
+        checkMerge(DbOperation.Delete, DbOperation.Insert, DbOperation.Update);
+        checkMerge(DbOperation.Delete, DbOperation.Update, DbOperation.Delete);
+        checkMerge(DbOperation.Delete, DbOperation.Delete, DbOperation.Delete);
+
+        //insert + delete相互抵消, slot移除, 所有future完成
+        List<PendingOprQueue.PendingOpr> cancelled = new ArrayList<>();
+        PendingOprQueue queue = new PendingOprQueue(10, cancelled::add);
+        CompletableFuture<Void> insertFuture = new CompletableFuture<>();
+        CompletableFuture<Void> deleteFuture = new CompletableFuture<>();
+        check(queue.offer(new Item(1), DbOperation.Insert, 1, insertFuture), PendingOprQueue.OfferResult.ENQUEUED);
+        check(queue.offer(new Item(1), DbOperation.Delete, 2, deleteFuture), PendingOprQueue.OfferResult.CANCELLED);
+        Preconditions.checkState(queue.isEmpty(), "cancelled slot must be removed");
+        Preconditions.checkState(cancelled.size() == 1, "cancelled consumer must be notified once: %s", cancelled.size());
+        Preconditions.checkState(cancelled.get(0).getSeqs().equals(Arrays.asList(1L, 2L)), "seqs: %s", cancelled.get(0).getSeqs());
+        cancelled.get(0).complete();
+        Preconditions.checkState(insertFuture.isDone() && deleteFuture.isDone(), "all futures must be completed");
+
+        //抵消后再次insert, 重新占用slot
+        check(queue.offer(new Item(1), DbOperation.Insert, 3, null), PendingOprQueue.OfferResult.ENQUEUED);
+        Preconditions.checkState(queue.size() == 1, "size: %s", queue.size());
+    }
+
+    /**
+     * 校验先后两次db操作合并的结果, 合并后保留最新的实体以及所有日志序号
+     */
+    private static void checkMerge(DbOperation pre, DbOperation next, DbOperation expected) throws InterruptedException {
+        PendingOprQueue queue = new PendingOprQueue(10, pendingOpr -> {
+            throw new IllegalStateException("must not be cancelled");
+        });
+        Item older = new Item(1, 1);
+        Item newer = new Item(1, 2);
+        check(queue.offer(older, pre, 1, null), PendingOprQueue.OfferResult.ENQUEUED);
+        check(queue.offer(newer, next, 2, null), PendingOprQueue.OfferResult.COALESCED);
+        Preconditions.checkState(queue.size() == 1, "%s + %s must occupy one slot", pre, next);
+
+        PendingOprQueue.PendingOpr pendingOpr = queue.take();
+        Preconditions.checkState(pendingOpr.getOperation() == expected, "%s + %s = %s, expected %s", pre, next, pendingOpr.getOperation(), expected);
+        Preconditions.checkState(pendingOpr.getEntity() == newer, "merged slot must hold the latest entity");
+        Preconditions.checkState(pendingOpr.getSeqs().equals(Arrays.asList(1L, 2L)), "seqs: %s", pendingOpr.getSeqs());
+    }
+
+    /**
+     * 合并到已有slot不占用容量, 新主键超出容量则失败, 强制入队忽略容量
+     */
+    private static void capacity() {
+        PendingOprQueue queue = new PendingOprQueue(2, pendingOpr -> {
+        });
+        check(queue.offer(new Item(1), DbOperation.Update, -1, null), PendingOprQueue.OfferResult.ENQUEUED);
+        check(queue.offer(new Item(2), DbOperation.Update, -1, null), PendingOprQueue.OfferResult.ENQUEUED);
+        check(queue.offer(new Item(3), DbOperation.Update, -1, null), PendingOprQueue.OfferResult.FULL);
+        check(queue.offer(new Item(1), DbOperation.Update, -1, null), PendingOprQueue.OfferResult.COALESCED);
+        Preconditions.checkState(queue.remainingCapacity() == 0, "remaining capacity: %s", queue.remainingCapacity());
+
+        check(queue.forceOffer(new Item(3), DbOperation.Update, -1, null), PendingOprQueue.OfferResult.ENQUEUED);
+        Preconditions.checkState(queue.size() == 3, "size: %s", queue.size());
+
+        List<PendingOprQueue.PendingOpr> drained = new ArrayList<>();
+        Preconditions.checkState(queue.drainTo(drained, 2) == 2, "drained: %s", drained.size());
+        check(queue.offer(new Item(4), DbOperation.Update, -1, null), PendingOprQueue.OfferResult.ENQUEUED);
+    }
+
+    /**
+     * slot按首次入队顺序出队, 合并不改变slot位置
+     */
+    private static void order() throws InterruptedException {
+        PendingOprQueue queue = new PendingOprQueue(10, pendingOpr -> {
+        });
+        for (int i = 0; i < 5; i++) {
+            queue.offer(new Item(i), DbOperation.Update, -1, null);
+        }
+        queue.offer(new Item(0), DbOperation.Update, -1, null);
+        queue.offer(new Item(3), DbOperation.Update, -1, null);
+        long oldest = queue.oldestEnqueueNanos();
+        for (int i = 0; i < 5; i++) {
+            PendingOprQueue.PendingOpr pendingOpr = queue.take();
+            Preconditions.checkState(Objects.equals(pendingOpr.getEntity().getPrimaryKey(), i), "expected %s, but %s", i, pendingOpr.getEntity());
+            if (i == 0) {
+                Preconditions.checkState(pendingOpr.getEnqueueNanos() == oldest, "head must be the oldest slot");
+            }
+        }
+        Preconditions.checkState(queue.oldestEnqueueNanos() == Long.MAX_VALUE, "empty queue has no oldest slot");
+    }
+
+    /**
+     * 热点实体的db操作在队列中合并, 入库次数远小于提交次数, 且入库的是最新的数值
+     */
+    private static void coalesce() throws Exception {
+        MemorySynchronzier synchronzier = new MemorySynchronzier();
+        AsyncDbService asyncDbService = new AsyncDbService();
+        asyncDbService.init(1, new SimpleAsyncDbStrategy(10, 0, 50));
+        asyncDbService.register(Item.class, synchronzier);
+
+        int num = 1000;
+        Item item = new Item(1);
+        List<CompletableFuture<Void>> futures = new ArrayList<>(num);
+        futures.add(asyncDbService.dbOprAsync(item, DbOperation.Insert));
+        for (int i = 1; i <= num; i++) {
+            item.setValue(i);
+            futures.add(asyncDbService.dbOprAsync(item, DbOperation.Update));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+        List<String> history = synchronzier.getHistory(1);
+        Preconditions.checkState(history.size() < num / 10, "db operations must be coalesced, persisted: %s", history.size());
+        Preconditions.checkState(history.get(0).startsWith("insert"), "insert must be persisted first: %s", history);
+        Preconditions.checkState(Objects.equals(synchronzier.getValue(1), num), "latest value must be persisted: %s", synchronzier.getValue(1));
+        Preconditions.checkState(asyncDbService.getMetrics().getCoalescedCount() > 0, "coalesced count must be counted");
+        asyncDbService.close();
+    }
+
+    private static void check(PendingOprQueue.OfferResult result, PendingOprQueue.OfferResult expected) {
+        Preconditions.checkState(result == expected, "expected %s, but %s", expected, result);
+    }
+}
@@ -0,0 +1,131 @@
+package org.kin.framework.asyncdb;
+
+import com.google.common.base.Preconditions;
+import org.kin.framework.asyncdb.dao.MemoryBatchSynchronzier;
+import org.kin.framework.asyncdb.dao.MemorySynchronzier;
+import org.kin.framework.asyncdb.entity.Item;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 校验分片{@link DbSynchronzier}的路由, 跨分片查询, 以及每个分片独立的worker, 结果不符合预期则抛异常
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class ShardedDbSynchronzierTest {
+    public static void main(String[] args) throws Exception {
+        routing();
+        isolation();
+        batch();
+        System.out.println("all passed");
+    }
+
+    /**
+     * 按主键路由到分片, 负数分片序号取模后非负, 跨分片查询合并所有分片的结果且每个分片只查询一次
+     */
+    private static void routing() {
+        MemorySynchronzier shard0 = new MemorySynchronzier();
+        MemorySynchronzier shard1 = new MemorySynchronzier();
+        ShardedDbSynchronzier<Integer, Item> sharded = ShardedDbSynchronzier.of(Arrays.asList(shard0, shard1), pk -> pk);
+        Preconditions.checkState(!(sharded instanceof BatchDbSynchronzier), "shards do not support batch db operation");
+        Preconditions.checkState(sharded.shard(3) == 1 && sharded.shard(-3) == 1 && sharded.shard(-4) == 0, "shard must be non-negative");
+
+        for (int i = 0; i < 10; i++) {
+            sharded.insert(new Item(i, i));
+        }
+        for (int i = 0; i < 10; i++) {
+            MemorySynchronzier owner = i % 2 == 0 ? shard0 : shard1;
+            MemorySynchronzier other = i % 2 == 0 ? shard1 : shard0;
+            Preconditions.checkState(Objects.equals(owner.getValue(i), i) && other.getValue(i) == null, "item %s is routed to wrong shard", i);
+            Preconditions.checkState(sharded.get(i).getValue() == i, "get item %s", i);
+        }
+
+        int queryNum0 = shard0.getQueryNum();
+        int queryNum1 = shard1.getQueryNum();
+        List<Item> items = sharded.getAll(Arrays.asList(1, 2, 3, 4, 100));
+        Set<Integer> ids = new TreeSet<>();
+        for (Item item : items) {
+            ids.add(item.getId());
+        }
+        Preconditions.checkState(ids.equals(new TreeSet<>(Arrays.asList(1, 2, 3, 4))) && items.size() == 4, "get all: %s", items);
+        Preconditions.checkState(shard0.getQueryNum() == queryNum0 + 1 && shard1.getQueryNum() == queryNum1 + 1, "each shard must be queried once");
+        //只涉及一个分片
+        sharded.getAll(Arrays.asList(1, 3));
+        Preconditions.checkState(shard0.getQueryNum() == queryNum0 + 1, "shard 0 must not be queried");
+        Preconditions.checkState(sharded.getAll().size() == 10, "get all: %s", sharded.getAll().size());
+    }
+
+    /**
+     * 每个分片拥有独立的worker, 慢分片不阻塞其他分片入库
+     */
+    private static void isolation() throws Exception {
+        MemorySynchronzier slow = new MemorySynchronzier();
+        MemorySynchronzier fast = new MemorySynchronzier();
+        slow.setCost(50);
+        AsyncDbService asyncDbService = new AsyncDbService();
+        asyncDbService.init(2, new SimpleAsyncDbStrategy(10, 0, 1));
+        asyncDbService.register(Item.class, ShardedDbSynchronzier.of(Arrays.asList(slow, fast), pk -> pk));
+        Preconditions.checkState(asyncDbService.getShardMetrics(Item.class).size() == 2, "shard metrics: %s", asyncDbService.getShardMetrics(Item.class).size());
+
+        int num = 100;
+        List<CompletableFuture<Void>> slowFutures = new ArrayList<>(num / 2);
+        List<CompletableFuture<Void>> fastFutures = new ArrayList<>(num / 2);
+        for (int i = 0; i < num; i++) {
+            (i % 2 == 0 ? slowFutures : fastFutures).add(asyncDbService.dbOprAsync(new Item(i, i), DbOperation.Insert));
+        }
+        CompletableFuture.allOf(fastFutures.toArray(new CompletableFuture[0])).get(1, TimeUnit.SECONDS);
+        Preconditions.checkState(fast.size() == num / 2, "fast shard: %s", fast.size());
+        Preconditions.checkState(slow.size() < num / 2, "slow shard must not be finished yet: %s", slow.size());
+        //分片worker有独立的监控指标, 不计入主worker
+        Preconditions.checkState(asyncDbService.getMetrics().getSubmittedCount() == 0, "main submitted: %s", asyncDbService.getMetrics().getSubmittedCount());
+        Preconditions.checkState(asyncDbService.getShardMetrics(Item.class).get(1).getPersistedCount() == num / 2, "fast shard persisted");
+
+        slow.setCost(0);
+        CompletableFuture.allOf(slowFutures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        Preconditions.checkState(slow.size() == num / 2, "slow shard: %s", slow.size());
+        asyncDbService.close();
+    }
+
+    /**
+     * 所有分片都支持批量db操作, 则按分片批量入库
+     */
+    private static void batch() throws Exception {
+        MemoryBatchSynchronzier shard0 = new MemoryBatchSynchronzier();
+        MemoryBatchSynchronzier shard1 = new MemoryBatchSynchronzier();
+        ShardedDbSynchronzier<Integer, Item> sharded = ShardedDbSynchronzier.of(Arrays.asList(shard0, shard1), pk -> pk);
+        Preconditions.checkState(sharded instanceof ShardedBatchDbSynchronzier, "shards support batch db operation: %s", sharded.getClass());
+
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            items.add(new Item(i, i));
+        }
+        ((ShardedBatchDbSynchronzier<Integer, Item>) sharded).insertAll(items);
+        Preconditions.checkState(shard0.getBatchSizes().equals(Collections.singletonList(3)), "shard 0 batch sizes: %s", shard0.getBatchSizes());
+        Preconditions.checkState(shard1.getBatchSizes().equals(Collections.singletonList(2)), "shard 1 batch sizes: %s", shard1.getBatchSizes());
+
+        //worker批量入库
+        AsyncDbService asyncDbService = new AsyncDbService();
+        asyncDbService.init(2, new SimpleAsyncDbStrategy(100, 0, 200, true));
+        asyncDbService.register(Item.class, ShardedDbSynchronzier.of(Arrays.asList(new MemoryBatchSynchronzier(), new MemoryBatchSynchronzier()), pk -> pk));
+        ShardedDbSynchronzier<?, ?> registered = (ShardedDbSynchronzier<?, ?>) asyncDbService.getDbSynchronzier(Item.class);
+        int num = 50;
+        List<CompletableFuture<Void>> futures = new ArrayList<>(num);
+        for (int i = 10; i < 10 + num; i++) {
+            futures.add(asyncDbService.dbOprAsync(new Item(i, i), DbOperation.Insert));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        for (int shard = 0; shard < registered.getShardNum(); shard++) {
+            MemoryBatchSynchronzier batchShard = (MemoryBatchSynchronzier) registered.getShards().get(shard);
+            Preconditions.checkState(batchShard.size() == num / 2, "shard %s: %s", shard, batchShard.size());
+            for (int i = 10; i < 10 + num; i++) {
+                Preconditions.checkState((batchShard.getValue(i) != null) == (i % 2 == shard), "item %s is routed to wrong shard", i);
+            }
+            //worker空闲时, 第一个db操作可能单独执行, 其余积压的db操作批量执行
+            Preconditions.checkState(batchShard.getBatchSizes().stream().anyMatch(batchSize -> batchSize > 1), "shard %s must persist in batch: %s", shard, batchShard.getBatchSizes());
+        }
+        asyncDbService.close();
+    }
+}
@@ -0,0 +1,45 @@
+package org.kin.framework.asyncdb.dao;
+
+import org.kin.framework.asyncdb.BatchDbSynchronzier;
+import org.kin.framework.asyncdb.entity.Item;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 支持批量db操作的{@link MemorySynchronzier}, 记录每次批量db操作的实体数量
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class MemoryBatchSynchronzier extends MemorySynchronzier implements BatchDbSynchronzier<Integer, Item> {
+    /** 每次批量db操作的实体数量 */
+    private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void insertAll(Collection<Item> entities) {
+        beforeOpr();
+        batchSizes.add(entities.size());
+        entities.forEach(this::doInsert);
+    }
+
+    @Override
+    public void updateAll(Collection<Item> entities) {
+        beforeOpr();
+        batchSizes.add(entities.size());
+        entities.forEach(this::doUpdate);
+    }
+
+    @Override
+    public void deleteAll(Collection<Item> entities) {
+        beforeOpr();
+        batchSizes.add(entities.size());
+        entities.forEach(this::doDelete);
+    }
+
+    //getter
+    public List<Integer> getBatchSizes() {
+        return batchSizes;
+    }
+}
@@ -0,0 +1,169 @@
+package org.kin.framework.asyncdb.dao;
+
+import org.kin.framework.asyncdb.DbSynchronzier;
+import org.kin.framework.asyncdb.entity.Item;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 内存实现的{@link DbSynchronzier}, 记录每个主键的入库历史, 用于校验入库结果
+ * 支持模拟db操作耗时以及失败
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class MemorySynchronzier implements DbSynchronzier<Integer, Item> {
+    /** key -> 主键, value -> 已入库的数值 */
+    private final Map<Integer, Integer> db = new ConcurrentHashMap<>();
+    /** key -> 主键, value -> 按入库顺序记录的db操作, 格式为insert:数值, update:数值, delete */
+    private final Map<Integer, List<String>> histories = new ConcurrentHashMap<>();
+    /** 入库的实体数量 */
+    private final AtomicInteger oprNum = new AtomicInteger();
+    /** 查询次数 */
+    private final AtomicInteger queryNum = new AtomicInteger();
+    /** 剩余的失败次数, 大于0则db操作抛异常 */
+    private final AtomicInteger failTimes = new AtomicInteger();
+    /** 每次db操作的耗时, 毫秒 */
+    private volatile long cost;
+
+    @Override
+    public void insert(Item entity) {
+        beforeOpr();
+        doInsert(entity);
+    }
+
+    @Override
+    public void update(Item entity) {
+        beforeOpr();
+        doUpdate(entity);
+    }
+
+    @Override
+    public void delete(Item entity) {
+        beforeOpr();
+        doDelete(entity);
+    }
+
+    @Override
+    public Item get(Integer pk) {
+        queryNum.incrementAndGet();
+        sleep();
+        Integer value = db.get(pk);
+        return Objects.nonNull(value) ? new Item(pk, value) : null;
+    }
+
+    @Override
+    public List<Item> getAll() {
+        queryNum.incrementAndGet();
+        List<Item> items = new ArrayList<>(db.size());
+        for (Map.Entry<Integer, Integer> entry : db.entrySet()) {
+            items.add(new Item(entry.getKey(), entry.getValue()));
+        }
+        return items;
+    }
+
+    @Override
+    public List<Item> getAll(Collection<Integer> pks) {
+        queryNum.incrementAndGet();
+        sleep();
+        List<Item> items = new ArrayList<>(pks.size());
+        for (Integer pk : pks) {
+            Integer value = db.get(pk);
+            if (Objects.nonNull(value)) {
+                items.add(new Item(pk, value));
+            }
+        }
+        return items;
+    }
+
+    /**
+     * 模拟db操作耗时以及失败
+     */
+    protected void beforeOpr() {
+        boolean fail = failTimes.getAndUpdate(n -> Math.max(0, n - 1)) > 0;
+        sleep();
+        if (fail) {
+            throw new IllegalStateException("mock db failure");
+        }
+    }
+
+    private void sleep() {
+        if (cost <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(cost);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    protected void doInsert(Item entity) {
+        db.put(entity.getId(), entity.getValue());
+        record(entity.getId(), "insert:" + entity.getValue());
+    }
+
+    protected void doUpdate(Item entity) {
+        db.put(entity.getId(), entity.getValue());
+        record(entity.getId(), "update:" + entity.getValue());
+    }
+
+    protected void doDelete(Item entity) {
+        db.remove(entity.getId());
+        record(entity.getId(), "delete");
+    }
+
+    private void record(int id, String opr) {
+        histories.computeIfAbsent(id, k -> new CopyOnWriteArrayList<>()).add(opr);
+        oprNum.incrementAndGet();
+    }
+
+    /**
+     * 直接写入数据库, 不记录入库历史
+     */
+    public void put(int id, int value) {
+        db.put(id, value);
+    }
+
+    /**
+     * 之后的times次db操作都失败
+     */
+    public void failNext(int times) {
+        failTimes.set(times);
+    }
+
+    //setter && getter
+    public void setCost(long cost) {
+        this.cost = cost;
+    }
+
+    /**
+     * @return 已入库的数值, 不存在则null
+     */
+    public Integer getValue(int id) {
+        return db.get(id);
+    }
+
+    public int size() {
+        return db.size();
+    }
+
+    /**
+     * @return 主键的入库历史
+     */
+    public List<String> getHistory(int id) {
+        return histories.getOrDefault(id, Collections.emptyList());
+    }
+
+    public int getOprNum() {
+        return oprNum.get();
+    }
+
+    public int getQueryNum() {
+        return queryNum.get();
+    }
+}
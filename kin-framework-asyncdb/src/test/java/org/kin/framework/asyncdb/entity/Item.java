@@ -0,0 +1,57 @@
+package org.kin.framework.asyncdb.entity;
+
+import org.kin.framework.asyncdb.AsyncDbEntity;
+
+/**
+ * 测试用db entity, 只有主键和一个数值, 支持删除
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class Item extends AsyncDbEntity<Integer> {
+    private static final long serialVersionUID = 4260386214412538472L;
+    /** id */
+    private int id;
+    /** 数值 */
+    private volatile int value;
+
+    public Item() {
+        super(true);
+    }
+
+    public Item(int id) {
+        this(id, 0);
+    }
+
+    public Item(int id, int value) {
+        super(true);
+        this.id = id;
+        this.value = value;
+    }
+
+    @Override
+    public Integer getPrimaryKey() {
+        return id;
+    }
+
+    //setter && getter
+    public int getId() {
+        return id;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    public void setValue(int value) {
+        this.value = value;
+    }
+
+    @Override
+    public String toString() {
+        return "Item{" +
+                "id=" + id +
+                ", value=" + value +
+                '}';
+    }
+}
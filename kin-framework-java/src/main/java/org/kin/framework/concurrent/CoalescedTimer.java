@@ -0,0 +1,355 @@
+package org.kin.framework.concurrent;
+
+import com.google.common.base.Preconditions;
+import org.kin.framework.log.LoggerOprs;
+import org.kin.framework.utils.LatencyHistogram;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 合并定时器, 单个定时线程, 基于分层哈希时间轮
+ * 同一tick内到期的定时器合并为一次唤醒, 到期后交给worker执行, 调度与取消均为O(1)
+ * 新增的定时器只有早于定时线程下次唤醒时间时, 才会唤醒定时线程
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public final class CoalescedTimer implements LoggerOprs {
+    /** 原子更新定时线程是否park */
+    private static final AtomicIntegerFieldUpdater<CoalescedTimer> PARKED_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(CoalescedTimer.class, "parked");
+
+    /** 执行到期定时器的线程池 */
+    private final Executor worker;
+    /** 定时线程 */
+    private final Thread thread;
+    /** tick时长, 纳秒 */
+    private final long tickNanos;
+    /** 时间轮, 仅定时线程访问 */
+    private final TimingWheel<TimerTask<?>> wheel;
+    /** 新增的定时器, 由定时线程放入时间轮 */
+    private final MpscLinkedQueue<TimerTask<?>> newTimers = new MpscLinkedQueue<>();
+    /** 取消的定时器, 由定时线程从时间轮移除 */
+    private final MpscLinkedQueue<TimerTask<?>> cancelledTimers = new MpscLinkedQueue<>();
+    /** 定时线程是否已park或准备park, 1表示是 */
+    private volatile int parked;
+    /** 定时线程下次唤醒时间 */
+    private volatile long wakeupTime = Long.MAX_VALUE;
+    /** 是否已启动 */
+    private volatile boolean started;
+    private volatile boolean stopped;
+    /** shutdownNow时未触发的定时器, 为null则定时线程退出时取消所有定时器 */
+    private volatile List<Runnable> unfiredTimers;
+
+    //统计
+    /** 放入newTimers的数量 */
+    private final LongAdder submitted = new LongAdder();
+    /** 从newTimers取出的数量, 仅定时线程更新 */
+    private volatile long drained;
+    /** 时间轮中定时器数量, 仅定时线程更新 */
+    private volatile int wheelSize;
+    private final LongAdder fired = new LongAdder();
+    private final LongAdder cancelled = new LongAdder();
+    private final LongAdder late = new LongAdder();
+    private final LatencyHistogram lateness = new LatencyHistogram();
+
+    /**
+     * @param tick 合并粒度, 同一tick内到期的定时器合并为一次唤醒
+     */
+    public CoalescedTimer(Executor worker, ThreadFactory threadFactory, long tick, TimeUnit unit) {
+        Preconditions.checkArgument(tick > 0, "tick must greater than 0");
+        this.worker = worker;
+        this.tickNanos = Math.max(1, unit.toNanos(tick));
+        this.wheel = new TimingWheel<>(tickNanos, System.nanoTime());
+        this.thread = threadFactory.newThread(this::loop);
+    }
+
+    /**
+     * 延迟执行
+     */
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return schedule(command, null, unit.toNanos(delay), 0);
+    }
+
+    /**
+     * @param delay  延迟时间, 纳秒
+     * @param period 间隔时间, 纳秒, 固定时间间隔模式 > 0, 固定延迟时间模式 < 0
+     */
+    <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, long period) {
+        TimerTask<V> task = new TimerTask<>(callable, System.nanoTime() + Math.max(0, delay), period);
+        add(task);
+        return task;
+    }
+
+    <V> ScheduledFuture<V> schedule(Runnable runnable, V result, long delay, long period) {
+        TimerTask<V> task = new TimerTask<>(runnable, result, System.nanoTime() + Math.max(0, delay), period);
+        add(task);
+        return task;
+    }
+
+    /**
+     * 添加定时器, 仅当到期时间早于定时线程下次唤醒时间时才唤醒
+     */
+    private void add(TimerTask<?> task) {
+        if (stopped) {
+            throw new RejectedExecutionException("timer is stopped");
+        }
+        if (!started) {
+            start();
+        }
+        newTimers.offer(task);
+        submitted.increment();
+        if (parked == 1 && isEarlierThanWakeup(task.deadline) && PARKED_UPDATER.compareAndSet(this, 1, 0)) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * @return 到期时间是否早于定时线程下次唤醒时间
+     */
+    private boolean isEarlierThanWakeup(long deadline) {
+        long wakeupTime = this.wakeupTime;
+        return wakeupTime == Long.MAX_VALUE || deadline - wakeupTime < 0;
+    }
+
+    /**
+     * 启动定时线程
+     */
+    private synchronized void start() {
+        if (!started) {
+            thread.start();
+            started = true;
+        }
+    }
+
+    /**
+     * 定时线程逻辑
+     */
+    private void loop() {
+        List<TimerTask<?>> expired = new ArrayList<>();
+        try {
+            while (!stopped) {
+                TimerTask<?> task;
+                while (Objects.nonNull(task = cancelledTimers.poll())) {
+                    wheel.remove(task.node);
+                }
+                long drained = 0;
+                while (Objects.nonNull(task = newTimers.poll())) {
+                    drained++;
+                    if (!task.isCancelled()) {
+                        wheel.add(task.node, task.deadline);
+                    }
+                }
+                this.drained += drained;
+
+                long now = System.nanoTime();
+                wheel.advance(now, expired::add);
+                wheelSize = wheel.size();
+                if (!expired.isEmpty()) {
+                    dispatch(expired, now);
+                    expired.clear();
+                }
+
+                park();
+            }
+        } catch (Throwable t) {
+            error("Unexpected exception from coalesced timer: ", t);
+        } finally {
+            List<Runnable> unfiredTimers = this.unfiredTimers;
+            List<TimerTask<?>> remain = new ArrayList<>();
+            TimerTask<?> task;
+            while (Objects.nonNull(task = newTimers.poll())) {
+                remain.add(task);
+            }
+            wheel.clear(remain::add);
+            wheelSize = 0;
+            for (TimerTask<?> timer : remain) {
+                if (timer.isDone()) {
+                    continue;
+                }
+                if (Objects.nonNull(unfiredTimers)) {
+                    unfiredTimers.add(timer);
+                } else {
+                    timer.cancel(false);
+                }
+            }
+        }
+    }
+
+    /**
+     * 到期定时器交给worker执行
+     */
+    private void dispatch(List<TimerTask<?>> expired, long now) {
+        for (TimerTask<?> task : expired) {
+            if (task.isCancelled()) {
+                continue;
+            }
+            long delay = now - task.deadline;
+            fired.increment();
+            lateness.record(delay);
+            if (delay > tickNanos) {
+                late.increment();
+            }
+            try {
+                worker.execute(task);
+            } catch (RejectedExecutionException e) {
+                warn("worker rejected timer task, cancel it", e);
+                task.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * 空闲, 等待新定时器或者下一个tick
+     * 先标记park再检查队列, 保证新增定时器能看到park标记
+     */
+    private void park() {
+        long nextTickTime = wheel.nextTickTime();
+        wakeupTime = nextTickTime;
+        PARKED_UPDATER.set(this, 1);
+        try {
+            if (stopped || !newTimers.isEmpty()) {
+                return;
+            }
+            if (nextTickTime == Long.MAX_VALUE) {
+                LockSupport.park(this);
+            } else {
+                long delay = nextTickTime - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(this, delay);
+                }
+            }
+        } finally {
+            PARKED_UPDATER.set(this, 0);
+            wakeupTime = Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * 停止定时线程, 取消所有未触发的定时器
+     */
+    public void shutdown() {
+        stopped = true;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * 停止定时线程
+     *
+     * @return 未触发的定时器
+     */
+    public List<Runnable> shutdownNow() {
+        List<Runnable> unfiredTimers = new ArrayList<>();
+        this.unfiredTimers = unfiredTimers;
+        shutdown();
+        if (started && Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return unfiredTimers;
+    }
+
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        if (started) {
+            unit.timedJoin(thread, timeout);
+            return !thread.isAlive();
+        }
+        return true;
+    }
+
+    boolean isShutdown() {
+        return stopped;
+    }
+
+    /**
+     * @return 统计快照
+     */
+    public TimerStats stats() {
+        long pending = wheelSize + Math.max(0, submitted.sum() - drained);
+        return new TimerStats(pending, fired.sum(), cancelled.sum(), late.sum(), lateness.snapshot());
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 定时器, 到期后在worker执行
+     */
+    private class TimerTask<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+        /** 时间轮节点, 循环定时器复用 */
+        private final TimingWheel.Node<TimerTask<?>> node = new TimingWheel.Node<>(this);
+        /**
+         * 间隔时间, 纳秒
+         * 固定时间间隔模式, > 0
+         * 固定延迟时间模式, < 0
+         */
+        private final long period;
+        /** 到期时间, nanoTime */
+        private volatile long deadline;
+
+        TimerTask(Callable<V> callable, long deadline, long period) {
+            super(callable);
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        TimerTask(Runnable runnable, V result, long deadline, long period) {
+            super(runnable, result);
+            this.deadline = deadline;
+            this.period = period;
+        }
+
+        @Override
+        public long getDelay(@Nonnull TimeUnit unit) {
+            return unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(@Nonnull Delayed other) {
+            if (other == this) {
+                return 0;
+            }
+            long diff = getDelay(TimeUnit.NANOSECONDS) - other.getDelay(TimeUnit.NANOSECONDS);
+            return (diff < 0) ? -1 : (diff > 0) ? 1 : 0;
+        }
+
+        @Override
+        public boolean isPeriodic() {
+            return period != 0;
+        }
+
+        @Override
+        public void run() {
+            if (!isPeriodic()) {
+                super.run();
+            } else if (super.runAndReset() && !stopped) {
+                //循环定时器, 重新放入
+                deadline = period > 0 ? deadline + period : System.nanoTime() - period;
+                try {
+                    add(this);
+                } catch (RejectedExecutionException e) {
+                    cancel(false);
+                }
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                CoalescedTimer.this.cancelled.increment();
+                cancelledTimers.offer(this);
+            }
+            return cancelled;
+        }
+    }
+}
@@ -3,6 +3,7 @@ package org.kin.framework.concurrent;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import org.kin.framework.utils.StringUtils;
+import org.kin.framework.utils.SysUtils;
 
 import java.util.Collection;
 import java.util.List;
@@ -10,6 +11,10 @@ import java.util.Objects;
 import java.util.concurrent.*;
 
 /**
+ * 执行线程池+调度线程池, 调度task到期后在执行线程池执行
+ * 可开启合并定时器, 同一tick内到期的定时task合并为一次唤醒, 取消为O(1), 并提供定时统计, 见{@link #getTimerStats()}
+ * 各工厂方法带timerTick参数的重载即开启合并定时器
+ *
  * @author huangjianqin
  * @date 2018/1/24
  */
@@ -18,6 +23,8 @@ public class ExecutionContext implements ScheduledExecutorService {
     private ExecutorService worker;
     /** 调度线程 */
     private ScheduledExecutorService scheduleExecutor;
+    /** 合并定时器, 开启后替代调度线程 */
+    private CoalescedTimer timer;
     private volatile boolean isStopped;
 
     public ExecutionContext(ExecutorService worker) {
@@ -41,6 +48,16 @@ public class ExecutionContext implements ScheduledExecutorService {
         }
     }
 
+    /**
+     * 使用合并定时器调度, 只有一条定时线程
+     *
+     * @param timerTick 合并粒度, 同一tick内到期的定时task合并为一次唤醒, 也是定时精度
+     */
+    public ExecutionContext(ExecutorService worker, ThreadFactory scheduleThreadFactory, long timerTick, TimeUnit unit) {
+        this.worker = worker;
+        this.timer = new CoalescedTimer(this::execute, scheduleThreadFactory, timerTick, unit);
+    }
+
     //--------------------------------------------------------------------------------------------
     public static ExecutionContext forkjoin(int parallelism, String workerNamePrefix) {
         return forkjoin(parallelism, workerNamePrefix, 0, null);
@@ -70,6 +87,14 @@ public class ExecutionContext implements ScheduledExecutorService {
                 scheduleParallelism, StringUtils.isBlank(scheduleThreadNamePrefix) ? null : new SimpleThreadFactory(scheduleThreadNamePrefix));
     }
 
+    /**
+     * @param timerTick 合并定时器tick, 同一tick内到期的定时task合并为一次唤醒
+     */
+    public static ExecutionContext forkjoin(int parallelism, String workerNamePrefix, long timerTick, TimeUnit unit, String scheduleThreadNamePrefix) {
+        return new ExecutionContext(new ForkJoinPool(parallelism, new SimpleForkJoinWorkerThradFactory(workerNamePrefix), null, false),
+                new SimpleThreadFactory(scheduleThreadNamePrefix), timerTick, unit);
+    }
+
     private static ExecutionContext forkjoin(ForkJoinPool forkJoinPool, int scheduleParallelism, ThreadFactory scheduleThreadFactory) {
         return new ExecutionContext(forkJoinPool, scheduleParallelism, scheduleThreadFactory);
     }
@@ -103,6 +128,15 @@ public class ExecutionContext implements ScheduledExecutorService {
                 scheduleParallelism, scheduleThreadFactory);
     }
 
+    /**
+     * @param timerTick 合并定时器tick, 同一tick内到期的定时task合并为一次唤醒
+     */
+    public static ExecutionContext cache(String workerNamePrefix, long timerTick, TimeUnit unit, String scheduleThreadNamePrefix) {
+        return new ExecutionContext(
+                new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), new SimpleThreadFactory(workerNamePrefix)),
+                new SimpleThreadFactory(scheduleThreadNamePrefix), timerTick, unit);
+    }
+
     public static ExecutionContext fix(int parallelism, String workerNamePrefix) {
         return fix(parallelism, workerNamePrefix, 0, null);
     }
@@ -122,6 +156,15 @@ public class ExecutionContext implements ScheduledExecutorService {
                 scheduleParallelism, scheduleThreadFactory);
     }
 
+    /**
+     * @param timerTick 合并定时器tick, 同一tick内到期的定时task合并为一次唤醒
+     */
+    public static ExecutionContext fix(int parallelism, String workerNamePrefix, long timerTick, TimeUnit unit, String scheduleThreadNamePrefix) {
+        return new ExecutionContext(
+                new ThreadPoolExecutor(parallelism, parallelism, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new SimpleThreadFactory(workerNamePrefix)),
+                new SimpleThreadFactory(scheduleThreadNamePrefix), timerTick, unit);
+    }
+
     public static ExecutionContext elastic(int coreParallelism, int maxParallelism, String workerNamePrefix) {
         return elastic(coreParallelism, maxParallelism, new SimpleThreadFactory(workerNamePrefix), 0, null);
     }
@@ -139,10 +182,39 @@ public class ExecutionContext implements ScheduledExecutorService {
                 new ThreadPoolExecutor(coreParallelism, maxParallelism, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), workerThreadFactory),
                 scheduleParallelism, scheduleThreadFactory);
     }
+
+    /**
+     * @param timerTick 合并定时器tick, 同一tick内到期的定时task合并为一次唤醒
+     */
+    public static ExecutionContext elastic(int coreParallelism, int maxParallelism, String workerNamePrefix,
+                                           long timerTick, TimeUnit unit, String scheduleThreadNamePrefix) {
+        return new ExecutionContext(
+                new ThreadPoolExecutor(coreParallelism, maxParallelism, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new SimpleThreadFactory(workerNamePrefix)),
+                new SimpleThreadFactory(scheduleThreadNamePrefix), timerTick, unit);
+    }
+
+    /**
+     * 一个任务一个虚拟线程, 适合大量阻塞IO的任务
+     * jdk21以下不支持虚拟线程, 则退化为forkjoin线程池, 任务中的阻塞操作应通过{@link Threads#managedBlock(Runnable)}等执行,
+     * 以便线程池补偿线程
+     */
+    public static ExecutionContext virtual(String workerNamePrefix, int scheduleParallelism, String scheduleThreadNamePrefix) {
+        if (!Threads.isVirtualThreadSupported()) {
+            return asyncForkjoin(SysUtils.CPU_NUM, workerNamePrefix, scheduleParallelism, scheduleThreadNamePrefix);
+        }
+        return cache(0, Integer.MAX_VALUE, Threads.virtualThreadFactory(workerNamePrefix),
+                scheduleParallelism, StringUtils.isBlank(scheduleThreadNamePrefix) ? null : new SimpleThreadFactory(scheduleThreadNamePrefix));
+    }
     //--------------------------------------------------------------------------------------------
 
     @Override
     public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        if (Objects.nonNull(timer)) {
+            if (isStopped) {
+                throw new IllegalStateException("threads is stopped");
+            }
+            return timer.schedule(command, null, unit.toNanos(delay), 0);
+        }
         Preconditions.checkNotNull(scheduleExecutor);
         if (!isStopped) {
             return scheduleExecutor.schedule(() -> execute(command), delay, unit);
@@ -152,6 +224,12 @@ public class ExecutionContext implements ScheduledExecutorService {
 
     @Override
     public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        if (Objects.nonNull(timer)) {
+            if (isStopped) {
+                throw new IllegalStateException("threads is stopped");
+            }
+            return timer.schedule(callable, unit.toNanos(delay), 0);
+        }
         Preconditions.checkNotNull(scheduleExecutor);
         if (!isStopped) {
             return scheduleExecutor.schedule(() -> submit(callable).get(), delay, unit);
@@ -161,6 +239,13 @@ public class ExecutionContext implements ScheduledExecutorService {
 
     @Override
     public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        if (Objects.nonNull(timer)) {
+            if (isStopped) {
+                throw new IllegalStateException("threads is stopped");
+            }
+            Preconditions.checkArgument(period > 0, "period must greater than 0");
+            return timer.schedule(command, null, unit.toNanos(initialDelay), unit.toNanos(period));
+        }
         Preconditions.checkNotNull(scheduleExecutor);
         if (!isStopped) {
             return scheduleExecutor.scheduleAtFixedRate(() -> execute(command), initialDelay, period, unit);
@@ -170,6 +255,13 @@ public class ExecutionContext implements ScheduledExecutorService {
 
     @Override
     public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        if (Objects.nonNull(timer)) {
+            if (isStopped) {
+                throw new IllegalStateException("threads is stopped");
+            }
+            Preconditions.checkArgument(delay > 0, "delay must greater than 0");
+            return timer.schedule(command, null, unit.toNanos(initialDelay), -unit.toNanos(delay));
+        }
         Preconditions.checkNotNull(scheduleExecutor);
         if (!isStopped) {
             return scheduleExecutor.scheduleWithFixedDelay(() -> execute(command), initialDelay, delay, unit);
@@ -184,6 +276,9 @@ public class ExecutionContext implements ScheduledExecutorService {
         if (scheduleExecutor != null) {
             scheduleExecutor.shutdown();
         }
+        if (timer != null) {
+            timer.shutdown();
+        }
     }
 
     @Override
@@ -194,6 +289,9 @@ public class ExecutionContext implements ScheduledExecutorService {
         if (scheduleExecutor != null) {
             tasks.addAll(scheduleExecutor.shutdownNow());
         }
+        if (timer != null) {
+            tasks.addAll(timer.shutdownNow());
+        }
         return tasks;
     }
 
@@ -213,6 +311,9 @@ public class ExecutionContext implements ScheduledExecutorService {
         if (scheduleExecutor != null) {
             result &= scheduleExecutor.awaitTermination(timeout, unit);
         }
+        if (timer != null) {
+            result &= timer.awaitTermination(timeout, unit);
+        }
         return result;
     }
 
@@ -280,6 +381,14 @@ public class ExecutionContext implements ScheduledExecutorService {
     }
 
     public boolean withSchedule() {
-        return Objects.nonNull(scheduleExecutor) && !scheduleExecutor.isShutdown();
+        return (Objects.nonNull(scheduleExecutor) && !scheduleExecutor.isShutdown()) ||
+                (Objects.nonNull(timer) && !timer.isShutdown());
+    }
+
+    /**
+     * @return 合并定时器统计, 未开启合并定时器则返回null
+     */
+    public TimerStats getTimerStats() {
+        return Objects.nonNull(timer) ? timer.stats() : null;
     }
 }
@@ -0,0 +1,192 @@
+package org.kin.framework.concurrent;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 无锁多生产者单消费者无界队列, 基于定长数组块链表
+ * 元素直接存放在数组槽中, 每{@link #CHUNK_SIZE}个元素才分配一次数组块, 入队不需要为每个元素分配节点
+ * 入队仅需一次cas(getAndIncrement), 出队无需同步, 只允许单个线程调用出队相关方法(poll, peek, iterator等)
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public final class MpscChunkedQueue<E> extends AbstractQueue<E> {
+    /** 数组块大小 */
+    private static final int CHUNK_SIZE = 1024;
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<MpscChunkedQueue> PRODUCER_INDEX_UPDATER =
+            AtomicLongFieldUpdater.newUpdater(MpscChunkedQueue.class, "producerIndex");
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<MpscChunkedQueue> CONSUMER_INDEX_UPDATER =
+            AtomicLongFieldUpdater.newUpdater(MpscChunkedQueue.class, "consumerIndex");
+
+    /** 下一个入队元素的下标 */
+    private volatile long producerIndex;
+    /** 生产者最近分配的数组块, 可能落后, 生产者从该块往后查找 */
+    private volatile Chunk<E> producerChunk;
+    /** 下一个出队元素的下标, 仅消费者更新 */
+    private volatile long consumerIndex;
+    /** 消费者当前数组块, 仅消费者访问 */
+    private Chunk<E> consumerChunk;
+
+    public MpscChunkedQueue() {
+        Chunk<E> chunk = new Chunk<>(0);
+        producerChunk = chunk;
+        consumerChunk = chunk;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        Preconditions.checkNotNull(e, "element is null");
+        //先读数组块再占位, 保证数组块起始下标不大于占到的下标
+        Chunk<E> chunk = producerChunk;
+        long index = PRODUCER_INDEX_UPDATER.getAndIncrement(this);
+        while (index >= chunk.base + CHUNK_SIZE) {
+            Chunk<E> next = chunk.next;
+            if (Objects.isNull(next)) {
+                if (index == chunk.base + CHUNK_SIZE) {
+                    //占到下一数组块的第一个位置, 负责分配
+                    next = new Chunk<>(index);
+                    chunk.next = next;
+                    producerChunk = next;
+                } else {
+                    //等待其他生产者分配
+                    continue;
+                }
+            }
+            chunk = next;
+        }
+        chunk.slots.lazySet((int) (index - chunk.base), e);
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        return consume(true);
+    }
+
+    @Override
+    public E peek() {
+        return consume(false);
+    }
+
+    /**
+     * @param remove 是否移除
+     * @return 队头元素, 队列为空则返回null
+     */
+    private E consume(boolean remove) {
+        long index = consumerIndex;
+        Chunk<E> chunk = consumerChunk;
+        int offset = (int) (index - chunk.base);
+        if (offset == CHUNK_SIZE) {
+            if (index == producerIndex) {
+                return null;
+            }
+            Chunk<E> next;
+            //生产者已占位, 但还未分配下一数组块
+            while (Objects.isNull(next = chunk.next)) {
+                //spin
+            }
+            consumerChunk = chunk = next;
+            offset = 0;
+        }
+        E e = chunk.slots.get(offset);
+        if (Objects.isNull(e)) {
+            if (index == producerIndex) {
+                return null;
+            }
+            //生产者已占位, 但还未放入元素
+            do {
+                e = chunk.slots.get(offset);
+            } while (Objects.isNull(e));
+        }
+        if (remove) {
+            chunk.slots.lazySet(offset, null);
+            CONSUMER_INDEX_UPDATER.lazySet(this, index + 1);
+        }
+        return e;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return consumerIndex == producerIndex;
+    }
+
+    /**
+     * O(1), 包括已占位但还未放入的元素
+     */
+    @Override
+    public int size() {
+        long size = producerIndex - consumerIndex;
+        return (int) Math.min(Math.max(size, 0), Integer.MAX_VALUE);
+    }
+
+    /**
+     * 弱一致性, 仅消费者可调用
+     */
+    @Nonnull
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private final long limit = producerIndex;
+            private long index = consumerIndex;
+            private Chunk<E> chunk = consumerChunk;
+            private E next = advance();
+
+            private E advance() {
+                while (index < limit) {
+                    int offset = (int) (index - chunk.base);
+                    if (offset == CHUNK_SIZE) {
+                        Chunk<E> nextChunk = chunk.next;
+                        if (Objects.isNull(nextChunk)) {
+                            return null;
+                        }
+                        chunk = nextChunk;
+                        continue;
+                    }
+                    index++;
+                    E e = chunk.slots.get(offset);
+                    if (Objects.nonNull(e)) {
+                        return e;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return Objects.nonNull(next);
+            }
+
+            @Override
+            public E next() {
+                E e = next;
+                if (Objects.isNull(e)) {
+                    throw new NoSuchElementException();
+                }
+                next = advance();
+                return e;
+            }
+        };
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    private static final class Chunk<E> {
+        /** 数组块第一个槽对应的下标 */
+        private final long base;
+        private final AtomicReferenceArray<E> slots = new AtomicReferenceArray<>(CHUNK_SIZE);
+        private volatile Chunk<E> next;
+
+        Chunk(long base) {
+            this.base = base;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package org.kin.framework.concurrent;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nonnull;
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * 无锁多生产者单消费者无界队列
+ * 入队仅需一次cas(getAndSet), 出队无需同步, 只允许单个线程调用出队相关方法(poll, peek, iterator等)
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public final class MpscLinkedQueue<E> extends AbstractQueue<E> {
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<MpscLinkedQueue, Node> TAIL_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(MpscLinkedQueue.class, Node.class, "tail");
+
+    /** 队头, 为哨兵节点, 仅消费者访问 */
+    private Node<E> head;
+    /** 队尾, 生产者竞争更新 */
+    private volatile Node<E> tail;
+
+    public MpscLinkedQueue() {
+        Node<E> stub = new Node<>(null);
+        head = stub;
+        tail = stub;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public boolean offer(E e) {
+        Preconditions.checkNotNull(e, "element is null");
+        Node<E> node = new Node<>(e);
+        Node<E> prev = TAIL_UPDATER.getAndSet(this, node);
+        //getAndSet与设置next之间, 消费者可能看到prev.next为null, 故poll时需自旋等待
+        prev.next = node;
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        Node<E> next = nextNode();
+        if (Objects.isNull(next)) {
+            return null;
+        }
+        E e = next.value;
+        //next成为新的哨兵节点
+        next.value = null;
+        head = next;
+        return e;
+    }
+
+    @Override
+    public E peek() {
+        Node<E> next = nextNode();
+        return Objects.nonNull(next) ? next.value : null;
+    }
+
+    /**
+     * @return 队头下一节点, 队列为空则返回null
+     */
+    private Node<E> nextNode() {
+        Node<E> head = this.head;
+        Node<E> next = head.next;
+        if (Objects.isNull(next) && head != tail) {
+            //生产者已更新tail, 但还未链接next
+            do {
+                next = head.next;
+            } while (Objects.isNull(next));
+        }
+        return next;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return head == tail;
+    }
+
+    /**
+     * 需遍历队列, O(n)
+     */
+    @Override
+    public int size() {
+        int size = 0;
+        Node<E> node = head;
+        while (size < Integer.MAX_VALUE) {
+            node = node.next;
+            if (Objects.isNull(node)) {
+                break;
+            }
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * 弱一致性, 仅消费者可调用
+     */
+    @Nonnull
+    @Override
+    public Iterator<E> iterator() {
+        return new Iterator<E>() {
+            private Node<E> node = head.next;
+
+            @Override
+            public boolean hasNext() {
+                return Objects.nonNull(node);
+            }
+
+            @Override
+            public E next() {
+                if (Objects.isNull(node)) {
+                    throw new NoSuchElementException();
+                }
+                E e = node.value;
+                node = node.next;
+                return e;
+            }
+        };
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+    private static final class Node<E> {
+        private E value;
+        private volatile Node<E> next;
+
+        Node(E value) {
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.kin.framework.concurrent;
+
+import org.kin.framework.utils.HashUtils;
+
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link SingleThreadSchedulerPool}选择executor的策略
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+@FunctionalInterface
+public interface SchedulerSelector {
+    /**
+     * 选择一个executor
+     *
+     * @param task      task
+     * @param executors 所有executor
+     * @return executor下标
+     */
+    int select(Object task, SingleThreadScheduler[] executors);
+
+    /**
+     * 轮询
+     */
+    static SchedulerSelector roundRobin() {
+        AtomicInteger counter = new AtomicInteger();
+        return (task, executors) -> (counter.getAndIncrement() & Integer.MAX_VALUE) % executors.length;
+    }
+
+    /**
+     * 随机选择两个executor, 取待执行task较少的那个
+     */
+    static SchedulerSelector powerOfTwoChoices() {
+        return (task, executors) -> {
+            int size = executors.length;
+            if (size == 1) {
+                return 0;
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(size);
+            //保证两者不同
+            int second = (first + 1 + random.nextInt(size - 1)) % size;
+            return executors[first].pendingTasks() <= executors[second].pendingTasks() ? first : second;
+        };
+    }
+
+    /**
+     * 按task hash, 同一task总是在同一executor执行
+     */
+    static SchedulerSelector hash() {
+        return (task, executors) -> Math.floorMod(HashUtils.spread(Objects.hashCode(task)), executors.length);
+    }
+}
@@ -8,12 +8,21 @@ import javax.annotation.Nonnull;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 /**
  * 拥有调度能力的单线程Executor
  * 调度完后, task执行仍然在该Executor
+ * <p>
+ * 默认所有task都放入{@link DelayQueue}, 入队需竞争全局锁, 且为O(log n)
+ * 可开启时间轮模式, 延时task放入分层哈希时间轮, 插入与取消均为O(1), 非延时task放入无锁队列, 不经过时间轮
+ * 时间轮模式下, 绑定线程每轮批量执行task, 仅在绑定线程由空闲转为繁忙时才唤醒, 避免每个task都park/unpark
+ * 时间轮模式下, 可开启work stealing, 无序task可被同池空闲的executor窃取执行, 见{@link SingleThreadSchedulerPool}
  *
  * @author huangjianqin
  * @date 2020/11/23
@@ -25,10 +34,17 @@ public class SingleThreadScheduler implements ScheduledExecutorService, LoggerOp
     private static final byte ST_SHUTTING_DOWN = 3;
     private static final byte ST_SHUTDOWN = 4;
     private static final byte ST_TERMINATED = 5;
+    /** 时间轮模式下, 默认每轮最多执行的非延时task数量 */
+    public static final int DEFAULT_MAX_TASKS_PER_ITERATION = 256;
 
     /** 原子更新状态值 */
     private static final AtomicIntegerFieldUpdater<SingleThreadScheduler> STATE_UPDATER =
             AtomicIntegerFieldUpdater.newUpdater(SingleThreadScheduler.class, "state");
+    /** 原子更新绑定线程是否park */
+    private static final AtomicIntegerFieldUpdater<SingleThreadScheduler> PARKED_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(SingleThreadScheduler.class, "parked");
+    /** task提交序号, 触发时间相同的task按提交顺序执行 */
+    private static final AtomicLong SEQUENCER = new AtomicLong();
     /** 执行线程 */
     private volatile Thread thread;
     /** 线程锁, 用于关闭时阻塞 */
@@ -37,8 +53,30 @@ public class SingleThreadScheduler implements ScheduledExecutorService, LoggerOp
     private final RejectedExecutionHandler rejectedExecutionHandler;
     /** 状态值 */
     private volatile int state = ST_NOT_STARTED;
-    /** 任务队列 */
-    private final BlockingQueue<ScheduledFutureTask<?>> taskQueue = new DelayQueue<>();
+    /** 任务队列, 时间轮模式下为null */
+    private final BlockingQueue<ScheduledFutureTask<?>> taskQueue;
+    /** 时间轮, 仅绑定线程访问, 非时间轮模式下为null */
+    private final TimingWheel<ScheduledFutureTask<?>> timingWheel;
+    /** 时间轮模式下的非延时task */
+    private final Queue<ScheduledFutureTask<?>> immediateTasks;
+    /** 时间轮模式下, 其他线程提交的延时task, 由绑定线程放入时间轮 */
+    private final Queue<ScheduledFutureTask<?>> newTimers;
+    /** 时间轮模式下, 其他线程取消的延时task, 由绑定线程从时间轮移除 */
+    private final Queue<ScheduledFutureTask<?>> cancelledTimers;
+    /** 时间轮模式下, shutdownNow时未执行的task */
+    private volatile List<Runnable> unexecutedTasks;
+    /** 时间轮模式下, 每轮最多执行的非延时task数量, 执行完后再处理到期的延时task */
+    private final int maxTasksPerIteration;
+    /** 时间轮模式下, 绑定线程是否已park或准备park, 1表示是 */
+    private volatile int parked;
+    /** 时间轮模式下, 已提交的非延时task数量 */
+    private final LongAdder submittedTasks = new LongAdder();
+    /** 时间轮模式下, 已取出的非延时task数量, 包括被窃取的 */
+    private final LongAdder takenTasks = new LongAdder();
+    /** 可被同池其他executor窃取的无序task, 未开启work stealing则为null */
+    private volatile Queue<ScheduledFutureTask<?>> stealableTasks;
+    /** 同池所有executor, 用于窃取task, 未开启work stealing则为null */
+    private volatile SingleThreadScheduler[] group;
     /** 所属线程池 */
     private final ExecutorService parent;
     /** 绑定线程是否已interrupted */
@@ -66,13 +104,66 @@ public class SingleThreadScheduler implements ScheduledExecutorService, LoggerOp
      * @param timeSensitive 是否时间敏感(也就是随系统时间发生变化而变化)
      */
     public SingleThreadScheduler(ExecutorService parent, boolean timeSensitive, RejectedExecutionHandler rejectedExecutionHandler) {
+        this(parent, timeSensitive, rejectedExecutionHandler, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 时间轮模式
+     *
+     * @param tickDuration 时间轮tick时长, 即定时精度, 小于等于0则不使用时间轮
+     */
+    public SingleThreadScheduler(ExecutorService parent, long tickDuration, TimeUnit tickUnit) {
+        this(parent, tickDuration, tickUnit, DEFAULT_MAX_TASKS_PER_ITERATION);
+    }
+
+    /**
+     * 时间轮模式
+     *
+     * @param tickDuration         时间轮tick时长, 即定时精度, 小于等于0则不使用时间轮
+     * @param maxTasksPerIteration 每轮最多执行的非延时task数量
+     */
+    public SingleThreadScheduler(ExecutorService parent, long tickDuration, TimeUnit tickUnit, int maxTasksPerIteration) {
+        this(parent, false, RejectedExecutionHandler.EMPTY, tickDuration, tickUnit, maxTasksPerIteration);
+    }
+
+    /**
+     * @param timeSensitive 是否时间敏感(也就是随系统时间发生变化而变化)
+     * @param tickDuration  时间轮tick时长, 即定时精度, 小于等于0则不使用时间轮
+     */
+    public SingleThreadScheduler(ExecutorService parent, boolean timeSensitive, RejectedExecutionHandler rejectedExecutionHandler,
+                                 long tickDuration, TimeUnit tickUnit) {
+        this(parent, timeSensitive, rejectedExecutionHandler, tickDuration, tickUnit, DEFAULT_MAX_TASKS_PER_ITERATION);
+    }
+
+    /**
+     * @param timeSensitive        是否时间敏感(也就是随系统时间发生变化而变化)
+     * @param tickDuration         时间轮tick时长, 即定时精度, 小于等于0则不使用时间轮
+     * @param maxTasksPerIteration 时间轮模式下, 每轮最多执行的非延时task数量
+     */
+    public SingleThreadScheduler(ExecutorService parent, boolean timeSensitive, RejectedExecutionHandler rejectedExecutionHandler,
+                                 long tickDuration, TimeUnit tickUnit, int maxTasksPerIteration) {
+        Preconditions.checkArgument(maxTasksPerIteration > 0, "maxTasksPerIteration must greater than 0");
         this.parent = parent;
+        this.maxTasksPerIteration = maxTasksPerIteration;
         if (timeSensitive) {
             timeUnit = TimeUnit.MILLISECONDS;
         } else {
             timeUnit = NANOSECONDS;
         }
         this.rejectedExecutionHandler = rejectedExecutionHandler;
+        if (tickDuration > 0) {
+            taskQueue = null;
+            timingWheel = new TimingWheel<>(Math.max(1, timeUnit.convert(tickDuration, tickUnit)), now());
+            immediateTasks = new MpscLinkedQueue<>();
+            newTimers = new MpscLinkedQueue<>();
+            cancelledTimers = new MpscLinkedQueue<>();
+        } else {
+            taskQueue = new DelayQueue<>();
+            timingWheel = null;
+            immediateTasks = null;
+            newTimers = null;
+            cancelledTimers = null;
+        }
     }
 
     //------------------------------------------------------------------------------------------------------------------------
@@ -91,8 +182,14 @@ public class SingleThreadScheduler implements ScheduledExecutorService, LoggerOp
     @Override
     public void shutdown() {
         synchronized (this) {
-            if (state < ST_STARTED || state >= ST_SHUTTING_DOWN) {
-                //未开始
+            if (state == ST_NOT_STARTED) {
+                //未开始, 没有绑定线程, 直接结束, 否则线程池shutdown时会一直等待该executor结束
+                STATE_UPDATER.set(this, ST_TERMINATED);
+                cancelAllTasks();
+                threadLock.countDown();
+                return;
+            }
+            if (state >= ST_SHUTTING_DOWN) {
                 //已结束
                 return;
             }
@@ -105,6 +202,10 @@ public class SingleThreadScheduler implements ScheduledExecutorService, LoggerOp
 
     @Override
     public List<Runnable> shutdownNow() {
+        if (isTimingWheelMode()) {
+            return timingWheelShutdownNow();
+        }
+
         List<Runnable> taskList = new ArrayList<>();
         synchronized (this) {
             shutdown();
@@ -121,6 +222,40 @@ public class SingleThreadScheduler implements ScheduledExecutorService, LoggerOp
         return taskList;
     }
 
+    /**
+     * 时间轮模式下, 队列只允许绑定线程消费, 故由绑定线程退出时收集未执行的task
+     */
+    private List<Runnable> timingWheelShutdownNow() {
+        synchronized (this) {
+            if (state == ST_NOT_STARTED) {
+                //还未启动, 没有消费者, 直接取出
+                List<Runnable> taskList = new ArrayList<>(immediateTasks);
+                taskList.addAll(newTimers);
+                immediateTasks.clear();
+                newTimers.clear();
+                Queue<ScheduledFutureTask<?>> stealableTasks = this.stealableTasks;
+                if (Objects.nonNull(stealableTasks)) {
+                    ScheduledFutureTask<?> task;
+                    while (Objects.nonNull(task = stealableTasks.poll())) {
+                        taskList.add(task);
+                    }
+                }
+                return taskList;
+            }
+            unexecutedTasks = new ArrayList<>();
+            shutdown();
+        }
+
+        if (!isInThread()) {
+            try {
+                threadLock.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return unexecutedTasks;
+    }
+
     @Override
     public boolean isShutdown() {
         return state >= ST_SHUTDOWN;
@@ -329,6 +464,50 @@ public class SingleThreadScheduler implements ScheduledExecutorService, LoggerOp
         lazyExecute(new ScheduledFutureTask<>(command));
     }
 
+    /**
+     * 提交无序task, 开启work stealing后, 可能被同池其他executor窃取执行
+     */
+    <T> Future<T> submitUnordered(@Nonnull Callable<T> task) {
+        Preconditions.checkNotNull(task, "task is null");
+        ScheduledFutureTask<T> futureTask = new ScheduledFutureTask<>(task);
+        futureTask.stealable = true;
+        lazyExecute(futureTask);
+        return futureTask;
+    }
+
+    /**
+     * 提交无序task, 开启work stealing后, 可能被同池其他executor窃取执行
+     */
+    <T> Future<T> submitUnordered(@Nonnull Runnable task, T result) {
+        Preconditions.checkNotNull(task, "task is null");
+        ScheduledFutureTask<T> futureTask = new ScheduledFutureTask<>(task, result);
+        futureTask.stealable = true;
+        lazyExecute(futureTask);
+        return futureTask;
+    }
+
+    /**
+     * 开启work stealing, 需在提交task前调用
+     *
+     * @param group 同池所有executor, 包括自己
+     */
+    void enableWorkStealing(SingleThreadScheduler[] group) {
+        Preconditions.checkState(isTimingWheelMode(), "work stealing only supported in timing wheel mode");
+        //先发布group, 看到stealableTasks不为null的线程必然能看到group
+        this.group = group;
+        this.stealableTasks = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * @return 待执行的非延时task数量, 近似值
+     */
+    public long pendingTasks() {
+        if (!isTimingWheelMode()) {
+            return taskQueue.size();
+        }
+        return Math.max(0, submittedTasks.sum() - takenTasks.sum());
+    }
+
     @Override
     public ScheduledFuture<?> schedule(@Nonnull Runnable command, long delay, TimeUnit unit) {
         Preconditions.checkNotNull(command, "task is null");
@@ -374,7 +553,106 @@ public class SingleThreadScheduler implements ScheduledExecutorService, LoggerOp
         if (state > ST_STARTED) {
             return;
         }
-        taskQueue.offer(task);
+        if (!isTimingWheelMode()) {
+            taskQueue.offer(task);
+            return;
+        }
+
+        boolean inThread = isInThread();
+        Queue<ScheduledFutureTask<?>> stealableTasks = this.stealableTasks;
+        if (task.stealable && Objects.nonNull(stealableTasks)) {
+            stealableTasks.offer(task);
+            submittedTasks.increment();
+            if (parked == 1) {
+                wakeup();
+            } else {
+                //绑定线程繁忙, 唤醒一个空闲的executor来窃取
+                signalIdleSibling();
+            }
+            return;
+        } else if (task.triggerTime - now() <= 0) {
+            immediateTasks.offer(task);
+            submittedTasks.increment();
+        } else if (inThread) {
+            timingWheel.add(task.timerNode(), task.triggerTime);
+            return;
+        } else {
+            newTimers.offer(task);
+        }
+        if (!inThread) {
+            wakeup();
+        }
+    }
+
+    /**
+     * 唤醒绑定线程, 仅当绑定线程空闲时才unpark
+     */
+    private void wakeup() {
+        if (parked == 1 && PARKED_UPDATER.compareAndSet(this, 1, 0)) {
+            Thread thread = this.thread;
+            if (Objects.nonNull(thread)) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+
+    /**
+     * 唤醒同池中一个空闲的executor, 没有则启动一个还未启动的executor
+     */
+    private void signalIdleSibling() {
+        SingleThreadScheduler[] group = this.group;
+        if (Objects.isNull(group)) {
+            return;
+        }
+        for (SingleThreadScheduler sibling : group) {
+            if (sibling != this && sibling.parked == 1) {
+                sibling.wakeup();
+                return;
+            }
+        }
+        for (SingleThreadScheduler sibling : group) {
+            if (sibling != this && sibling.state == ST_NOT_STARTED) {
+                //还未提交过task的executor没有绑定线程, 启动后空闲时会窃取
+                synchronized (sibling) {
+                    sibling.startThread();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * 从同池其他executor窃取一个无序task, 从随机位置开始查找
+     *
+     * @return 窃取到的task, 没有则返回null
+     */
+    private ScheduledFutureTask<?> steal() {
+        SingleThreadScheduler[] group = this.group;
+        if (Objects.isNull(group) || group.length <= 1) {
+            return null;
+        }
+        int start = ThreadLocalRandom.current().nextInt(group.length);
+        for (int i = 0; i < group.length; i++) {
+            SingleThreadScheduler victim = group[(start + i) % group.length];
+            if (victim == this) {
+                continue;
+            }
+            //同池其他executor可能还没开启work stealing
+            Queue<ScheduledFutureTask<?>> stealableTasks = victim.stealableTasks;
+            ScheduledFutureTask<?> task = Objects.nonNull(stealableTasks) ? stealableTasks.poll() : null;
+            if (Objects.nonNull(task)) {
+                victim.takenTasks.increment();
+                return task;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 是否时间轮模式
+     */
+    private boolean isTimingWheelMode() {
+        return Objects.nonNull(timingWheel);
     }
 
     /**
@@ -391,18 +669,8 @@ public class SingleThreadScheduler implements ScheduledExecutorService, LoggerOp
                     return;
                 }
                 startThread();
-                if (isShutdown()) {
-                    boolean reject = false;
-                    try {
-                        if (removeTask(task)) {
-                            reject = true;
-                        }
-                    } catch (UnsupportedOperationException e) {
-                        //do nothing
-                    }
-                    if (reject) {
-                        reject();
-                    }
+                if (isShutdown() && supportsRemoveTask() && removeTask(task)) {
+                    reject();
                 }
             }
         }
@@ -439,11 +707,28 @@ public class SingleThreadScheduler implements ScheduledExecutorService, LoggerOp
     }
 
     /**
-     * 移除task
+     * @return 是否支持移除task, 时间轮模式下的无锁队列不支持移除, 已取消的task出队后不会执行
+     */
+    private boolean supportsRemoveTask() {
+        return !isTimingWheelMode();
+    }
+
+    /**
+     * 移除task, 调用前需确认{@link #supportsRemoveTask()}
      */
     private boolean removeTask(ScheduledFutureTask<?> task) {
         return taskQueue.remove(task);
+    }
 
+    /**
+     * 时间轮模式下取消延时task, 绑定线程直接从时间轮移除, 否则交由绑定线程移除
+     */
+    private void cancelTimer(ScheduledFutureTask<?> task) {
+        if (isInThread()) {
+            timingWheel.remove(task.timerNode());
+        } else {
+            cancelledTimers.offer(task);
+        }
     }
 
     /**
@@ -476,6 +761,11 @@ public class SingleThreadScheduler implements ScheduledExecutorService, LoggerOp
      * 循环执行task
      */
     private void loopRunTask() {
+        if (isTimingWheelMode()) {
+            loopRunTimingWheelTask();
+            return;
+        }
+
         for (; ; ) {
             try {
                 ScheduledFutureTask<?> task = takeTask();
@@ -489,10 +779,134 @@ public class SingleThreadScheduler implements ScheduledExecutorService, LoggerOp
         }
     }
 
+    /**
+     * 时间轮模式下循环执行task
+     */
+    private void loopRunTimingWheelTask() {
+        for (; ; ) {
+            if (Thread.interrupted()) {
+                return;
+            }
+
+            try {
+                //处理其他线程提交以及取消的延时task
+                ScheduledFutureTask<?> timer;
+                while (Objects.nonNull(timer = cancelledTimers.poll())) {
+                    timingWheel.remove(timer.timerNode());
+                }
+                while (Objects.nonNull(timer = newTimers.poll())) {
+                    if (!timer.isCancelled()) {
+                        timingWheel.add(timer.timerNode(), timer.triggerTime);
+                    }
+                }
+
+                //到期的延时task先于非延时task执行
+                timingWheel.advance(now(), ScheduledFutureTask::run);
+
+                //批量执行非延时task
+                int runTasks = 0;
+                ScheduledFutureTask<?> task;
+                while (runTasks < maxTasksPerIteration && Objects.nonNull(task = immediateTasks.poll())) {
+                    runTasks++;
+                    runTask(task);
+                }
+                Queue<ScheduledFutureTask<?>> stealableTasks = this.stealableTasks;
+                if (Objects.nonNull(stealableTasks)) {
+                    while (runTasks < maxTasksPerIteration && Objects.nonNull(task = stealableTasks.poll())) {
+                        runTasks++;
+                        runTask(task);
+                    }
+                }
+                if (runTasks > 0) {
+                    takenTasks.add(runTasks);
+                    continue;
+                }
+
+                //空闲, 尝试窃取
+                task = steal();
+                if (Objects.nonNull(task)) {
+                    runTask(task);
+                    continue;
+                }
+
+                park();
+            } catch (Exception e) {
+                error("Unexpected exception from an runned Task: ", e);
+            }
+        }
+    }
+
+    /**
+     * 执行task, 捕获异常
+     */
+    private void runTask(ScheduledFutureTask<?> task) {
+        try {
+            task.run();
+        } catch (Exception e) {
+            error("Unexpected exception from an runned Task: ", e);
+        }
+    }
+
+    /**
+     * 空闲, 等待新task或者下一个tick
+     * 先标记park再检查队列, 保证生产者入队后能看到park标记
+     */
+    private void park() {
+        PARKED_UPDATER.set(this, 1);
+        try {
+            Queue<ScheduledFutureTask<?>> stealableTasks = this.stealableTasks;
+            if (!immediateTasks.isEmpty() || !newTimers.isEmpty() ||
+                    (Objects.nonNull(stealableTasks) && !stealableTasks.isEmpty())) {
+                return;
+            }
+            long nextTickTime = timingWheel.nextTickTime();
+            if (nextTickTime == Long.MAX_VALUE) {
+                LockSupport.park(this);
+            } else {
+                long delay = nextTickTime - now();
+                if (delay > 0) {
+                    LockSupport.parkNanos(this, NANOSECONDS.convert(delay, timeUnit));
+                }
+            }
+        } finally {
+            PARKED_UPDATER.set(this, 0);
+        }
+    }
+
     /**
      * 取消所有未执行的task
      */
     private void cancelAllTasks() {
+        if (isTimingWheelMode()) {
+            //时间轮模式下, 由绑定线程调用
+            List<Runnable> unexecutedTasks = this.unexecutedTasks;
+            Consumer<ScheduledFutureTask<?>> canceller = task -> {
+                if (Objects.nonNull(unexecutedTasks)) {
+                    if (!task.isDone()) {
+                        unexecutedTasks.add(task);
+                    }
+                } else {
+                    task.cancel(true);
+                }
+            };
+            ScheduledFutureTask<?> task;
+            while (Objects.nonNull(task = immediateTasks.poll())) {
+                canceller.accept(task);
+            }
+            while (Objects.nonNull(task = newTimers.poll())) {
+                canceller.accept(task);
+            }
+            Queue<ScheduledFutureTask<?>> stealableTasks = this.stealableTasks;
+            if (Objects.nonNull(stealableTasks)) {
+                while (Objects.nonNull(task = stealableTasks.poll())) {
+                    canceller.accept(task);
+                }
+            }
+            cancelledTimers.clear();
+            timingWheel.clear(canceller);
+            return;
+        }
+
         ScheduledFutureTask<?>[] scheduledFutureTasks = taskQueue.toArray(new ScheduledFutureTask<?>[0]);
         for (ScheduledFutureTask<?> futureTask : scheduledFutureTasks) {
             futureTask.cancel(true);
@@ -512,6 +926,8 @@ public class SingleThreadScheduler implements ScheduledExecutorService, LoggerOp
      * 包装task信息, 装饰器
      */
     private class ScheduledFutureTask<V> extends FutureTask<V> implements RunnableScheduledFuture<V> {
+        /** 提交序号 */
+        private final long sequenceNumber = SEQUENCER.getAndIncrement();
         /**
          * 间隔时间, nanoTime
          * 固定时间间隔模式, > 0
@@ -520,6 +936,10 @@ public class SingleThreadScheduler implements ScheduledExecutorService, LoggerOp
         private final long period;
         /** 触发时间, nanoTime */
         private long triggerTime;
+        /** 时间轮节点, 循环定时任务复用 */
+        private TimingWheel.Node<ScheduledFutureTask<?>> timerNode;
+        /** 是否无序task, 开启work stealing后可被其他executor窃取 */
+        private boolean stealable;
 
         ScheduledFutureTask(Runnable r) {
             this(r, null, 0, 0);
@@ -575,6 +995,14 @@ public class SingleThreadScheduler implements ScheduledExecutorService, LoggerOp
             {
                 return 0;
             }
+            if (other instanceof ScheduledFutureTask) {
+                ScheduledFutureTask<?> x = (ScheduledFutureTask<?>) other;
+                long diff = triggerTime - x.triggerTime;
+                if (diff != 0) {
+                    return diff < 0 ? -1 : 1;
+                }
+                return sequenceNumber < x.sequenceNumber ? -1 : 1;
+            }
             long diff = getDelay(timeUnit) - other.getDelay(timeUnit);
             return (diff < 0) ? -1 : (diff > 0) ? 1 : 0;
         }
@@ -618,6 +1046,9 @@ public class SingleThreadScheduler implements ScheduledExecutorService, LoggerOp
          * 防溢出
          */
         private long overflowFree(long delay) {
+            if (isTimingWheelMode()) {
+                return delay;
+            }
             Delayed head = SingleThreadScheduler.this.taskQueue.peek();
             if (head != null) {
                 long headDelay = head.getDelay(timeUnit);
@@ -632,11 +1063,25 @@ public class SingleThreadScheduler implements ScheduledExecutorService, LoggerOp
         public boolean cancel(boolean mayInterruptIfRunning) {
             boolean cancelled = super.cancel(mayInterruptIfRunning);
             if (cancelled) {
-                removeTask(this);
+                if (isTimingWheelMode()) {
+                    cancelTimer(this);
+                } else {
+                    removeTask(this);
+                }
             }
             return cancelled;
         }
 
+        /**
+         * @return 时间轮节点
+         */
+        private TimingWheel.Node<ScheduledFutureTask<?>> timerNode() {
+            if (Objects.isNull(timerNode)) {
+                timerNode = new TimingWheel.Node<>(this);
+            }
+            return timerNode;
+        }
+
         @Override
         public void run() {
             boolean periodic = isPeriodic();
@@ -7,6 +7,7 @@ import javax.annotation.Nonnull;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
@@ -14,6 +15,10 @@ import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
 /**
  * {@link SingleThreadScheduler}池
+ * 无key的task按{@link SchedulerSelector}选择executor, 默认按task hash, 即同一task总是在同一executor执行
+ * 轮询等其他策略需在构造时显式指定, 比如{@link SchedulerSelector#roundRobin()}
+ * 带affinity key的task, 同一key总是在同一executor按提交顺序执行
+ * 开启work stealing后, 无key的task为无序task, 可被空闲的executor窃取执行, 带key以及定时的task不会被窃取
  *
  * @author huangjianqin
  * @date 2020/11/23
@@ -38,17 +43,44 @@ public class SingleThreadSchedulerPool implements ScheduledExecutorService {
     /** 绑定的线程池 */
     private final ExecutionContext executionContext;
     private final SingleThreadScheduler[] executors;
+    /** 选择executor的策略 */
+    private final SchedulerSelector selector;
+    /** 是否开启work stealing */
+    private final boolean workStealing;
 
     public SingleThreadSchedulerPool(int coreSize) {
         this(coreSize, StringUtils.firstLowerCase(SingleThreadSchedulerPool.class.getSimpleName()));
     }
 
     public SingleThreadSchedulerPool(int coreSize, String workerNamePrefix) {
+        this(coreSize, workerNamePrefix, SchedulerSelector.hash());
+    }
+
+    public SingleThreadSchedulerPool(int coreSize, String workerNamePrefix, SchedulerSelector selector) {
+        this(coreSize, workerNamePrefix, selector, false);
+    }
+
+    /**
+     * @param selector     选择executor的策略, 默认{@link SchedulerSelector#hash()}
+     * @param workStealing 是否开启work stealing, 开启后executor使用时间轮模式
+     */
+    public SingleThreadSchedulerPool(int coreSize, String workerNamePrefix, SchedulerSelector selector, boolean workStealing) {
         this.coreSize = coreSize;
         this.executionContext = ExecutionContext.fix(coreSize, workerNamePrefix);
         this.executors = new SingleThreadScheduler[coreSize];
+        this.selector = selector;
+        this.workStealing = workStealing;
         for (int i = 0; i < coreSize; i++) {
-            executors[i] = new SingleThreadScheduler(executionContext);
+            if (workStealing) {
+                executors[i] = new SingleThreadScheduler(executionContext, 1, TimeUnit.MILLISECONDS);
+            } else {
+                executors[i] = new SingleThreadScheduler(executionContext);
+            }
+        }
+        if (workStealing) {
+            for (SingleThreadScheduler executor : executors) {
+                executor.enableWorkStealing(executors);
+            }
         }
     }
 
@@ -56,7 +88,35 @@ public class SingleThreadSchedulerPool implements ScheduledExecutorService {
      * 选择一个executor
      */
     private SingleThreadScheduler selectExecutor(Object task) {
-        return executors[HashUtils.efficientHash(task, coreSize)];
+        return executors[selector.select(task, executors)];
+    }
+
+    /**
+     * @return affinity key对应的executor
+     */
+    public SingleThreadScheduler executorOf(Object key) {
+        return executors[Math.floorMod(HashUtils.spread(Objects.hashCode(key)), coreSize)];
+    }
+
+    /**
+     * 在affinity key对应的executor执行, 同一key的task按提交顺序执行
+     */
+    public void executeByKey(Object key, @Nonnull Runnable command) {
+        executorOf(key).execute(command);
+    }
+
+    /**
+     * 在affinity key对应的executor执行, 同一key的task按提交顺序执行
+     */
+    public <T> Future<T> submitByKey(Object key, @Nonnull Callable<T> task) {
+        return executorOf(key).submit(task);
+    }
+
+    /**
+     * 在affinity key对应的executor调度
+     */
+    public ScheduledFuture<?> scheduleByKey(Object key, @Nonnull Runnable command, long delay, @Nonnull TimeUnit unit) {
+        return executorOf(key).schedule(command, delay, unit);
     }
 
     @Override
@@ -164,27 +224,86 @@ public class SingleThreadSchedulerPool implements ScheduledExecutorService {
 
     @Override
     public <T> Future<T> submit(@Nonnull Callable<T> task) {
-        return selectExecutor(task).submit(task);
+        return selectExecutor(task).submitUnordered(task);
     }
 
     @Override
     public <T> Future<T> submit(@Nonnull Runnable task, T result) {
-        return selectExecutor(task).submit(task, result);
+        return selectExecutor(task).submitUnordered(task, result);
     }
 
     @Override
     public Future<?> submit(@Nonnull Runnable task) {
-        return selectExecutor(task).submit(task);
+        return submit(task, null);
     }
 
+    /**
+     * 每个task单独选择executor
+     */
     @Override
     public <T> List<Future<T>> invokeAll(@Nonnull Collection<? extends Callable<T>> tasks) throws InterruptedException {
-        return selectExecutor(tasks).invokeAll(tasks);
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        boolean done = false;
+        try {
+            for (Callable<T> task : tasks) {
+                futures.add(submit(task));
+            }
+            for (Future<T> future : futures) {
+                if (!future.isDone()) {
+                    try {
+                        future.get();
+                    } catch (CancellationException | ExecutionException ignore) {
+                        //ignore
+                    }
+                }
+            }
+            done = true;
+            return futures;
+        } finally {
+            if (!done) {
+                for (Future<T> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
     }
 
+    /**
+     * 每个task单独选择executor
+     */
     @Override
     public <T> List<Future<T>> invokeAll(@Nonnull Collection<? extends Callable<T>> tasks, long timeout, @Nonnull TimeUnit unit) throws InterruptedException {
-        return selectExecutor(tasks).invokeAll(tasks, timeout, unit);
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        boolean done = false;
+        try {
+            for (Callable<T> task : tasks) {
+                futures.add(submit(task));
+            }
+            for (Future<T> future : futures) {
+                if (!future.isDone()) {
+                    long nanos = deadline - System.nanoTime();
+                    if (nanos <= 0L) {
+                        return futures;
+                    }
+                    try {
+                        future.get(nanos, NANOSECONDS);
+                    } catch (CancellationException | ExecutionException ignore) {
+                        //ignore
+                    } catch (TimeoutException e) {
+                        return futures;
+                    }
+                }
+            }
+            done = true;
+            return futures;
+        } finally {
+            if (!done) {
+                for (Future<T> future : futures) {
+                    future.cancel(true);
+                }
+            }
+        }
     }
 
     @Override
@@ -199,6 +318,15 @@ public class SingleThreadSchedulerPool implements ScheduledExecutorService {
 
     @Override
     public void execute(@Nonnull Runnable command) {
-        selectExecutor(command).execute(command);
+        selectExecutor(command).submitUnordered(command, null);
+    }
+
+    //getter
+    public SchedulerSelector getSelector() {
+        return selector;
+    }
+
+    public boolean isWorkStealing() {
+        return workStealing;
     }
 }
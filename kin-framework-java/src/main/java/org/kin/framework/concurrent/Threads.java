@@ -1,5 +1,12 @@
 package org.kin.framework.concurrent;
 
+import java.lang.reflect.Method;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+
 /**
  * 线程工具类
  *
@@ -7,6 +14,31 @@ package org.kin.framework.concurrent;
  * @date 2020/11/17
  */
 public class Threads {
+    /** Thread.Builder.OfVirtual实例, 当前jdk不支持虚拟线程则为null */
+    private static final Object VIRTUAL_THREAD_BUILDER;
+    /** Thread.Builder#name(String, long) */
+    private static final Method BUILDER_NAME;
+    /** Thread.Builder#factory() */
+    private static final Method BUILDER_FACTORY;
+
+    static {
+        Object builder = null;
+        Method name = null;
+        Method factory = null;
+        try {
+            //jdk21+, 反射调用以兼容低版本jdk编译
+            builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            name = builderClass.getMethod("name", String.class, long.class);
+            factory = builderClass.getMethod("factory");
+        } catch (Exception e) {
+            builder = null;
+        }
+        VIRTUAL_THREAD_BUILDER = builder;
+        BUILDER_NAME = name;
+        BUILDER_FACTORY = factory;
+    }
+
     /**
      * 获取ThreadGroup
      */
@@ -14,4 +46,140 @@ public class Threads {
         SecurityManager local = System.getSecurityManager();
         return local == null ? Thread.currentThread().getThreadGroup() : local.getThreadGroup();
     }
+
+    /**
+     * @return 当前jdk是否支持虚拟线程
+     */
+    public static boolean isVirtualThreadSupported() {
+        return Objects.nonNull(VIRTUAL_THREAD_BUILDER);
+    }
+
+    /**
+     * 虚拟线程ThreadFactory, 线程名为prefix + 序号
+     *
+     * @throws UnsupportedOperationException 当前jdk不支持虚拟线程
+     */
+    public static ThreadFactory virtualThreadFactory(String prefix) {
+        if (!isVirtualThreadSupported()) {
+            throw new UnsupportedOperationException("virtual thread is not supported, java version: " + System.getProperty("java.version"));
+        }
+        try {
+            //Thread.Builder是可变的, 故加锁
+            synchronized (VIRTUAL_THREAD_BUILDER) {
+                return (ThreadFactory) BUILDER_FACTORY.invoke(BUILDER_NAME.invoke(VIRTUAL_THREAD_BUILDER, prefix, 0L));
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException("create virtual thread factory fail", e);
+        }
+    }
+
+    /**
+     * 执行阻塞操作, 如果当前是forkjoin线程, 则通知线程池补偿线程, 避免阻塞的任务占满线程池
+     */
+    public static void managedBlock(Runnable blocking) {
+        if (!(Thread.currentThread() instanceof ForkJoinWorkerThread)) {
+            blocking.run();
+            return;
+        }
+
+        RunnableBlocker blocker = new RunnableBlocker(blocking);
+        try {
+            ForkJoinPool.managedBlock(blocker);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (Objects.nonNull(blocker.ex)) {
+            throw blocker.ex;
+        }
+    }
+
+    /**
+     * 等待condition, 如果当前是forkjoin线程, 则通知线程池补偿线程
+     */
+    public static void await(Condition condition) throws InterruptedException {
+        awaitNanos(condition, -1);
+    }
+
+    /**
+     * 等待condition, 如果当前是forkjoin线程, 则通知线程池补偿线程
+     *
+     * @param nanos 等待时间, 小于0则一直等待
+     * @return 剩余等待时间, 同{@link Condition#awaitNanos(long)}
+     */
+    public static long awaitNanos(Condition condition, long nanos) throws InterruptedException {
+        if (!(Thread.currentThread() instanceof ForkJoinWorkerThread)) {
+            if (nanos < 0) {
+                condition.await();
+                return 0;
+            }
+            return condition.awaitNanos(nanos);
+        }
+
+        ConditionBlocker blocker = new ConditionBlocker(condition, nanos);
+        ForkJoinPool.managedBlock(blocker);
+        return blocker.nanos;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 执行阻塞操作的{@link ForkJoinPool.ManagedBlocker}
+     */
+    private static final class RunnableBlocker implements ForkJoinPool.ManagedBlocker {
+        private final Runnable blocking;
+        private boolean done;
+        private RuntimeException ex;
+
+        RunnableBlocker(Runnable blocking) {
+            this.blocking = blocking;
+        }
+
+        @Override
+        public boolean block() {
+            try {
+                blocking.run();
+            } catch (RuntimeException e) {
+                ex = e;
+            } finally {
+                done = true;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return done;
+        }
+    }
+
+    /**
+     * 等待condition的{@link ForkJoinPool.ManagedBlocker}
+     */
+    private static final class ConditionBlocker implements ForkJoinPool.ManagedBlocker {
+        private final Condition condition;
+        /** 剩余等待时间, 小于0则一直等待 */
+        private long nanos;
+        private boolean done;
+
+        ConditionBlocker(Condition condition, long nanos) {
+            this.condition = condition;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            if (nanos < 0) {
+                condition.await();
+            } else {
+                nanos = condition.awaitNanos(nanos);
+            }
+            done = true;
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return done;
+        }
+    }
 }
@@ -1,33 +1,53 @@
 package org.kin.framework.concurrent;
 
+import com.google.common.base.Preconditions;
 import org.kin.framework.concurrent.keeper.Keeper;
 import org.kin.framework.concurrent.keeper.KeeperAction;
-import org.kin.framework.utils.CollectionUtils;
-import org.kin.framework.utils.ExceptionUtils;
+import org.kin.framework.log.LoggerOprs;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * @author huangjianqin
  * @date 2020-03-18
  * <p>
- * 时间轮
+ * 多层时间轮, 第0层slot个槽, 每槽跨度为unit, 第1层60个槽, 第2层24个槽, 比如{@link #second(SlotDataHandler)}即秒, 分, 时三层
+ * 数据到期前逐层下沉, 最终在第0层到期, 超出最高层跨度的数据放入最高层最远的槽, 推进到该槽时再重新计算
+ * <p>
+ * 每个槽为无锁栈, push只需一次cas, 不加锁; 时间推进基于{@link System#nanoTime()}, 不受系统时间调整影响
+ * 每次推进收集所有到期数据, 批量提交到executor处理
  */
-public class TimeRing<D> implements KeeperAction {
-    /** 时间轮每个slot对应的数据 */
-    private Map<Integer, List<D>> ringData;
-    /** 时间轮slot数量 */
-    private int slot;
-    /** 时间轮刻度前进时间, 毫秒 */
-    private long unit;
-    /** 每次处理slot数量 */
-    private int slotPerRound;
+public class TimeRing<D> implements KeeperAction, LoggerOprs {
+    /** 第1层及以上每层槽数量 */
+    private static final int[] UPPER_LEVEL_SLOTS = {60, 24};
+    /** 单个批量处理task最多包含的数据量 */
+    private static final int MAX_BATCH_SIZE = 1024;
+
+    /** 所有层 */
+    private final Level<D>[] levels;
+    /** 时间轮刻度前进时间, 纳秒 */
+    private final long unitNanos;
+    /** 每次唤醒处理的slot数量, 即唤醒间隔为unit * slotPerRound */
+    private final int slotPerRound;
     /** 时间轮slot数据处理 */
-    private SlotDataHandler<D> slotDataHandler;
+    private final SlotDataHandler<D> slotDataHandler;
+    /** 批量处理到期数据的executor, 为null则在时间轮线程处理 */
+    private final Executor executor;
+    /** 起始时间, 即第0个tick的时间 */
+    private final long startNanos;
+    /** 已处理到的tick, 仅时间轮线程更新 */
+    private volatile long currentTick;
+    /** 已到期或者错过对应槽处理时间的数据, 下一次推进时处理 */
+    private final MpscLinkedQueue<Entry<D>> overdue = new MpscLinkedQueue<>();
+    /** 本次推进到期的数据, 仅时间轮线程访问 */
+    private final List<D> expired = new ArrayList<>();
     //------------------------------------------------------------------------------------------------------------
     private Keeper.KeeperStopper stopper;
 
@@ -36,10 +56,32 @@ public class TimeRing<D> implements KeeperAction {
     }
 
     public TimeRing(int slot, long unit, int slotPerRound, SlotDataHandler<D> slotDataHandler) {
-        this.slot = slot;
-        this.unit = unit;
+        this(slot, unit, slotPerRound, slotDataHandler, null);
+    }
+
+    /**
+     * @param slot         第0层槽数量
+     * @param unit         时间轮刻度前进时间, 毫秒
+     * @param slotPerRound 每次唤醒处理的slot数量
+     * @param executor     批量处理到期数据的executor, 为null则在时间轮线程处理
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimeRing(int slot, long unit, int slotPerRound, SlotDataHandler<D> slotDataHandler, Executor executor) {
+        Preconditions.checkArgument(slot > 0, "slot must greater than 0");
+        Preconditions.checkArgument(unit > 0, "unit must greater than 0");
+        Preconditions.checkArgument(slotPerRound > 0, "slotPerRound must greater than 0");
+        this.unitNanos = TimeUnit.MILLISECONDS.toNanos(unit);
         this.slotPerRound = slotPerRound;
         this.slotDataHandler = slotDataHandler;
+        this.executor = executor;
+        this.levels = new Level[UPPER_LEVEL_SLOTS.length + 1];
+        long span = 1;
+        for (int i = 0; i < levels.length; i++) {
+            int size = i == 0 ? slot : UPPER_LEVEL_SLOTS[i - 1];
+            levels[i] = new Level<>(size, span);
+            span *= size;
+        }
+        this.startNanos = System.nanoTime();
     }
 
     public static <D> TimeRing<D> second(SlotDataHandler<D> slotDataHandler) {
@@ -47,21 +89,74 @@ public class TimeRing<D> implements KeeperAction {
     }
 
     public static <D> TimeRing<D> second(int slotPerRound, SlotDataHandler<D> slotDataHandler) {
-        return new TimeRing<>(60, 1000, slotPerRound, slotDataHandler);
+        return second(slotPerRound, slotDataHandler, null);
+    }
+
+    public static <D> TimeRing<D> second(int slotPerRound, SlotDataHandler<D> slotDataHandler, Executor executor) {
+        return new TimeRing<>(60, 1000, slotPerRound, slotDataHandler, executor);
     }
 
     public void start() {
         if (Objects.nonNull(stopper)) {
             stopper.stop();
         }
-        ringData = new ConcurrentHashMap<>(slot * 3 / 2);
         stopper = Keeper.keep(this);
     }
 
+    /**
+     * @param time 到期时间, 毫秒时间戳
+     */
     public void push(long time, D data) {
-        int ringSlot = (int) ((time / unit) % slot);
-        List<D> ringItemData = ringData.computeIfAbsent(ringSlot, k -> new ArrayList<>());
-        ringItemData.add(data);
+        push(time - System.currentTimeMillis(), TimeUnit.MILLISECONDS, data);
+    }
+
+    /**
+     * @param delay 延迟时间
+     */
+    public void push(long delay, TimeUnit unit, D data) {
+        long elapsed = System.nanoTime() + unit.toNanos(delay) - startNanos;
+        //向上取整, 保证不会提前到期
+        long deadlineTick = elapsed <= 0 ? 0 : (elapsed + unitNanos - 1) / unitNanos;
+        Entry<D> entry = new Entry<>(data, deadlineTick);
+        Bucket<D> bucket = place(entry, currentTick);
+        //push前该槽已经处理过entry对应的tick, 则与时间轮线程竞争entry, 竞争成功则交给下次推进处理
+        if (Objects.nonNull(bucket) && bucket.drainedTick >= entry.drainTick && entry.claim()) {
+            overdue.offer(entry);
+        }
+    }
+
+    /**
+     * 根据到期tick把entry放入对应层的槽
+     *
+     * @param tick 当前tick
+     * @return entry所在槽, 已到期则返回null
+     */
+    private Bucket<D> place(Entry<D> entry, long tick) {
+        long delta = entry.deadlineTick - tick;
+        if (delta <= 0) {
+            entry.claim();
+            overdue.offer(entry);
+            return null;
+        }
+        for (int i = 0; i < levels.length; i++) {
+            Level<D> level = levels[i];
+            boolean top = i == levels.length - 1;
+            if (delta < level.span * level.size || top) {
+                long index;
+                if (delta < level.span * level.size) {
+                    index = entry.deadlineTick / level.span;
+                } else {
+                    //超出最高层跨度, 放入最远的槽
+                    index = tick / level.span + level.size;
+                }
+                Bucket<D> bucket = level.buckets[(int) (index % level.size)];
+                entry.drainTick = index * level.span;
+                bucket.push(entry);
+                return bucket;
+            }
+        }
+        //不会到这里
+        throw new IllegalStateException();
     }
 
     public void stop() {
@@ -76,36 +171,94 @@ public class TimeRing<D> implements KeeperAction {
 
     @Override
     public void action() {
-        //align slot
-        try {
-            Thread.sleep(unit * slotPerRound - System.currentTimeMillis() % unit);
-        } catch (InterruptedException e) {
+        //等待下一轮
+        long nextRoundNanos = startNanos + (currentTick + slotPerRound) * unitNanos;
+        long waitNanos = nextRoundNanos - System.nanoTime();
+        if (waitNanos > 0) {
+            LockSupport.parkNanos(this, waitNanos);
+        }
 
+        long nowTick = (System.nanoTime() - startNanos) / unitNanos;
+        while (currentTick < nowTick) {
+            tick(currentTick + 1);
         }
 
-        try {
-            // slot data
-            List<D> ringSlotData = new ArrayList<>();
-            int nowSlot = (int) (System.currentTimeMillis() / unit);
-            for (int i = 0; i < slotPerRound; i++) {
-                List<D> tmp = ringData.remove((nowSlot - i) % slot);
-                if (CollectionUtils.isNonEmpty(tmp)) {
-                    ringSlotData.addAll(tmp);
-                }
+        if (!expired.isEmpty()) {
+            dispatch();
+        }
+    }
+
+    /**
+     * 推进一个tick
+     */
+    private void tick(long tick) {
+        currentTick = tick;
+        //高层槽下沉
+        for (int i = levels.length - 1; i > 0; i--) {
+            Level<D> level = levels[i];
+            if (tick % level.span == 0) {
+                drain(level.buckets[(int) ((tick / level.span) % level.size)], tick);
             }
+        }
+        drain(levels[0].buckets[(int) (tick % levels[0].size)], tick);
+
+        Entry<D> entry;
+        while (Objects.nonNull(entry = overdue.poll())) {
+            if (entry.deadlineTick <= tick) {
+                expired.add(entry.data);
+            } else {
+                //entry可能还链接在某个槽, 故重新创建
+                place(new Entry<>(entry.data, entry.deadlineTick), tick);
+            }
+        }
+    }
 
-            // ring trigger
-            if (CollectionUtils.isNonEmpty(ringSlotData)) {
-                // do trigger
-                for (D slotData : ringSlotData) {
-                    // do trigger
-                    slotDataHandler.handle(slotData);
+    /**
+     * 取出槽内所有entry, 到期则收集, 否则下沉到低层
+     */
+    private void drain(Bucket<D> bucket, long tick) {
+        Entry<D> entry = bucket.drain(tick);
+        while (Objects.nonNull(entry)) {
+            Entry<D> next = entry.next;
+            //已被push线程转移到overdue的entry, 跳过
+            if (entry.claim()) {
+                if (entry.deadlineTick <= tick) {
+                    expired.add(entry.data);
+                } else {
+                    entry.reset();
+                    place(entry, tick);
                 }
-                // clear
-                ringSlotData.clear();
             }
-        } catch (Exception e) {
-            ExceptionUtils.throwExt(e);
+            entry = next;
+        }
+    }
+
+    /**
+     * 批量处理到期数据
+     */
+    private void dispatch() {
+        if (Objects.isNull(executor)) {
+            handle(expired);
+            expired.clear();
+            return;
+        }
+        for (int from = 0; from < expired.size(); from += MAX_BATCH_SIZE) {
+            List<D> batch = new ArrayList<>(expired.subList(from, Math.min(from + MAX_BATCH_SIZE, expired.size())));
+            executor.execute(() -> handle(batch));
+        }
+        expired.clear();
+    }
+
+    /**
+     * 处理到期数据, 单个数据处理异常不影响其余数据
+     */
+    private void handle(List<D> batch) {
+        for (D slotData : batch) {
+            try {
+                slotDataHandler.handle(slotData);
+            } catch (Exception e) {
+                error("handle time ring slot data error", e);
+            }
         }
     }
 
@@ -124,4 +277,103 @@ public class TimeRing<D> implements KeeperAction {
          */
         void handle(D slotData);
     }
+
+    //------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 时间轮的一层
+     */
+    private static final class Level<D> {
+        /** 槽数量 */
+        private final int size;
+        /** 每个槽跨度, tick */
+        private final long span;
+        private final Bucket<D>[] buckets;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Level(int size, long span) {
+            this.size = size;
+            this.span = span;
+            this.buckets = new Bucket[size];
+            for (int i = 0; i < size; i++) {
+                buckets[i] = new Bucket<>();
+            }
+        }
+    }
+
+    /**
+     * 槽, 多生产者无锁栈, 时间轮线程一次性取出所有entry
+     */
+    private static final class Bucket<D> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicReferenceFieldUpdater<Bucket, Entry> HEAD_UPDATER =
+                AtomicReferenceFieldUpdater.newUpdater(Bucket.class, Entry.class, "head");
+
+        private volatile Entry<D> head;
+        /** 最近一次取出entry时的tick */
+        private volatile long drainedTick = -1;
+
+        @SuppressWarnings("unchecked")
+        void push(Entry<D> entry) {
+            for (; ; ) {
+                Entry<D> head = this.head;
+                entry.next = head;
+                if (HEAD_UPDATER.compareAndSet(this, head, entry)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * 先更新drainedTick再取出, 保证之后push的线程能感知该槽已处理过
+         */
+        @SuppressWarnings("unchecked")
+        Entry<D> drain(long tick) {
+            drainedTick = tick;
+            if (Objects.isNull(head)) {
+                return null;
+            }
+            return HEAD_UPDATER.getAndSet(this, null);
+        }
+    }
+
+    /**
+     * 时间轮数据
+     */
+    private static final class Entry<D> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<Entry> STATE_UPDATER =
+                AtomicIntegerFieldUpdater.newUpdater(Entry.class, "state");
+        private static final int ST_PENDING = 0;
+        private static final int ST_CLAIMED = 1;
+
+        private final D data;
+        /** 到期tick */
+        private final long deadlineTick;
+        /** 所在槽被处理的tick */
+        private long drainTick;
+        private Entry<D> next;
+        private volatile int state = ST_PENDING;
+
+        Entry(D data, long deadlineTick) {
+            this.data = data;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * 时间轮线程与push线程竞争处理entry
+         *
+         * @return 是否竞争成功
+         */
+        boolean claim() {
+            return STATE_UPDATER.compareAndSet(this, ST_PENDING, ST_CLAIMED);
+        }
+
+        /**
+         * 下沉到低层前重置, 仅时间轮线程调用
+         */
+        void reset() {
+            state = ST_PENDING;
+        }
+    }
 }
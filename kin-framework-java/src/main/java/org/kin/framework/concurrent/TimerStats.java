@@ -0,0 +1,62 @@
+package org.kin.framework.concurrent;
+
+import org.kin.framework.utils.LatencyHistogram;
+
+/**
+ * {@link ExecutionContext}定时器统计快照
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public final class TimerStats {
+    /** 等待触发的定时器数量, 包括循环定时器 */
+    private final long pending;
+    /** 已触发次数, 循环定时器每次触发都会计数 */
+    private final long fired;
+    /** 执行前被取消的定时器数量 */
+    private final long cancelled;
+    /** 延迟超过一个tick才触发的次数 */
+    private final long late;
+    /** 触发延迟分布, 单位微秒 */
+    private final LatencyHistogram.Snapshot lateness;
+
+    public TimerStats(long pending, long fired, long cancelled, long late, LatencyHistogram.Snapshot lateness) {
+        this.pending = pending;
+        this.fired = fired;
+        this.cancelled = cancelled;
+        this.late = late;
+        this.lateness = lateness;
+    }
+
+    //getter
+    public long getPending() {
+        return pending;
+    }
+
+    public long getFired() {
+        return fired;
+    }
+
+    public long getCancelled() {
+        return cancelled;
+    }
+
+    public long getLate() {
+        return late;
+    }
+
+    public LatencyHistogram.Snapshot getLateness() {
+        return lateness;
+    }
+
+    @Override
+    public String toString() {
+        return "TimerStats{" +
+                "pending=" + pending +
+                ", fired=" + fired +
+                ", cancelled=" + cancelled +
+                ", late=" + late +
+                ", lateness=" + lateness +
+                '}';
+    }
+}
@@ -0,0 +1,329 @@
+package org.kin.framework.concurrent;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * 分层哈希时间轮, 插入与移除均为O(1)
+ * 共{@link #LEVELS}层, 每层{@link #WHEEL_SIZE}个槽, 第n层每个槽跨度为tick * WHEEL_SIZE^n
+ * 时间推进到高层槽的起始时间时, 该槽内的元素会重新放入低层, 最终在第0层到期
+ * 超出最高层跨度的元素先放入最高层, 推进过程中逐步下沉
+ * <p>
+ * 非线程安全, 只允许在单个线程使用
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+final class TimingWheel<E> {
+    /** 每层槽数量的位数 */
+    private static final int WHEEL_BITS = 6;
+    /** 每层槽数量 */
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    /** 层数, tick为1ms时, 最高层跨度约12天 */
+    private static final int LEVELS = 5;
+
+    /** tick时长 */
+    private final long tickDuration;
+    /** 起始时间, 即第0个tick的时间 */
+    private final long startTime;
+    /** 所有槽 */
+    private final Bucket<E>[][] buckets;
+    /** 每层元素数量 */
+    private final int[] counts = new int[LEVELS];
+    /**
+     * 正在处理的槽内元素, 先整体移入, 再逐个取出处理
+     * 处理回调中移除同槽的其他元素时, 从这里移除, 不会破坏原槽链表
+     */
+    private final Bucket<E> pending = new Bucket<>(-1);
+    /** 已处理到的tick */
+    private long currentTick;
+    /** 元素数量 */
+    private int size;
+
+    /**
+     * @param tickDuration tick时长, 与startTime单位一致
+     * @param startTime    起始时间
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TimingWheel(long tickDuration, long startTime) {
+        Preconditions.checkArgument(tickDuration > 0, "tick duration must greater than 0");
+        this.tickDuration = tickDuration;
+        this.startTime = startTime;
+        this.buckets = new Bucket[LEVELS][WHEEL_SIZE];
+        for (int level = 0; level < LEVELS; level++) {
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                buckets[level][i] = new Bucket<>(level);
+            }
+        }
+    }
+
+    /**
+     * 添加元素, 如果节点已在时间轮中, 则先移除
+     *
+     * @param deadline 到期时间, 至少要在下一个tick才会到期
+     */
+    void add(Node<E> node, long deadline) {
+        remove(node);
+        long elapsed = deadline - startTime;
+        //向上取整, 保证不会提前到期
+        long deadlineTick = elapsed <= 0 ? 0 : (elapsed + tickDuration - 1) / tickDuration;
+        node.deadlineTick = Math.max(deadlineTick, currentTick + 1);
+        place(node);
+        size++;
+    }
+
+    /**
+     * 根据到期tick把节点放入对应层的槽
+     */
+    private void place(Node<E> node) {
+        long delta = node.deadlineTick - currentTick;
+        for (int level = 0; level < LEVELS; level++) {
+            int shift = WHEEL_BITS * level;
+            if (delta < (1L << (shift + WHEEL_BITS))) {
+                buckets[level][(int) ((node.deadlineTick >>> shift) & WHEEL_MASK)].add(node);
+                counts[level]++;
+                return;
+            }
+        }
+        //超出最高层跨度, 放入最高层最远的槽, 推进到该槽时再重新计算
+        int level = LEVELS - 1;
+        int shift = WHEEL_BITS * level;
+        buckets[level][(int) ((currentTick >>> shift) & WHEEL_MASK)].add(node);
+        counts[level]++;
+    }
+
+    /**
+     * 移除元素
+     *
+     * @return 节点是否在时间轮中
+     */
+    boolean remove(Node<E> node) {
+        Bucket<E> bucket = node.bucket;
+        if (Objects.isNull(bucket)) {
+            return false;
+        }
+        bucket.remove(node);
+        if (bucket != pending) {
+            counts[bucket.level]--;
+        }
+        size--;
+        return true;
+    }
+
+    /**
+     * 推进时间轮到指定时间, 并处理所有到期元素
+     *
+     * @param now     当前时间
+     * @param expired 到期元素处理
+     */
+    void advance(long now, Consumer<E> expired) {
+        long nowTick = (now - startTime) / tickDuration;
+        if (size == 0) {
+            //没有元素, 直接跳到当前tick
+            currentTick = Math.max(currentTick, nowTick);
+            return;
+        }
+        while (currentTick < nowTick) {
+            long tick = ++currentTick;
+            //高层槽下沉
+            for (int level = LEVELS - 1; level > 0; level--) {
+                int shift = WHEEL_BITS * level;
+                if ((tick & ((1L << shift) - 1)) == 0) {
+                    cascade(buckets[level][(int) ((tick >>> shift) & WHEEL_MASK)], expired);
+                }
+            }
+            expire(buckets[0][(int) (tick & WHEEL_MASK)], expired);
+
+            if (size == 0) {
+                currentTick = nowTick;
+                return;
+            }
+        }
+    }
+
+    /**
+     * 高层槽内元素重新放入低层
+     */
+    private void cascade(Bucket<E> bucket, Consumer<E> expired) {
+        detach(bucket);
+        Node<E> node;
+        while (Objects.nonNull(node = pollPending())) {
+            if (node.deadlineTick <= currentTick) {
+                size--;
+                expired.accept(node.element);
+            } else {
+                place(node);
+            }
+        }
+    }
+
+    /**
+     * 处理第0层到期槽
+     */
+    private void expire(Bucket<E> bucket, Consumer<E> expired) {
+        detach(bucket);
+        Node<E> node;
+        while (Objects.nonNull(node = pollPending())) {
+            size--;
+            expired.accept(node.element);
+        }
+    }
+
+    /**
+     * 槽内所有元素移入{@link #pending}, 处理前完成, 保证回调不会看到处理到一半的槽
+     */
+    private void detach(Bucket<E> bucket) {
+        counts[bucket.level] -= bucket.size;
+        for (Node<E> node = bucket.head; Objects.nonNull(node); node = node.next) {
+            node.bucket = pending;
+        }
+        pending.head = bucket.head;
+        pending.tail = bucket.tail;
+        pending.size = bucket.size;
+        bucket.clear();
+    }
+
+    /**
+     * @return {@link #pending}中第一个元素, 没有则返回null
+     */
+    private Node<E> pollPending() {
+        Node<E> node = pending.head;
+        if (Objects.nonNull(node)) {
+            pending.remove(node);
+        }
+        return node;
+    }
+
+    /**
+     * @return 下一次需要推进时间轮的时间, 没有元素则返回{@link Long#MAX_VALUE}
+     */
+    long nextTickTime() {
+        if (size == 0) {
+            return Long.MAX_VALUE;
+        }
+        long nextTick = Long.MAX_VALUE;
+        for (int level = 0; level < LEVELS; level++) {
+            if (counts[level] == 0) {
+                continue;
+            }
+            int shift = WHEEL_BITS * level;
+            long index = currentTick >>> shift;
+            for (int i = 1; i <= WHEEL_SIZE; i++) {
+                if (buckets[level][(int) ((index + i) & WHEEL_MASK)].size > 0) {
+                    nextTick = Math.min(nextTick, (index + i) << shift);
+                    break;
+                }
+            }
+        }
+        return startTime + nextTick * tickDuration;
+    }
+
+    /**
+     * 移除所有元素
+     *
+     * @param removed 被移除元素处理
+     */
+    void clear(Consumer<E> removed) {
+        for (int level = 0; level < LEVELS; level++) {
+            for (Bucket<E> bucket : buckets[level]) {
+                Node<E> node = bucket.head;
+                bucket.clear();
+                while (Objects.nonNull(node)) {
+                    Node<E> next = node.next;
+                    node.prev = null;
+                    node.next = null;
+                    node.bucket = null;
+                    removed.accept(node.element);
+                    node = next;
+                }
+            }
+            counts[level] = 0;
+        }
+        size = 0;
+    }
+
+    /**
+     * @return 元素数量
+     */
+    int size() {
+        return size;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 时间轮节点, 可重复使用(比如循环定时任务)
+     */
+    static final class Node<E> {
+        private final E element;
+        /** 到期tick */
+        private long deadlineTick;
+        /** 所在槽, 不在时间轮中则为null */
+        private Bucket<E> bucket;
+        private Node<E> prev;
+        private Node<E> next;
+
+        Node(E element) {
+            this.element = element;
+        }
+
+        //getter
+        E getElement() {
+            return element;
+        }
+    }
+
+    /**
+     * 槽, 双向链表
+     */
+    private static final class Bucket<E> {
+        /** 所属层 */
+        private final int level;
+        private Node<E> head;
+        private Node<E> tail;
+        private int size;
+
+        Bucket(int level) {
+            this.level = level;
+        }
+
+        void add(Node<E> node) {
+            node.bucket = this;
+            node.prev = tail;
+            node.next = null;
+            if (Objects.isNull(tail)) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+            size++;
+        }
+
+        void remove(Node<E> node) {
+            if (Objects.isNull(node.prev)) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (Objects.isNull(node.next)) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            node.bucket = null;
+            size--;
+        }
+
+        void clear() {
+            head = null;
+            tail = null;
+            size = 0;
+        }
+    }
+}
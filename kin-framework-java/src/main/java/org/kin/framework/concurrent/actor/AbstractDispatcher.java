@@ -1,9 +1,15 @@
 package org.kin.framework.concurrent.actor;
 
+import com.google.common.base.Preconditions;
+import org.kin.framework.concurrent.CoalescedTimer;
 import org.kin.framework.concurrent.ExecutionContext;
+import org.kin.framework.concurrent.SimpleThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -12,11 +18,18 @@ import java.util.concurrent.TimeUnit;
  */
 public abstract class AbstractDispatcher<KEY, MSG> implements Dispatcher<KEY, MSG> {
     private static final Logger log = LoggerFactory.getLogger(AbstractDispatcher.class);
+    /** ask超时定时器tick, 毫秒 */
+    private static final long ASK_TIMER_TICK_MS = 10;
 
     /** 底层线程池 */
     protected ExecutionContext executionContext;
     /** Dispatcher是否stopped */
     protected volatile boolean stopped;
+    /**
+     * ask超时定时器, 所有ask共享, lazy init
+     * 超时在定时线程直接完成future, future的后续逻辑如果耗时, 请使用async方法
+     */
+    private volatile CoalescedTimer askTimer;
 
     public AbstractDispatcher(ExecutionContext executionContext) {
         this.executionContext = executionContext;
@@ -24,22 +37,32 @@ public abstract class AbstractDispatcher<KEY, MSG> implements Dispatcher<KEY, MS
 
     protected abstract void doClose();
 
-    protected abstract void doRegister(KEY key, Receiver<MSG> receiver, boolean enableConcurrent);
+    protected abstract void doRegister(KEY key, Receiver<MSG> receiver, boolean enableConcurrent, MailBoxOptions options);
 
     protected abstract void doUnRegister(KEY key);
 
-    protected abstract void doPostMessage(KEY key, MSG message);
+    /**
+     * @param reply ask请求的回复句柄, 普通消息为null
+     * @return 消息是否入队
+     */
+    protected abstract boolean doPostMessage(KEY key, MSG message, Reply reply);
 
     protected abstract void doPost2All(MSG message);
 
     @Override
     public final void register(KEY key, Receiver<MSG> receiver, boolean enableConcurrent) {
+        register(key, receiver, enableConcurrent, MailBoxOptions.unbounded());
+    }
+
+    @Override
+    public final void register(KEY key, Receiver<MSG> receiver, boolean enableConcurrent, MailBoxOptions options) {
+        Preconditions.checkNotNull(options, "mailbox options is null");
         synchronized (this) {
             if (stopped) {
                 throw new IllegalStateException("dispatcher has been stopped");
             }
 
-            doRegister(key, receiver, enableConcurrent);
+            doRegister(key, receiver, enableConcurrent, options);
         }
     }
 
@@ -60,7 +83,60 @@ public abstract class AbstractDispatcher<KEY, MSG> implements Dispatcher<KEY, MS
 
     @Override
     public final void postMessage(KEY key, MSG message) {
-        sync(() -> doPostMessage(key, message));
+        offerMessage(key, message);
+    }
+
+    /**
+     * 不加锁, 有界'邮箱'阻塞发送者时不会影响其他发送者
+     */
+    @Override
+    public final boolean offerMessage(KEY key, MSG message) {
+        if (stopped) {
+            return false;
+        }
+        return doPostMessage(key, message, null);
+    }
+
+    @Override
+    public final <R> CompletableFuture<R> ask(KEY key, MSG message, long timeout, TimeUnit unit) {
+        AskFuture<R> future = new AskFuture<>();
+        CoalescedTimer askTimer = askTimer();
+        if (stopped || Objects.isNull(askTimer)) {
+            future.completeExceptionally(new IllegalStateException("dispatcher has been stopped"));
+            return future;
+        }
+        try {
+            future.setTimeout(askTimer.schedule(future, timeout, unit));
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new IllegalStateException("dispatcher has been stopped"));
+            return future;
+        }
+        if (!doPostMessage(key, message, future)) {
+            future.fail(new RejectedExecutionException(String.format("message to '%s' is rejected", key)));
+        }
+        return future;
+    }
+
+    /**
+     * @return ask超时定时器, dispatcher已关闭则返回null
+     */
+    private CoalescedTimer askTimer() {
+        CoalescedTimer askTimer = this.askTimer;
+        if (Objects.isNull(askTimer)) {
+            synchronized (this) {
+                if (stopped) {
+                    return null;
+                }
+                askTimer = this.askTimer;
+                if (Objects.isNull(askTimer)) {
+                    askTimer = new CoalescedTimer(Runnable::run,
+                            new SimpleThreadFactory(getClass().getSimpleName().concat("-askTimer"), true),
+                            ASK_TIMER_TICK_MS, TimeUnit.MILLISECONDS);
+                    this.askTimer = askTimer;
+                }
+            }
+        }
+        return askTimer;
     }
 
     @Override
@@ -107,6 +183,10 @@ public abstract class AbstractDispatcher<KEY, MSG> implements Dispatcher<KEY, MS
 
             doClose();
 
+            if (Objects.nonNull(askTimer)) {
+                //未回复的ask直接超时
+                askTimer.shutdownNow().forEach(Runnable::run);
+            }
             executionContext.shutdown();
         });
     }
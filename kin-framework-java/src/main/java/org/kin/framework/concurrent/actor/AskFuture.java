@@ -0,0 +1,56 @@
+package org.kin.framework.concurrent.actor;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * ask请求的future, 同时作为回复句柄和超时动作
+ * 回复后取消超时定时器, 定时器从时间轮移除
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+final class AskFuture<R> extends CompletableFuture<R> implements Reply, Runnable {
+    /** 超时定时器 */
+    private volatile ScheduledFuture<?> timeout;
+
+    void setTimeout(ScheduledFuture<?> timeout) {
+        this.timeout = timeout;
+        //回复早于设置超时定时器
+        if (isDone()) {
+            timeout.cancel(false);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void reply(Object result) {
+        if (complete((R) result)) {
+            cancelTimeout();
+        }
+    }
+
+    @Override
+    public void fail(Throwable cause) {
+        if (completeExceptionally(cause)) {
+            cancelTimeout();
+        }
+    }
+
+    private void cancelTimeout() {
+        ScheduledFuture<?> timeout = this.timeout;
+        if (Objects.nonNull(timeout)) {
+            timeout.cancel(false);
+        }
+    }
+
+    /**
+     * 超时
+     */
+    @Override
+    public void run() {
+        completeExceptionally(new TimeoutException("ask timeout"));
+    }
+}
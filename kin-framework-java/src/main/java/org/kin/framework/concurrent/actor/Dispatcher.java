@@ -3,6 +3,8 @@ package org.kin.framework.concurrent.actor;
 import org.kin.framework.Closeable;
 import org.kin.framework.concurrent.ExecutionContext;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -21,6 +23,21 @@ public interface Dispatcher<KEY, MSG> extends Closeable {
      */
     void register(KEY key, Receiver<MSG> receiver, boolean enableConcurrent);
 
+    /**
+     * 注册Receiver
+     *
+     * @param key              Receiver标识
+     * @param receiver         Receiver实现
+     * @param enableConcurrent 是否允许并发执行
+     * @param options          '邮箱'配置, 默认实现仅支持无界'邮箱'
+     */
+    default void register(KEY key, Receiver<MSG> receiver, boolean enableConcurrent, MailBoxOptions options) {
+        if (options.isBounded()) {
+            throw new UnsupportedOperationException(String.format("%s doesn't support bounded mailbox", getClass().getName()));
+        }
+        register(key, receiver, enableConcurrent);
+    }
+
     /**
      * 注销Receiver
      * @param key Receiver标识
@@ -43,6 +60,37 @@ public interface Dispatcher<KEY, MSG> extends Closeable {
      */
     void postMessage(KEY key, MSG message);
 
+    /**
+     * 推送消息
+     * 默认实现仅判断Receiver是否已注册, 不能感知'邮箱'已满
+     *
+     * @param key     Receiver标识
+     * @param message 消息实现
+     * @return 消息是否入队, Receiver未注册, Dispatcher已关闭或'邮箱'已满时返回false
+     */
+    default boolean offerMessage(KEY key, MSG message) {
+        if (!isRegistered(key)) {
+            return false;
+        }
+        postMessage(key, message);
+        return true;
+    }
+
+    /**
+     * 请求-响应, 推送消息, Receiver通过{@link Reply}回复
+     *
+     * @param key     Receiver标识
+     * @param message 消息实现
+     * @param timeout 超时时间, 超时则future以{@link java.util.concurrent.TimeoutException}完成
+     * @param unit    超时时间单位
+     * @return Receiver回复的future, 消息未入队则以{@link RejectedExecutionException}完成, 默认实现不支持请求-响应
+     */
+    default <R> CompletableFuture<R> ask(KEY key, MSG message, long timeout, TimeUnit unit) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        future.completeExceptionally(new RejectedExecutionException(String.format("%s doesn't support ask", getClass().getName())));
+        return future;
+    }
+
     /**
      * 向所有已注册Receiver推送消息
      */
@@ -80,6 +128,16 @@ public interface Dispatcher<KEY, MSG> extends Closeable {
      */
     void scheduleWithFixedDelay(KEY key, MSG message, long initialDelay, long delay, TimeUnit unit);
 
+    /**
+     * '邮箱'统计
+     *
+     * @param key Receiver标识
+     * @return '邮箱'统计快照, Receiver未注册或者不支持统计则返回null
+     */
+    default MailBoxStats mailBoxStats(KEY key) {
+        return null;
+    }
+
     /**
      * 关闭Dispatcher
      */
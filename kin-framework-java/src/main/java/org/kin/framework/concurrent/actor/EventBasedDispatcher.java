@@ -1,5 +1,6 @@
 package org.kin.framework.concurrent.actor;
 
+import com.google.common.base.Preconditions;
 import org.kin.framework.concurrent.ExecutionContext;
 import org.kin.framework.utils.SysUtils;
 import org.slf4j.Logger;
@@ -8,11 +9,18 @@ import org.slf4j.LoggerFactory;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * 底层消息处理实现是基于事件处理
  * 尽量不要blocking
+ * <p>
+ * 每个worker都有自己的'邮箱'队列, '邮箱'优先在绑定的worker上处理, 以保证cache亲和性
+ * worker空闲时会从其他worker队列尾部窃取'邮箱', 窃取后'邮箱'绑定到该worker
+ * 每次调度'邮箱'最多处理{@link #throughput}条消息, 保证'比较忙'的Receiver不会长期占用worker
  *
  * @author huangjianqin
  * @date 2020-04-15
@@ -20,111 +28,275 @@ import java.util.concurrent.LinkedBlockingQueue;
  */
 public class EventBasedDispatcher<KEY, MSG> extends AbstractDispatcher<KEY, MSG> {
     private static final Logger log = LoggerFactory.getLogger(EventBasedDispatcher.class);
-    /** 毒药, 终止message loop */
-    private final ReceiverData<MSG> POISON_PILL = new ReceiverData<>(null, false);
+    /** 默认每次调度'邮箱'最多处理的消息数 */
+    public static final int DEFAULT_THROUGHPUT = 64;
 
-    /** 并发数 */
-    private int parallelism;
+    /** 每次调度'邮箱'最多处理的消息数 */
+    private final int throughput;
     /** Receiver数据 */
-    private Map<KEY, ReceiverData<MSG>> receiverDatas = new ConcurrentHashMap<>();
-    /** 等待数据处理的receivers */
-    //TODO 考虑增加标志位, 在线程安全模式下, 如果Receiver消息正在被处理, 则不需要入队, 减少队列长度, 但这样子就会存在'比较忙'的Receiver长期占用, 其他Receiver消息得不到处理的问题
-    private LinkedBlockingQueue<ReceiverData<MSG>> pendingDatas = new LinkedBlockingQueue<>();
+    private Map<KEY, InBox<MSG>> inBoxes = new ConcurrentHashMap<>();
+    /** 处理'邮箱'消息的worker */
+    private final Worker[] workers;
+    /** 用于新注册'邮箱'绑定worker */
+    private final AtomicInteger counter = new AtomicInteger();
+    /** 空闲worker数量 */
+    private final AtomicInteger idleWorkers = new AtomicInteger();
+    /** 被唤醒去窃取'邮箱'但还未找到'邮箱'的worker数量, 限制同时只唤醒一个, 避免大量无效唤醒 */
+    private final AtomicInteger stealingWorkers = new AtomicInteger();
     /** 是否已启动message loop */
     private boolean isMessageLoopRun;
+    /** message loop是否停止, 停止后worker处理完剩余'邮箱'后退出 */
+    private volatile boolean isMessageLoopStopped;
 
     public EventBasedDispatcher(int parallelism) {
+        this(parallelism, DEFAULT_THROUGHPUT);
+    }
+
+    /**
+     * @param throughput 每次调度'邮箱'最多处理的消息数
+     */
+    public EventBasedDispatcher(int parallelism, int throughput) {
         super(ExecutionContext.forkjoin(
                 parallelism, "eventBasedDispatcher",
                 SysUtils.CPU_NUM / 2 + 1, "eventBasedDispatcher-scheduler"));
-        this.parallelism = parallelism;
+        Preconditions.checkArgument(parallelism > 0, "parallelism must greater than 0");
+        Preconditions.checkArgument(throughput > 0, "throughput must greater than 0");
+        this.throughput = throughput;
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Worker[] workers = new EventBasedDispatcher.Worker[parallelism];
+        this.workers = workers;
+        for (int i = 0; i < parallelism; i++) {
+            this.workers[i] = new Worker(i);
+        }
     }
 
     @Override
-    protected void doRegister(KEY key, Receiver<MSG> receiver, boolean enableConcurrent) {
-        if (Objects.nonNull(receiverDatas.putIfAbsent(key, new ReceiverData<>(receiver, enableConcurrent)))) {
+    protected void doRegister(KEY key, Receiver<MSG> receiver, boolean enableConcurrent, MailBoxOptions options) {
+        InBox<MSG> inBox = new InBox<>(receiver, enableConcurrent, throughput, options);
+        if (Objects.nonNull(inBoxes.putIfAbsent(key, inBox))) {
             throw new IllegalArgumentException(String.format("%s has registried", key));
         }
-
-        ReceiverData<MSG> data = receiverDatas.get(key);
-        pendingDatas.offer(data);
+        inBox.worker = (counter.getAndIncrement() & Integer.MAX_VALUE) % workers.length;
 
         //lazy init
         if (!isMessageLoopRun) {
-            for (int i = 0; i < parallelism; i++) {
-                executionContext.execute(new MessageLoop());
+            for (Worker worker : workers) {
+                executionContext.execute(worker);
             }
             isMessageLoopRun = true;
         }
+
+        schedule(inBox);
     }
 
     @Override
     protected void doUnRegister(KEY key) {
-        ReceiverData<MSG> data = receiverDatas.remove(key);
-        if (Objects.nonNull(data)) {
-            data.inBox.close();
-            pendingDatas.offer(data);
+        InBox<MSG> inBox = inBoxes.remove(key);
+        if (Objects.nonNull(inBox)) {
+            inBox.close();
+            schedule(inBox);
         }
     }
 
     @Override
-    protected void doPostMessage(KEY key, MSG message) {
-        ReceiverData<MSG> data = receiverDatas.get(key);
-        if (Objects.nonNull(data)) {
-            data.inBox.post(new InBox.OnMessageSignal<>(message));
-            pendingDatas.offer(data);
+    protected boolean doPostMessage(KEY key, MSG message, Reply reply) {
+        InBox<MSG> inBox = inBoxes.get(key);
+        if (Objects.nonNull(inBox) && inBox.post(message, reply)) {
+            schedule(inBox);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * '邮箱'未调度, 则放入其绑定worker的队列
+     * 绑定worker正忙, 则唤醒一个空闲worker来窃取
+     */
+    void schedule(InBox<MSG> inBox) {
+        if (inBox.trySchedule()) {
+            Worker worker = workers[inBox.worker];
+            worker.deque.offerLast(inBox);
+            if (!worker.wakeup()) {
+                worker.signalIdleWorker();
+            }
         }
     }
 
     @Override
     protected void doPost2All(MSG message) {
-        for (KEY key : receiverDatas.keySet()) {
-            doPostMessage(key, message);
+        for (KEY key : inBoxes.keySet()) {
+            doPostMessage(key, message, null);
         }
     }
 
     @Override
     protected void doClose() {
-        receiverDatas.keySet().forEach(this::unregister);
-        pendingDatas.offer(POISON_PILL);
+        inBoxes.keySet().forEach(this::doUnRegister);
+        isMessageLoopStopped = true;
+        for (Worker worker : workers) {
+            worker.wakeup();
+        }
     }
 
     @Override
     public boolean isRegistered(KEY key) {
-        return receiverDatas.containsKey(key);
+        return inBoxes.containsKey(key);
     }
 
-    private class MessageLoop implements Runnable {
+    @Override
+    public MailBoxStats mailBoxStats(KEY key) {
+        InBox<MSG> inBox = inBoxes.get(key);
+        return Objects.nonNull(inBox) ? inBox.stats() : null;
+    }
+
+    //getter
+    public int getThroughput() {
+        return throughput;
+    }
+
+    //-------------------------------------------------------------------------------------------------------
+
+    /**
+     * 原子更新worker是否park
+     */
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<EventBasedDispatcher.Worker> PARKED_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(EventBasedDispatcher.Worker.class, "parked");
+
+    /**
+     * 处理'邮箱'消息的worker
+     */
+    private class Worker implements Runnable {
+        /** worker下标 */
+        private final int index;
+        /** 待处理的'邮箱', 本worker从头部取, 其他worker从尾部窃取 */
+        private final ConcurrentLinkedDeque<InBox<MSG>> deque = new ConcurrentLinkedDeque<>();
+        /** 当前运行的线程 */
+        private volatile Thread thread;
+        /** 是否已park或准备park, 1表示是, 非private, 保证jdk8下AtomicIntegerFieldUpdater可访问 */
+        volatile int parked;
+        /** 是否被唤醒去窃取'邮箱' */
+        private volatile boolean stealing;
+
+        private Worker(int index) {
+            this.index = index;
+        }
+
         @Override
         public void run() {
+            thread = Thread.currentThread();
+            boolean rerun = false;
             try {
                 while (true) {
-                    ReceiverData<MSG> data = pendingDatas.take();
-                    if (data == POISON_PILL) {
-                        pendingDatas.offer(POISON_PILL);
+                    InBox<MSG> inBox = deque.pollFirst();
+                    if (Objects.isNull(inBox)) {
+                        inBox = steal();
+                    }
+                    if (stealing) {
+                        stealing = false;
+                        stealingWorkers.decrementAndGet();
+                    }
+                    if (Objects.nonNull(inBox)) {
+                        if (!deque.isEmpty()) {
+                            //本worker仍有积压, 唤醒空闲worker来窃取
+                            signalIdleWorker();
+                        }
+                        inBox.process(EventBasedDispatcher.this);
+                        continue;
+                    }
+                    if (isMessageLoopStopped) {
                         return;
                     }
-                    data.inBox.process(EventBasedDispatcher.this);
+                    park();
                 }
-            } catch (InterruptedException e) {
-
             } catch (Exception e) {
                 log.error("", e);
-                try {
-                    //re-run
-                    executionContext.execute(new MessageLoop());
-                } finally {
-                    throw e;
+                rerun = true;
+            } finally {
+                thread = null;
+            }
+            if (rerun) {
+                //先清除当前线程再re-run, 避免覆盖re-run后的线程
+                executionContext.execute(this);
+            }
+        }
+
+        /**
+         * 从其他worker队列尾部窃取'邮箱', 窃取后'邮箱'绑定到本worker
+         */
+        private InBox<MSG> steal() {
+            for (int i = 1; i < workers.length; i++) {
+                InBox<MSG> inBox = workers[(index + i) % workers.length].deque.pollLast();
+                if (Objects.nonNull(inBox)) {
+                    inBox.worker = index;
+                    return inBox;
                 }
             }
+            return null;
         }
-    }
 
-    private static class ReceiverData<MSG> {
-        private InBox<MSG> inBox;
+        /**
+         * 唤醒一个空闲worker去窃取'邮箱', 已有worker在窃取则不唤醒
+         */
+        private void signalIdleWorker() {
+            if (idleWorkers.get() <= 0 || stealingWorkers.get() > 0 || !stealingWorkers.compareAndSet(0, 1)) {
+                return;
+            }
+            for (int i = 1; i < workers.length; i++) {
+                Worker worker = workers[(index + i) % workers.length];
+                if (worker.wakeup(true)) {
+                    return;
+                }
+            }
+            stealingWorkers.decrementAndGet();
+        }
 
-        private ReceiverData(Receiver<MSG> receiver, boolean enableConcurrent) {
-            inBox = new InBox<>(receiver, enableConcurrent);
+        /**
+         * @return 是否有可处理的'邮箱'
+         */
+        private boolean hasWork() {
+            for (Worker worker : workers) {
+                if (!worker.deque.isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 空闲, 等待唤醒
+         * 先标记park再检查队列, 保证入队'邮箱'的线程能看到park标记
+         */
+        private void park() {
+            PARKED_UPDATER.set(this, 1);
+            idleWorkers.incrementAndGet();
+            try {
+                if (isMessageLoopStopped || hasWork()) {
+                    return;
+                }
+                LockSupport.park(this);
+            } finally {
+                PARKED_UPDATER.set(this, 0);
+                idleWorkers.decrementAndGet();
+            }
+        }
+
+        private boolean wakeup() {
+            return wakeup(false);
+        }
+
+        /**
+         * @param stealing 是否唤醒去窃取'邮箱'
+         * @return 是否唤醒了该worker
+         */
+        private boolean wakeup(boolean stealing) {
+            Thread thread = this.thread;
+            if (parked == 1 && Objects.nonNull(thread) && PARKED_UPDATER.compareAndSet(this, 1, 0)) {
+                this.stealing = stealing;
+                LockSupport.unpark(thread);
+                return true;
+            }
+            return false;
         }
     }
 }
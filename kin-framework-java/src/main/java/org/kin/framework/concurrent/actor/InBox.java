@@ -1,106 +1,240 @@
 package org.kin.framework.concurrent.actor;
 
 import org.kin.framework.Closeable;
+import org.kin.framework.concurrent.MpscChunkedQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.LinkedList;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * '邮箱'
  * 消息队列, 存储待处理的消息
+ * 基于无锁队列, 通过scheduled标识保证有消息时, '邮箱'最多只有一个待处理实例在dispatcher队列中
+ * 普通消息直接入队, 不额外封装; 仅ask请求需要封装回复句柄
+ *
  * @author huangjianqin
  * @date 2020-04-15
  */
 class InBox<MSG> implements Closeable {
     private static final Logger log = LoggerFactory.getLogger(InBox.class);
+    /** 原子更新'邮箱'是否已调度 */
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<InBox> SCHEDULED_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(InBox.class, "scheduled");
+    /** 原子更新'邮箱'状态 */
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<InBox> STATE_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(InBox.class, "state");
+    /** 未执行{@link Receiver#onStart()} */
+    private static final int ST_NOT_STARTED = 0;
+    /** 已执行{@link Receiver#onStart()} */
+    private static final int ST_STARTED = 1;
+    /** 已执行{@link Receiver#onStop()}, 此后的消息都会被丢弃 */
+    private static final int ST_TERMINATED = 2;
 
     /** 与'邮箱'绑定的Receiver */
     private final Receiver<MSG> receiver;
     /** 是否允许并发 */
     private final boolean enableConcurrent;
-    /** 消息队列 */
-    private LinkedList<InBoxMessage> mail = new LinkedList<>();
-    /** 正在处理该'邮箱'消息的线程数 */
-    private int activeThreads = 0;
+    /** 每次调度最多处理的消息数, 处理完后让出线程, 保证其他'邮箱'消息能得到处理 */
+    private final int throughput;
+    /** 容量控制 */
+    private final MailBoxLimiter limiter;
+    /**
+     * 消息队列, 元素为消息本身或者{@link OnMessageSignal}
+     * 不允许并发且不需要发送者丢弃旧消息时, 同一时刻仅一条线程取消息, 使用mpsc数组块队列, 入队无需分配节点
+     */
+    private final Queue<Object> mail;
+    /** 绑定的worker下标, worker窃取后会改变 */
+    volatile int worker;
+    /** '邮箱'是否已在dispatcher队列中或正在处理, 1表示是 */
+    private volatile int scheduled;
+    /** '邮箱'状态 */
+    private volatile int state = ST_NOT_STARTED;
     /** '邮箱'是否关了 */
-    private boolean stopped;
+    private volatile boolean stopped;
 
-    InBox(Receiver receiver, boolean enableConcurrent) {
+    InBox(Receiver<MSG> receiver, boolean enableConcurrent, int throughput, MailBoxOptions options) {
         this.receiver = receiver;
         this.enableConcurrent = enableConcurrent;
-        mail.add(OnStartSignal.INSTANCE);
+        this.throughput = throughput;
+        this.limiter = new MailBoxLimiter(options);
+        if (enableConcurrent || options.getPolicy() == OverflowPolicy.DROP_OLDEST) {
+            this.mail = new ConcurrentLinkedQueue<>();
+        } else {
+            this.mail = new MpscChunkedQueue<>();
+        }
     }
 
     /**
      * 消息入队
+     *
+     * @param reply ask请求的回复句柄, 普通消息为null
+     * @return 消息是否入队
      */
-    public void post(InBoxMessage message) {
-        synchronized (this) {
-            if (stopped) {
-                log.warn(String.format("Drop %s because %s is stopped", message, receiver));
-                return;
+    public boolean post(MSG message, Reply reply) {
+        if (stopped) {
+            log.warn(String.format("Drop %s because %s is stopped", message, receiver));
+            return false;
+        }
+        Object element = Objects.isNull(reply) ? message : new OnMessageSignal<>(message, reply);
+        if (!limiter.acquire(this::dropOldest)) {
+            if (limiter.getOptions().getPolicy() == OverflowPolicy.DROP_NEWEST) {
+                notifyDrop(element);
             }
-            mail.add(message);
+            return false;
         }
+        mail.offer(element);
+        return true;
     }
 
     /**
-     * 处理消息
+     * 丢弃最旧的消息
      */
-    public void process(EventBasedDispatcher eventBasedDispatcher) {
-        InBoxMessage message;
-        synchronized (this) {
-            if (!enableConcurrent && activeThreads > 0) {
-                return;
-            }
-            message = mail.poll();
-            if (Objects.nonNull(message)) {
-                activeThreads++;
-            } else {
-                return;
+    private boolean dropOldest() {
+        Object element = mail.poll();
+        if (Objects.isNull(element)) {
+            return false;
+        }
+        limiter.markDropped();
+        notifyDrop(element);
+        return true;
+    }
+
+    /**
+     * 通知Receiver消息被丢弃, ask请求则回复异常
+     */
+    private void notifyDrop(Object element) {
+        failReply(element, "message is dropped because mailbox is full");
+        try {
+            receiver.onDrop(unwrap(element));
+        } catch (Exception e) {
+            log.error("", e);
+        }
+    }
+
+    /**
+     * ask请求未被处理, 回复异常
+     */
+    private void failReply(Object element, String reason) {
+        if (element instanceof OnMessageSignal) {
+            ((OnMessageSignal<?>) element).getReply().fail(new RejectedExecutionException(reason));
+        }
+    }
+
+    /**
+     * @return 队列元素对应的消息
+     */
+    @SuppressWarnings("unchecked")
+    private MSG unwrap(Object element) {
+        if (element instanceof OnMessageSignal) {
+            return ((OnMessageSignal<MSG>) element).getMessage();
+        }
+        return (MSG) element;
+    }
+
+    /**
+     * 尝试标记'邮箱'为已调度
+     *
+     * @return true, 则调用者需要将'邮箱'放入dispatcher队列
+     */
+    boolean trySchedule() {
+        return scheduled == 0 && SCHEDULED_UPDATER.compareAndSet(this, 0, 1);
+    }
+
+    /**
+     * 处理消息, 最多处理{@link #throughput}条
+     */
+    public void process(EventBasedDispatcher<?, MSG> dispatcher) {
+        if (state == ST_NOT_STARTED && STATE_UPDATER.compareAndSet(this, ST_NOT_STARTED, ST_STARTED)) {
+            try {
+                receiver.onStart();
+            } catch (Exception e) {
+                log.error("", e);
             }
         }
 
-        while (true) {
+        if (enableConcurrent) {
+            //允许并发, 先清除调度标识, 如果还有消息, 则让其他线程一起处理
+            SCHEDULED_UPDATER.set(this, 0);
+            rescheduleIfNecessary(dispatcher);
+        }
+
+        Object element;
+        for (int i = 0; i < throughput && Objects.nonNull(element = mail.poll()); i++) {
+            limiter.release();
+            handle(element);
+        }
+
+        if (stopped && mail.isEmpty() && STATE_UPDATER.compareAndSet(this, ST_STARTED, ST_TERMINATED)) {
             try {
-                if (message instanceof OnStartSignal) {
-                    receiver.onStart();
-                } else if (message instanceof OnStopSignal) {
-                    receiver.onStop();
-                } else if (message instanceof OnMessageSignal) {
-                    OnMessageSignal<MSG> wrapper = (OnMessageSignal) message;
-                    receiver.receive(wrapper.getMessage());
-                } else {
-                    log.error("unknown InBoxMessage >>>> {}", message);
-                }
+                receiver.onStop();
             } catch (Exception e) {
                 log.error("", e);
             }
+        }
+
+        if (!enableConcurrent) {
+            SCHEDULED_UPDATER.set(this, 0);
+        }
+        //先清除调度标识再检查队列, 保证post的消息不会遗漏
+        rescheduleIfNecessary(dispatcher);
+    }
+
+    /**
+     * 队列仍有消息或者需要执行{@link Receiver#onStop()}, 则重新放入dispatcher队列
+     */
+    private void rescheduleIfNecessary(EventBasedDispatcher<?, MSG> dispatcher) {
+        if (!mail.isEmpty() || (stopped && state != ST_TERMINATED)) {
+            dispatcher.schedule(this);
+        }
+    }
 
-            synchronized (this) {
-                if (!enableConcurrent && activeThreads != 1) {
-                    activeThreads--;
-                    return;
-                }
-                message = mail.poll();
-                if (Objects.isNull(message)) {
-                    activeThreads--;
-                    return;
-                }
+    /**
+     * 处理单条消息
+     */
+    @SuppressWarnings("unchecked")
+    private void handle(Object element) {
+        if (state == ST_TERMINATED) {
+            log.warn(String.format("Drop %s because %s is stopped", element, receiver));
+            failReply(element, "receiver is stopped");
+            return;
+        }
+        Reply reply = null;
+        try {
+            if (element instanceof OnMessageSignal) {
+                OnMessageSignal<MSG> wrapper = (OnMessageSignal<MSG>) element;
+                reply = wrapper.getReply();
+                receiver.receive(wrapper.getMessage(), reply);
+            } else {
+                receiver.receive((MSG) element);
+            }
+        } catch (Exception e) {
+            log.error("", e);
+            if (Objects.nonNull(reply)) {
+                reply.fail(e);
             }
         }
     }
 
+    /**
+     * 关闭'邮箱', 处理完已入队的消息后执行{@link Receiver#onStop()}
+     */
     @Override
     public void close() {
-        synchronized (this) {
-            if (!stopped) {
-                stopped = true;
-                mail.add(OnStopSignal.INSTANCE);
-            }
-        }
+        stopped = true;
+    }
+
+    /**
+     * @return '邮箱'统计快照
+     */
+    MailBoxStats stats() {
+        return limiter.stats();
     }
 
     //-------------------------------------------------------------------------------------------------------
@@ -115,41 +249,28 @@ class InBox<MSG> implements Closeable {
     }
 
     /**
-     * 封装真正的message的InBoxMessage
+     * 封装ask请求的message及其回复句柄, 普通消息直接入队, 不封装
      *
      * @author huangjianqin
      * @date 2020-04-17
      */
     final static class OnMessageSignal<M> extends InBoxMessage {
         private M message;
+        /** ask请求的回复句柄 */
+        private Reply reply;
 
-        OnMessageSignal(M message) {
+        OnMessageSignal(M message, Reply reply) {
             this.message = message;
+            this.reply = reply;
         }
 
 
         public M getMessage() {
             return message;
         }
-    }
-
-    /**
-     * 启动InBoxMessage
-     *
-     * @author huangjianqin
-     * @date 2020-04-16
-     */
-    final static class OnStartSignal extends InBoxMessage {
-        static final InBoxMessage INSTANCE = new OnStartSignal();
-    }
 
-    /**
-     * shutdown InBoxMessage
-     *
-     * @author huangjianqin
-     * @date 2020-04-16
-     */
-    final static class OnStopSignal extends InBoxMessage {
-        static final InBoxMessage INSTANCE = new OnStopSignal();
+        public Reply getReply() {
+            return reply;
+        }
     }
 }
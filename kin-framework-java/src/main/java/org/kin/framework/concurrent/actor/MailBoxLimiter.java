@@ -0,0 +1,150 @@
+package org.kin.framework.concurrent.actor;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * '邮箱'容量控制, 统计积压消息数, 并根据{@link OverflowPolicy}处理'邮箱'满的情况
+ * 消息入队前{@link #acquire(BooleanSupplier)}, 出队后{@link #release()}
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+final class MailBoxLimiter {
+    private final MailBoxOptions options;
+    /** 积压消息数 */
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    /** {@link OverflowPolicy#BLOCK}模式下, 阻塞发送者 */
+    private final ReentrantLock lock;
+    private final Condition notFull;
+    /** 阻塞中的发送者数量 */
+    private volatile int blockedSenders;
+
+    MailBoxLimiter(MailBoxOptions options) {
+        this.options = options;
+        if (options.getPolicy() == OverflowPolicy.BLOCK) {
+            lock = new ReentrantLock();
+            notFull = lock.newCondition();
+        } else {
+            lock = null;
+            notFull = null;
+        }
+    }
+
+    /**
+     * 申请一个位置
+     *
+     * @param dropOldest {@link OverflowPolicy#DROP_OLDEST}模式下, 丢弃'邮箱'中最旧的消息, 成功丢弃则返回true
+     * @return 是否可以入队
+     */
+    boolean acquire(BooleanSupplier dropOldest) {
+        if (tryAcquire()) {
+            return true;
+        }
+
+        switch (options.getPolicy()) {
+            case DROP_NEWEST:
+                dropped.increment();
+                return false;
+            case DROP_OLDEST:
+                do {
+                    if (!dropOldest.getAsBoolean()) {
+                        //其他发送者已占位但还没入队
+                        Thread.yield();
+                    }
+                } while (!tryAcquire());
+                return true;
+            case BLOCK:
+                if (awaitCapacity()) {
+                    return true;
+                }
+                rejected.increment();
+                return false;
+            default:
+                rejected.increment();
+                return false;
+        }
+    }
+
+    private boolean tryAcquire() {
+        if (!options.isBounded()) {
+            size.incrementAndGet();
+            return true;
+        }
+        int capacity = options.getCapacity();
+        while (true) {
+            int current = size.get();
+            if (current >= capacity) {
+                return false;
+            }
+            if (size.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 阻塞直到有空位或超时
+     */
+    private boolean awaitCapacity() {
+        long nanos = options.getBlockTimeoutNanos();
+        lock.lock();
+        try {
+            blockedSenders++;
+            //先增加阻塞数再检查, 保证release能看到阻塞的发送者
+            while (!tryAcquire()) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            blockedSenders--;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 消息出队或被丢弃后, 释放位置
+     */
+    void release() {
+        size.decrementAndGet();
+        if (blockedSenders > 0) {
+            lock.lock();
+            try {
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * {@link OverflowPolicy#DROP_OLDEST}模式下, 丢弃了最旧的消息
+     */
+    void markDropped() {
+        dropped.increment();
+        release();
+    }
+
+    /**
+     * @return 统计快照
+     */
+    MailBoxStats stats() {
+        return new MailBoxStats(options.getCapacity(), Math.max(0, size.get()), dropped.sum(), rejected.sum());
+    }
+
+    //getter
+    MailBoxOptions getOptions() {
+        return options;
+    }
+}
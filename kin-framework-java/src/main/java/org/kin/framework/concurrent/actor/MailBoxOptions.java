@@ -0,0 +1,90 @@
+package org.kin.framework.concurrent.actor;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * '邮箱'配置, 注册Receiver时指定
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public final class MailBoxOptions {
+    /** 无界'邮箱' */
+    private static final MailBoxOptions UNBOUNDED = new MailBoxOptions(Integer.MAX_VALUE, OverflowPolicy.REJECT, 0);
+
+    /** '邮箱'容量 */
+    private final int capacity;
+    /** '邮箱'满时的处理策略 */
+    private final OverflowPolicy policy;
+    /** {@link OverflowPolicy#BLOCK}模式下, 发送者最长阻塞时间, 纳秒 */
+    private final long blockTimeoutNanos;
+
+    private MailBoxOptions(int capacity, OverflowPolicy policy, long blockTimeoutNanos) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.blockTimeoutNanos = blockTimeoutNanos;
+    }
+
+    /**
+     * 无界'邮箱'
+     */
+    public static MailBoxOptions unbounded() {
+        return UNBOUNDED;
+    }
+
+    /**
+     * 有界'邮箱'
+     *
+     * @param capacity '邮箱'容量
+     * @param policy   '邮箱'满时的处理策略, 阻塞模式请使用{@link #blocking(int, long, TimeUnit)}
+     */
+    public static MailBoxOptions bounded(int capacity, OverflowPolicy policy) {
+        Preconditions.checkArgument(capacity > 0, "capacity must greater than 0");
+        Preconditions.checkNotNull(policy, "policy is null");
+        Preconditions.checkArgument(policy != OverflowPolicy.BLOCK, "use MailBoxOptions.blocking instead");
+        return new MailBoxOptions(capacity, policy, 0);
+    }
+
+    /**
+     * 有界'邮箱', '邮箱'满时阻塞发送者
+     *
+     * @param capacity '邮箱'容量
+     * @param timeout  发送者最长阻塞时间, 超时则拒绝该消息
+     */
+    public static MailBoxOptions blocking(int capacity, long timeout, TimeUnit unit) {
+        Preconditions.checkArgument(capacity > 0, "capacity must greater than 0");
+        Preconditions.checkArgument(timeout >= 0, "timeout must not be negative");
+        return new MailBoxOptions(capacity, OverflowPolicy.BLOCK, unit.toNanos(timeout));
+    }
+
+    /**
+     * @return 是否有界
+     */
+    public boolean isBounded() {
+        return capacity != Integer.MAX_VALUE;
+    }
+
+    //getter
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    public long getBlockTimeoutNanos() {
+        return blockTimeoutNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "MailBoxOptions{" +
+                "capacity=" + capacity +
+                ", policy=" + policy +
+                ", blockTimeoutNanos=" + blockTimeoutNanos +
+                '}';
+    }
+}
@@ -0,0 +1,52 @@
+package org.kin.framework.concurrent.actor;
+
+/**
+ * '邮箱'统计快照
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public final class MailBoxStats {
+    /** '邮箱'容量, 无界则为{@link Integer#MAX_VALUE} */
+    private final int capacity;
+    /** '邮箱'当前积压的消息数 */
+    private final int size;
+    /** 因'邮箱'满而丢弃的消息数 */
+    private final long dropped;
+    /** 因'邮箱'满而拒绝(包括阻塞超时)的消息数 */
+    private final long rejected;
+
+    public MailBoxStats(int capacity, int size, long dropped, long rejected) {
+        this.capacity = capacity;
+        this.size = size;
+        this.dropped = dropped;
+        this.rejected = rejected;
+    }
+
+    //getter
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getDropped() {
+        return dropped;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    @Override
+    public String toString() {
+        return "MailBoxStats{" +
+                "capacity=" + capacity +
+                ", size=" + size +
+                ", dropped=" + dropped +
+                ", rejected=" + rejected +
+                '}';
+    }
+}
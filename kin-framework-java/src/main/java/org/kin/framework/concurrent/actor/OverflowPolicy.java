@@ -0,0 +1,18 @@
+package org.kin.framework.concurrent.actor;
+
+/**
+ * '邮箱'满时的处理策略
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public enum OverflowPolicy {
+    /** 丢弃新消息, 并通知{@link Receiver#onDrop(Object)} */
+    DROP_NEWEST,
+    /** 丢弃'邮箱'中最旧的消息, 并通知{@link Receiver#onDrop(Object)}, 新消息入队 */
+    DROP_OLDEST,
+    /** 阻塞发送者, 直到'邮箱'有空位或超时 */
+    BLOCK,
+    /** 拒绝新消息, 由发送者根据offerMessage返回值处理 */
+    REJECT
+}
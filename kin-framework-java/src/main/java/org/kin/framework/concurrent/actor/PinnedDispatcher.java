@@ -6,6 +6,7 @@ import org.kin.framework.utils.SysUtils;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * 底层消息处理实现是每个Receiver绑定一条线程, 该线程由一个线程池管理(该线程池可以固定线程数, 也可以无限线程数)
@@ -17,7 +18,7 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class PinnedDispatcher<KEY, MSG> extends AbstractDispatcher<KEY, MSG> {
     /** Receiver数据 */
-    private Map<KEY, PinnedThreadSafeReceiver<MSG>> typeSafeReceivers = new ConcurrentHashMap<>();
+    private Map<KEY, ReceiverHandler<MSG>> typeSafeReceivers = new ConcurrentHashMap<>();
 
     public PinnedDispatcher(int parallelism) {
         this(parallelism, "pinnedDispatcher");
@@ -29,44 +30,51 @@ public class PinnedDispatcher<KEY, MSG> extends AbstractDispatcher<KEY, MSG> {
                 SysUtils.CPU_NUM / 2 + 1, workerNamePrefix.concat("-schedule")));
     }
 
+    /**
+     * @param executionContext 每个Receiver占用其中一条线程, 需保证线程数足够, 否则后注册的Receiver需等待空闲线程
+     */
+    public PinnedDispatcher(ExecutionContext executionContext) {
+        super(executionContext);
+    }
+
     @Override
     protected void doClose() {
-        typeSafeReceivers.keySet().forEach(this::unregister);
+        typeSafeReceivers.keySet().forEach(this::doUnRegister);
     }
 
     @Override
-    protected void doRegister(KEY key, Receiver<MSG> receiver, boolean enableConcurrent) {
+    protected void doRegister(KEY key, Receiver<MSG> receiver, boolean enableConcurrent, MailBoxOptions options) {
         if (enableConcurrent) {
             throw new IllegalArgumentException("pinnedDispatcher doesn't support concurrent");
         }
 
-        if (Objects.nonNull(typeSafeReceivers.putIfAbsent(key, new PinnedThreadSafeReceiver<>(receiver)))) {
+        ReceiverHandler<MSG> handler = new ReceiverHandler<>(executionContext, options, receiver);
+        if (Objects.nonNull(typeSafeReceivers.putIfAbsent(key, handler))) {
+            handler.stop();
             throw new IllegalArgumentException(String.format("%s has registried", key));
         }
 
-        typeSafeReceivers.get(key).onStart();
+        handler.start();
     }
 
     @Override
     protected void doUnRegister(KEY key) {
-        PinnedThreadSafeReceiver<MSG> pinnedThreadSafeReceiver = typeSafeReceivers.remove(key);
-        if (Objects.nonNull(pinnedThreadSafeReceiver)) {
-            pinnedThreadSafeReceiver.onStart();
+        ReceiverHandler<MSG> handler = typeSafeReceivers.remove(key);
+        if (Objects.nonNull(handler)) {
+            handler.close();
         }
     }
 
     @Override
-    protected void doPostMessage(KEY key, MSG message) {
-        PinnedThreadSafeReceiver<MSG> pinnedThreadSafeReceiver = typeSafeReceivers.get(key);
-        if (Objects.nonNull(pinnedThreadSafeReceiver)) {
-            pinnedThreadSafeReceiver.receive(message);
-        }
+    protected boolean doPostMessage(KEY key, MSG message, Reply reply) {
+        ReceiverHandler<MSG> handler = typeSafeReceivers.get(key);
+        return Objects.nonNull(handler) && handler.receive(message, reply);
     }
 
     @Override
     protected void doPost2All(MSG message) {
         for (KEY key : typeSafeReceivers.keySet()) {
-            doPostMessage(key, message);
+            doPostMessage(key, message, null);
         }
     }
 
@@ -75,28 +83,118 @@ public class PinnedDispatcher<KEY, MSG> extends AbstractDispatcher<KEY, MSG> {
         return typeSafeReceivers.containsKey(key);
     }
 
-    private class PinnedThreadSafeReceiver<M> extends Receiver<M> {
-        private PinnedThreadSafeHandler threadSafeHandler;
-        private Receiver<M> proxy;
+    @Override
+    public MailBoxStats mailBoxStats(KEY key) {
+        ReceiverHandler<MSG> handler = typeSafeReceivers.get(key);
+        return Objects.nonNull(handler) ? handler.mailBoxStats() : null;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 绑定Receiver的PinnedThreadSafeHandler
+     */
+    private static class ReceiverHandler<M> extends PinnedMailHandler<ReceiverHandler<M>, M> {
+        private final Receiver<M> proxy;
+        /** 是否已执行{@link Receiver#onStart()}, 仅处理线程访问 */
+        private boolean started;
+
+        private ReceiverHandler(ExecutionContext executionContext, MailBoxOptions options, Receiver<M> proxy) {
+            super(executionContext, options);
+            this.proxy = proxy;
+        }
+
+        private void start() {
+            forceHandle(ReceiverHandler::doStart);
+        }
+
+        /**
+         * 普通消息直接投递, 不封装; ask请求或者消息本身是{@link Message}时才封装
+         */
+        private boolean receive(M mail, Reply reply) {
+            if (Objects.isNull(reply) && !(mail instanceof Message)) {
+                return post(mail);
+            }
+            return handle(new MailMessage<>(mail, reply));
+        }
+
+        @Override
+        void onMail(M mail) {
+            doStart();
+            proxy.receive(mail);
+        }
+
+        @Override
+        void onDropMail(M mail) {
+            proxy.onDrop(mail);
+        }
+
+        /**
+         * 处理完已入队的消息后, 执行{@link Receiver#onStop()}并释放线程
+         */
+        private void close() {
+            forceHandle(handler -> {
+                handler.doStart();
+                handler.proxy.onStop();
+                handler.stop();
+            });
+        }
 
-        private PinnedThreadSafeReceiver(Receiver<M> receiver) {
-            this.threadSafeHandler = new PinnedThreadSafeHandler(PinnedDispatcher.super.executionContext);
-            this.proxy = receiver;
+        /**
+         * start信号可能被丢弃旧消息策略丢弃, 故处理消息前都需检查
+         */
+        private void doStart() {
+            if (!started) {
+                started = true;
+                proxy.onStart();
+            }
         }
 
         @Override
-        public void receive(M mail) {
-            threadSafeHandler.handle(pal -> proxy.receive(mail));
+        protected void onDrop(Message<ReceiverHandler<M>> message) {
+            if (message instanceof MailMessage) {
+                MailMessage<M> mailMessage = (MailMessage<M>) message;
+                if (Objects.nonNull(mailMessage.reply)) {
+                    mailMessage.reply.fail(new RejectedExecutionException("message is dropped because mailbox is full"));
+                }
+                proxy.onDrop(mailMessage.mail);
+            } else {
+                super.onDrop(message);
+            }
+        }
+    }
+
+    /**
+     * 封装ask请求或者本身是{@link Message}的Receiver消息
+     */
+    private static final class MailMessage<M> implements Message<ReceiverHandler<M>> {
+        private final M mail;
+        /** ask请求的回复句柄, 普通消息为null */
+        private final Reply reply;
+
+        private MailMessage(M mail, Reply reply) {
+            this.mail = mail;
+            this.reply = reply;
         }
 
         @Override
-        protected void onStart() {
-            threadSafeHandler.handle(pal -> proxy.onStart());
+        public void handle(ReceiverHandler<M> handler) {
+            handler.doStart();
+            if (Objects.isNull(reply)) {
+                handler.proxy.receive(mail);
+                return;
+            }
+            try {
+                handler.proxy.receive(mail, reply);
+            } catch (Exception e) {
+                reply.fail(e);
+                throw e;
+            }
         }
 
         @Override
-        protected void onStop() {
-            threadSafeHandler.handle(pal -> proxy.onStop());
+        public String toString() {
+            return String.valueOf(mail);
         }
     }
 }
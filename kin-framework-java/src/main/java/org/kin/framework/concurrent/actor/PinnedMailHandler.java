@@ -0,0 +1,35 @@
+package org.kin.framework.concurrent.actor;
+
+import org.kin.framework.concurrent.ExecutionContext;
+
+/**
+ * 支持直接投递消息的{@link PinnedThreadSafeHandler}
+ * 消息不封装成{@link Message}, 入队无需额外分配对象, 由子类实现{@link #onMail(Object)}处理
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+abstract class PinnedMailHandler<TS extends PinnedMailHandler<TS, M>, M> extends PinnedThreadSafeHandler<TS> {
+    PinnedMailHandler(ExecutionContext executionContext, MailBoxOptions options) {
+        super(executionContext, options);
+    }
+
+    /**
+     * 直接投递消息, 投递的消息不能是{@link Message}实例
+     *
+     * @return 消息是否入队, 已关闭或'邮箱'已满时返回false
+     */
+    boolean post(M mail) {
+        return enqueue(mail);
+    }
+
+    /**
+     * 处理{@link #post(Object)}直接投递的消息
+     */
+    abstract void onMail(M mail);
+
+    /**
+     * {@link #post(Object)}直接投递的消息被丢弃, 在发送者线程执行
+     */
+    abstract void onDropMail(M mail);
+}
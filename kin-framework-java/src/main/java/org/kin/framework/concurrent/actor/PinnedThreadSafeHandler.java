@@ -1,12 +1,14 @@
 package org.kin.framework.concurrent.actor;
 
 import org.kin.framework.concurrent.ExecutionContext;
+import org.kin.framework.concurrent.MpscChunkedQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Objects;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -22,9 +24,14 @@ public class PinnedThreadSafeHandler<TS extends PinnedThreadSafeHandler<TS>> imp
 
     /** 线程池 */
     private final ExecutionContext executionContext;
-    /** 消息队列 */
-    private final Queue<Message<TS>> inBox = new LinkedBlockingQueue<>();
-    /** 消息数量 */
+    /**
+     * 消息队列, 元素为{@link Message}, {@link PinnedMailHandler}直接投递的消息或者内部信号
+     * 同一时刻仅一条线程取消息, 不需要发送者丢弃旧消息时, 使用mpsc数组块队列, 入队无需分配节点
+     */
+    private final Queue<Object> inBox;
+    /** 容量控制 */
+    private final MailBoxLimiter limiter;
+    /** 待处理的消息数量, 包括被丢弃但还未被处理线程感知的消息 */
     private final AtomicInteger boxSize = new AtomicInteger();
     /** 当前占用线程 */
     private volatile Thread currentThread;
@@ -32,26 +39,96 @@ public class PinnedThreadSafeHandler<TS extends PinnedThreadSafeHandler<TS>> imp
     private volatile boolean isStopped = false;
 
     public PinnedThreadSafeHandler(ExecutionContext executionContext) {
+        this(executionContext, MailBoxOptions.unbounded());
+    }
+
+    public PinnedThreadSafeHandler(ExecutionContext executionContext, MailBoxOptions options) {
         this.executionContext = executionContext;
+        this.limiter = new MailBoxLimiter(options);
+        if (options.getPolicy() == OverflowPolicy.DROP_OLDEST) {
+            this.inBox = new ConcurrentLinkedQueue<>();
+        } else {
+            this.inBox = new MpscChunkedQueue<>();
+        }
         PinnedThreadSafeFuturesManager.instance().register(this);
     }
 
     /**
      * 处理消息
+     *
+     * @return 消息是否入队, 已关闭或'邮箱'已满时返回false
+     */
+    public boolean handle(Message<TS> message) {
+        return enqueue(message);
+    }
+
+    /**
+     * 消息入队, 非{@link Message}的消息只能由{@link PinnedMailHandler}投递
+     *
+     * @return 消息是否入队, 已关闭或'邮箱'已满时返回false
+     */
+    boolean enqueue(Object element) {
+        if (isStopped) {
+            return false;
+        }
+        if (!limiter.acquire(this::dropOldest)) {
+            if (limiter.getOptions().getPolicy() == OverflowPolicy.DROP_NEWEST) {
+                notifyDrop(element);
+            }
+            return false;
+        }
+        inBox.add(element);
+        tryRun();
+        return true;
+    }
+
+    /**
+     * 处理内部信号, 不占用'邮箱'容量
      */
-    public void handle(Message<TS> message) {
+    void forceHandle(Message<TS> message) {
         if (!isStopped) {
-            inBox.add(message);
+            inBox.add(new Signal<>(message));
             tryRun();
         }
     }
 
+    /**
+     * 丢弃最旧的消息, 丢弃的是内部信号则不释放位置
+     * 不修改{@link #boxSize}, 由处理线程取不到消息时扣减
+     */
+    private boolean dropOldest() {
+        Object element = inBox.poll();
+        if (Objects.isNull(element)) {
+            return false;
+        }
+        if (element instanceof Signal) {
+            element = ((Signal<?>) element).message;
+        } else {
+            limiter.markDropped();
+        }
+        notifyDrop(element);
+        return true;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void notifyDrop(Object element) {
+        try {
+            if (element instanceof Message) {
+                onDrop((Message<TS>) element);
+            } else {
+                ((PinnedMailHandler) this).onDropMail(element);
+            }
+        } catch (Exception e) {
+            log.error("", e);
+        }
+    }
+
     /**
      * 调度处理消息
      */
     public Future<?> schedule(Message<TS> message, long delay, TimeUnit unit) {
         if (!isStopped) {
-            Future future = executionContext.schedule(() -> handle(message), delay, unit);
+            Future<?> future = executionContext.schedule(() -> handle(message), delay, unit);
             PinnedThreadSafeFuturesManager.instance().addFuture(this, future);
             return future;
         }
@@ -63,7 +140,7 @@ public class PinnedThreadSafeHandler<TS extends PinnedThreadSafeHandler<TS>> imp
      */
     public Future<?> scheduleAtFixedRate(Message<TS> message, long initialDelay, long period, TimeUnit unit) {
         if (!isStopped) {
-            Future future = executionContext.scheduleAtFixedRate(() -> handle(message), initialDelay, period, unit);
+            Future<?> future = executionContext.scheduleAtFixedRate(() -> handle(message), initialDelay, period, unit);
             PinnedThreadSafeFuturesManager.instance().addFuture(this, future);
             return future;
         }
@@ -84,14 +161,21 @@ public class PinnedThreadSafeHandler<TS extends PinnedThreadSafeHandler<TS>> imp
     public void run() {
         this.currentThread = Thread.currentThread();
         while (!isStopped && !this.currentThread.isInterrupted()) {
-            Message<TS> message = inBox.poll();
+            Object message = inBox.poll();
             if (message == null) {
-                break;
+                //boxSize > 0但队列为空, 说明消息已被发送者丢弃
+                if (boxSize.decrementAndGet() <= 0) {
+                    break;
+                }
+                continue;
+            }
+            if (!(message instanceof Signal)) {
+                limiter.release();
             }
 
             long st = System.currentTimeMillis();
             try {
-                message.handle((TS) this);
+                handleElement(message);
             } catch (Exception e) {
                 log.error("", e);
             }
@@ -108,6 +192,20 @@ public class PinnedThreadSafeHandler<TS extends PinnedThreadSafeHandler<TS>> imp
         this.currentThread = null;
     }
 
+    /**
+     * 处理队列元素, {@link Message}或者{@link PinnedMailHandler}直接投递的消息
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void handleElement(Object element) {
+        if (element instanceof Signal) {
+            ((Signal<TS>) element).message.handle((TS) this);
+        } else if (element instanceof Message) {
+            ((Message<TS>) element).handle((TS) this);
+        } else {
+            ((PinnedMailHandler) this).onMail(element);
+        }
+    }
+
     /**
      * 尝试绑定线程, 并执行消息处理
      */
@@ -123,4 +221,33 @@ public class PinnedThreadSafeHandler<TS extends PinnedThreadSafeHandler<TS>> imp
     protected int getWarnMsgCostTime() {
         return 200;
     }
+
+    /**
+     * 有界'邮箱'满时, 消息被丢弃, 在发送者线程执行
+     *
+     * @param message 被丢弃的消息
+     */
+    protected void onDrop(Message<TS> message) {
+        log.warn("mailbox is full, drop mail({})", message);
+    }
+
+    /**
+     * @return '邮箱'统计快照
+     */
+    public MailBoxStats mailBoxStats() {
+        return limiter.stats();
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 内部信号, 不计入'邮箱'积压消息数
+     */
+    private static final class Signal<TS extends PinnedThreadSafeHandler<TS>> {
+        private final Message<TS> message;
+
+        private Signal(Message<TS> message) {
+            this.message = message;
+        }
+    }
 }
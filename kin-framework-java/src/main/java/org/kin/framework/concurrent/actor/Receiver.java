@@ -14,6 +14,18 @@ public abstract class Receiver<MSG> {
      */
     public abstract void receive(MSG mail);
 
+    /**
+     * 接受并处理ask请求
+     * 默认处理完消息后回复null, 需要回复结果的Receiver重写该方法
+     *
+     * @param mail  消息实现
+     * @param reply 回复句柄, 可以在其他线程回复
+     */
+    public void receive(MSG mail, Reply reply) {
+        receive(mail);
+        reply.reply(null);
+    }
+
     /**
      * Receiver初始化
      */
@@ -25,4 +37,12 @@ public abstract class Receiver<MSG> {
      */
     protected void onStop() {
     }
+
+    /**
+     * 有界'邮箱'满时, 消息被丢弃, 在发送者线程执行
+     *
+     * @param mail 被丢弃的消息
+     */
+    protected void onDrop(MSG mail) {
+    }
 }
@@ -0,0 +1,24 @@
+package org.kin.framework.concurrent.actor;
+
+/**
+ * ask请求的回复句柄, 见{@link Dispatcher#ask(Object, Object, long, java.util.concurrent.TimeUnit)}
+ * 仅第一次回复有效, 超时后回复会被忽略
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public interface Reply {
+    /**
+     * 回复结果
+     *
+     * @param result 结果
+     */
+    void reply(Object result);
+
+    /**
+     * 回复异常
+     *
+     * @param cause 异常
+     */
+    void fail(Throwable cause);
+}
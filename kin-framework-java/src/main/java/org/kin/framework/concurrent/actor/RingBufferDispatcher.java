@@ -0,0 +1,144 @@
+package org.kin.framework.concurrent.actor;
+
+import com.google.common.base.Preconditions;
+import org.kin.framework.concurrent.ExecutionContext;
+import org.kin.framework.utils.SysUtils;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 固定分区的Dispatcher, KEY为分区id, 取值范围[0, partitionNum)
+ * 每个分区一个预分配的环形'邮箱'(多生产者单消费者)和一条专属消费线程, 消费线程常驻, 不会让出
+ * 生产者CAS申请槽位, 没有map查找, 消息封装与线程池重新提交, 同一分区的消息严格按入队顺序处理
+ * 分区数即消费线程数, 且消费线程不能阻塞太久, 否则该分区的消息会积压
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class RingBufferDispatcher<MSG> extends AbstractDispatcher<Integer, MSG> {
+    /** 默认环形'邮箱'容量 */
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    /** 分区数 */
+    private final int partitionNum;
+    /** 无界'邮箱'配置下的环形'邮箱'容量, 满时生产者等待 */
+    private final int bufferSize;
+    /** 等待策略 */
+    private final WaitStrategy waitStrategy;
+    /** 分区'邮箱', 下标即分区id */
+    private final AtomicReferenceArray<RingMailBox<MSG>> mailBoxes;
+
+    public RingBufferDispatcher(int partitionNum, String workerNamePrefix) {
+        this(partitionNum, workerNamePrefix, DEFAULT_BUFFER_SIZE, WaitStrategy.PARK);
+    }
+
+    /**
+     * @param bufferSize   无界'邮箱'配置下的环形'邮箱'容量, 向上取整为2的幂
+     * @param waitStrategy 消费线程等待策略
+     */
+    public RingBufferDispatcher(int partitionNum, String workerNamePrefix, int bufferSize, WaitStrategy waitStrategy) {
+        super(ExecutionContext.fix(partitionNum, workerNamePrefix, SysUtils.CPU_NUM / 2 + 1, workerNamePrefix.concat("-schedule")));
+        Preconditions.checkArgument(partitionNum > 0, "partitionNum must greater than 0");
+        Preconditions.checkArgument(bufferSize > 0, "bufferSize must greater than 0");
+        Preconditions.checkNotNull(waitStrategy, "waitStrategy is null");
+        this.partitionNum = partitionNum;
+        this.bufferSize = ceilingPowerOfTwo(bufferSize);
+        this.waitStrategy = waitStrategy;
+        this.mailBoxes = new AtomicReferenceArray<>(partitionNum);
+    }
+
+    /**
+     * @return 不小于{@code value}的2的幂
+     */
+    private static int ceilingPowerOfTwo(int value) {
+        Preconditions.checkArgument(value <= 1 << 30, "buffer size is too large");
+        return value == 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    @Override
+    protected void doClose() {
+        for (int i = 0; i < partitionNum; i++) {
+            doUnRegister(i);
+        }
+    }
+
+    /**
+     * 有界'邮箱'配置的容量向上取整为2的幂, 不支持{@link OverflowPolicy#DROP_OLDEST}
+     */
+    @Override
+    protected void doRegister(Integer key, Receiver<MSG> receiver, boolean enableConcurrent, MailBoxOptions options) {
+        if (enableConcurrent) {
+            throw new IllegalArgumentException("ringBufferDispatcher doesn't support concurrent");
+        }
+        checkPartition(key);
+        int capacity = bufferSize;
+        if (options.isBounded()) {
+            Preconditions.checkArgument(options.getPolicy() != OverflowPolicy.DROP_OLDEST,
+                    "ringBufferDispatcher doesn't support drop oldest");
+            capacity = ceilingPowerOfTwo(options.getCapacity());
+        }
+
+        RingMailBox<MSG> mailBox = new RingMailBox<>(receiver, waitStrategy, options, capacity);
+        if (!mailBoxes.compareAndSet(key, null, mailBox)) {
+            throw new IllegalArgumentException(String.format("%s has registried", key));
+        }
+        executionContext.execute(mailBox);
+    }
+
+    @Override
+    protected void doUnRegister(Integer key) {
+        RingMailBox<MSG> mailBox = mailBoxes.getAndSet(key, null);
+        if (Objects.nonNull(mailBox)) {
+            mailBox.close();
+        }
+    }
+
+    @Override
+    protected boolean doPostMessage(Integer key, MSG message, Reply reply) {
+        RingMailBox<MSG> mailBox = mailBox(key);
+        return Objects.nonNull(mailBox) && mailBox.post(message, reply);
+    }
+
+    @Override
+    protected void doPost2All(MSG message) {
+        for (int i = 0; i < partitionNum; i++) {
+            doPostMessage(i, message, null);
+        }
+    }
+
+    @Override
+    public boolean isRegistered(Integer key) {
+        return Objects.nonNull(mailBox(key));
+    }
+
+    @Override
+    public MailBoxStats mailBoxStats(Integer key) {
+        RingMailBox<MSG> mailBox = mailBox(key);
+        return Objects.nonNull(mailBox) ? mailBox.stats() : null;
+    }
+
+    /**
+     * @return 分区'邮箱', 分区未注册或者分区id越界则返回null
+     */
+    private RingMailBox<MSG> mailBox(Integer key) {
+        if (Objects.isNull(key) || key < 0 || key >= partitionNum) {
+            return null;
+        }
+        return mailBoxes.get(key);
+    }
+
+    private void checkPartition(Integer key) {
+        Preconditions.checkArgument(Objects.nonNull(key) && key >= 0 && key < partitionNum,
+                "partition id must be in [0, %s), but %s", partitionNum, key);
+    }
+
+    //getter
+    public int getPartitionNum() {
+        return partitionNum;
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+}
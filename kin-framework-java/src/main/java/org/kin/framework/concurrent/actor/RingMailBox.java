@@ -0,0 +1,387 @@
+package org.kin.framework.concurrent.actor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 基于预分配环形数组的'邮箱', 多生产者单消费者
+ * 生产者CAS申请序号, 写入槽位后发布, 消费者按序号顺序处理, 由一条专属线程执行{@link #run()}
+ * 普通消息直接写入槽位, 不额外封装; 仅ask请求需要封装回复句柄
+ * 消费线程向自身投递消息时, 若'邮箱'已满, 不能等待(否则死锁), 无界配置下暂存到溢出队列, 待有空闲槽位时再写入
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+final class RingMailBox<MSG> implements Runnable {
+    private static final Logger log = LoggerFactory.getLogger(RingMailBox.class);
+    /** 原子更新下一个待申请的序号 */
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<RingMailBox> CLAIMED_UPDATER =
+            AtomicLongFieldUpdater.newUpdater(RingMailBox.class, "claimed");
+    /** 原子更新下一个待处理的序号 */
+    @SuppressWarnings("rawtypes")
+    private static final AtomicLongFieldUpdater<RingMailBox> CONSUMED_UPDATER =
+            AtomicLongFieldUpdater.newUpdater(RingMailBox.class, "consumed");
+    /** 原子更新消费线程是否park */
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<RingMailBox> PARKED_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(RingMailBox.class, "parked");
+    /** 申请序号结果, '邮箱'已关闭 */
+    private static final long CLAIM_CLOSED = -1;
+    /** 申请序号结果, '邮箱'已满 */
+    private static final long CLAIM_FULL = -2;
+    /** 申请序号结果, 消费线程自身投递且'邮箱'已满, 需暂存到溢出队列 */
+    private static final long CLAIM_SPILL = -3;
+
+    /** 与'邮箱'绑定的Receiver */
+    private final Receiver<MSG> receiver;
+    /** 等待策略 */
+    private final WaitStrategy waitStrategy;
+    /** '邮箱'配置, 无界配置下'邮箱'满时生产者等待 */
+    private final MailBoxOptions options;
+    /** 环形数组容量, 2的幂 */
+    private final int capacity;
+    private final int mask;
+    /** 槽位, 元素为消息本身或者{@link AskMail} */
+    private final Object[] entries;
+    /** 槽位已发布的序号, 等于待处理序号时, 槽位数据才可读 */
+    private final AtomicLongArray published;
+    /**
+     * 下一个待申请的序号
+     * 负数表示'邮箱'已关闭, 取反即关闭时的序号, 此后不能再申请
+     */
+    private volatile long claimed;
+    /** 下一个待处理的序号, 仅消费线程更新 */
+    private volatile long consumed;
+    /** 消费线程是否已park或准备park, 1表示是 */
+    private volatile int parked;
+    /** 消费线程 */
+    private volatile Thread consumer;
+    /** 溢出队列, 暂存消费线程自身投递但'邮箱'已满的消息, 仅消费线程访问 */
+    private final ArrayDeque<Object> overflow = new ArrayDeque<>();
+
+    //统计
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param capacity 环形数组容量, 2的幂
+     */
+    RingMailBox(Receiver<MSG> receiver, WaitStrategy waitStrategy, MailBoxOptions options, int capacity) {
+        this.receiver = receiver;
+        this.waitStrategy = waitStrategy;
+        this.options = options;
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.entries = new Object[capacity];
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.lazySet(i, -1);
+        }
+    }
+
+    /**
+     * 消息入队
+     *
+     * @param reply ask请求的回复句柄, 普通消息为null
+     * @return 消息是否入队
+     */
+    boolean post(MSG message, Reply reply) {
+        Object element = Objects.isNull(reply) ? message : new AskMail<>(message, reply);
+        if (Thread.currentThread() == consumer && !overflow.isEmpty()) {
+            //溢出队列非空时, 消费线程投递的消息也进入溢出队列, 保证顺序
+            return spill(element);
+        }
+
+        long sequence = claim(element);
+        if (sequence == CLAIM_SPILL) {
+            return spill(element);
+        }
+        if (sequence < 0) {
+            return false;
+        }
+
+        publish(sequence, element);
+        return true;
+    }
+
+    /**
+     * 写入槽位并发布
+     */
+    private void publish(long sequence, Object element) {
+        int index = (int) sequence & mask;
+        entries[index] = element;
+        if (waitStrategy == WaitStrategy.PARK) {
+            //volatile写, 保证先发布再检查park标识
+            published.set(index, sequence);
+            if (parked == 1 && PARKED_UPDATER.compareAndSet(this, 1, 0)) {
+                LockSupport.unpark(consumer);
+            }
+        } else {
+            published.lazySet(index, sequence);
+        }
+    }
+
+    /**
+     * 暂存到溢出队列, 仅消费线程调用
+     *
+     * @return 消息是否入队
+     */
+    private boolean spill(Object element) {
+        if (claimed < 0) {
+            return false;
+        }
+        overflow.add(element);
+        return true;
+    }
+
+    /**
+     * 将溢出队列中的消息写入空闲槽位, 仅消费线程调用
+     */
+    private void refill() {
+        Object element;
+        while (Objects.nonNull(element = overflow.peek())) {
+            long sequence = tryClaim();
+            if (sequence < 0) {
+                return;
+            }
+            overflow.poll();
+            publish(sequence, element);
+        }
+    }
+
+    /**
+     * 申请序号, '邮箱'满时根据{@link OverflowPolicy}处理
+     *
+     * @return 序号, 小于0表示消息未入队
+     */
+    private long claim(Object element) {
+        long deadline = 0;
+        for (; ; ) {
+            long sequence = tryClaim();
+            if (sequence != CLAIM_FULL) {
+                return sequence;
+            }
+
+            if (Thread.currentThread() == consumer) {
+                //消费线程向自身投递, 等待消费者腾出槽位会死锁
+                if (!options.isBounded()) {
+                    return CLAIM_SPILL;
+                }
+                if (options.getPolicy() == OverflowPolicy.BLOCK) {
+                    rejected.increment();
+                    return CLAIM_FULL;
+                }
+            }
+            if (!options.isBounded()) {
+                //无界配置, 等待消费者腾出槽位
+                LockSupport.parkNanos(1);
+                continue;
+            }
+            switch (options.getPolicy()) {
+                case BLOCK:
+                    long now = System.nanoTime();
+                    if (deadline == 0) {
+                        deadline = now + options.getBlockTimeoutNanos();
+                    }
+                    if (now - deadline < 0) {
+                        LockSupport.parkNanos(1);
+                        continue;
+                    }
+                    rejected.increment();
+                    return CLAIM_FULL;
+                case DROP_NEWEST:
+                    dropped.increment();
+                    notifyDrop(element);
+                    return CLAIM_FULL;
+                default:
+                    rejected.increment();
+                    return CLAIM_FULL;
+            }
+        }
+    }
+
+    /**
+     * @return 序号, 或者{@link #CLAIM_CLOSED}, {@link #CLAIM_FULL}
+     */
+    private long tryClaim() {
+        for (; ; ) {
+            long current = claimed;
+            if (current < 0) {
+                return CLAIM_CLOSED;
+            }
+            if (current - consumed >= capacity) {
+                return CLAIM_FULL;
+            }
+            if (CLAIMED_UPDATER.compareAndSet(this, current, current + 1)) {
+                return current;
+            }
+        }
+    }
+
+    /**
+     * 通知Receiver消息被丢弃, ask请求则回复异常
+     */
+    @SuppressWarnings("unchecked")
+    private void notifyDrop(Object element) {
+        MSG message;
+        if (element instanceof AskMail) {
+            AskMail<MSG> askMail = (AskMail<MSG>) element;
+            askMail.reply.fail(new RejectedExecutionException("message is dropped because mailbox is full"));
+            message = askMail.message;
+        } else {
+            message = (MSG) element;
+        }
+        try {
+            receiver.onDrop(message);
+        } catch (Throwable e) {
+            log.error("", e);
+        }
+    }
+
+    /**
+     * 消费线程逻辑, 处理完关闭前已入队的消息后, 执行{@link Receiver#onStop()}并退出
+     */
+    @Override
+    public void run() {
+        consumer = Thread.currentThread();
+        try {
+            receiver.onStart();
+        } catch (Throwable e) {
+            log.error("", e);
+        }
+
+        long next = consumed;
+        int idle = 0;
+        for (; ; ) {
+            if (!overflow.isEmpty()) {
+                refill();
+            }
+            int index = (int) next & mask;
+            if (published.get(index) == next) {
+                Object element = entries[index];
+                entries[index] = null;
+                next++;
+                //先释放槽位再处理, 减少生产者等待
+                CONSUMED_UPDATER.lazySet(this, next);
+                handle(element);
+                idle = 0;
+            } else {
+                long claimed = this.claimed;
+                if (claimed < 0 && next == ~claimed) {
+                    //'邮箱'已关闭, 溢出队列中的消息也是关闭前入队的
+                    Object element;
+                    while (Objects.nonNull(element = overflow.poll())) {
+                        handle(element);
+                    }
+                    break;
+                }
+                idle = waitStrategy.idle(this, idle);
+            }
+        }
+
+        try {
+            receiver.onStop();
+        } catch (Throwable e) {
+            log.error("", e);
+        }
+    }
+
+    /**
+     * 处理单条消息, 捕获所有异常(包括Error), 否则消费线程退出, 后续消息无人处理
+     */
+    @SuppressWarnings("unchecked")
+    private void handle(Object element) {
+        Reply reply = null;
+        try {
+            if (element instanceof AskMail) {
+                AskMail<MSG> askMail = (AskMail<MSG>) element;
+                reply = askMail.reply;
+                receiver.receive(askMail.message, reply);
+            } else {
+                receiver.receive((MSG) element);
+            }
+        } catch (Throwable e) {
+            log.error("", e);
+            if (Objects.nonNull(reply)) {
+                reply.fail(e);
+            }
+        }
+    }
+
+    /**
+     * 消费线程park, 先标记park再检查槽位, 保证生产者能看到park标识
+     */
+    void park() {
+        PARKED_UPDATER.set(this, 1);
+        try {
+            if (published.get((int) consumed & mask) == consumed || claimed < 0) {
+                return;
+            }
+            LockSupport.park(this);
+        } finally {
+            PARKED_UPDATER.set(this, 0);
+        }
+    }
+
+    /**
+     * 关闭'邮箱', 此后不再接收消息, 消费线程处理完已入队的消息后退出
+     */
+    void close() {
+        for (; ; ) {
+            long current = claimed;
+            if (current < 0) {
+                return;
+            }
+            if (CLAIMED_UPDATER.compareAndSet(this, current, ~current)) {
+                break;
+            }
+        }
+        Thread consumer = this.consumer;
+        if (Objects.nonNull(consumer)) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * @return 统计快照
+     */
+    MailBoxStats stats() {
+        long claimed = this.claimed;
+        if (claimed < 0) {
+            claimed = ~claimed;
+        }
+        int size = (int) Math.max(0, claimed - consumed);
+        return new MailBoxStats(capacity, size, dropped.sum(), rejected.sum());
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 封装ask请求
+     */
+    private static final class AskMail<M> {
+        private final M message;
+        /** ask请求的回复句柄 */
+        private final Reply reply;
+
+        private AskMail(M message, Reply reply) {
+            this.message = message;
+            this.reply = reply;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(message);
+        }
+    }
+}
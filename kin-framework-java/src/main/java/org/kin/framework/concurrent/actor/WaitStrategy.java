@@ -0,0 +1,56 @@
+package org.kin.framework.concurrent.actor;
+
+/**
+ * {@link RingBufferDispatcher}消费线程无消息时的等待策略
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public enum WaitStrategy {
+    /** 忙等, 延迟最低, 但消费线程始终占用一个cpu */
+    BUSY_SPIN {
+        @Override
+        int idle(RingMailBox<?> mailBox, int counter) {
+            return counter + 1;
+        }
+    },
+    /** 自旋一段时间后{@link Thread#yield()}, 延迟较低, 空闲时仍占用cpu */
+    YIELD {
+        @Override
+        int idle(RingMailBox<?> mailBox, int counter) {
+            if (counter < SPIN_TRIES) {
+                return counter + 1;
+            }
+            Thread.yield();
+            return counter;
+        }
+    },
+    /** 自旋, yield后park, 由生产者唤醒, 空闲时不占用cpu, 但唤醒有额外延迟 */
+    PARK {
+        @Override
+        int idle(RingMailBox<?> mailBox, int counter) {
+            if (counter < SPIN_TRIES) {
+                return counter + 1;
+            }
+            if (counter < SPIN_TRIES + YIELD_TRIES) {
+                Thread.yield();
+                return counter + 1;
+            }
+            mailBox.park();
+            return counter;
+        }
+    };
+
+    /** 自旋次数 */
+    private static final int SPIN_TRIES = 100;
+    /** {@link #PARK}模式下, park前yield次数 */
+    private static final int YIELD_TRIES = 100;
+
+    /**
+     * 消费线程无消息时调用
+     *
+     * @param counter 连续空闲次数, 有消息时重置为0
+     * @return 新的连续空闲次数
+     */
+    abstract int idle(RingMailBox<?> mailBox, int counter);
+}
@@ -3,11 +3,17 @@ package org.kin.framework.concurrent.partition;
 import com.google.common.base.Preconditions;
 import org.kin.framework.concurrent.ExecutionContext;
 import org.kin.framework.concurrent.actor.Dispatcher;
+import org.kin.framework.concurrent.actor.MailBoxOptions;
+import org.kin.framework.concurrent.actor.MailBoxStats;
 import org.kin.framework.concurrent.actor.PinnedDispatcher;
 import org.kin.framework.concurrent.actor.Receiver;
+import org.kin.framework.concurrent.actor.RingBufferDispatcher;
+import org.kin.framework.concurrent.actor.WaitStrategy;
 
-import java.util.HashSet;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -16,15 +22,21 @@ import java.util.concurrent.TimeUnit;
  * <p>
  * 有限分区Dispatcher
  * 利用Message的某种属性将Message分区,从而达到同一类的Message按顺序在同一线程执行
+ * 默认底层是{@link PinnedDispatcher}, 指定{@link WaitStrategy}则使用{@link RingBufferDispatcher}, 每个分区一条常驻线程
  */
 public abstract class PartitionDispatcher<KEY, MSG> implements Dispatcher<KEY, MSG> {
+    /** 底层分区Dispatcher, {@link PinnedDispatcher}或者{@link RingBufferDispatcher} */
     protected Dispatcher<Integer, MSG> pinnedDispatcher;
     /** 分区数 */
     protected final int partitionNum;
     /** 分区算法 */
     protected final Partitioner<KEY> partitioner;
-    /** 已注册的key */
+    /** 分区线程名前缀 */
+    protected final String workerNamePrefix;
+    /** 已注册的分区id */
     private final Set<Integer> registeredKeies;
+    /** 分区'邮箱'配置 */
+    private final MailBoxOptions mailBoxOptions;
 
     public PartitionDispatcher() {
         this(5);
@@ -39,46 +51,83 @@ public abstract class PartitionDispatcher<KEY, MSG> implements Dispatcher<KEY, M
     }
 
     public PartitionDispatcher(int partitionNum, Partitioner<KEY> partitioner, String workerNamePrefix) {
+        this(partitionNum, partitioner, workerNamePrefix, MailBoxOptions.unbounded());
+    }
+
+    /**
+     * @param mailBoxOptions 分区'邮箱'配置
+     */
+    public PartitionDispatcher(int partitionNum, Partitioner<KEY> partitioner, String workerNamePrefix, MailBoxOptions mailBoxOptions) {
+        this(partitionNum, partitioner, workerNamePrefix, mailBoxOptions, null);
+    }
+
+    /**
+     * @param mailBoxOptions 分区'邮箱'配置, 环形'邮箱'模式下, 无界配置的容量为{@link RingBufferDispatcher#DEFAULT_BUFFER_SIZE}, 满时生产者等待
+     * @param waitStrategy   不为null, 则使用环形'邮箱'模式, 即{@link RingBufferDispatcher}
+     */
+    public PartitionDispatcher(int partitionNum, Partitioner<KEY> partitioner, String workerNamePrefix, MailBoxOptions mailBoxOptions, WaitStrategy waitStrategy) {
         Preconditions.checkArgument(partitionNum > 0, "partitionNum field must be greater then 0");
+        Preconditions.checkNotNull(mailBoxOptions, "mailbox options is null");
 
-        this.pinnedDispatcher = new PinnedDispatcher<>(partitionNum, workerNamePrefix);
+        if (Objects.isNull(waitStrategy)) {
+            this.pinnedDispatcher = new PinnedDispatcher<>(partitionNum, workerNamePrefix);
+        } else {
+            this.pinnedDispatcher = new RingBufferDispatcher<>(partitionNum, workerNamePrefix, RingBufferDispatcher.DEFAULT_BUFFER_SIZE, waitStrategy);
+        }
         this.partitionNum = partitionNum;
         this.partitioner = partitioner;
-        this.registeredKeies = new HashSet<>();
+        this.workerNamePrefix = workerNamePrefix;
+        this.registeredKeies = ConcurrentHashMap.newKeySet();
+        this.mailBoxOptions = mailBoxOptions;
     }
 
     //------------------------------------------------------------------------------------------------------------------
     @Override
     public final void register(KEY key, Receiver<MSG> receiver, boolean enableConcurrent) {
-        int realKey = getRealKey(key);
-        if (registeredKeies.size() != partitionNum) {
-            //保证每个分区仅仅注册一次
-            synchronized (registeredKeies) {
-                if (registeredKeies.size() != partitionNum && registeredKeies.add(realKey)) {
-                    pinnedDispatcher.register(realKey, receiver(), false);
-                }
-            }
-        }
+        register(key, receiver, enableConcurrent, mailBoxOptions);
+    }
+
+    /**
+     * 仅首次注册该分区时, {@code options}才生效
+     */
+    @Override
+    public final void register(KEY key, Receiver<MSG> receiver, boolean enableConcurrent, MailBoxOptions options) {
+        registerPartition(partition(key), options);
     }
 
     @Override
     public final void unregister(KEY key) {
-        int realKey = getRealKey(key);
+        int realKey = partition(key);
         if (registeredKeies.contains(realKey)) {
-            pinnedDispatcher.unregister(realKey);
+            dispatcher(realKey).unregister(realKey);
         }
     }
 
     @Override
     public boolean isRegistered(KEY key) {
-        int realKey = getRealKey(key);
-        return pinnedDispatcher.isRegistered(realKey);
+        int realKey = partition(key);
+        return dispatcher(realKey).isRegistered(realKey);
     }
 
     @Override
     public final void postMessage(KEY key, MSG message) {
-        register(key, null, false);
-        pinnedDispatcher.postMessage(getRealKey(key), message);
+        dispatch(key, message);
+    }
+
+    @Override
+    public final boolean offerMessage(KEY key, MSG message) {
+        return dispatch(key, message);
+    }
+
+    @Override
+    public <R> CompletableFuture<R> ask(KEY key, MSG message, long timeout, TimeUnit unit) {
+        return ask2Partition(partition(key), message, timeout, unit);
+    }
+
+    @Override
+    public MailBoxStats mailBoxStats(KEY key) {
+        int realKey = partition(key);
+        return dispatcher(realKey).mailBoxStats(realKey);
     }
 
     @Override
@@ -126,10 +175,66 @@ public abstract class PartitionDispatcher<KEY, MSG> implements Dispatcher<KEY, M
     /**
      * 根据分区算法计算分区id
      */
-    private int getRealKey(KEY key) {
+    protected int partition(KEY key) {
         return partitioner.toPartition(key, partitionNum);
     }
 
+    /**
+     * @return 指定分区所在的底层Dispatcher, 默认所有分区都在{@link #pinnedDispatcher}
+     */
+    protected Dispatcher<Integer, MSG> dispatcher(int partition) {
+        return pinnedDispatcher;
+    }
+
+    /**
+     * 推送消息到key所在分区
+     */
+    protected boolean dispatch(KEY key, MSG message) {
+        return postMessage2Partition(partition(key), message);
+    }
+
+    /**
+     * 推送消息到指定分区, 分区未注册则先注册
+     */
+    protected final boolean postMessage2Partition(int partition, MSG message) {
+        registerPartition(partition, mailBoxOptions);
+        return dispatcher(partition).offerMessage(partition, message);
+    }
+
+    /**
+     * 往指定分区发送ask请求, 分区未注册则先注册
+     */
+    protected final <R> CompletableFuture<R> ask2Partition(int partition, MSG message, long timeout, TimeUnit unit) {
+        registerPartition(partition, mailBoxOptions);
+        return dispatcher(partition).ask(partition, message, timeout, unit);
+    }
+
+    /**
+     * 注册分区, 仅首次注册该分区时, {@code options}才生效
+     */
+    protected final void registerPartition(int partition, MailBoxOptions options) {
+        if (!registeredKeies.contains(partition)) {
+            //保证每个分区仅仅注册一次, 注册成功后才对其他线程可见
+            synchronized (registeredKeies) {
+                if (!registeredKeies.contains(partition)) {
+                    dispatcher(partition).register(partition, receiver(), false, options);
+                    registeredKeies.add(partition);
+                }
+            }
+        }
+    }
+
+    /**
+     * 注销分区, 分区处理完已入队的消息后释放线程
+     */
+    protected final void unregisterPartition(int partition) {
+        synchronized (registeredKeies) {
+            if (registeredKeies.remove(partition)) {
+                dispatcher(partition).unregister(partition);
+            }
+        }
+    }
+
     /**
      * 给特定分区id注册Receiver
      */
@@ -1,8 +1,25 @@
 package org.kin.framework.concurrent.partition;
 
+import com.google.common.base.Preconditions;
+import org.kin.framework.concurrent.ExecutionContext;
+import org.kin.framework.concurrent.actor.Dispatcher;
+import org.kin.framework.concurrent.actor.MailBoxOptions;
+import org.kin.framework.concurrent.actor.MailBoxStats;
+import org.kin.framework.concurrent.actor.PinnedDispatcher;
 import org.kin.framework.concurrent.actor.Receiver;
+import org.kin.framework.concurrent.actor.WaitStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * @author huangjianqin
@@ -10,8 +27,44 @@ import java.util.concurrent.*;
  *
  * 利用Message的某种属性将Message分区,从而达到同一类的Message按顺序在同一线程执行
  * 仅仅处理Runnable或者Callable, 不区分不同的Receiver实例
+ * <p>
+ * 支持运行时重新分区, 且保证同一key的task顺序执行:
+ * key先按分区算法映射到初始分区, 再按hash映射到该分区的某一槽位(每个分区{@link #SLOTS_PER_PARTITION}个),
+ * 未迁移前key所在分区与分区算法结果一致, 迁移以槽位为单位
+ * 迁移时先冻结槽位, 新task暂存, 原分区处理完该槽位已入队的task后, 暂存task按顺序投递到新分区
+ * 热点key可以独占一条线程, 独占线程不占用分区线程池, 由单独的{@link PinnedDispatcher}按需创建
  */
 public class PartitionTaskExecutor<KEY> extends PartitionDispatcher<KEY, FutureTask<?>> {
+    private static final Logger log = LoggerFactory.getLogger(PartitionTaskExecutor.class);
+    /** 每个分区的槽位数的位数 */
+    private static final int SLOT_BITS = 4;
+    /** 每个分区的槽位数 */
+    public static final int SLOTS_PER_PARTITION = 1 << SLOT_BITS;
+    /** 斐波那契hash乘数, 取乘积高位作为分区内的槽位, 与分区算法常用的低位相互独立 */
+    private static final int SLOT_HASH_MULTIPLIER = 0x9E3779B9;
+    /** 路由迁移中, ask每次等待迁移完成的最长时间, 毫秒 */
+    private static final long MIGRATION_WAIT_MILLIS = 10;
+    /** 冻结路由时, 每次等待正在投递的task入队的时间, 纳秒 */
+    private static final long INFLIGHT_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+    /** 分区负载超过平均负载的倍数, 则认为是热点分区 */
+    private static final double HOT_FACTOR = 1.5;
+    /** 路由状态, 正常投递 */
+    private static final int ST_NORMAL = 0;
+    /** 路由状态, 迁移中, 新task暂存 */
+    private static final int ST_MIGRATING = 1;
+    /** 路由状态, 已废弃, 需重新查找路由 */
+    private static final int ST_RETIRED = 2;
+
+    /** 槽位路由, 下标即槽位 */
+    private final Route[] slotRoutes = newSlotRoutes(partitionNum);
+    /** 独占线程的key路由 */
+    private final Map<KEY, Route> dedicatedRoutes = new ConcurrentHashMap<>();
+    /** 独占线程的分区id, 从partitionNum开始递增 */
+    private final AtomicInteger dedicatedPartitionCounter = new AtomicInteger(partitionNum);
+    /** 是否有迁移正在进行, 同一时刻仅允许一个迁移 */
+    private final AtomicBoolean migrating = new AtomicBoolean();
+    /** 独占线程的分区Dispatcher, 底层为无界cache线程池, 每个独占分区一条线程, lazy init */
+    private volatile PinnedDispatcher<Integer, FutureTask<?>> dedicatedDispatcher;
 
     public PartitionTaskExecutor() {
         super();
@@ -29,6 +82,23 @@ public class PartitionTaskExecutor<KEY> extends PartitionDispatcher<KEY, FutureT
         super(partitionNum, partitioner, workerNamePrefix);
     }
 
+    public PartitionTaskExecutor(int partitionNum, Partitioner<KEY> partitioner, String workerNamePrefix, MailBoxOptions mailBoxOptions) {
+        super(partitionNum, partitioner, workerNamePrefix, mailBoxOptions);
+    }
+
+    public PartitionTaskExecutor(int partitionNum, Partitioner<KEY> partitioner, String workerNamePrefix, MailBoxOptions mailBoxOptions, WaitStrategy waitStrategy) {
+        super(partitionNum, partitioner, workerNamePrefix, mailBoxOptions, waitStrategy);
+    }
+
+    private static Route[] newSlotRoutes(int partitionNum) {
+        Route[] slotRoutes = new Route[partitionNum * SLOTS_PER_PARTITION];
+        for (int i = 0; i < slotRoutes.length; i++) {
+            //槽位初始所在分区即分区算法结果, 见slot(KEY)
+            slotRoutes[i] = new Route(i >> SLOT_BITS, ST_NORMAL);
+        }
+        return slotRoutes;
+    }
+
     //------------------------------------------------------------------------------------------------------------------
 
     @Override
@@ -45,8 +115,10 @@ public class PartitionTaskExecutor<KEY> extends PartitionDispatcher<KEY, FutureT
     }
 
     public <T> Future<T> execute(KEY key, Callable<T> task) {
-        FutureTask<T> futureTask = new FutureTask<>(task);
-        postMessage(key, futureTask);
+        FutureTask<T> futureTask = new TimedTask<>(task);
+        if (!offerMessage(key, futureTask) && !futureTask.isDone()) {
+            throw new RejectedExecutionException(String.format("task is rejected by partition of key '%s'", key));
+        }
         return futureTask;
     }
 
@@ -68,6 +140,480 @@ public class PartitionTaskExecutor<KEY> extends PartitionDispatcher<KEY, FutureT
 
     //------------------------------------------------------------------------------------------------------------------
 
+    @Override
+    protected int partition(KEY key) {
+        return route(key).partition;
+    }
+
+    /**
+     * 独占分区id从partitionNum开始, 运行在{@link #dedicatedDispatcher}
+     */
+    @Override
+    protected Dispatcher<Integer, FutureTask<?>> dispatcher(int partition) {
+        return partition < partitionNum ? pinnedDispatcher : dedicatedDispatcher();
+    }
+
+    /**
+     * @return 独占线程的分区Dispatcher, 不存在则创建
+     */
+    private PinnedDispatcher<Integer, FutureTask<?>> dedicatedDispatcher() {
+        PinnedDispatcher<Integer, FutureTask<?>> dedicatedDispatcher = this.dedicatedDispatcher;
+        if (Objects.isNull(dedicatedDispatcher)) {
+            synchronized (this) {
+                dedicatedDispatcher = this.dedicatedDispatcher;
+                if (Objects.isNull(dedicatedDispatcher)) {
+                    dedicatedDispatcher = new PinnedDispatcher<>(ExecutionContext.cache(workerNamePrefix.concat("dedicated")));
+                    this.dedicatedDispatcher = dedicatedDispatcher;
+                }
+            }
+        }
+        return dedicatedDispatcher;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        PinnedDispatcher<Integer, FutureTask<?>> dedicatedDispatcher = this.dedicatedDispatcher;
+        if (Objects.nonNull(dedicatedDispatcher)) {
+            dedicatedDispatcher.close();
+        }
+    }
+
+    /**
+     * 路由迁移中, 则暂存task, 迁移完成后按顺序投递到新分区
+     * 查找路由与进入路由之间, key可能已被迁移到独占线程(比如pin), 故进入后需重新校验路由
+     */
+    @Override
+    protected boolean dispatch(KEY key, FutureTask<?> task) {
+        for (; ; ) {
+            Route route = route(key);
+            if (route.enter()) {
+                if (route(key) != route) {
+                    route.exit();
+                    continue;
+                }
+                try {
+                    bind(task, route);
+                    return postMessage2Partition(route.partition, task);
+                } finally {
+                    route.exit();
+                }
+            }
+            synchronized (route) {
+                if (route.state == ST_MIGRATING && route(key) == route) {
+                    bind(task, route);
+                    route.pendingKeys.add(key);
+                    route.pendingTasks.add(task);
+                    return true;
+                }
+            }
+            //迁移已完成, 路由已废弃或者key已有新路由, 重新查找路由
+        }
+    }
+
+    /**
+     * 路由迁移中, 则阻塞等待迁移完成, 进入路由后同样需重新校验路由
+     */
+    @Override
+    public <R> CompletableFuture<R> ask(KEY key, FutureTask<?> message, long timeout, TimeUnit unit) {
+        for (; ; ) {
+            Route route = route(key);
+            if (route.enter()) {
+                if (route(key) != route) {
+                    route.exit();
+                    continue;
+                }
+                try {
+                    return ask2Partition(route.partition, message, timeout, unit);
+                } finally {
+                    route.exit();
+                }
+            }
+            try {
+                route.awaitMigrated();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                CompletableFuture<R> future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+                return future;
+            }
+        }
+    }
+
+    /**
+     * @return key当前路由
+     */
+    private Route route(KEY key) {
+        if (Objects.nonNull(key) && !dedicatedRoutes.isEmpty()) {
+            Route route = dedicatedRoutes.get(key);
+            if (Objects.nonNull(route)) {
+                return route;
+            }
+        }
+        return slotRoutes[slot(key)];
+    }
+
+    /**
+     * 槽位 = 分区算法结果 * {@link #SLOTS_PER_PARTITION} + 分区内槽位
+     *
+     * @return key所在槽位
+     */
+    private int slot(KEY key) {
+        int partition = partitioner.toPartition(key, partitionNum);
+        return (partition << SLOT_BITS) | ((Objects.hashCode(key) * SLOT_HASH_MULTIPLIER) >>> (Integer.SIZE - SLOT_BITS));
+    }
+
+    /**
+     * 绑定路由, 用于统计路由的task执行耗时
+     */
+    private void bind(FutureTask<?> task, Route route) {
+        if (task instanceof TimedTask) {
+            ((TimedTask<?>) task).route = route;
+        }
+    }
+
+    /**
+     * 将槽位迁移到指定分区, 保证同一key的task顺序执行
+     *
+     * @param slot      槽位, 取值范围[0, partitionNum * {@link #SLOTS_PER_PARTITION})
+     * @param partition 目标分区, 取值范围[0, partitionNum)
+     * @return 是否发起迁移, 已在目标分区或者有其他迁移正在进行则返回false
+     */
+    public boolean migrate(int slot, int partition) {
+        Preconditions.checkArgument(slot >= 0 && slot < slotRoutes.length, "slot must be in [0, %s), but %s", slotRoutes.length, slot);
+        Preconditions.checkArgument(partition >= 0 && partition < partitionNum, "partition must be in [0, %s), but %s", partitionNum, partition);
+        Route route = slotRoutes[slot];
+        if (!migrating.compareAndSet(false, true)) {
+            return false;
+        }
+        if (route.partition == partition) {
+            migrating.set(false);
+            return false;
+        }
+
+        int from = freeze(route);
+        barrier(from,
+                () -> complete(route, partition, ST_NORMAL),
+                () -> complete(route, from, ST_NORMAL));
+        return true;
+    }
+
+    /**
+     * 热点key独占一条新线程, 不与分区共享线程池, 该key已入队的task处理完后, 新task才会在独占线程执行
+     *
+     * @return 是否发起迁移, 已独占或者有其他迁移正在进行则返回false
+     */
+    public boolean pin(KEY key) {
+        Preconditions.checkNotNull(key, "key is null");
+        if (dedicatedRoutes.containsKey(key) || !migrating.compareAndSet(false, true)) {
+            return false;
+        }
+
+        int dedicatedPartition = dedicatedPartitionCounter.getAndIncrement();
+        Route slotRoute = slotRoutes[slot(key)];
+        //先冻结槽位, 再发布key路由, 发布前按槽位投递的该key task会暂存在槽位路由
+        int from = freeze(slotRoute);
+        Route keyRoute = new Route(from, ST_MIGRATING);
+        dedicatedRoutes.put(key, keyRoute);
+        barrier(from, () -> {
+            moveDedicatedTasks(key, slotRoute, keyRoute);
+            complete(slotRoute, from, ST_NORMAL);
+            complete(keyRoute, dedicatedPartition, ST_NORMAL);
+        }, () -> {
+            moveDedicatedTasks(key, slotRoute, keyRoute);
+            complete(keyRoute, from, ST_RETIRED);
+            dedicatedRoutes.remove(key);
+            complete(slotRoute, from, ST_NORMAL);
+        });
+        return true;
+    }
+
+    /**
+     * 槽位路由暂存的该key task, 按顺序移到key路由暂存task的前面
+     */
+    private void moveDedicatedTasks(KEY key, Route slotRoute, Route keyRoute) {
+        synchronized (slotRoute) {
+            synchronized (keyRoute) {
+                List<Object> remainKeys = new ArrayList<>();
+                List<FutureTask<?>> remainTasks = new ArrayList<>();
+                int moved = 0;
+                for (int i = 0; i < slotRoute.pendingTasks.size(); i++) {
+                    Object pendingKey = slotRoute.pendingKeys.get(i);
+                    FutureTask<?> pendingTask = slotRoute.pendingTasks.get(i);
+                    if (Objects.equals(key, pendingKey)) {
+                        bind(pendingTask, keyRoute);
+                        keyRoute.pendingKeys.add(moved, pendingKey);
+                        keyRoute.pendingTasks.add(moved, pendingTask);
+                        moved++;
+                    } else {
+                        remainKeys.add(pendingKey);
+                        remainTasks.add(pendingTask);
+                    }
+                }
+                slotRoute.pendingKeys.clear();
+                slotRoute.pendingKeys.addAll(remainKeys);
+                slotRoute.pendingTasks.clear();
+                slotRoute.pendingTasks.addAll(remainTasks);
+            }
+        }
+    }
+
+    /**
+     * 取消key独占线程, 独占线程处理完该key已入队的task后, 新task回到槽位所在分区执行, 并释放独占线程
+     *
+     * @return 是否发起迁移, 未独占或者有其他迁移正在进行则返回false
+     */
+    public boolean unpin(KEY key) {
+        Route keyRoute = dedicatedRoutes.get(key);
+        if (Objects.isNull(keyRoute) || !migrating.compareAndSet(false, true)) {
+            return false;
+        }
+
+        int from = freeze(keyRoute);
+        barrier(from, () -> {
+            //先把暂存task投递到槽位所在分区, 再移除key路由, 保证新task排在暂存task后面
+            complete(keyRoute, slotRoutes[slot(key)].partition, ST_RETIRED);
+            dedicatedRoutes.remove(key);
+            unregisterPartition(from);
+        }, () -> complete(keyRoute, from, ST_NORMAL));
+        return true;
+    }
+
+    /**
+     * @return 独占线程的key
+     */
+    public List<KEY> dedicatedKeys() {
+        return new ArrayList<>(dedicatedRoutes.keySet());
+    }
+
+    /**
+     * 冻结路由, 此后新task暂存, 并等待正在投递的task入队
+     *
+     * @return 路由当前所在分区
+     */
+    private int freeze(Route route) {
+        synchronized (route) {
+            route.state = ST_MIGRATING;
+        }
+        while (route.inflight.get() > 0) {
+            //投递可能因'邮箱'满而阻塞, 不能一直自旋
+            LockSupport.parkNanos(INFLIGHT_PARK_NANOS);
+        }
+        return route.partition;
+    }
+
+    /**
+     * 往原分区投递屏障task, 屏障task执行时, 原分区已处理完冻结前入队的task
+     *
+     * @param action 屏障task执行逻辑
+     * @param abort  屏障task入队失败时的执行逻辑
+     */
+    private void barrier(int partition, Runnable action, Runnable abort) {
+        FutureTask<?> barrier = new FutureTask<>(() -> {
+            try {
+                action.run();
+            } finally {
+                migrating.set(false);
+            }
+        }, null);
+        boolean accepted;
+        try {
+            accepted = postMessage2Partition(partition, barrier);
+        } catch (Exception e) {
+            log.error("", e);
+            accepted = false;
+        }
+        if (!accepted) {
+            try {
+                abort.run();
+            } finally {
+                migrating.set(false);
+            }
+        }
+    }
+
+    /**
+     * 完成迁移, 暂存task按顺序投递到目标分区, 并解冻路由
+     */
+    private void complete(Route route, int partition, int state) {
+        synchronized (route) {
+            route.partition = partition;
+            for (FutureTask<?> task : route.pendingTasks) {
+                if (!postMessage2Partition(partition, task)) {
+                    task.cancel(false);
+                }
+            }
+            route.pendingKeys.clear();
+            route.pendingTasks.clear();
+            route.state = state;
+            //唤醒等待迁移完成的ask
+            route.notifyAll();
+        }
+    }
+
+    /**
+     * 检测热点分区, 将其部分槽位迁移到负载最低的分区
+     * 负载 = 上次检测以来task执行耗时 + 积压task数 * 该分区task平均执行耗时
+     * 仅统计通过execute提交的task
+     *
+     * @return 是否发起迁移
+     */
+    public synchronized boolean rebalance() {
+        if (migrating.get()) {
+            return false;
+        }
+
+        long[] slotBusy = new long[slotRoutes.length];
+        long[] busy = new long[partitionNum];
+        long[] executed = new long[partitionNum];
+        for (int i = 0; i < slotRoutes.length; i++) {
+            Route route = slotRoutes[i];
+            long busyNanos = route.busyNanos.sum();
+            long executedNum = route.executed.sum();
+            slotBusy[i] = busyNanos - route.lastBusyNanos;
+            busy[route.partition] += slotBusy[i];
+            executed[route.partition] += executedNum - route.lastExecuted;
+            route.lastBusyNanos = busyNanos;
+            route.lastExecuted = executedNum;
+        }
+
+        double[] load = new double[partitionNum];
+        double totalLoad = 0;
+        int hot = 0;
+        int cold = 0;
+        for (int i = 0; i < partitionNum; i++) {
+            MailBoxStats stats = pinnedDispatcher.mailBoxStats(i);
+            int depth = Objects.nonNull(stats) ? stats.getSize() : 0;
+            load[i] = busy[i] + (executed[i] > 0 ? (double) depth * busy[i] / executed[i] : 0);
+            totalLoad += load[i];
+            if (load[i] > load[hot]) {
+                hot = i;
+            }
+            if (load[i] < load[cold]) {
+                cold = i;
+            }
+        }
+        if (load[hot] <= 0 || load[hot] < totalLoad / partitionNum * HOT_FACTOR) {
+            return false;
+        }
+
+        //选负载最大, 且迁移后不会让冷分区变得比热分区更热的槽位
+        double limit = (load[hot] - load[cold]) / 2;
+        double scale = load[hot] / busy[hot];
+        int candidate = -1;
+        for (int i = 0; i < slotRoutes.length; i++) {
+            if (slotRoutes[i].partition != hot || slotBusy[i] <= 0) {
+                continue;
+            }
+            double slotLoad = slotBusy[i] * scale;
+            if (slotLoad <= limit && (candidate < 0 || slotBusy[i] > slotBusy[candidate])) {
+                candidate = i;
+            }
+        }
+        if (candidate < 0) {
+            log.info("partition {} is hot, but it is dominated by a single slot, consider pinning the hot key", hot);
+            return false;
+        }
+        return migrate(candidate, cold);
+    }
+
+    /**
+     * 定时检测热点分区并迁移
+     *
+     * @param period 检测间隔, 也是负载统计周期
+     */
+    public ScheduledFuture<?> enableRebalance(long period, TimeUnit unit) {
+        return executionContext().scheduleAtFixedRate(() -> {
+            try {
+                rebalance();
+            } catch (Exception e) {
+                log.error("", e);
+            }
+        }, period, period, unit);
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 路由, 槽位或者独占线程的key当前所在分区
+     */
+    private static final class Route {
+        /** 当前所在分区 */
+        private volatile int partition;
+        /** 路由状态 */
+        private volatile int state;
+        /** 正在投递的task数 */
+        private final AtomicInteger inflight = new AtomicInteger();
+        /** 迁移中暂存的task及其key, 访问需持有路由锁 */
+        private final List<Object> pendingKeys = new ArrayList<>();
+        private final List<FutureTask<?>> pendingTasks = new ArrayList<>();
+        /** task执行耗时, 纳秒 */
+        private final LongAdder busyNanos = new LongAdder();
+        /** task执行数 */
+        private final LongAdder executed = new LongAdder();
+        /** 上次检测热点分区时的统计, 仅rebalance访问 */
+        private long lastBusyNanos;
+        private long lastExecuted;
+
+        private Route(int partition, int state) {
+            this.partition = partition;
+            this.state = state;
+        }
+
+        /**
+         * 先计数再检查状态, 保证冻结路由后能等到所有正在投递的task入队
+         *
+         * @return 路由是否可以直接投递
+         */
+        private boolean enter() {
+            inflight.incrementAndGet();
+            if (state == ST_NORMAL) {
+                return true;
+            }
+            inflight.decrementAndGet();
+            return false;
+        }
+
+        private void exit() {
+            inflight.decrementAndGet();
+        }
+
+        /**
+         * 阻塞直到迁移完成, 迁移完成时会被唤醒, 每次最多等待{@link #MIGRATION_WAIT_MILLIS}毫秒后重新检查
+         */
+        private synchronized void awaitMigrated() throws InterruptedException {
+            while (state == ST_MIGRATING) {
+                wait(MIGRATION_WAIT_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * 统计执行耗时的task
+     */
+    private static final class TimedTask<T> extends FutureTask<T> {
+        /** 投递时的路由 */
+        private Route route;
+
+        private TimedTask(Callable<T> callable) {
+            super(callable);
+        }
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            try {
+                super.run();
+            } finally {
+                Route route = this.route;
+                if (Objects.nonNull(route)) {
+                    route.busyNanos.add(System.nanoTime() - start);
+                    route.executed.increment();
+                }
+            }
+        }
+    }
+
     /**
      * 处理Runnable或者Callable的Receiver实现
      * 单例模式
@@ -79,5 +625,10 @@ public class PartitionTaskExecutor<KEY> extends PartitionDispatcher<KEY, FutureT
         public void receive(FutureTask task) {
             task.run();
         }
+
+        @Override
+        protected void onDrop(FutureTask<?> task) {
+            task.cancel(false);
+        }
     }
 }
@@ -33,5 +33,29 @@ public class HashUtils {
         return key == null ? 0 : (((h = key.hashCode()) ^ h >>> 16) & (limit - 1));
     }
 
+    /**
+     * 打散hash值, murmur3 fmix32
+     * 即使原hash值高度集中(比如连续的整数主键), 打散后也能均匀分布
+     */
+    public static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * hash %
+     * 先打散hash值, 再取模, 支持任意limit, 结果非负
+     *
+     * @param key   目标实例
+     * @param limit %限制大小
+     */
+    public static int spreadHash(Object key, int limit) {
+        return key == null ? 0 : ((spread(key.hashCode()) & Integer.MAX_VALUE) % limit);
+    }
+
 
 }
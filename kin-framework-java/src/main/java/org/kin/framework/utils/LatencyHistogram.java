@@ -0,0 +1,159 @@
+package org.kin.framework.utils;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 延迟直方图, 线程安全, 单位微秒
+ * 按2的幂分段, 每段再线性等分为16个桶, 相对误差不超过1/16
+ *
+ * @author huangjianqin
+ * @date 2021/1/10
+ */
+public final class LatencyHistogram {
+    /** 每段线性桶数量的位数 */
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    /** 可记录的最大值, 约12.7天 */
+    private static final long MAX_VALUE = (1L << 40) - 1;
+
+    /** 桶计数 */
+    private final AtomicLongArray buckets = new AtomicLongArray(index(MAX_VALUE) + 1);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * 记录一次耗时
+     */
+    public void record(long costNanos) {
+        long micros = Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(costNanos), 0), MAX_VALUE);
+        buckets.incrementAndGet(index(micros));
+        count.increment();
+        sum.add(micros);
+        max.accumulate(micros);
+    }
+
+    /**
+     * @return 数值所属的桶
+     */
+    private static int index(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * @return 桶的上界
+     */
+    private static long upperBound(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int exp = index / SUB_COUNT + SUB_BITS - 1;
+        int sub = index % SUB_COUNT;
+        return ((SUB_COUNT | sub) + 1L << (exp - SUB_BITS)) - 1;
+    }
+
+    /**
+     * @return 当前统计快照
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[buckets.length()];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        long sum = this.sum.sum();
+        long max = this.max.get();
+        return new Snapshot(total, total > 0 ? (double) sum / total : 0,
+                percentile(counts, total, 0.5, max), percentile(counts, total, 0.9, max),
+                percentile(counts, total, 0.99, max), max);
+    }
+
+    private static long percentile(long[] counts, long total, double percentile, long max) {
+        if (total <= 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * percentile);
+        long accumulated = 0;
+        for (int i = 0; i < counts.length; i++) {
+            accumulated += counts[i];
+            if (accumulated >= target) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 延迟直方图快照, 单位微秒
+     */
+    public static final class Snapshot {
+        private final long count;
+        private final double mean;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long max;
+
+        /**
+         * 通过{@link ConstructorProperties}声明参数对应的getter, 以支持MXBean从CompositeData重建快照
+         */
+        @ConstructorProperties({"count", "mean", "p50", "p90", "p99", "max"})
+        public Snapshot(long count, double mean, long p50, long p90, long p99, long max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        //getter
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return mean;
+        }
+
+        public long getP50() {
+            return p50;
+        }
+
+        public long getP90() {
+            return p90;
+        }
+
+        public long getP99() {
+            return p99;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{" +
+                    "count=" + count +
+                    ", mean=" + mean +
+                    ", p50=" + p50 +
+                    ", p90=" + p90 +
+                    ", p99=" + p99 +
+                    ", max=" + max +
+                    '}';
+        }
+    }
+}
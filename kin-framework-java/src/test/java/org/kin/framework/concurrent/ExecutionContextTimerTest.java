@@ -0,0 +1,145 @@
+package org.kin.framework.concurrent;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 校验{@link ExecutionContext}合并定时器的触发时间, 取消, 循环定时以及统计, 结果不符合预期则抛异常
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class ExecutionContextTimerTest {
+    /** 合并定时器tick, 毫秒 */
+    private static final long TICK = 10;
+
+    public static void main(String[] args) throws Exception {
+        ExecutionContext executionContext = new ExecutionContext(Executors.newFixedThreadPool(4), new SimpleThreadFactory("timer"), TICK, TimeUnit.MILLISECONDS);
+        try {
+            fire(executionContext);
+            wakeup(executionContext);
+            periodic(executionContext);
+        } finally {
+            executionContext.shutdown();
+        }
+        shutdownNow();
+        System.out.println("all passed");
+    }
+
+    /**
+     * 不会提前触发, 取消的定时器不会执行, 统计与实际一致
+     */
+    private static void fire(ExecutionContext executionContext) throws Exception {
+        int num = 2000;
+        Random random = new Random(0);
+        AtomicInteger early = new AtomicInteger();
+        AtomicLong maxDelay = new AtomicLong();
+        AtomicInteger executed = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(num / 2);
+        List<ScheduledFuture<?>> futures = new ArrayList<>(num);
+        for (int i = 0; i < num; i++) {
+            long delay = 50 + random.nextInt(300);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            futures.add(executionContext.schedule(() -> {
+                long diff = System.nanoTime() - deadline;
+                if (diff < 0) {
+                    early.incrementAndGet();
+                }
+                maxDelay.accumulateAndGet(diff, Math::max);
+                executed.incrementAndGet();
+                latch.countDown();
+            }, delay, TimeUnit.MILLISECONDS));
+        }
+        Preconditions.checkState(executionContext.getTimerStats().getPending() == num, "pending: %s", executionContext.getTimerStats());
+
+        //取消一半
+        int cancelled = 0;
+        for (int i = 0; i < num; i += 2) {
+            if (futures.get(i).cancel(false)) {
+                cancelled++;
+            }
+        }
+        Preconditions.checkState(cancelled == num / 2, "cancelled: %s", cancelled);
+        Preconditions.checkState(latch.await(5, TimeUnit.SECONDS), "timers must be fired");
+        //等待被取消定时器的到期时间过去
+        TimeUnit.MILLISECONDS.sleep(100);
+
+        Preconditions.checkState(early.get() == 0, "%s timers fired early", early.get());
+        Preconditions.checkState(maxDelay.get() < TimeUnit.MILLISECONDS.toNanos(500), "fired too late: %s ns", maxDelay.get());
+        Preconditions.checkState(executed.get() == num / 2, "cancelled timers must not be executed: %s", executed.get());
+        for (int i = 0; i < num; i++) {
+            ScheduledFuture<?> future = futures.get(i);
+            Preconditions.checkState(future.isDone() && future.isCancelled() == (i % 2 == 0), "future %s", i);
+        }
+
+        TimerStats stats = executionContext.getTimerStats();
+        Preconditions.checkState(stats.getPending() == 0, "pending: %s", stats);
+        Preconditions.checkState(stats.getFired() == num / 2, "fired: %s", stats);
+        Preconditions.checkState(stats.getCancelled() == num / 2, "cancelled: %s", stats);
+        Preconditions.checkState(stats.getLateness().getCount() == num / 2 && stats.getLate() <= stats.getFired(), "lateness: %s", stats);
+
+        //Callable定时task返回结果
+        ScheduledFuture<Integer> future = executionContext.schedule(() -> 42, 20, TimeUnit.MILLISECONDS);
+        Preconditions.checkState(future.get(5, TimeUnit.SECONDS) == 42, "callable result");
+    }
+
+    /**
+     * 定时线程等待远期定时器期间, 新增更早到期的定时器能及时触发
+     */
+    private static void wakeup(ExecutionContext executionContext) throws Exception {
+        ScheduledFuture<?> far = executionContext.schedule(() -> {
+        }, 1, TimeUnit.HOURS);
+        //等待定时线程park
+        TimeUnit.MILLISECONDS.sleep(50);
+        long startNanos = System.nanoTime();
+        executionContext.schedule(() -> {
+        }, 20, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+        long costMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        Preconditions.checkState(costMillis >= 20 && costMillis < 500, "earlier timer must wake up timer thread, cost %s ms", costMillis);
+        Preconditions.checkState(far.cancel(false), "far timer must be cancelled");
+    }
+
+    /**
+     * 循环定时器按间隔触发, 取消后不再执行
+     */
+    private static void periodic(ExecutionContext executionContext) throws Exception {
+        AtomicInteger rate = new AtomicInteger();
+        AtomicInteger delay = new AtomicInteger();
+        ScheduledFuture<?> rateFuture = executionContext.scheduleAtFixedRate(rate::incrementAndGet, 0, 50, TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> delayFuture = executionContext.scheduleWithFixedDelay(delay::incrementAndGet, 0, 50, TimeUnit.MILLISECONDS);
+        TimeUnit.MILLISECONDS.sleep(520);
+        Preconditions.checkState(rateFuture.cancel(false) && delayFuture.cancel(false), "periodic timers must be cancelled");
+        Preconditions.checkState(rate.get() >= 5 && rate.get() <= 12, "fixed rate executed %s times", rate.get());
+        Preconditions.checkState(delay.get() >= 5 && delay.get() <= 12, "fixed delay executed %s times", delay.get());
+
+        int rateTimes = rate.get();
+        int delayTimes = delay.get();
+        TimeUnit.MILLISECONDS.sleep(150);
+        Preconditions.checkState(rate.get() == rateTimes && delay.get() == delayTimes, "cancelled periodic timers must not be executed");
+    }
+
+    /**
+     * shutdownNow返回未触发的定时器, 之后不能再调度
+     */
+    private static void shutdownNow() {
+        ExecutionContext executionContext = new ExecutionContext(Executors.newFixedThreadPool(1), new SimpleThreadFactory("timer"), TICK, TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> future = executionContext.schedule(() -> {
+        }, 1, TimeUnit.HOURS);
+        List<Runnable> unfired = executionContext.shutdownNow();
+        Preconditions.checkState(unfired.size() == 1 && unfired.get(0) == future, "unfired timers: %s", unfired);
+        Preconditions.checkState(!future.isDone(), "unfired timer must not be cancelled");
+        try {
+            executionContext.schedule(() -> {
+            }, 1, TimeUnit.SECONDS);
+        } catch (IllegalStateException e) {
+            return;
+        }
+        throw new IllegalStateException("schedule after shutdown must be rejected");
+    }
+}
@@ -0,0 +1,83 @@
+package org.kin.framework.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link SingleThreadScheduler} DelayQueue模式与时间轮(无锁队列+批量执行)模式的吞吐量对比
+ * 每次调用提交一批task, 并等待该批task执行完成, 生产者线程数分别为1, 4, 16
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 10, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class SingleThreadSchedulerBenchmark {
+    /** 每次调用提交的task数量 */
+    private static final int BATCH = 1000;
+
+    @Param({"delayQueue", "eventLoop"})
+    private String mode;
+
+    private ExecutorService parent;
+    private SingleThreadScheduler scheduler;
+
+    @Setup
+    public void setup() {
+        parent = Executors.newSingleThreadExecutor();
+        if ("eventLoop".equals(mode)) {
+            scheduler = new SingleThreadScheduler(parent, 1, TimeUnit.MILLISECONDS);
+        } else {
+            scheduler = new SingleThreadScheduler(parent);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.shutdown();
+        parent.shutdown();
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+        /** 未执行完的task数量 */
+        private final AtomicInteger remain = new AtomicInteger();
+        private final Runnable task = remain::decrementAndGet;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void execute(Producer producer) {
+        producer.remain.addAndGet(BATCH);
+        for (int i = 0; i < BATCH; i++) {
+            scheduler.execute(producer.task);
+        }
+        while (producer.remain.get() > 0) {
+            LockSupport.parkNanos(1000);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        for (int producers : new int[]{1, 4, 16}) {
+            Options opt = new OptionsBuilder()
+                    .include(SingleThreadSchedulerBenchmark.class.getSimpleName())
+                    .threads(producers)
+                    .forks(1)
+                    .output("SingleThreadSchedulerBenchmark-" + producers + ".log")
+                    .build();
+            new Runner(opt).run();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.kin.framework.concurrent;
+
+import com.google.common.base.Preconditions;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 校验{@link SingleThreadSchedulerPool}选择executor的策略, affinity key顺序执行以及work stealing, 结果不符合预期则抛异常
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class SingleThreadSchedulerPoolTest {
+    public static void main(String[] args) throws Exception {
+        selector();
+        powerOfTwoChoices();
+        affinity();
+        invokeAll();
+        workStealing();
+        System.out.println("all passed");
+    }
+
+    /**
+     * 轮询依次选择, hash同一task总是选择同一executor, executor数量不需要是2的n次方
+     */
+    private static void selector() {
+        SingleThreadScheduler[] executors = new SingleThreadScheduler[3];
+        SchedulerSelector roundRobin = SchedulerSelector.roundRobin();
+        for (int i = 0; i < 7; i++) {
+            int index = roundRobin.select(null, executors);
+            Preconditions.checkState(index == i % 3, "round robin: %s, but %s", i % 3, index);
+        }
+
+        SchedulerSelector hash = SchedulerSelector.hash();
+        Set<Integer> selected = new HashSet<>();
+        for (int i = -100; i < 100; i++) {
+            int index = hash.select(i, executors);
+            Preconditions.checkState(index >= 0 && index < 3, "hash out of range: %s", index);
+            Preconditions.checkState(index == hash.select(i, executors), "hash must be stable");
+            selected.add(index);
+        }
+        Preconditions.checkState(selected.size() == 3, "hash must use all executors: %s", selected);
+    }
+
+    /**
+     * 两个executor时, 总是选择待执行task较少的那个
+     */
+    private static void powerOfTwoChoices() throws Exception {
+        ExecutorService parent = Executors.newFixedThreadPool(2);
+        SingleThreadScheduler busy = new SingleThreadScheduler(parent);
+        SingleThreadScheduler idle = new SingleThreadScheduler(parent);
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            busy.execute(() -> await(latch));
+            for (int i = 0; i < 10; i++) {
+                busy.execute(() -> {
+                });
+            }
+            Preconditions.checkState(busy.pendingTasks() > 0, "busy executor pending tasks: %s", busy.pendingTasks());
+
+            SingleThreadScheduler[] executors = {busy, idle};
+            SchedulerSelector selector = SchedulerSelector.powerOfTwoChoices();
+            for (int i = 0; i < 100; i++) {
+                Preconditions.checkState(selector.select(null, executors) == 1, "idle executor must be selected");
+            }
+            Preconditions.checkState(selector.select(null, new SingleThreadScheduler[]{busy}) == 0, "only one executor");
+        } finally {
+            latch.countDown();
+            busy.shutdown();
+            idle.shutdown();
+            parent.shutdown();
+        }
+    }
+
+    /**
+     * 同一affinity key的task在同一executor按提交顺序执行, 开启work stealing也不会被窃取
+     */
+    private static void affinity() throws Exception {
+        for (boolean workStealing : new boolean[]{false, true}) {
+            SingleThreadSchedulerPool pool = new SingleThreadSchedulerPool(4, "affinity", SchedulerSelector.roundRobin(), workStealing);
+            try {
+                int num = 1000;
+                List<Integer> order = Collections.synchronizedList(new ArrayList<>(num));
+                Set<Thread> threads = ConcurrentHashMap.newKeySet();
+                List<Future<Integer>> futures = new ArrayList<>(num);
+                for (int i = 0; i < num; i++) {
+                    int value = i;
+                    futures.add(pool.submitByKey("key", () -> {
+                        order.add(value);
+                        threads.add(Thread.currentThread());
+                        return value;
+                    }));
+                }
+                for (Future<Integer> future : futures) {
+                    future.get(5, TimeUnit.SECONDS);
+                }
+                for (int i = 0; i < num; i++) {
+                    Preconditions.checkState(order.get(i) == i, "tasks of same key must be executed in order, work stealing: %s", workStealing);
+                }
+                Preconditions.checkState(threads.size() == 1, "tasks of same key must be executed on same thread: %s", threads);
+                Preconditions.checkState(pool.executorOf("key") == pool.executorOf("key"), "executor of key must be stable");
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * invokeAll每个task单独选择executor, 并发执行
+     */
+    private static void invokeAll() throws Exception {
+        SingleThreadSchedulerPool pool = new SingleThreadSchedulerPool(4, "invokeAll", SchedulerSelector.roundRobin());
+        try {
+            Set<Thread> threads = ConcurrentHashMap.newKeySet();
+            List<Callable<Integer>> tasks = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                int value = i;
+                tasks.add(() -> {
+                    threads.add(Thread.currentThread());
+                    Thread.sleep(5);
+                    return value;
+                });
+            }
+            List<Future<Integer>> futures = pool.invokeAll(tasks);
+            for (int i = 0; i < futures.size(); i++) {
+                Preconditions.checkState(futures.get(i).get() == i, "invokeAll result");
+            }
+            Preconditions.checkState(threads.size() == 4, "tasks must be spread to all executors: %s", threads.size());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * 选中的executor被阻塞, 其积压的无序task被其他空闲executor窃取执行; 有序task不会被窃取
+     */
+    private static void workStealing() throws Exception {
+        //总是选择第0个executor
+        AtomicReference<SingleThreadScheduler> selected = new AtomicReference<>();
+        SingleThreadSchedulerPool pool = new SingleThreadSchedulerPool(4, "stealing", (task, executors) -> {
+            selected.set(executors[0]);
+            return 0;
+        }, true);
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            AtomicReference<Thread> blockedThread = new AtomicReference<>();
+            CountDownLatch blocked = new CountDownLatch(1);
+            pool.submit(() -> {
+            }).get(5, TimeUnit.SECONDS);
+            //有序task阻塞选中的executor
+            selected.get().execute(() -> {
+                blockedThread.set(Thread.currentThread());
+                blocked.countDown();
+                await(latch);
+            });
+            Preconditions.checkState(blocked.await(5, TimeUnit.SECONDS), "executor must be blocked");
+
+            int num = 100;
+            Set<Thread> threads = ConcurrentHashMap.newKeySet();
+            List<Future<?>> futures = new ArrayList<>(num);
+            for (int i = 0; i < num; i++) {
+                futures.add(pool.submit(() -> threads.add(Thread.currentThread())));
+            }
+            //被阻塞的executor无法执行, 只能是被窃取执行
+            for (Future<?> future : futures) {
+                future.get(5, TimeUnit.SECONDS);
+            }
+            Preconditions.checkState(!threads.isEmpty() && !threads.contains(blockedThread.get()), "tasks must be stolen: %s", threads);
+
+            //有序task不会被窃取
+            Future<Thread> ordered = selected.get().submit(Thread::currentThread);
+            TimeUnit.MILLISECONDS.sleep(100);
+            Preconditions.checkState(!ordered.isDone(), "ordered task must not be stolen");
+            latch.countDown();
+            Preconditions.checkState(ordered.get(5, TimeUnit.SECONDS) == blockedThread.get(), "ordered task must be executed on selected executor");
+        } finally {
+            latch.countDown();
+            pool.shutdown();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
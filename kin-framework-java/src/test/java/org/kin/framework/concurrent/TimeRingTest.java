@@ -0,0 +1,175 @@
+package org.kin.framework.concurrent;
+
+import com.google.common.base.Preconditions;
+
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 校验{@link TimeRing}多线程push, 逐层下沉, 超出最高层跨度以及处理异常, 结果不符合预期则抛异常
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class TimeRingTest {
+    public static void main(String[] args) throws Exception {
+        concurrentPush();
+        pushWhileDraining();
+        beyondTopLevel();
+        handleError();
+        System.out.println("all passed");
+        //Keeper线程池为非守护线程
+        System.exit(0);
+    }
+
+    /**
+     * 多线程push, 每个数据只处理一次, 不会提前处理
+     */
+    private static void concurrentPush() throws Exception {
+        int threads = 4;
+        int num = 20000;
+        AtomicIntegerArray handled = new AtomicIntegerArray(num);
+        AtomicInteger handledNum = new AtomicInteger();
+        AtomicInteger early = new AtomicInteger();
+        AtomicLong maxLate = new AtomicLong();
+        long[] deadlines = new long[num];
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        //第0层10个槽, 每槽10ms, 超过100ms的数据需从第1层下沉
+        TimeRing<Integer> ring = new TimeRing<>(10, 10, 1, id -> {
+            long late = System.nanoTime() - deadlines[id];
+            if (late < 0) {
+                early.incrementAndGet();
+            }
+            maxLate.accumulateAndGet(late, Math::max);
+            handled.incrementAndGet(id);
+            handledNum.incrementAndGet();
+        }, executor);
+        ring.start();
+        try {
+            Thread[] producers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                int offset = t;
+                producers[t] = new Thread(() -> {
+                    Random random = new Random(offset);
+                    for (int id = offset; id < num; id += threads) {
+                        //包括已过期的数据
+                        long delay = random.nextInt(1600) - 100;
+                        deadlines[id] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+                        ring.push(delay, TimeUnit.MILLISECONDS, id);
+                    }
+                });
+                producers[t].start();
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            for (int i = 0; i < 50 && handledNum.get() < num; i++) {
+                TimeUnit.MILLISECONDS.sleep(100);
+            }
+            TimeUnit.MILLISECONDS.sleep(100);
+        } finally {
+            ring.stop();
+            executor.shutdown();
+        }
+
+        Preconditions.checkState(handledNum.get() == num, "handled: %s", handledNum.get());
+        for (int id = 0; id < num; id++) {
+            Preconditions.checkState(handled.get(id) == 1, "data %s handled %s times", id, handled.get(id));
+        }
+        Preconditions.checkState(early.get() == 0, "%s data handled early", early.get());
+        Preconditions.checkState(maxLate.get() < TimeUnit.MILLISECONDS.toNanos(500), "handled too late: %s ns", maxLate.get());
+    }
+
+    /**
+     * 每槽1ms, 短延迟数据push时其所在槽很可能正在被处理, 数据不会等到该槽下一圈才处理
+     */
+    private static void pushWhileDraining() throws Exception {
+        int threads = 4;
+        int num = 400000;
+        AtomicInteger handledNum = new AtomicInteger();
+        AtomicInteger late = new AtomicInteger();
+        long[] deadlines = new long[num];
+        //第0层一圈1000ms
+        TimeRing<Integer> ring = new TimeRing<>(1000, 1, 1, id -> {
+            if (System.nanoTime() - deadlines[id] > TimeUnit.MILLISECONDS.toNanos(500)) {
+                late.incrementAndGet();
+            }
+            handledNum.incrementAndGet();
+        });
+        ring.start();
+        try {
+            Thread[] producers = new Thread[threads];
+            for (int t = 0; t < threads; t++) {
+                int offset = t;
+                producers[t] = new Thread(() -> {
+                    Random random = new Random(offset);
+                    for (int id = offset; id < num; id += threads) {
+                        long delay = random.nextInt(3);
+                        deadlines[id] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+                        ring.push(delay, TimeUnit.MILLISECONDS, id);
+                    }
+                });
+                producers[t].start();
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            for (int i = 0; i < 50 && handledNum.get() < num; i++) {
+                TimeUnit.MILLISECONDS.sleep(100);
+            }
+        } finally {
+            ring.stop();
+        }
+        Preconditions.checkState(handledNum.get() == num, "handled: %s", handledNum.get());
+        Preconditions.checkState(late.get() == 0, "%s data handled after a whole round", late.get());
+    }
+
+    /**
+     * 超出最高层跨度的数据, 推进到最远的槽后重新计算, 按时处理
+     */
+    private static void beyondTopLevel() throws Exception {
+        //第0层2个槽, 每槽1ms, 三层总跨度2 * 60 * 24 = 2880ms
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicLong handledNanos = new AtomicLong();
+        TimeRing<String> ring = new TimeRing<>(2, 1, 1, data -> {
+            handledNanos.set(System.nanoTime());
+            latch.countDown();
+        });
+        ring.start();
+        try {
+            long startNanos = System.nanoTime();
+            ring.push(4000, TimeUnit.MILLISECONDS, "far");
+            Preconditions.checkState(latch.await(10, TimeUnit.SECONDS), "data beyond top level must be handled");
+            long costMillis = TimeUnit.NANOSECONDS.toMillis(handledNanos.get() - startNanos);
+            Preconditions.checkState(costMillis >= 4000 && costMillis < 4500, "handled after %s ms", costMillis);
+        } finally {
+            ring.stop();
+        }
+    }
+
+    /**
+     * 单个数据处理异常不影响其余数据, 毫秒时间戳push
+     */
+    private static void handleError() throws Exception {
+        CountDownLatch latch = new CountDownLatch(3);
+        TimeRing<Integer> ring = new TimeRing<>(60, 10, 1, data -> {
+            latch.countDown();
+            if (data == 0) {
+                throw new IllegalStateException("handle error");
+            }
+        });
+        ring.start();
+        try {
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < 3; i++) {
+                ring.push(now + 50, i);
+            }
+            Preconditions.checkState(latch.await(5, TimeUnit.SECONDS), "other data must be handled: %s", latch.getCount());
+        } finally {
+            ring.stop();
+        }
+    }
+}
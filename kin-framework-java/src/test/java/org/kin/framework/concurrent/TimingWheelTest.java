@@ -0,0 +1,131 @@
+package org.kin.framework.concurrent;
+
+import com.google.common.base.Preconditions;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 校验时间轮不会提前或延后触发, 到期回调中取消同一tick的其他定时器, 其余定时器仍然正常触发, 结果不符合预期则抛异常
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class TimingWheelTest {
+    public static void main(String[] args) throws Exception {
+        cancelInCallback();
+        deadline();
+        scheduler();
+        System.out.println("all passed");
+    }
+
+    /**
+     * 直接使用时间轮, 到期回调中取消同一tick的其他定时器
+     */
+    private static void cancelInCallback() {
+        TimingWheel<String> wheel = new TimingWheel<>(1, 0);
+        Preconditions.checkState(wheel.nextTickTime() == Long.MAX_VALUE, "empty wheel: %s", wheel.nextTickTime());
+        List<TimingWheel.Node<String>> nodes = new ArrayList<>();
+        for (String name : new String[]{"a", "b", "c", "d"}) {
+            TimingWheel.Node<String> node = new TimingWheel.Node<>(name);
+            nodes.add(node);
+            //b, c, d在高层槽, 下沉时也要保证正确
+            wheel.add(node, "a".equals(name) ? 10 : 100);
+        }
+        Preconditions.checkState(wheel.size() == 4, "size: %s", wheel.size());
+
+        List<String> fired = new ArrayList<>();
+        //未到期, 不触发
+        wheel.advance(9, fired::add);
+        Preconditions.checkState(fired.isEmpty(), "fired before deadline: %s", fired);
+        wheel.advance(200, name -> {
+            fired.add(name);
+            if ("b".equals(name)) {
+                //取消同一tick的c
+                Preconditions.checkState(wheel.remove(nodes.get(2)), "c must be pending");
+            }
+        });
+        Preconditions.checkState(fired.equals(Arrays.asList("a", "b", "d")), "fired: %s", fired);
+        Preconditions.checkState(wheel.size() == 0, "size: %s", wheel.size());
+        Preconditions.checkState(wheel.nextTickTime() == Long.MAX_VALUE, "empty wheel: %s", wheel.nextTickTime());
+        Preconditions.checkState(!wheel.remove(nodes.get(2)), "c must be removed");
+
+        //节点可重复使用
+        wheel.add(nodes.get(0), 300);
+        wheel.add(nodes.get(0), 250);
+        Preconditions.checkState(wheel.size() == 1, "re-added node must be counted once: %s", wheel.size());
+        List<String> removed = new ArrayList<>();
+        wheel.clear(removed::add);
+        Preconditions.checkState(removed.equals(Collections.singletonList("a")) && wheel.size() == 0, "removed: %s", removed);
+    }
+
+    /**
+     * 跨越多层的随机到期时间, 每个元素都在推进到其到期时间的那一次触发
+     */
+    private static void deadline() {
+        int tickDuration = 10;
+        TimingWheel<Long> wheel = new TimingWheel<>(tickDuration, 0);
+        Random random = new Random(0);
+        int num = 10000;
+        Set<Long> deadlines = new HashSet<>();
+        while (deadlines.size() < num) {
+            //覆盖第0层到高层
+            long deadline = 1 + (long) (Math.pow(random.nextDouble(), 4) * 100_000_000L);
+            if (deadlines.add(deadline)) {
+                wheel.add(new TimingWheel.Node<>(deadline), deadline);
+            }
+        }
+
+        long prev = 0;
+        int firedNum = 0;
+        List<Long> fired = new ArrayList<>();
+        while (wheel.size() > 0) {
+            long next = wheel.nextTickTime();
+            Preconditions.checkState(next > prev && next != Long.MAX_VALUE, "next tick time %s, now %s", next, prev);
+            long now = next + random.nextInt(tickDuration * 50);
+            fired.clear();
+            wheel.advance(now, fired::add);
+            for (long deadline : fired) {
+                //到期时间向上取整到tick
+                long deadlineTime = (deadline + tickDuration - 1) / tickDuration * tickDuration;
+                Preconditions.checkState(deadlineTime <= now, "fired early, deadline %s, now %s", deadline, now);
+                Preconditions.checkState(deadlineTime > prev, "fired late, deadline %s, previous advance %s", deadline, prev);
+            }
+            firedNum += fired.size();
+            prev = now;
+        }
+        Preconditions.checkState(firedNum == num, "fired: %s", firedNum);
+    }
+
+    /**
+     * 时间轮模式的{@link SingleThreadScheduler}
+     */
+    private static void scheduler() throws Exception {
+        ExecutorService parent = Executors.newSingleThreadExecutor();
+        SingleThreadScheduler scheduler = new SingleThreadScheduler(parent, 1, TimeUnit.MILLISECONDS);
+        try {
+            AtomicReference<ScheduledFuture<?>> sibling = new AtomicReference<>();
+            List<String> executed = new ArrayList<>();
+            long startMillis = System.currentTimeMillis();
+            scheduler.schedule(() -> {
+                executed.add("first");
+                sibling.get().cancel(false);
+            }, 50, TimeUnit.MILLISECONDS);
+            sibling.set(scheduler.schedule(() -> executed.add("sibling"), 50, TimeUnit.MILLISECONDS));
+            ScheduledFuture<?> last = scheduler.schedule(() -> executed.add("last"), 50, TimeUnit.MILLISECONDS);
+            last.get(5, TimeUnit.SECONDS);
+            Preconditions.checkState(System.currentTimeMillis() - startMillis >= 50, "fired early");
+            scheduler.schedule(() -> executed.add("later"), 20, TimeUnit.MILLISECONDS).get(5, TimeUnit.SECONDS);
+            List<String> result = scheduler.submit(() -> new ArrayList<>(executed)).get(5, TimeUnit.SECONDS);
+            Preconditions.checkState(result.equals(Arrays.asList("first", "last", "later")), "executed: %s", result);
+            Preconditions.checkState(sibling.get().isCancelled(), "sibling must be cancelled");
+        } finally {
+            scheduler.shutdown();
+            parent.shutdown();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package org.kin.framework.concurrent.actor;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * 校验{@link Dispatcher#ask(Object, Object, long, TimeUnit)}的回复, 超时, 回复与超时竞争, 异常以及关闭, 结果不符合预期则抛异常
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class AskTest {
+    /** 不回复 */
+    private static final int NO_REPLY = 0;
+    /** 抛异常 */
+    private static final int ERROR = -1;
+    /** 默认实现, 回复null */
+    private static final int DEFAULT = -2;
+
+    public static void main(String[] args) throws Exception {
+        check("event", () -> new EventBasedDispatcher<>(2));
+        check("pinned", () -> new PinnedDispatcher<>(2));
+        check("ring", () -> new RingBufferDispatcher<>(2, "ask-"));
+        System.out.println("all passed");
+        //PinnedDispatcher线程池为非守护线程
+        System.exit(0);
+    }
+
+    private static void check(String name, Supplier<Dispatcher<Integer, Integer>> supplier) throws Exception {
+        ScheduledExecutorService replyExecutor = Executors.newScheduledThreadPool(2);
+        Dispatcher<Integer, Integer> dispatcher = supplier.get();
+        AskReceiver receiver = new AskReceiver(replyExecutor);
+        try {
+            dispatcher.register(1, receiver, false);
+            reply(name, dispatcher);
+            timeout(name, dispatcher, receiver);
+            race(name, dispatcher);
+            error(name, dispatcher);
+        } finally {
+            dispatcher.close();
+            replyExecutor.shutdownNow();
+        }
+        close(name, supplier.get());
+    }
+
+    /**
+     * 在处理线程或其他线程回复, 默认实现回复null
+     */
+    private static void reply(String name, Dispatcher<Integer, Integer> dispatcher) throws Exception {
+        Preconditions.checkState(dispatcher.<Integer>ask(1, 21, 5, TimeUnit.SECONDS).get() == 42, "%s reply", name);
+        Preconditions.checkState(dispatcher.ask(1, DEFAULT, 5, TimeUnit.SECONDS).get() == null, "%s default reply", name);
+        //负数延迟1ms后在其他线程回复
+        Preconditions.checkState(dispatcher.<Integer>ask(1, -21 - 1000, 5, TimeUnit.SECONDS).get() == -42 - 2000, "%s async reply", name);
+    }
+
+    /**
+     * 不回复则超时, 超时后回复被忽略
+     */
+    private static void timeout(String name, Dispatcher<Integer, Integer> dispatcher, AskReceiver receiver) throws Exception {
+        long timeoutMillis = 100;
+        long startNanos = System.nanoTime();
+        CompletableFuture<Integer> future = dispatcher.ask(1, NO_REPLY, timeoutMillis, TimeUnit.MILLISECONDS);
+        checkCause(name, future, TimeoutException.class);
+        long costMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        Preconditions.checkState(costMillis >= timeoutMillis - 20 && costMillis < timeoutMillis + 500, "%s timeout after %s ms", name, costMillis);
+
+        Reply late = receiver.pending.getAndSet(null);
+        Preconditions.checkState(late != null, "%s receiver must receive ask", name);
+        late.reply(1);
+        checkCause(name, future, TimeoutException.class);
+    }
+
+    /**
+     * 超时时间与回复时间相近, 每个future仅完成一次, 要么是结果, 要么超时
+     */
+    private static void race(String name, Dispatcher<Integer, Integer> dispatcher) throws Exception {
+        int num = 2000;
+        List<CompletableFuture<Integer>> futures = new ArrayList<>(num);
+        for (int i = 1; i <= num; i++) {
+            //延迟0-9ms在其他线程回复, 超时5ms
+            futures.add(dispatcher.ask(1, -(1000 * (i % 10) + i), 5, TimeUnit.MILLISECONDS));
+        }
+        int replied = 0;
+        int timeout = 0;
+        for (int i = 1; i <= num; i++) {
+            CompletableFuture<Integer> future = futures.get(i - 1);
+            try {
+                int result = future.get(5, TimeUnit.SECONDS);
+                Preconditions.checkState(result == -2 * (1000 * (i % 10) + i), "%s ask %s result %s", name, i, result);
+                replied++;
+            } catch (ExecutionException e) {
+                Preconditions.checkState(e.getCause() instanceof TimeoutException, "%s ask %s failed by %s", name, i, e.getCause());
+                timeout++;
+            }
+        }
+        Preconditions.checkState(replied + timeout == num, "%s replied %s, timeout %s", name, replied, timeout);
+        Preconditions.checkState(timeout > 0, "%s asks must be timeout", name);
+    }
+
+    /**
+     * Receiver抛异常, 回复该异常; 未注册的key, 回复拒绝异常
+     */
+    private static void error(String name, Dispatcher<Integer, Integer> dispatcher) throws Exception {
+        checkCause(name, dispatcher.ask(1, ERROR, 5, TimeUnit.SECONDS), IllegalArgumentException.class);
+        checkCause(name, dispatcher.ask(0, 1, 5, TimeUnit.SECONDS), RejectedExecutionException.class);
+        //异常不影响后续ask
+        Preconditions.checkState(dispatcher.<Integer>ask(1, 1, 5, TimeUnit.SECONDS).get() == 2, "%s reply after error", name);
+    }
+
+    /**
+     * 关闭时未回复的ask超时, 关闭后ask直接失败
+     */
+    private static void close(String name, Dispatcher<Integer, Integer> dispatcher) throws Exception {
+        dispatcher.register(1, new AskReceiver(null), false);
+        CompletableFuture<Integer> pending = dispatcher.ask(1, NO_REPLY, 1, TimeUnit.HOURS);
+        Preconditions.checkState(dispatcher.<Integer>ask(1, 1, 5, TimeUnit.SECONDS).get() == 2, "%s reply", name);
+        dispatcher.close();
+        checkCause(name, pending, TimeoutException.class);
+        checkCause(name, dispatcher.ask(1, 1, 5, TimeUnit.SECONDS), IllegalStateException.class);
+    }
+
+    private static void checkCause(String name, CompletableFuture<?> future, Class<? extends Throwable> expected) throws Exception {
+        try {
+            Object result = future.get(5, TimeUnit.SECONDS);
+            throw new IllegalStateException(String.format("%s ask must be failed by %s, but replied %s", name, expected.getSimpleName(), result));
+        } catch (ExecutionException e) {
+            Preconditions.checkState(expected.isInstance(e.getCause()), "%s ask must be failed by %s, but %s", name, expected.getSimpleName(), e.getCause());
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 回复消息的两倍, 消息<=-1000则延迟(-消息 / 1000)ms后在其他线程回复
+     */
+    private static class AskReceiver extends Receiver<Integer> {
+        private final ScheduledExecutorService replyExecutor;
+        /** 未回复的ask */
+        private final AtomicReference<Reply> pending = new AtomicReference<>();
+
+        AskReceiver(ScheduledExecutorService replyExecutor) {
+            this.replyExecutor = replyExecutor;
+        }
+
+        @Override
+        public void receive(Integer mail) {
+        }
+
+        @Override
+        public void receive(Integer mail, Reply reply) {
+            if (mail == NO_REPLY) {
+                pending.set(reply);
+            } else if (mail == ERROR) {
+                throw new IllegalArgumentException("ask error");
+            } else if (mail == DEFAULT) {
+                super.receive(mail, reply);
+            } else if (mail <= -1000) {
+                replyExecutor.schedule(() -> reply.reply(mail * 2), -mail / 1000, TimeUnit.MILLISECONDS);
+            } else {
+                reply.reply(mail * 2);
+            }
+        }
+    }
+}
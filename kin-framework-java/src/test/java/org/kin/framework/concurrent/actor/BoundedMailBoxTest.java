@@ -0,0 +1,294 @@
+package org.kin.framework.concurrent.actor;
+
+import com.google.common.base.Preconditions;
+import org.kin.framework.concurrent.partition.PartitionTaskExecutor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * 校验有界'邮箱'满时{@link OverflowPolicy}的处理以及{@link MailBoxStats}统计, 结果不符合预期则抛异常
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class BoundedMailBoxTest {
+    /** '邮箱'容量 */
+    private static final int CAPACITY = 10;
+
+    public static void main(String[] args) throws Exception {
+        check("event", () -> new EventBasedDispatcher<>(2));
+        check("pinned", () -> new PinnedDispatcher<>(2));
+        partitionTask();
+        System.out.println("all passed");
+        //PinnedDispatcher线程池为非守护线程
+        System.exit(0);
+    }
+
+    private static void check(String name, Supplier<Dispatcher<Integer, Integer>> supplier) throws Exception {
+        dropNewest(name, supplier.get());
+        dropOldest(name, supplier.get());
+        reject(name, supplier.get());
+        block(name, supplier.get());
+    }
+
+    /**
+     * 丢弃最新的消息, 即当前发送的消息, ask请求回复异常
+     */
+    private static void dropNewest(String name, Dispatcher<Integer, Integer> dispatcher) throws Exception {
+        GateReceiver receiver = new GateReceiver();
+        try {
+            dispatcher.register(1, receiver, false, MailBoxOptions.bounded(CAPACITY, OverflowPolicy.DROP_NEWEST));
+            receiver.block(dispatcher);
+            for (int i = 0; i < CAPACITY * 2; i++) {
+                Preconditions.checkState(dispatcher.offerMessage(1, i) == (i < CAPACITY), "%s offer %s", name, i);
+            }
+            CompletableFuture<Object> future = dispatcher.ask(1, CAPACITY * 2, 5, TimeUnit.SECONDS);
+            try {
+                future.get(1, TimeUnit.SECONDS);
+                throw new IllegalStateException(name + " dropped ask must be failed");
+            } catch (ExecutionException e) {
+                Preconditions.checkState(e.getCause() instanceof RejectedExecutionException, "%s ask failed by %s", name, e.getCause());
+            }
+
+            checkStats(name, dispatcher.mailBoxStats(1), CAPACITY, CAPACITY + 1, 0);
+            Preconditions.checkState(receiver.dropped().equals(range(CAPACITY, CAPACITY * 2 + 1)), "%s dropped: %s", name, receiver.dropped());
+            receiver.open();
+            receiver.awaitReceived(name, range(0, CAPACITY));
+        } finally {
+            receiver.open();
+            dispatcher.close();
+        }
+    }
+
+    /**
+     * 丢弃'邮箱'中最旧的消息, 当前消息入队
+     */
+    private static void dropOldest(String name, Dispatcher<Integer, Integer> dispatcher) throws Exception {
+        GateReceiver receiver = new GateReceiver();
+        try {
+            dispatcher.register(1, receiver, false, MailBoxOptions.bounded(CAPACITY, OverflowPolicy.DROP_OLDEST));
+            receiver.block(dispatcher);
+            for (int i = 0; i < CAPACITY * 2; i++) {
+                Preconditions.checkState(dispatcher.offerMessage(1, i), "%s offer %s", name, i);
+            }
+
+            checkStats(name, dispatcher.mailBoxStats(1), CAPACITY, CAPACITY, 0);
+            Preconditions.checkState(receiver.dropped().equals(range(0, CAPACITY)), "%s dropped: %s", name, receiver.dropped());
+            receiver.open();
+            receiver.awaitReceived(name, range(CAPACITY, CAPACITY * 2));
+        } finally {
+            receiver.open();
+            dispatcher.close();
+        }
+    }
+
+    /**
+     * 拒绝当前消息, 不通知Receiver
+     */
+    private static void reject(String name, Dispatcher<Integer, Integer> dispatcher) throws Exception {
+        GateReceiver receiver = new GateReceiver();
+        try {
+            dispatcher.register(1, receiver, false, MailBoxOptions.bounded(CAPACITY, OverflowPolicy.REJECT));
+            receiver.block(dispatcher);
+            for (int i = 0; i < CAPACITY * 2; i++) {
+                Preconditions.checkState(dispatcher.offerMessage(1, i) == (i < CAPACITY), "%s offer %s", name, i);
+            }
+
+            checkStats(name, dispatcher.mailBoxStats(1), CAPACITY, 0, CAPACITY);
+            Preconditions.checkState(receiver.dropped().isEmpty(), "%s rejected message must not be dropped: %s", name, receiver.dropped());
+            receiver.open();
+            receiver.awaitReceived(name, range(0, CAPACITY));
+        } finally {
+            receiver.open();
+            dispatcher.close();
+        }
+    }
+
+    /**
+     * 阻塞发送者直到有空位, 超时则拒绝
+     */
+    private static void block(String name, Dispatcher<Integer, Integer> dispatcher) throws Exception {
+        long timeoutMillis = 200;
+        GateReceiver receiver = new GateReceiver();
+        ScheduledExecutorService opener = Executors.newSingleThreadScheduledExecutor();
+        try {
+            dispatcher.register(1, receiver, false, MailBoxOptions.blocking(CAPACITY, timeoutMillis, TimeUnit.MILLISECONDS));
+            receiver.block(dispatcher);
+            for (int i = 0; i < CAPACITY; i++) {
+                Preconditions.checkState(dispatcher.offerMessage(1, i), "%s offer %s", name, i);
+            }
+
+            //'邮箱'一直满, 超时拒绝
+            long startNanos = System.nanoTime();
+            Preconditions.checkState(!dispatcher.offerMessage(1, CAPACITY), "%s offer must be timeout", name);
+            long costMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            Preconditions.checkState(costMillis >= timeoutMillis - 20, "%s sender must be blocked, cost %s ms", name, costMillis);
+            checkStats(name, dispatcher.mailBoxStats(1), CAPACITY, 0, 1);
+
+            //阻塞期间'邮箱'有空位, 则入队
+            opener.schedule(receiver::open, timeoutMillis / 4, TimeUnit.MILLISECONDS);
+            Preconditions.checkState(dispatcher.offerMessage(1, CAPACITY + 1), "%s blocked sender must be waked up", name);
+            List<Integer> expected = range(0, CAPACITY);
+            expected.add(CAPACITY + 1);
+            receiver.awaitReceived(name, expected);
+            Preconditions.checkState(receiver.dropped().isEmpty(), "%s dropped: %s", name, receiver.dropped());
+        } finally {
+            receiver.open();
+            opener.shutdown();
+            dispatcher.close();
+        }
+    }
+
+    private static void checkStats(String name, MailBoxStats stats, int size, long dropped, long rejected) {
+        Preconditions.checkState(stats.getCapacity() == CAPACITY && stats.getSize() == size
+                        && stats.getDropped() == dropped && stats.getRejected() == rejected,
+                "%s stats: %s", name, stats);
+    }
+
+    /**
+     * 分区task被丢弃时取消其future, 拒绝时抛异常
+     */
+    private static void partitionTask() throws Exception {
+        int capacity = 3;
+        int num = 10;
+        PartitionTaskExecutor<Integer> executor = new PartitionTaskExecutor<>(2, (key, partitionNum) -> key % partitionNum, "bounded-",
+                MailBoxOptions.bounded(capacity, OverflowPolicy.DROP_OLDEST));
+        CountDownLatch gate = new CountDownLatch(1);
+        try {
+            CountDownLatch blocked = new CountDownLatch(1);
+            executor.execute(0, () -> {
+                blocked.countDown();
+                await(gate);
+            });
+            Preconditions.checkState(blocked.await(5, TimeUnit.SECONDS), "partition must be blocked");
+            List<Future<Integer>> futures = new ArrayList<>(num);
+            for (int i = 0; i < num; i++) {
+                int value = i;
+                futures.add(executor.execute(0, () -> value));
+            }
+            gate.countDown();
+            for (int i = 0; i < num; i++) {
+                Future<Integer> future = futures.get(i);
+                if (i < num - capacity) {
+                    Preconditions.checkState(future.isCancelled(), "dropped task %s must be cancelled", i);
+                } else {
+                    Preconditions.checkState(future.get(5, TimeUnit.SECONDS) == i, "task %s result", i);
+                }
+            }
+        } finally {
+            gate.countDown();
+            executor.close();
+        }
+
+        executor = new PartitionTaskExecutor<>(2, (key, partitionNum) -> key % partitionNum, "bounded-",
+                MailBoxOptions.bounded(1, OverflowPolicy.REJECT));
+        CountDownLatch rejectGate = new CountDownLatch(1);
+        try {
+            CountDownLatch blocked = new CountDownLatch(1);
+            executor.execute(0, () -> {
+                blocked.countDown();
+                await(rejectGate);
+            });
+            Preconditions.checkState(blocked.await(5, TimeUnit.SECONDS), "partition must be blocked");
+            executor.execute(0, () -> {
+            });
+            try {
+                executor.execute(0, () -> {
+                });
+            } catch (RejectedExecutionException e) {
+                return;
+            }
+            throw new IllegalStateException("task must be rejected when mailbox is full");
+        } finally {
+            rejectGate.countDown();
+            executor.close();
+        }
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> list = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            list.add(i);
+        }
+        return list;
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 处理第一条消息时阻塞, 直到打开闸门, 记录收到和被丢弃的消息
+     */
+    private static class GateReceiver extends Receiver<Integer> {
+        /** 阻塞消息 */
+        private static final int BLOCKER = -1;
+
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final List<Integer> received = new ArrayList<>();
+        private final List<Integer> dropped = new ArrayList<>();
+
+        @Override
+        public void receive(Integer mail) {
+            if (mail == BLOCKER) {
+                blocked.countDown();
+                await(gate);
+                return;
+            }
+            synchronized (received) {
+                received.add(mail);
+            }
+        }
+
+        @Override
+        protected void onDrop(Integer mail) {
+            synchronized (dropped) {
+                dropped.add(mail);
+            }
+        }
+
+        /**
+         * 阻塞处理线程, 保证后续消息积压在'邮箱'
+         */
+        void block(Dispatcher<Integer, Integer> dispatcher) throws InterruptedException {
+            Preconditions.checkState(dispatcher.offerMessage(1, BLOCKER), "blocker must be accepted");
+            Preconditions.checkState(blocked.await(5, TimeUnit.SECONDS), "receiver must be blocked");
+        }
+
+        void open() {
+            gate.countDown();
+        }
+
+        List<Integer> dropped() {
+            synchronized (dropped) {
+                return new ArrayList<>(dropped);
+            }
+        }
+
+        void awaitReceived(String name, List<Integer> expected) throws InterruptedException {
+            for (int i = 0; i < 500; i++) {
+                synchronized (received) {
+                    if (received.size() >= expected.size()) {
+                        break;
+                    }
+                }
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            //多等一会, 确认没有多余的消息
+            TimeUnit.MILLISECONDS.sleep(50);
+            synchronized (received) {
+                Preconditions.checkState(received.equals(expected), "%s received: %s", name, received);
+            }
+        }
+    }
+}
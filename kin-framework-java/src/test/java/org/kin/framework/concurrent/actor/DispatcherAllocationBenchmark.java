@@ -0,0 +1,81 @@
+package org.kin.framework.concurrent.actor;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link EventBasedDispatcher}与{@link PinnedDispatcher}推送消息的吞吐量与内存分配
+ * 使用{@link GCProfiler}, 关注gc.alloc.rate.norm, 即每次调用(BATCH条消息)分配的字节数
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 10, timeUnit = TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class DispatcherAllocationBenchmark {
+    /** 每次调用推送的消息数量 */
+    private static final int BATCH = 1000;
+    /** 消息, 复用同一实例, 排除消息本身的分配 */
+    private static final Object MESSAGE = new Object();
+
+    @Param({"eventBased", "pinned"})
+    private String dispatcherType;
+
+    private Dispatcher<Integer, Object> dispatcher;
+    /** 已处理的消息数量 */
+    private final AtomicLong received = new AtomicLong();
+    /** 已推送的消息数量 */
+    private long posted;
+
+    @Setup
+    public void setup() {
+        if ("pinned".equals(dispatcherType)) {
+            dispatcher = new PinnedDispatcher<>(1);
+        } else {
+            dispatcher = new EventBasedDispatcher<>(1);
+        }
+        dispatcher.register(1, new Receiver<Object>() {
+            @Override
+            public void receive(Object mail) {
+                received.lazySet(received.get() + 1);
+            }
+        }, false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        dispatcher.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void postMessage() {
+        for (int i = 0; i < BATCH; i++) {
+            dispatcher.postMessage(1, MESSAGE);
+        }
+        posted += BATCH;
+        while (received.get() < posted) {
+            Thread.yield();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(DispatcherAllocationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .forks(1)
+                .output("DispatcherAllocationBenchmark.log")
+                .build();
+        new Runner(opt).run();
+    }
+}
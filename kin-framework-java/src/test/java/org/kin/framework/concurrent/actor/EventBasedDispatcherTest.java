@@ -0,0 +1,181 @@
+package org.kin.framework.concurrent.actor;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 校验{@link EventBasedDispatcher}worker空闲时窃取'邮箱', 被阻塞worker上的'邮箱'不会饿死, 窃取后消息仍按顺序处理, 结果不符合预期则抛异常
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class EventBasedDispatcherTest {
+    public static void main(String[] args) throws Exception {
+        stealFromBlockedWorker();
+        noStarvation();
+        orderingWhileStealing();
+        System.out.println("all passed");
+    }
+
+    /**
+     * 绑定worker被阻塞, 其队列中的'邮箱'被其他worker窃取处理
+     */
+    private static void stealFromBlockedWorker() throws Exception {
+        int parallelism = 4;
+        EventBasedDispatcher<Integer, Integer> dispatcher = new EventBasedDispatcher<>(parallelism, 8);
+        CountDownLatch blockLatch = new CountDownLatch(1);
+        CountDownLatch blocked = new CountDownLatch(1);
+        AtomicReference<Thread> blockedThread = new AtomicReference<>();
+        int num = 100;
+        CountDownLatch latch = new CountDownLatch(num);
+        AtomicReference<Thread> stolenThread = new AtomicReference<>();
+        try {
+            //按注册顺序轮询绑定worker, 0与parallelism绑定同一worker
+            for (int key = 0; key <= parallelism; key++) {
+                int receiverKey = key;
+                dispatcher.register(key, new Receiver<Integer>() {
+                    @Override
+                    public void receive(Integer mail) {
+                        if (receiverKey == 0) {
+                            blockedThread.set(Thread.currentThread());
+                            blocked.countDown();
+                            await(blockLatch);
+                        } else if (receiverKey == parallelism) {
+                            stolenThread.set(Thread.currentThread());
+                            latch.countDown();
+                        }
+                    }
+                }, false);
+            }
+            dispatcher.postMessage(0, 0);
+            Preconditions.checkState(blocked.await(5, TimeUnit.SECONDS), "worker must be blocked");
+            for (int i = 0; i < num; i++) {
+                dispatcher.postMessage(parallelism, i);
+            }
+            Preconditions.checkState(latch.await(5, TimeUnit.SECONDS), "mailbox on blocked worker must be stolen, received: %s", num - latch.getCount());
+            Preconditions.checkState(stolenThread.get() != blockedThread.get(), "mailbox must be handled by other worker");
+        } finally {
+            blockLatch.countDown();
+            dispatcher.close();
+        }
+    }
+
+    /**
+     * 一个Receiver处理很慢, 其余Receiver不会被饿死
+     */
+    private static void noStarvation() throws Exception {
+        int receivers = 100;
+        int num = 100;
+        EventBasedDispatcher<Integer, Integer> dispatcher = new EventBasedDispatcher<>(4, 8);
+        AtomicInteger light = new AtomicInteger();
+        CountDownLatch lightLatch = new CountDownLatch((receivers - 1) * num);
+        AtomicInteger heavy = new AtomicInteger();
+        try {
+            for (int key = 0; key < receivers; key++) {
+                int receiverKey = key;
+                dispatcher.register(key, new Receiver<Integer>() {
+                    @Override
+                    public void receive(Integer mail) {
+                        if (receiverKey == 0) {
+                            sleep(200);
+                            heavy.incrementAndGet();
+                        } else {
+                            light.incrementAndGet();
+                            lightLatch.countDown();
+                        }
+                    }
+                }, false);
+            }
+            for (int i = 0; i < 5; i++) {
+                dispatcher.postMessage(0, i);
+            }
+            for (int i = 0; i < num; i++) {
+                for (int key = 1; key < receivers; key++) {
+                    dispatcher.postMessage(key, i);
+                }
+            }
+            //慢Receiver共需1000ms
+            Preconditions.checkState(lightLatch.await(800, TimeUnit.MILLISECONDS), "light receivers are starved, received: %s", light.get());
+            Preconditions.checkState(heavy.get() < 5, "light receivers must be finished before heavy receiver: %s", heavy.get());
+        } finally {
+            dispatcher.close();
+        }
+    }
+
+    /**
+     * '邮箱'被窃取并绑定到其他worker后, 消息仍按顺序处理, 且同一时刻只有一条线程处理
+     */
+    private static void orderingWhileStealing() throws Exception {
+        int receivers = 16;
+        int num = 2000;
+        EventBasedDispatcher<Integer, Integer> dispatcher = new EventBasedDispatcher<>(4, 4);
+        CountDownLatch latch = new CountDownLatch(receivers * num);
+        AtomicReference<String> error = new AtomicReference<>();
+        List<Thread> producers = new ArrayList<>(receivers);
+        try {
+            for (int key = 0; key < receivers; key++) {
+                int receiverKey = key;
+                dispatcher.register(key, new Receiver<Integer>() {
+                    private final AtomicInteger active = new AtomicInteger();
+                    private int next;
+
+                    @Override
+                    public void receive(Integer mail) {
+                        if (active.incrementAndGet() != 1) {
+                            error.compareAndSet(null, String.format("receiver %s is handled concurrently", receiverKey));
+                        }
+                        if (mail != next) {
+                            error.compareAndSet(null, String.format("receiver %s expect %s, but %s", receiverKey, next, mail));
+                        }
+                        next = mail + 1;
+                        if (ThreadLocalRandom.current().nextInt(200) == 0) {
+                            //偶尔阻塞, 触发窃取
+                            sleep(1);
+                        }
+                        active.decrementAndGet();
+                        latch.countDown();
+                    }
+                }, false);
+                Thread producer = new Thread(() -> {
+                    for (int i = 0; i < num; i++) {
+                        dispatcher.postMessage(receiverKey, i);
+                    }
+                });
+                producers.add(producer);
+            }
+            for (Thread producer : producers) {
+                producer.start();
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            Preconditions.checkState(latch.await(30, TimeUnit.SECONDS), "received: %s", receivers * num - latch.getCount());
+            Preconditions.checkState(error.get() == null, error.get());
+        } finally {
+            dispatcher.close();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package org.kin.framework.concurrent.actor;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 校验'邮箱'多发送者消息顺序, 不允许并发时单线程处理, 每次调度处理消息数限制以及生命周期回调, 结果不符合预期则抛异常
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class InBoxTest {
+    public static void main(String[] args) throws Exception {
+        ordering();
+        throughput();
+        concurrent();
+        lifecycle();
+        System.out.println("all passed");
+    }
+
+    /**
+     * 多发送者, 同一发送者的消息按发送顺序处理, 不允许并发则同一时刻只有一条线程处理
+     */
+    private static void ordering() throws Exception {
+        int producers = 4;
+        int num = 50000;
+        EventBasedDispatcher<Integer, Long> dispatcher = new EventBasedDispatcher<>(4, 8);
+        OrderedReceiver receiver = new OrderedReceiver(producers, producers * num);
+        try {
+            dispatcher.register(1, receiver, false);
+            List<Thread> threads = new ArrayList<>(producers);
+            for (int p = 0; p < producers; p++) {
+                long producer = p;
+                Thread thread = new Thread(() -> {
+                    for (int seq = 0; seq < num; seq++) {
+                        dispatcher.postMessage(1, (producer << 32) | seq);
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            Preconditions.checkState(receiver.latch.await(10, TimeUnit.SECONDS), "received: %s", receiver.received.get());
+            Preconditions.checkState(receiver.error.get() == null, receiver.error.get());
+            Preconditions.checkState(receiver.received.get() == producers * num, "received: %s", receiver.received.get());
+        } finally {
+            dispatcher.close();
+        }
+    }
+
+    /**
+     * 每次调度最多处理throughput条消息, 积压大量消息的'邮箱'不会长期占用worker
+     */
+    private static void throughput() throws Exception {
+        EventBasedDispatcher<Integer, Integer> dispatcher = new EventBasedDispatcher<>(1, 8);
+        AtomicInteger busyReceived = new AtomicInteger();
+        AtomicInteger busyReceivedWhenIdleHandled = new AtomicInteger(-1);
+        CountDownLatch idleLatch = new CountDownLatch(1);
+        CountDownLatch blockLatch = new CountDownLatch(1);
+        int num = 100000;
+        try {
+            dispatcher.register(1, new Receiver<Integer>() {
+                @Override
+                public void receive(Integer mail) {
+                    if (mail == -1) {
+                        await(blockLatch);
+                        return;
+                    }
+                    busyReceived.incrementAndGet();
+                }
+            }, false);
+            dispatcher.register(2, new Receiver<Integer>() {
+                @Override
+                public void receive(Integer mail) {
+                    busyReceivedWhenIdleHandled.set(busyReceived.get());
+                    idleLatch.countDown();
+                }
+            }, false);
+
+            //先阻塞唯一的worker, 保证消息积压
+            dispatcher.postMessage(1, -1);
+            for (int i = 0; i < num; i++) {
+                dispatcher.postMessage(1, i);
+            }
+            dispatcher.postMessage(2, 0);
+            blockLatch.countDown();
+            Preconditions.checkState(idleLatch.await(10, TimeUnit.SECONDS), "idle receiver must be handled");
+            Preconditions.checkState(busyReceivedWhenIdleHandled.get() < num / 2, "idle receiver is handled after %s busy messages", busyReceivedWhenIdleHandled.get());
+        } finally {
+            blockLatch.countDown();
+            dispatcher.close();
+        }
+    }
+
+    /**
+     * 允许并发的Receiver, 消息被多条线程同时处理
+     */
+    private static void concurrent() throws Exception {
+        EventBasedDispatcher<Integer, Integer> dispatcher = new EventBasedDispatcher<>(4);
+        AtomicInteger active = new AtomicInteger();
+        AtomicInteger maxActive = new AtomicInteger();
+        int num = 200;
+        CountDownLatch latch = new CountDownLatch(num);
+        try {
+            dispatcher.register(1, new Receiver<Integer>() {
+                @Override
+                public void receive(Integer mail) {
+                    maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                    sleep(5);
+                    active.decrementAndGet();
+                    latch.countDown();
+                }
+            }, true);
+            for (int i = 0; i < num; i++) {
+                dispatcher.postMessage(1, i);
+            }
+            Preconditions.checkState(latch.await(10, TimeUnit.SECONDS), "received: %s", num - latch.getCount());
+            Preconditions.checkState(maxActive.get() > 1, "concurrent receiver must be handled by multiple threads: %s", maxActive.get());
+        } finally {
+            dispatcher.close();
+        }
+    }
+
+    /**
+     * 第一条消息前执行onStart, 注销后处理完已入队消息再执行onStop, 之后的消息被拒绝
+     */
+    private static void lifecycle() throws Exception {
+        EventBasedDispatcher<Integer, Integer> dispatcher = new EventBasedDispatcher<>(2);
+        List<String> events = new ArrayList<>();
+        CountDownLatch stopLatch = new CountDownLatch(2);
+        try {
+            dispatcher.register(1, new Receiver<Integer>() {
+                @Override
+                public void receive(Integer mail) {
+                    synchronized (events) {
+                        events.add("receive" + mail);
+                    }
+                    sleep(1);
+                }
+
+                @Override
+                protected void onStart() {
+                    synchronized (events) {
+                        events.add("start");
+                    }
+                }
+
+                @Override
+                protected void onStop() {
+                    synchronized (events) {
+                        events.add("stop");
+                    }
+                    stopLatch.countDown();
+                }
+            }, false);
+            AtomicLong stopped = new AtomicLong();
+            dispatcher.register(2, new Receiver<Integer>() {
+                @Override
+                public void receive(Integer mail) {
+                }
+
+                @Override
+                protected void onStop() {
+                    stopped.incrementAndGet();
+                    stopLatch.countDown();
+                }
+            }, false);
+
+            for (int i = 0; i < 3; i++) {
+                dispatcher.postMessage(1, i);
+            }
+            dispatcher.unregister(1);
+            Preconditions.checkState(!dispatcher.offerMessage(1, 3), "message to unregistered receiver must be rejected");
+            //关闭时执行其余Receiver的onStop
+            dispatcher.close();
+            Preconditions.checkState(stopLatch.await(5, TimeUnit.SECONDS), "onStop must be called");
+            synchronized (events) {
+                Preconditions.checkState(events.equals(Arrays.asList("start", "receive0", "receive1", "receive2", "stop")), "events: %s", events);
+            }
+            Preconditions.checkState(stopped.get() == 1, "onStop must be called once: %s", stopped.get());
+            Preconditions.checkState(!dispatcher.offerMessage(2, 0), "message after close must be rejected");
+        } finally {
+            dispatcher.close();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 校验同一发送者消息顺序, 以及同一时刻只有一条线程处理
+     */
+    private static class OrderedReceiver extends Receiver<Long> {
+        private final int[] nextSeqs;
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger received = new AtomicInteger();
+        private final AtomicReference<String> error = new AtomicReference<>();
+        private final CountDownLatch latch;
+
+        OrderedReceiver(int producers, int total) {
+            this.nextSeqs = new int[producers];
+            this.latch = new CountDownLatch(total);
+        }
+
+        @Override
+        public void receive(Long mail) {
+            if (active.incrementAndGet() != 1) {
+                error.compareAndSet(null, "receiver is handled concurrently");
+            }
+            int producer = (int) (mail >>> 32);
+            int seq = (int) (long) mail;
+            if (nextSeqs[producer] != seq) {
+                error.compareAndSet(null, String.format("producer %s expect seq %s, but %s", producer, nextSeqs[producer], seq));
+            }
+            nextSeqs[producer] = seq + 1;
+            received.incrementAndGet();
+            active.decrementAndGet();
+            latch.countDown();
+        }
+    }
+}
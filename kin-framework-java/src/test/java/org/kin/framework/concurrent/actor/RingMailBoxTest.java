@@ -0,0 +1,296 @@
+package org.kin.framework.concurrent.actor;
+
+import com.google.common.base.Preconditions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 校验{@link RingMailBox}关闭时处理完已入队消息, 唤醒等待中的生产者, 消费线程自身投递溢出以及Receiver异常, 结果不符合预期则抛异常
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class RingMailBoxTest {
+    public static void main(String[] args) throws Exception {
+        for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+            drainOnClose(waitStrategy);
+            closeIdle(waitStrategy);
+        }
+        wakeupProducers(MailBoxOptions.unbounded());
+        wakeupProducers(MailBoxOptions.blocking(16, 1, TimeUnit.HOURS));
+        spill();
+        receiveError();
+        System.out.println("all passed");
+    }
+
+    /**
+     * 关闭后拒绝新消息, 处理完关闭前已入队的消息后执行onStop, 分区可重新注册
+     */
+    private static void drainOnClose(WaitStrategy waitStrategy) throws Exception {
+        int num = 500;
+        RingBufferDispatcher<Integer> dispatcher = new RingBufferDispatcher<>(1, "ring-", 1024, waitStrategy);
+        RecordReceiver receiver = new RecordReceiver();
+        try {
+            dispatcher.register(0, receiver, false);
+            receiver.block(dispatcher);
+            for (int i = 0; i < num; i++) {
+                Preconditions.checkState(dispatcher.offerMessage(0, i), "%s offer %s", waitStrategy, i);
+            }
+            dispatcher.unregister(0);
+            Preconditions.checkState(!dispatcher.offerMessage(0, num), "%s message after close must be rejected", waitStrategy);
+            Preconditions.checkState(!receiver.stopped(), "%s onStop must be called after queued messages", waitStrategy);
+
+            receiver.open();
+            receiver.awaitStop(waitStrategy.name());
+            receiver.checkReceived(waitStrategy.name(), num);
+
+            //消费线程已退出, 唯一的线程可以绑定新注册的'邮箱'
+            RecordReceiver another = new RecordReceiver();
+            dispatcher.register(0, another, false);
+            another.open();
+            for (int i = 0; i < num; i++) {
+                Preconditions.checkState(dispatcher.offerMessage(0, i), "%s offer %s", waitStrategy, i);
+            }
+            dispatcher.unregister(0);
+            another.awaitStop(waitStrategy.name());
+            another.checkReceived(waitStrategy.name(), num);
+        } finally {
+            receiver.open();
+            dispatcher.close();
+        }
+    }
+
+    /**
+     * 消费线程空闲(可能已park)时关闭, 及时执行onStop
+     */
+    private static void closeIdle(WaitStrategy waitStrategy) throws Exception {
+        RingBufferDispatcher<Integer> dispatcher = new RingBufferDispatcher<>(1, "ring-", 1024, waitStrategy);
+        RecordReceiver receiver = new RecordReceiver();
+        receiver.open();
+        try {
+            dispatcher.register(0, receiver, false);
+            dispatcher.postMessage(0, 0);
+            //等待消费线程进入空闲等待
+            TimeUnit.MILLISECONDS.sleep(100);
+            long startNanos = System.nanoTime();
+            dispatcher.close();
+            receiver.awaitStop(waitStrategy.name());
+            long costMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+            Preconditions.checkState(costMillis < 500, "%s idle consumer must be waked up, cost %s ms", waitStrategy, costMillis);
+            receiver.checkReceived(waitStrategy.name(), 1);
+        } finally {
+            dispatcher.close();
+        }
+    }
+
+    /**
+     * '邮箱'满时等待中的生产者, 关闭后立即返回, 关闭前入队的消息都会被处理
+     */
+    private static void wakeupProducers(MailBoxOptions options) throws Exception {
+        int producers = 4;
+        int bufferSize = 16;
+        RingBufferDispatcher<Integer> dispatcher = new RingBufferDispatcher<>(1, "ring-", bufferSize, WaitStrategy.PARK);
+        RecordReceiver receiver = new RecordReceiver();
+        AtomicInteger accepted = new AtomicInteger();
+        AtomicInteger refused = new AtomicInteger();
+        try {
+            dispatcher.register(0, receiver, false, options);
+            receiver.block(dispatcher);
+            List<Thread> threads = new ArrayList<>(producers);
+            for (int p = 0; p < producers; p++) {
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < bufferSize; i++) {
+                        if (dispatcher.offerMessage(0, i)) {
+                            accepted.incrementAndGet();
+                        } else {
+                            refused.incrementAndGet();
+                        }
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            //等待'邮箱'满, 生产者阻塞
+            for (int i = 0; i < 100 && accepted.get() < bufferSize; i++) {
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+            TimeUnit.MILLISECONDS.sleep(50);
+            Preconditions.checkState(accepted.get() == bufferSize && refused.get() == 0,
+                    "%s producers must wait, accepted %s, refused %s", options, accepted.get(), refused.get());
+
+            dispatcher.unregister(0);
+            for (Thread thread : threads) {
+                thread.join(5000);
+                Preconditions.checkState(!thread.isAlive(), "%s waiting producer must return after close", options);
+            }
+            Preconditions.checkState(accepted.get() + refused.get() == producers * bufferSize, "%s accepted %s, refused %s", options, accepted.get(), refused.get());
+
+            receiver.open();
+            receiver.awaitStop(options.toString());
+            synchronized (receiver.received) {
+                Preconditions.checkState(receiver.received.size() == accepted.get(), "%s received %s, accepted %s", options, receiver.received.size(), accepted.get());
+            }
+        } finally {
+            receiver.open();
+            dispatcher.close();
+        }
+    }
+
+    /**
+     * 消费线程向自身投递超过容量的消息, 不会死锁, 按投递顺序处理, 关闭前溢出的消息也会被处理
+     */
+    private static void spill() throws Exception {
+        int bufferSize = 16;
+        int num = bufferSize * 4;
+        RingBufferDispatcher<Integer> dispatcher = new RingBufferDispatcher<>(1, "ring-", bufferSize, WaitStrategy.PARK);
+        List<Integer> received = new ArrayList<>();
+        AtomicInteger selfAccepted = new AtomicInteger();
+        AtomicInteger selfRefused = new AtomicInteger();
+        CountDownLatch stopLatch = new CountDownLatch(1);
+        try {
+            dispatcher.register(0, new Receiver<Integer>() {
+                @Override
+                public void receive(Integer mail) {
+                    received.add(mail);
+                    if (mail == 0) {
+                        for (int i = 1; i <= num; i++) {
+                            if (dispatcher.offerMessage(0, i)) {
+                                selfAccepted.incrementAndGet();
+                            }
+                        }
+                        //关闭后消费线程自身投递也被拒绝
+                        dispatcher.unregister(0);
+                        if (!dispatcher.offerMessage(0, num + 1)) {
+                            selfRefused.incrementAndGet();
+                        }
+                    }
+                }
+
+                @Override
+                protected void onStop() {
+                    stopLatch.countDown();
+                }
+            }, false);
+            dispatcher.postMessage(0, 0);
+            Preconditions.checkState(stopLatch.await(5, TimeUnit.SECONDS), "onStop must be called");
+            Preconditions.checkState(selfAccepted.get() == num, "self post accepted: %s", selfAccepted.get());
+            Preconditions.checkState(selfRefused.get() == 1, "self post after close must be rejected");
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i <= num; i++) {
+                expected.add(i);
+            }
+            Preconditions.checkState(received.equals(expected), "received: %s", received);
+        } finally {
+            dispatcher.close();
+        }
+    }
+
+    /**
+     * Receiver抛出异常(包括Error), 消费线程不退出, 继续处理后续消息
+     */
+    private static void receiveError() throws Exception {
+        RingBufferDispatcher<Integer> dispatcher = new RingBufferDispatcher<>(1, "ring-");
+        CountDownLatch latch = new CountDownLatch(3);
+        try {
+            dispatcher.register(0, new Receiver<Integer>() {
+                @Override
+                public void receive(Integer mail) {
+                    latch.countDown();
+                    if (mail == 0) {
+                        throw new IllegalStateException("receive exception");
+                    } else if (mail == 1) {
+                        throw new AssertionError("receive error");
+                    }
+                }
+            }, false);
+            for (int i = 0; i < 3; i++) {
+                dispatcher.postMessage(0, i);
+            }
+            Preconditions.checkState(latch.await(5, TimeUnit.SECONDS), "messages after error must be handled: %s", latch.getCount());
+        } finally {
+            dispatcher.close();
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 处理阻塞消息时等待闸门打开, 记录收到的消息, 校验onStop在所有消息之后执行
+     */
+    private static class RecordReceiver extends Receiver<Integer> {
+        /** 阻塞消息 */
+        private static final int BLOCKER = -1;
+
+        private final CountDownLatch blocked = new CountDownLatch(1);
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final CountDownLatch stopLatch = new CountDownLatch(1);
+        private final List<Integer> received = new ArrayList<>();
+        private final AtomicInteger stopped = new AtomicInteger();
+        /** onStop之后收到的消息数 */
+        private final AtomicInteger afterStop = new AtomicInteger();
+
+        @Override
+        public void receive(Integer mail) {
+            if (stopped.get() > 0) {
+                afterStop.incrementAndGet();
+            }
+            if (mail == BLOCKER) {
+                blocked.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return;
+            }
+            synchronized (received) {
+                received.add(mail);
+            }
+        }
+
+        @Override
+        protected void onStop() {
+            stopped.incrementAndGet();
+            stopLatch.countDown();
+        }
+
+        /**
+         * 阻塞消费线程, 保证后续消息积压在'邮箱'
+         */
+        void block(Dispatcher<Integer, Integer> dispatcher) throws InterruptedException {
+            Preconditions.checkState(dispatcher.offerMessage(0, BLOCKER), "blocker must be accepted");
+            Preconditions.checkState(blocked.await(5, TimeUnit.SECONDS), "consumer must be blocked");
+        }
+
+        void open() {
+            gate.countDown();
+        }
+
+        boolean stopped() {
+            return stopped.get() > 0;
+        }
+
+        void awaitStop(String name) throws InterruptedException {
+            Preconditions.checkState(stopLatch.await(5, TimeUnit.SECONDS), "%s onStop must be called", name);
+            //多等一会, 确认onStop只执行一次
+            TimeUnit.MILLISECONDS.sleep(20);
+            Preconditions.checkState(stopped.get() == 1 && afterStop.get() == 0, "%s onStop %s times, %s messages after onStop", name, stopped.get(), afterStop.get());
+        }
+
+        /**
+         * 按顺序收到0到num-1
+         */
+        void checkReceived(String name, int num) {
+            synchronized (received) {
+                Preconditions.checkState(received.size() == num, "%s received %s", name, received.size());
+                for (int i = 0; i < num; i++) {
+                    Preconditions.checkState(received.get(i) == i, "%s expect %s, but %s", name, i, received.get(i));
+                }
+            }
+        }
+    }
+}
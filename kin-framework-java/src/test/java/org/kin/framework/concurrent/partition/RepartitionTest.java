@@ -0,0 +1,401 @@
+package org.kin.framework.concurrent.partition;
+
+import com.google.common.base.Preconditions;
+import org.kin.framework.concurrent.actor.MailBoxOptions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 校验{@link PartitionTaskExecutor}槽位迁移, 热点key独占线程以及热点分区再平衡时, 同一key的task仍按顺序且串行执行, 结果不符合预期则抛异常
+ *
+ * @author huangjianqin
+ * @date 2021/1/13
+ */
+public class RepartitionTest {
+    private static final Partitioner<Integer> PARTITIONER = (key, partitionNum) -> key % partitionNum;
+
+    public static void main(String[] args) throws Exception {
+        migrate();
+        pinAndUnpin();
+        pinWhileDelivering();
+        concurrentRepartition();
+        rebalance();
+        System.out.println("all passed");
+        //PinnedDispatcher线程池为非守护线程
+        System.exit(0);
+    }
+
+    /**
+     * 冻结期间提交的task暂存, 原分区处理完冻结前入队的task后, 才在新分区执行
+     */
+    private static void migrate() throws Exception {
+        PartitionTaskExecutor<Integer> executor = new PartitionTaskExecutor<>(2, PARTITIONER, "migrate-");
+        Recorder recorder = new Recorder();
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch fromGate = new CountDownLatch(1);
+        try {
+            block(executor, 0, gate);
+            submit(executor, recorder, 0, 0, 100);
+            Preconditions.checkState(executor.migrate(slot(0, 2), 1), "migration must be started");
+            Preconditions.checkState(!executor.migrate(slot(0, 2), 0), "only one migration at a time");
+            submit(executor, recorder, 0, 100, 200);
+            gate.countDown();
+
+            recorder.await(200);
+            recorder.check(0, 200);
+            Preconditions.checkState(executor.partition(0) == 1, "key must be migrated to partition 1, but %s", executor.partition(0));
+
+            //原分区阻塞不影响已迁移的key
+            block(executor, 2, fromGate);
+            executor.execute(0, () -> null).get(5, TimeUnit.SECONDS);
+        } finally {
+            gate.countDown();
+            fromGate.countDown();
+            executor.close();
+        }
+    }
+
+    /**
+     * 热点key独占线程, 同槽位其他key留在原分区; 取消独占后回到原分区, 顺序不变
+     */
+    private static void pinAndUnpin() throws Exception {
+        PartitionTaskExecutor<Integer> executor = new PartitionTaskExecutor<>(2, PARTITIONER, "pin-");
+        int hotKey = 0;
+        int sibling = sameSlotKey(hotKey, 2);
+        Recorder recorder = new Recorder();
+        Recorder siblingRecorder = new Recorder();
+        CountDownLatch gate = new CountDownLatch(1);
+        CountDownLatch dedicatedGate = new CountDownLatch(1);
+        try {
+            //pin
+            block(executor, hotKey, gate);
+            submit(executor, recorder, hotKey, 0, 100);
+            submit(executor, siblingRecorder, sibling, 0, 100);
+            Preconditions.checkState(executor.pin(hotKey), "pin must be started");
+            submit(executor, recorder, hotKey, 100, 200);
+            submit(executor, siblingRecorder, sibling, 100, 200);
+            gate.countDown();
+
+            recorder.await(200);
+            siblingRecorder.await(200);
+            recorder.check(hotKey, 200);
+            siblingRecorder.check(sibling, 200);
+            Preconditions.checkState(executor.dedicatedKeys().equals(Arrays.asList(hotKey)), "dedicated keys: %s", executor.dedicatedKeys());
+            for (int seq = 0; seq < 200; seq++) {
+                Preconditions.checkState(recorder.isDedicated(seq) == seq >= 100, "task %s of pinned key runs on %s", seq, recorder.threads.get(seq));
+                Preconditions.checkState(!siblingRecorder.isDedicated(seq), "task %s of sibling key must stay on partition", seq);
+            }
+
+            //unpin
+            Preconditions.checkState(isDedicated(block(executor, hotKey, dedicatedGate)), "dedicated thread must be blocked");
+            submit(executor, recorder, hotKey, 200, 300);
+            Preconditions.checkState(executor.unpin(hotKey), "unpin must be started");
+            submit(executor, recorder, hotKey, 300, 400);
+            dedicatedGate.countDown();
+
+            recorder.await(400);
+            recorder.check(hotKey, 400);
+            Preconditions.checkState(executor.dedicatedKeys().isEmpty(), "dedicated keys: %s", executor.dedicatedKeys());
+            for (int seq = 200; seq < 400; seq++) {
+                Preconditions.checkState(recorder.isDedicated(seq) == seq < 300, "task %s of unpinned key runs on %s", seq, recorder.threads.get(seq));
+            }
+        } finally {
+            gate.countDown();
+            dedicatedGate.countDown();
+            executor.close();
+        }
+    }
+
+    /**
+     * 冻结路由需等待正在投递的task入队, 期间同槽位暂存的热点key task, 也会移到独占线程并排在前面
+     */
+    private static void pinWhileDelivering() throws Exception {
+        int capacity = 4;
+        PartitionTaskExecutor<Integer> executor = new PartitionTaskExecutor<>(2, PARTITIONER, "delivering-",
+                MailBoxOptions.blocking(capacity, 1, TimeUnit.HOURS));
+        int hotKey = 0;
+        int sibling = sameSlotKey(hotKey, 2);
+        Recorder recorder = new Recorder();
+        Recorder siblingRecorder = new Recorder();
+        CountDownLatch gate = new CountDownLatch(1);
+        try {
+            block(executor, hotKey, gate);
+            submit(executor, recorder, hotKey, 0, capacity);
+            //'邮箱'已满, 投递阻塞
+            Thread delivering = new Thread(() -> submit(executor, siblingRecorder, sibling, 0, 1));
+            delivering.start();
+            awaitWaiting(delivering);
+            //冻结槽位后等待正在投递的task入队
+            Thread pinning = new Thread(() -> executor.pin(hotKey));
+            pinning.start();
+            awaitWaiting(pinning);
+            //此时热点key还没发布独占路由, task暂存在槽位路由
+            submit(executor, recorder, hotKey, capacity, capacity + 100);
+            gate.countDown();
+            pinning.join(5000);
+            Preconditions.checkState(!pinning.isAlive(), "pin must be finished");
+            submit(executor, recorder, hotKey, capacity + 100, capacity + 200);
+
+            recorder.await(capacity + 200);
+            siblingRecorder.await(1);
+            recorder.check(hotKey, capacity + 200);
+            siblingRecorder.check(sibling, 1);
+            Preconditions.checkState(!siblingRecorder.isDedicated(0), "sibling key must stay on partition");
+            for (int seq = 0; seq < capacity + 200; seq++) {
+                Preconditions.checkState(recorder.isDedicated(seq) == seq >= capacity, "task %s of pinned key runs on %s", seq, recorder.threads.get(seq));
+            }
+        } finally {
+            gate.countDown();
+            executor.close();
+        }
+    }
+
+    /**
+     * 多线程提交task的同时随机迁移, 独占, 取消独占以及再平衡, 同一发送者同一key的task按顺序执行, 且同一key不会被并发执行
+     */
+    private static void concurrentRepartition() throws Exception {
+        int keys = 64;
+        int hotKey = 7;
+        int producers = 4;
+        int num = 50000;
+        int partitionNum = 4;
+        PartitionTaskExecutor<Integer> executor = new PartitionTaskExecutor<>(partitionNum, PARTITIONER, "repartition-");
+        long[][] lastSeqs = new long[producers][keys];
+        for (long[] seqs : lastSeqs) {
+            Arrays.fill(seqs, -1);
+        }
+        AtomicBoolean[] running = new AtomicBoolean[keys];
+        for (int i = 0; i < keys; i++) {
+            running[i] = new AtomicBoolean();
+        }
+        AtomicReference<String> error = new AtomicReference<>();
+        CountDownLatch latch = new CountDownLatch(producers * num);
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicInteger repartitions = new AtomicInteger();
+        Thread controller = new Thread(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while (!stop.get()) {
+                boolean started;
+                switch (random.nextInt(4)) {
+                    case 0:
+                        started = executor.migrate(random.nextInt(partitionNum * PartitionTaskExecutor.SLOTS_PER_PARTITION), random.nextInt(partitionNum));
+                        break;
+                    case 1:
+                        started = executor.pin(hotKey);
+                        break;
+                    case 2:
+                        started = executor.unpin(hotKey);
+                        break;
+                    default:
+                        started = executor.rebalance();
+                }
+                if (started) {
+                    repartitions.incrementAndGet();
+                }
+                Thread.yield();
+            }
+        });
+        try {
+            controller.start();
+            Thread[] threads = new Thread[producers];
+            for (int p = 0; p < producers; p++) {
+                int producer = p;
+                threads[p] = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long[] seqs = new long[keys];
+                    for (int i = 0; i < num; i++) {
+                        int key = random.nextInt(4) == 0 ? hotKey : random.nextInt(keys);
+                        long seq = seqs[key]++;
+                        executor.execute(key, () -> {
+                            if (!running[key].compareAndSet(false, true)) {
+                                error.compareAndSet(null, String.format("key %s is executed concurrently", key));
+                            }
+                            if (lastSeqs[producer][key] + 1 != seq) {
+                                error.compareAndSet(null, String.format("producer %s key %s expect %s, but %s", producer, key, lastSeqs[producer][key] + 1, seq));
+                            }
+                            lastSeqs[producer][key] = seq;
+                            running[key].set(false);
+                            latch.countDown();
+                        });
+                    }
+                });
+                threads[p].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            Preconditions.checkState(latch.await(60, TimeUnit.SECONDS), "executed: %s", producers * num - latch.getCount());
+        } finally {
+            stop.set(true);
+            controller.join();
+            executor.close();
+        }
+        Preconditions.checkState(error.get() == null, error.get());
+        Preconditions.checkState(repartitions.get() > 0, "no repartition happened");
+    }
+
+    /**
+     * 同一分区两个槽位很忙, 再平衡将其中一个槽位迁移到空闲分区
+     */
+    private static void rebalance() throws Exception {
+        PartitionTaskExecutor<Integer> executor = new PartitionTaskExecutor<>(4, PARTITIONER, "rebalance-");
+        int hot1 = 0;
+        int hot2 = differentSlotKey(hot1, 4);
+        try {
+            for (int i = 0; i < 2000; i++) {
+                executor.execute(hot1, () -> spin(20000));
+                executor.execute(hot2, () -> spin(20000));
+                executor.execute(1, () -> {
+                });
+                executor.execute(2, () -> {
+                });
+            }
+            executor.execute(hot1, () -> null).get(10, TimeUnit.SECONDS);
+            executor.execute(hot2, () -> null).get(10, TimeUnit.SECONDS);
+            Preconditions.checkState(executor.partition(hot1) == 0 && executor.partition(hot2) == 0, "hot keys must be on partition 0");
+
+            Preconditions.checkState(executor.rebalance(), "hot partition must be rebalanced");
+            //等待屏障task执行, 迁移完成
+            executor.execute(hot1, () -> null).get(10, TimeUnit.SECONDS);
+            executor.execute(hot2, () -> null).get(10, TimeUnit.SECONDS);
+            Preconditions.checkState(executor.partition(hot1) != executor.partition(hot2),
+                    "one hot slot must be moved, partitions: %s, %s", executor.partition(hot1), executor.partition(hot2));
+        } finally {
+            executor.close();
+        }
+    }
+
+    //------------------------------------------------------------------------------------------------------------------
+
+    /**
+     * 与{@link PartitionTaskExecutor}槽位算法一致
+     */
+    private static int slot(int key, int partitionNum) {
+        int partition = PARTITIONER.toPartition(key, partitionNum);
+        int slotBits = Integer.numberOfTrailingZeros(PartitionTaskExecutor.SLOTS_PER_PARTITION);
+        return (partition << slotBits) | ((Integer.hashCode(key) * 0x9E3779B9) >>> (Integer.SIZE - slotBits));
+    }
+
+    /**
+     * @return 与{@code key}同槽位的另一个key
+     */
+    private static int sameSlotKey(int key, int partitionNum) {
+        for (int other = key + partitionNum; ; other += partitionNum) {
+            if (slot(other, partitionNum) == slot(key, partitionNum)) {
+                return other;
+            }
+        }
+    }
+
+    /**
+     * @return 与{@code key}同分区不同槽位的另一个key
+     */
+    private static int differentSlotKey(int key, int partitionNum) {
+        for (int other = key + partitionNum; ; other += partitionNum) {
+            if (slot(other, partitionNum) != slot(key, partitionNum)) {
+                return other;
+            }
+        }
+    }
+
+    /**
+     * 阻塞key当前所在分区的线程, 直到打开闸门
+     *
+     * @return 被阻塞的线程
+     */
+    private static Thread block(PartitionTaskExecutor<Integer> executor, int key, CountDownLatch gate) throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        executor.execute(key, () -> {
+            thread.set(Thread.currentThread());
+            blocked.countDown();
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Preconditions.checkState(blocked.await(5, TimeUnit.SECONDS), "partition of key %s must be blocked", key);
+        return thread.get();
+    }
+
+    /**
+     * 独占线程名包含dedicated, 见{@link PartitionTaskExecutor}
+     */
+    private static boolean isDedicated(Thread thread) {
+        return thread.getName().contains("dedicated");
+    }
+
+    /**
+     * 等待线程阻塞
+     */
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        for (int i = 0; i < 500 && thread.getState() != Thread.State.WAITING && thread.getState() != Thread.State.TIMED_WAITING; i++) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        Preconditions.checkState(thread.isAlive(), "%s must be blocked", thread.getName());
+        //再等一会, 确认不是短暂的等待
+        TimeUnit.MILLISECONDS.sleep(50);
+        Preconditions.checkState(thread.isAlive(), "%s must be blocked", thread.getName());
+    }
+
+    private static void submit(PartitionTaskExecutor<Integer> executor, Recorder recorder, int key, int from, int to) {
+        for (int seq = from; seq < to; seq++) {
+            int finalSeq = seq;
+            executor.execute(key, () -> recorder.record(finalSeq));
+        }
+    }
+
+    private static void spin(long nanos) {
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < nanos) {
+            //busy
+        }
+    }
+
+    /**
+     * 记录task执行顺序及其线程
+     */
+    private static class Recorder {
+        private final List<Integer> seqs = new ArrayList<>();
+        private final List<Thread> threads = new ArrayList<>();
+
+        synchronized void record(int seq) {
+            seqs.add(seq);
+            threads.add(Thread.currentThread());
+        }
+
+        synchronized boolean isDedicated(int seq) {
+            return RepartitionTest.isDedicated(threads.get(seq));
+        }
+
+        void await(int num) throws InterruptedException {
+            for (int i = 0; i < 500; i++) {
+                synchronized (this) {
+                    if (seqs.size() >= num) {
+                        return;
+                    }
+                }
+                TimeUnit.MILLISECONDS.sleep(10);
+            }
+        }
+
+        /**
+         * 按顺序执行了0到num-1
+         */
+        synchronized void check(int key, int num) {
+            Preconditions.checkState(seqs.size() == num, "key %s executed %s tasks", key, seqs.size());
+            for (int i = 0; i < num; i++) {
+                Preconditions.checkState(seqs.get(i) == i, "key %s expect %s, but %s", key, i, seqs.get(i));
+            }
+        }
+    }
+}